@@ -0,0 +1,164 @@
+/*
+ * Copyright 2011-2015 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.ivan.fgwallet.schildbach.wallet.data;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Random;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.net.Uri;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.test.RenamingDelegatingContext;
+import android.util.Log;
+
+/**
+ * Compares lookup and search latency on a 50k entry address book: through the provider (unique index, FTS4) and with
+ * the queries the provider used before (full table scan, leading-wildcard LIKE).
+ */
+@RunWith(AndroidJUnit4.class)
+public class AddressBookProviderBenchmark {
+    private static final String DB_PREFIX = "benchmark.";
+    private static final String DB_NAME = DB_PREFIX + "address_book";
+    private static final int ENTRIES = 50000;
+    private static final int RUNS = 200;
+    private static final String[] WORDS = { "coffee", "rent", "alice", "bob", "exchange", "shop", "salary", "loan",
+            "cashier", "market", "taxi", "friend" };
+
+    private Context targetContext;
+    private AddressBookProvider provider;
+    private Uri contentUri;
+    private SQLiteDatabase db;
+    private final Random random = new Random(42);
+
+    @Before
+    public void setUp() {
+        targetContext = InstrumentationRegistry.getTargetContext();
+        targetContext.deleteDatabase(DB_NAME);
+        final Context context = new RenamingDelegatingContext(targetContext, DB_PREFIX);
+        provider = new AddressBookProvider();
+        provider.attachInfo(context, null);
+        contentUri = AddressBookProvider.contentUri(context.getPackageName());
+
+        final ContentValues[] entries = new ContentValues[ENTRIES];
+        for (int i = 0; i < ENTRIES; i++) {
+            entries[i] = new ContentValues();
+            entries[i].put(AddressBookProvider.KEY_ADDRESS, address(i));
+            entries[i].put(AddressBookProvider.KEY_LABEL,
+                    WORDS[random.nextInt(WORDS.length)] + ' ' + WORDS[random.nextInt(WORDS.length)] + ' ' + i);
+        }
+        final long start = System.nanoTime();
+        assertEquals(ENTRIES, provider.bulkInsert(contentUri, entries));
+        Log.i("AddressBookBenchmark", "bulk insert of " + ENTRIES + " entries took "
+                + (System.nanoTime() - start) / 1000000 + " ms");
+
+        db = SQLiteDatabase.openDatabase(targetContext.getDatabasePath(DB_NAME).getPath(), null,
+                SQLiteDatabase.OPEN_READONLY);
+    }
+
+    @After
+    public void tearDown() {
+        db.close();
+        provider.shutdown();
+        targetContext.deleteDatabase(DB_NAME);
+    }
+
+    @Test
+    public void lookupByAddress() {
+        final long[] indexed = new long[RUNS];
+        final long[] scan = new long[RUNS];
+        for (int run = 0; run < RUNS; run++) {
+            final String address = address(random.nextInt(ENTRIES));
+
+            long start = System.nanoTime();
+            final Cursor cursor = provider.query(contentUri.buildUpon().appendPath(address).build(), null, null,
+                    null, null);
+            assertEquals(1, count(cursor));
+            indexed[run] = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            assertEquals(1, count(db.rawQuery("SELECT * FROM address_book NOT INDEXED WHERE address=?",
+                    new String[] { address })));
+            scan[run] = System.nanoTime() - start;
+        }
+        assertTrue(report("lookup", indexed, scan));
+    }
+
+    @Test
+    public void search() {
+        final long[] fts = new long[RUNS];
+        final long[] like = new long[RUNS];
+        for (int run = 0; run < RUNS; run++) {
+            final String word = WORDS[random.nextInt(WORDS.length)].substring(0, 3);
+
+            long start = System.nanoTime();
+            final int ftsCount = count(provider.query(contentUri, null, AddressBookProvider.SELECTION_QUERY,
+                    new String[] { word }, null));
+            fts[run] = System.nanoTime() - start;
+
+            final String pattern = '%' + word + '%';
+            start = System.nanoTime();
+            final int likeCount = count(db.rawQuery("SELECT * FROM address_book WHERE address LIKE ? OR label LIKE ?",
+                    new String[] { pattern, pattern }));
+            like[run] = System.nanoTime() - start;
+
+            // LIKE also matches inside words, FTS only at word starts
+            assertTrue(ftsCount > 0 && ftsCount <= likeCount);
+        }
+        report("search", fts, like);
+    }
+
+    private static String address(final int i) {
+        return String.format(Locale.US, "1Fg%031d", i);
+    }
+
+    private static int count(final Cursor cursor) {
+        try {
+            return cursor.getCount();
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * @return true if the median after is faster than the median before
+     */
+    private static boolean report(final String what, final long[] after, final long[] before) {
+        Arrays.sort(after);
+        Arrays.sort(before);
+        final long afterMedian = after[after.length / 2];
+        final long beforeMedian = before[before.length / 2];
+        Log.i("AddressBookBenchmark", String.format(Locale.US,
+                "%s median: %d µs before, %d µs after (95th percentile %d µs before, %d µs after)", what,
+                beforeMedian / 1000, afterMedian / 1000, before[before.length * 95 / 100] / 1000,
+                after[after.length * 95 / 100] / 1000));
+        return afterMedian < beforeMedian;
+    }
+}
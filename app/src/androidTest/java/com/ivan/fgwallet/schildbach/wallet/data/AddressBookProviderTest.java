@@ -0,0 +1,112 @@
+/*
+ * Copyright 2011-2015 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.ivan.fgwallet.schildbach.wallet.data;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.net.Uri;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.test.RenamingDelegatingContext;
+
+/**
+ * Runs against a private copy of the address book database.
+ */
+@RunWith(AndroidJUnit4.class)
+public class AddressBookProviderTest {
+    private static final String DB_PREFIX = "test.";
+
+    private Context context;
+    private AddressBookProvider provider;
+    private Uri contentUri;
+
+    @Before
+    public void setUp() {
+        final Context targetContext = InstrumentationRegistry.getTargetContext();
+        targetContext.deleteDatabase(DB_PREFIX + "address_book");
+        context = new RenamingDelegatingContext(targetContext, DB_PREFIX);
+        provider = new AddressBookProvider();
+        provider.attachInfo(context, null);
+        contentUri = AddressBookProvider.contentUri(context.getPackageName());
+    }
+
+    @After
+    public void tearDown() {
+        provider.shutdown();
+        InstrumentationRegistry.getTargetContext().deleteDatabase(DB_PREFIX + "address_book");
+    }
+
+    @Test
+    public void bulkInsertReplacingLabelLeavesNoStaleSearchMatches() {
+        provider.bulkInsert(contentUri, new ContentValues[] { entry("1Address", "alpha") });
+        provider.bulkInsert(contentUri, new ContentValues[] { entry("1Address", "beta") });
+
+        assertEquals(0, search("alpha"));
+        assertEquals(1, search("beta"));
+        assertEquals(1, search("1Addr"));
+    }
+
+    @Test
+    public void insertingAnAddressTwiceUpdatesTheLabel() {
+        final Uri uri = contentUri.buildUpon().appendPath("1Address").build();
+        final Uri first = provider.insert(uri, label("alpha"));
+        final Uri second = provider.insert(uri, label("beta"));
+
+        assertEquals(first, second);
+        assertEquals(0, search("alpha"));
+        assertEquals(1, search("beta"));
+    }
+
+    @Test
+    public void deleteRemovesSearchMatches() {
+        provider.bulkInsert(contentUri, new ContentValues[] { entry("1Address", "alpha"), entry("1Other", "alpha") });
+        provider.delete(contentUri.buildUpon().appendPath("1Address").build(), null, null);
+
+        assertEquals(1, search("alpha"));
+    }
+
+    private int search(final String query) {
+        final Cursor cursor = provider.query(contentUri, null, AddressBookProvider.SELECTION_QUERY,
+                new String[] { query }, null);
+        try {
+            return cursor.getCount();
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private static ContentValues entry(final String address, final String label) {
+        final ContentValues values = label(label);
+        values.put(AddressBookProvider.KEY_ADDRESS, address);
+        return values;
+    }
+
+    private static ContentValues label(final String label) {
+        final ContentValues values = new ContentValues();
+        values.put(AddressBookProvider.KEY_LABEL, label);
+        return values;
+    }
+}
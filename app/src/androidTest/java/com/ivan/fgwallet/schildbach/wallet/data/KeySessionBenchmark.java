@@ -0,0 +1,106 @@
+/*
+ * Copyright 2011-2015 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.ivan.fgwallet.schildbach.wallet.data;
+
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Locale;
+
+import org.bitcoinj.crypto.KeyCrypterScrypt;
+import org.bitcoinj.wallet.Wallet;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.spongycastle.crypto.params.KeyParameter;
+
+import com.ivan.fgwallet.schildbach.wallet.Configuration;
+import com.ivan.fgwallet.schildbach.wallet.Constants;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+/**
+ * Compares getting the spending key per payment: deriving it with scrypt at the production iteration count, and
+ * taking it from an unlocked {@link KeySession}.
+ */
+@RunWith(AndroidJUnit4.class)
+public class KeySessionBenchmark {
+    private static final String PREFS_NAME = "benchmark.key_session";
+    private static final String PIN = "1234";
+    private static final int SCRYPT_RUNS = 5;
+    private static final int SESSION_RUNS = 200;
+
+    private Context context;
+    private Wallet wallet;
+    private KeyCrypterScrypt keyCrypter;
+    private KeySession keySession;
+
+    @Before
+    public void setUp() {
+        context = InstrumentationRegistry.getTargetContext();
+        final SharedPreferences prefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        prefs.edit().putString(Configuration.PREFS_KEY_SPENDING_SESSION, "300").commit();
+        keySession = new KeySession(context, new Configuration(prefs, context.getResources()));
+
+        org.bitcoinj.core.Context.propagate(Constants.CONTEXT);
+        wallet = new Wallet(Constants.NETWORK_PARAMETERS);
+        keyCrypter = new KeyCrypterScrypt(Constants.SCRYPT_ITERATIONS_TARGET);
+        wallet.encrypt(keyCrypter, keyCrypter.deriveKey(PIN));
+    }
+
+    @After
+    public void tearDown() {
+        keySession.wipe("benchmark done");
+        context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE).edit().clear().commit();
+    }
+
+    @Test
+    public void keyPerPayment() {
+        final long[] scrypt = new long[SCRYPT_RUNS];
+        KeyParameter key = null;
+        for (int run = 0; run < SCRYPT_RUNS; run++) {
+            final long start = System.nanoTime();
+            key = keyCrypter.deriveKey(PIN);
+            assertTrue(wallet.checkAESKey(key));
+            scrypt[run] = System.nanoTime() - start;
+        }
+
+        keySession.put(wallet, key);
+        final long[] session = new long[SESSION_RUNS];
+        for (int run = 0; run < SESSION_RUNS; run++) {
+            final long start = System.nanoTime();
+            assertNotNull(keySession.get(wallet));
+            session[run] = System.nanoTime() - start;
+        }
+
+        Arrays.sort(scrypt);
+        Arrays.sort(session);
+        final long scryptMedian = scrypt[scrypt.length / 2];
+        final long sessionMedian = session[session.length / 2];
+        Log.i("KeySessionBenchmark", String.format(Locale.US,
+                "key per payment, median: %d ms with scrypt (N=%d), %d µs from the unlocked session",
+                scryptMedian / 1000000, Constants.SCRYPT_ITERATIONS_TARGET, sessionMedian / 1000));
+        assertTrue(sessionMedian < scryptMedian);
+    }
+}
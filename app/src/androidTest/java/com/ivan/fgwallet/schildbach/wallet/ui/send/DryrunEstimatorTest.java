@@ -0,0 +1,200 @@
+/*
+ * Copyright 2011-2015 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.ivan.fgwallet.schildbach.wallet.ui.send;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.bitcoinj.core.Address;
+import org.bitcoinj.core.Coin;
+import org.bitcoinj.core.ECKey;
+import org.bitcoinj.core.Sha256Hash;
+import org.bitcoinj.core.Transaction;
+import org.bitcoinj.core.TransactionInput;
+import org.bitcoinj.core.TransactionOutPoint;
+import org.bitcoinj.wallet.SendRequest;
+import org.bitcoinj.wallet.Wallet;
+import org.bitcoinj.wallet.Wallet.BalanceType;
+import org.bitcoinj.wallet.WalletTransaction;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import com.ivan.fgwallet.schildbach.wallet.Constants;
+import com.ivan.fgwallet.schildbach.wallet.data.PaymentIntent;
+
+import android.app.Instrumentation;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+/**
+ * Types an amount into a {@link DryrunEstimator} the way the send screen does, and checks that the time spent on the
+ * main thread per keystroke doesn't grow with the number of unspent outputs.
+ */
+@RunWith(AndroidJUnit4.class)
+public class DryrunEstimatorTest {
+    private static final String TYPED = "0.0123456";
+    private static final Coin UTXO_VALUE = Coin.MILLICOIN;
+    private static final Coin FEE_PER_KB = Coin.valueOf(20000);
+    private static final long FRAME_NS = TimeUnit.MILLISECONDS.toNanos(16);
+
+    private Instrumentation instrumentation;
+    private final Address recipient = new ECKey().toAddress(Constants.NETWORK_PARAMETERS);
+
+    @Before
+    public void setUp() {
+        instrumentation = InstrumentationRegistry.getInstrumentation();
+        org.bitcoinj.core.Context.propagate(Constants.CONTEXT);
+    }
+
+    @Test
+    public void inputLatencyStaysFlat() throws Exception {
+        final long small = median(type(wallet(50)));
+        final long medium = median(type(wallet(500)));
+        final Wallet large = wallet(5000);
+        final long big = median(type(large));
+
+        // for comparison, what every keystroke used to cost on the main thread
+        final long start = System.nanoTime();
+        final Coin available = large.getBalance(BalanceType.AVAILABLE);
+        final SendRequest sendRequest = SendRequest.to(recipient, Coin.parseCoin(TYPED));
+        sendRequest.signInputs = false;
+        sendRequest.feePerKb = FEE_PER_KB;
+        large.completeTx(sendRequest);
+        final long synchronous = System.nanoTime() - start;
+        assertEquals(UTXO_VALUE.multiply(5000), available);
+
+        Log.i("DryrunEstimatorTest", String.format(Locale.US,
+                "median main thread time per keystroke: %d µs (50 UTXOs), %d µs (500), %d µs (5000); "
+                        + "synchronous dry run on 5000 UTXOs: %d ms",
+                small / 1000, medium / 1000, big / 1000, synchronous / 1000000));
+        assertTrue(big < FRAME_NS);
+        assertTrue(big < synchronous);
+    }
+
+    @Test
+    public void emptyWalletIsDecidedInBackground() throws Exception {
+        final Wallet wallet = wallet(50);
+        final DryrunEstimator.Result result = estimateOnce(wallet, wallet.getBalance(BalanceType.AVAILABLE));
+
+        // only an emptying send can spend the whole balance, paying the fee out of the amount
+        assertNotNull(result.transaction);
+        assertEquals(50, result.transaction.getInputs().size());
+        assertEquals(1, result.transaction.getOutputs().size());
+    }
+
+    /**
+     * @return main thread time per keystroke, in nanoseconds
+     */
+    private long[] type(final Wallet wallet) throws InterruptedException {
+        final PaymentIntent paymentIntent = PaymentIntent.fromAddress(recipient, null);
+        final CountDownLatch settled = new CountDownLatch(1);
+        final DryrunEstimator estimator = estimator(wallet, settled, new AtomicReference<DryrunEstimator.Result>());
+
+        final long[] latencies = new long[TYPED.length()];
+        for (int i = 1; i <= TYPED.length(); i++) {
+            final Coin amount = Coin.parseCoin(TYPED.substring(0, i).replaceAll("\\.$", ""));
+            final int keystroke = i - 1;
+            instrumentation.runOnMainSync(new Runnable() {
+                @Override
+                public void run() {
+                    final long start = System.nanoTime();
+                    estimator.estimate(paymentIntent, amount, FEE_PER_KB, paymentIntent.mayEditAmount());
+                    latencies[keystroke] = System.nanoTime() - start;
+                }
+            });
+            Thread.sleep(40); // a fast typist
+        }
+
+        assertTrue(settled.await(30, TimeUnit.SECONDS));
+        release(estimator);
+        return latencies;
+    }
+
+    private DryrunEstimator.Result estimateOnce(final Wallet wallet, final Coin amount) throws InterruptedException {
+        final PaymentIntent paymentIntent = PaymentIntent.fromAddress(recipient, null);
+        final CountDownLatch settled = new CountDownLatch(1);
+        final AtomicReference<DryrunEstimator.Result> result = new AtomicReference<DryrunEstimator.Result>();
+        final DryrunEstimator estimator = estimator(wallet, settled, result);
+        instrumentation.runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                estimator.estimate(paymentIntent, amount, FEE_PER_KB, true);
+            }
+        });
+        assertTrue(settled.await(30, TimeUnit.SECONDS));
+        release(estimator);
+        return result.get();
+    }
+
+    private DryrunEstimator estimator(final Wallet wallet, final CountDownLatch settled,
+            final AtomicReference<DryrunEstimator.Result> result) {
+        final AtomicReference<DryrunEstimator> estimator = new AtomicReference<DryrunEstimator>();
+        instrumentation.runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                // results are debounced, so only the last keystroke gets one
+                estimator.set(new DryrunEstimator(wallet) {
+                    @Override
+                    protected void onResult(final Result r) {
+                        result.set(r);
+                        settled.countDown();
+                    }
+                });
+            }
+        });
+        return estimator.get();
+    }
+
+    private void release(final DryrunEstimator estimator) {
+        instrumentation.runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                estimator.release();
+            }
+        });
+    }
+
+    private static Wallet wallet(final int utxos) {
+        final Wallet wallet = new Wallet(Constants.NETWORK_PARAMETERS);
+        final Address address = wallet.currentReceiveAddress();
+        final Transaction tx = new Transaction(Constants.NETWORK_PARAMETERS);
+        tx.addInput(new TransactionInput(Constants.NETWORK_PARAMETERS, tx, new byte[0], new TransactionOutPoint(
+                Constants.NETWORK_PARAMETERS, 0, Sha256Hash.of(Integer.toString(utxos).getBytes()))));
+        for (int i = 0; i < utxos; i++)
+            tx.addOutput(UTXO_VALUE, address);
+        tx.getConfidence().setAppearedAtChainHeight(1);
+        tx.getConfidence().setDepthInBlocks(10);
+        wallet.addWalletTransaction(new WalletTransaction(WalletTransaction.Pool.UNSPENT, tx));
+        return wallet;
+    }
+
+    private static long median(final long[] values) {
+        final long[] sorted = values.clone();
+        Arrays.sort(sorted);
+        return sorted[sorted.length / 2];
+    }
+}
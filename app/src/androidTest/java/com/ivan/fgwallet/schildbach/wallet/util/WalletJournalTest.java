@@ -0,0 +1,213 @@
+/*
+ * Copyright 2011-2015 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.ivan.fgwallet.schildbach.wallet.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import org.bitcoinj.core.Address;
+import org.bitcoinj.core.Coin;
+import org.bitcoinj.core.Sha256Hash;
+import org.bitcoinj.core.Transaction;
+import org.bitcoinj.core.TransactionInput;
+import org.bitcoinj.core.TransactionOutPoint;
+import org.bitcoinj.wallet.Wallet;
+import org.bitcoinj.wallet.WalletTransaction;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import com.google.common.io.Files;
+import com.ivan.fgwallet.schildbach.wallet.Constants;
+
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+/**
+ * Simulates crashes at the interesting points of journaling and checks what a subsequent load recovers.
+ */
+@RunWith(AndroidJUnit4.class)
+public class WalletJournalTest {
+    // long enough that only explicit saves write anything
+    private static final long FLUSH_DELAY_MS = 3600 * 1000;
+
+    private File dir;
+    private File walletFile;
+    private File journalFile;
+
+    @Before
+    public void setUp() {
+        org.bitcoinj.core.Context.propagate(Constants.CONTEXT);
+        dir = new File(InstrumentationRegistry.getTargetContext().getCacheDir(), "wallet-journal-test");
+        deleteDir();
+        assertTrue(dir.mkdirs());
+        walletFile = new File(dir, "wallet");
+        journalFile = new File(dir, "wallet.journal");
+    }
+
+    @After
+    public void tearDown() {
+        deleteDir();
+    }
+
+    @Test
+    public void tornTailIsCutOff() throws Exception {
+        final Wallet wallet = newWallet();
+        final WalletJournal journal = new WalletJournal(wallet, walletFile, journalFile, FLUSH_DELAY_MS);
+        final Transaction tx1 = receive(wallet, 1);
+        final long length1 = save(journal);
+        final Transaction tx2 = receive(wallet, 2);
+        save(journal);
+        journal.shutdownAndWait();
+
+        // crash in the middle of appending the second record
+        truncate(journalFile, journalFile.length() - 3);
+
+        final Wallet loaded = WalletJournal.loadWallet(walletFile, journalFile);
+        assertNotNull(loaded.getTransaction(tx1.getHash()));
+        assertNull(loaded.getTransaction(tx2.getHash()));
+        assertEquals(length1, journalFile.length());
+    }
+
+    @Test
+    public void badChecksumDropsTheRestAndAppendingContinues() throws Exception {
+        final Wallet wallet = newWallet();
+        final WalletJournal journal = new WalletJournal(wallet, walletFile, journalFile, FLUSH_DELAY_MS);
+        final Transaction tx1 = receive(wallet, 1);
+        final long length1 = save(journal);
+        final Transaction tx2 = receive(wallet, 2);
+        save(journal);
+        final Transaction tx3 = receive(wallet, 3);
+        save(journal);
+        journal.shutdownAndWait();
+
+        // flip a byte in the payload of the middle record
+        final RandomAccessFile file = new RandomAccessFile(journalFile, "rw");
+        try {
+            final long position = length1 + 4 + 8 + 1 + 10;
+            file.seek(position);
+            final int b = file.read();
+            file.seek(position);
+            file.write(b ^ 0xff);
+        } finally {
+            file.close();
+        }
+
+        final Wallet loaded = WalletJournal.loadWallet(walletFile, journalFile);
+        assertNotNull(loaded.getTransaction(tx1.getHash()));
+        assertNull(loaded.getTransaction(tx2.getHash()));
+        assertNull(loaded.getTransaction(tx3.getHash()));
+        assertEquals(length1, journalFile.length());
+
+        // records appended behind the cut are replayed again
+        final WalletJournal journal2 = new WalletJournal(loaded, walletFile, journalFile, FLUSH_DELAY_MS);
+        final Transaction tx4 = receive(loaded, 4);
+        save(journal2);
+        journal2.shutdownAndWait();
+
+        final Wallet reloaded = WalletJournal.loadWallet(walletFile, journalFile);
+        assertNotNull(reloaded.getTransaction(tx1.getHash()));
+        assertNull(reloaded.getTransaction(tx2.getHash()));
+        assertNotNull(reloaded.getTransaction(tx4.getHash()));
+    }
+
+    @Test
+    public void recordsOfAnOlderGenerationAreIgnored() throws Exception {
+        final Wallet wallet = newWallet();
+        final WalletJournal journal = new WalletJournal(wallet, walletFile, journalFile, FLUSH_DELAY_MS);
+        final Transaction tx1 = receive(wallet, 1);
+        save(journal);
+        final byte[] staleRecords = Files.toByteArray(journalFile);
+
+        wallet.clearTransactions(0);
+        journal.compactNow();
+        final Transaction tx2 = receive(wallet, 2);
+        save(journal);
+        journal.shutdownAndWait();
+
+        // crash after the new snapshot was renamed into place, but before the journal was truncated and appended to
+        final byte[] freshRecords = Files.toByteArray(journalFile);
+        final FileOutputStream os = new FileOutputStream(journalFile);
+        try {
+            os.write(staleRecords);
+            os.write(freshRecords);
+        } finally {
+            os.close();
+        }
+
+        final Wallet loaded = WalletJournal.loadWallet(walletFile, journalFile);
+        assertNull(loaded.getTransaction(tx1.getHash()));
+        assertNotNull(loaded.getTransaction(tx2.getHash()));
+        assertEquals(1, loaded.getTransactions(true).size());
+    }
+
+    private static Wallet newWallet() {
+        final Wallet wallet = new Wallet(Constants.NETWORK_PARAMETERS);
+        // issue the key up front, so receiving doesn't change the keychain and force a compaction
+        wallet.currentReceiveAddress();
+        return wallet;
+    }
+
+    private static Transaction receive(final Wallet wallet, final int seed) {
+        final Address address = wallet.currentReceiveAddress();
+        final Transaction tx = new Transaction(Constants.NETWORK_PARAMETERS);
+        tx.addInput(new TransactionInput(Constants.NETWORK_PARAMETERS, tx, new byte[0], new TransactionOutPoint(
+                Constants.NETWORK_PARAMETERS, 0, Sha256Hash.of(Integer.toString(seed).getBytes()))));
+        tx.addOutput(Coin.MILLICOIN, address);
+        tx.getConfidence().setAppearedAtChainHeight(1);
+        tx.getConfidence().setDepthInBlocks(1);
+        wallet.addWalletTransaction(new WalletTransaction(WalletTransaction.Pool.UNSPENT, tx));
+        return tx;
+    }
+
+    /**
+     * @return journal length after the save, which must have appended records
+     */
+    private long save(final WalletJournal journal) throws IOException {
+        final long before = journalFile.length();
+        journal.saveNow();
+        final long after = journalFile.length();
+        assertTrue(after > before);
+        return after;
+    }
+
+    private static void truncate(final File file, final long length) throws IOException {
+        final RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            raf.setLength(length);
+        } finally {
+            raf.close();
+        }
+    }
+
+    private void deleteDir() {
+        final File[] files = dir.listFiles();
+        if (files != null)
+            for (final File file : files)
+                file.delete();
+        dir.delete();
+    }
+}
@@ -0,0 +1,67 @@
+package com.ivan.fgwallet.utils;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+import android.view.View;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Frame-time benchmark: scrolls a {@link TrendView} over a 100k-point series and draws every frame into a bitmap.
+ */
+@RunWith(AndroidJUnit4.class)
+public class TrendViewBenchmark {
+
+    private static final int POINTS = 100000;
+    private static final int DISPLAYED = 50000;
+    private static final int FRAMES = 200;
+    private static final int WARMUP_FRAMES = 20;
+    private static final long FRAME_BUDGET_NS = 16000000;
+
+    @Test
+    public void scrollingStaysWithinFrameBudget() throws Exception {
+        final float[] values = new float[POINTS];
+        final long[] dates = new long[POINTS];
+        final Random random = new Random(42);
+        float value = 1000000;
+        for (int i = 0; i < POINTS; i++) {
+            value += random.nextGaussian() * 1000;
+            values[i] = value;
+            dates[i] = i * 60000L;
+        }
+
+        final int width = 1080, height = 900;
+        final TrendView view = new TrendView(InstrumentationRegistry.getTargetContext());
+        view.measure(View.MeasureSpec.makeMeasureSpec(width, View.MeasureSpec.EXACTLY),
+                View.MeasureSpec.makeMeasureSpec(height, View.MeasureSpec.EXACTLY));
+        view.layout(0, 0, width, height);
+        view.withLine(new Line(values, dates)).withPrevClose(values[0]).withDisplayNumber(DISPLAYED);
+
+        final Canvas canvas = new Canvas(Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888));
+        final long[] frameNs = new long[FRAMES];
+        final int step = (POINTS - DISPLAYED) / (FRAMES + WARMUP_FRAMES);
+        for (int frame = 0; frame < FRAMES + WARMUP_FRAMES; frame++) {
+            final long start = System.nanoTime();
+            view.withDisplayFrom(frame * step);
+            view.draw(canvas);
+            if (frame >= WARMUP_FRAMES)
+                frameNs[frame - WARMUP_FRAMES] = System.nanoTime() - start;
+        }
+
+        Arrays.sort(frameNs);
+        final long median = frameNs[FRAMES / 2];
+        final long p95 = frameNs[FRAMES * 95 / 100];
+        Log.i("TrendViewBenchmark", "frame time median " + median / 1000 + " µs, 95th percentile " + p95 / 1000
+                + " µs, max " + frameNs[FRAMES - 1] / 1000 + " µs");
+        assertTrue("95th percentile frame time " + p95 / 1000 + " µs", p95 < FRAME_BUDGET_NS);
+    }
+}
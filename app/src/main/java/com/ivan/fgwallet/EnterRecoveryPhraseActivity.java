@@ -167,8 +167,7 @@ public class EnterRecoveryPhraseActivity extends AppCompatActivity {
 
                      application = (WalletApplication) getApplication();
 
-                    application.wallet=wallet;
-                    application.saveWallet();
+                    application.replaceWallet(wallet);
                     application.backupWallet();
 
 
@@ -12,25 +12,28 @@ import android.view.ViewGroup;
 import android.widget.TextView;
 
 import com.ivan.fgwallet.R;
-import com.ivan.fgwallet.interfaces.NetworkCallBack;
+import com.ivan.fgwallet.WalletApplication;
 import com.ivan.fgwallet.listener.ChangeTitleListener;
-import com.ivan.fgwallet.model.MapChart;
-import com.ivan.fgwallet.networking.Networking;
+import com.ivan.fgwallet.networking.Endpoints;
+import com.ivan.fgwallet.networking.HttpGateway;
 import com.ivan.fgwallet.utils.Constant;
+import com.ivan.fgwallet.utils.PriceHistory;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
-import org.json.JSONArray;
-import org.json.JSONException;
-import org.json.JSONObject;
 
+import java.io.File;
+import java.io.IOException;
 import java.text.DecimalFormat;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Calendar;
-import java.util.Collections;
 import java.util.Date;
 import java.util.List;
+import java.util.Locale;
+import java.util.TimeZone;
 
 import lecho.lib.hellocharts.formatter.SimpleAxisValueFormatter;
 import lecho.lib.hellocharts.model.Axis;
@@ -45,10 +48,23 @@ import lecho.lib.hellocharts.view.LineChartView;
 
 public class MapChartFragment extends Fragment implements SwipeRefreshLayout.OnRefreshListener{
 
+    private static final Logger log = LoggerFactory.getLogger(MapChartFragment.class);
+
+    private static final String HISTORY_FILENAME = "price-history-zaifjpy";
+    private static final int CHART_DAYS = 30;
+    private static final int INITIAL_FETCH_DAYS = 365;
+    private static final int MAX_CHART_POINTS = 120;
+
     ArrayList<Chart> charts = new ArrayList<>();
-    ArrayList<MapChart> mapCharts = new ArrayList<>();
     ArrayList<Chart> subcharts = new ArrayList<>();
 
+    // daily prices, fetched incrementally and kept across launches
+    private PriceHistory priceHistory;
+    private double spotPrice = -1;
+    // one extra slot for the spot price
+    private final long[] chartTimes = new long[MAX_CHART_POINTS + 1];
+    private final double[] chartValues = new double[MAX_CHART_POINTS + 1];
+
     @Override
     public void onRefresh() {
         getChart();
@@ -138,6 +154,11 @@ public class MapChartFragment extends Fragment implements SwipeRefreshLayout.OnR
         SimpleDateFormat df = new SimpleDateFormat("dd/MM/yyyy");
         String formattedDate = df.format(c.getTime());
 
+        // show what we have right away, even offline
+        priceHistory = new PriceHistory(new File(getActivity().getFilesDir(), HISTORY_FILENAME));
+        priceHistory.load();
+        generateTempoData();
+
         getChart();
 //        generateTempoData();
         return rootView;
@@ -146,14 +167,15 @@ public class MapChartFragment extends Fragment implements SwipeRefreshLayout.OnR
 
     public void getChart() {
         swipeRefreshLayout.setRefreshing(true);
-        mapCharts = new ArrayList<>();
 //        new Networking(getActivity(),networkCallBack).doexecuteGETWITHOUTHEADER("http://api.bitcoincharts.com/v1/markets.json");
-        new Networking(getActivity(), networkCallBack).doexecuteGETWITHOUTHEADER("https://api.coindesk.com/v1/bpi/currentprice/JPY.json");
+        WalletApplication.getInstance().getHttpGateway().get(Endpoints.COINDESK_JPY, spotPriceCallback);
     }
 
-    NetworkCallBack networkCallBack = new NetworkCallBack() {
+    HttpGateway.Callback<Double> spotPriceCallback = new HttpGateway.Callback<Double>() {
         @Override
-        public void callBack(String response) {
+        public void onResult(Double rate) {
+            if (!isAdded())
+                return;
             SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd");
             Date dateTime = new Date();
             try {
@@ -163,21 +185,13 @@ public class MapChartFragment extends Fragment implements SwipeRefreshLayout.OnR
             }
             String strDate = dateFormat.format(dateTime).toString();
 
-            try {
-                JSONObject jsonResponse = new JSONObject(response);
-                JSONObject jsonObject = jsonResponse.getJSONObject("bpi");
-                JSONObject jsoJPY = jsonObject.getJSONObject("JPY");
-                Constant.CURRENCY_JPY = Double.valueOf(jsoJPY.getString("rate_float"));
-                DecimalFormat df = new DecimalFormat("#.000000");
-                greenh.setText("￥ "+Constant.CURRENCY_JPY);
-                red.setText("￥ "+Constant.CURRENCY_JPY);
-                highy.setText("￥ "+Constant.CURRENCY_JPY);
-                date.setText(strDate);
-
-                MapChart mapChart = new MapChart();
-                mapChart.setX(strDate);
-                mapChart.setY(Constant.CURRENCY_JPY.toString());
-                mapCharts.add(mapChart);
+            Constant.CURRENCY_JPY = rate;
+            spotPrice = Constant.CURRENCY_JPY;
+            DecimalFormat df = new DecimalFormat("#.000000");
+            greenh.setText("￥ "+Constant.CURRENCY_JPY);
+            red.setText("￥ "+Constant.CURRENCY_JPY);
+            highy.setText("￥ "+Constant.CURRENCY_JPY);
+            date.setText(strDate);
 //                JSONArray jsonArray = new JSONArray(response);
 //                for (int i = 0; i <jsonArray.length() ; i++) {
 //                    JSONObject  c = jsonArray.getJSONObject(i);
@@ -202,64 +216,94 @@ public class MapChartFragment extends Fragment implements SwipeRefreshLayout.OnR
 //                    }
 //
 //                }
-            } catch (JSONException e) {
-                e.printStackTrace();
-            }
+            getMapChart();
+        }
+
+        @Override
+        public void onError(Exception x) {
+            if (!isAdded())
+                return;
+            log.info("problem fetching spot price", x);
             getMapChart();
         }
     };
 
     public void getMapChart() {
-        SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd");
-        Date date = new Date();
-        Date dateNow = new Date();
-        date.setDate(dateNow.getDate() - 30);
-        try {
-            date = dateFormat.parse(date.toString());
-        } catch (ParseException e) {
-            e.printStackTrace();
+        final long today = startOfDay(System.currentTimeMillis());
+        final long lastTime = priceHistory.getLastTime();
+        if (lastTime >= today - PriceHistory.DAY_MS) {
+            // only today's value can be missing, and the spot price stands in for it
+            generateTempoData();
+            swipeRefreshLayout.setRefreshing(false);
+            return;
         }
-        String strDate = dateFormat.format(date).toString();
-        new Networking(getActivity(), networkCallBackMapChart).doexecuteGETWITHOUTHEADER("https://www.quandl.com/api/v3/datasets/BCHARTS/ZAIFJPY.json?api_key=SHty8AwZ5qSiJPBC4E8j&start_date=" + strDate);
+
+        // fetch only the days we don't have yet
+        final long from = lastTime >= 0 ? lastTime + PriceHistory.DAY_MS
+                : today - INITIAL_FETCH_DAYS * PriceHistory.DAY_MS;
+        String strDate = dayFormat().format(new Date(from));
+        WalletApplication.getInstance().getHttpGateway().get(Endpoints.quandlDaily("ZAIFJPY", strDate),
+                historyCallback);
     }
 
-    NetworkCallBack networkCallBackMapChart = new NetworkCallBack() {
+    HttpGateway.Callback<Endpoints.DailyPrices> historyCallback = new HttpGateway.Callback<Endpoints.DailyPrices>() {
         @Override
-        public void callBack(String response) {
-            //                JSONObject ojb = response.getJSONObject("data");
-            JSONObject object = null, objectData = null;
-            JSONArray jsonArr = null, jsonArr1 = null;
+        public void onResult(Endpoints.DailyPrices prices) {
+            if (!isAdded())
+                return;
+            for (int i = 0; i < prices.size; i++)
+                priceHistory.put(prices.times[i], prices.values[i]);
             try {
-                object = new JSONObject(response);
-                objectData = object.getJSONObject("dataset");
-                jsonArr = objectData.getJSONArray("data");
-                for (int i = 0; i < jsonArr.length(); i++) {
-                    jsonArr1 = jsonArr.getJSONArray(i);
-                    MapChart mapChart = new MapChart();
-                    mapChart.setX(jsonArr1.getString(0));
-                    mapChart.setY(jsonArr1.get(1).toString());
-                    mapCharts.add(mapChart);
-                }
-            } catch (JSONException e) {
-                e.printStackTrace();
+                priceHistory.saveIfDirty();
+            } catch (IOException e) {
+                log.warn("problem saving price history", e);
             }
             generateTempoData();
             swipeRefreshLayout.setRefreshing(false);
         }
+
+        @Override
+        public void onError(Exception x) {
+            if (!isAdded())
+                return;
+            log.info("problem fetching price history", x);
+            generateTempoData();
+            swipeRefreshLayout.setRefreshing(false);
+        }
     };
 
+    private static SimpleDateFormat dayFormat() {
+        SimpleDateFormat dayFormat = new SimpleDateFormat("yyyy-MM-dd", Locale.US);
+        dayFormat.setTimeZone(TimeZone.getTimeZone("UTC"));
+        return dayFormat;
+    }
+
+    private static long startOfDay(long time) {
+        return time - time % PriceHistory.DAY_MS;
+    }
+
     private void generateTempoData() {
-        Collections.reverse(mapCharts);
+        final long today = startOfDay(System.currentTimeMillis());
+        int numPoints = priceHistory.query(today - (CHART_DAYS - 1) * PriceHistory.DAY_MS,
+                today + PriceHistory.DAY_MS, MAX_CHART_POINTS, chartTimes, chartValues);
+        if (spotPrice > 0 && (numPoints == 0 || chartTimes[numPoints - 1] < today)) {
+            chartTimes[numPoints] = today;
+            chartValues[numPoints] = spotPrice;
+            numPoints++;
+        }
+        if (numPoints == 0)
+            return;
+
         // I got speed in range (0-50) and height in meters in range(200 - 300). I want this chart to display both
         // information. Differences between speed and height values are large and chart doesn't look good so I need
         // to modify height values to be in range of speed values.
 
         // The same for displaying Tempo/Height chart.
 
-        float temp = Float.valueOf(mapCharts.get(0).getY());
-        for (int i = 1; i < mapCharts.size(); i++)
-            if (temp < Float.valueOf(mapCharts.get(i).getY()))
-                temp = Float.valueOf(mapCharts.get(i).getY());
+        float temp = (float) chartValues[0];
+        for (int i = 1; i < numPoints; i++)
+            if (temp < chartValues[i])
+                temp = (float) chartValues[i];
 
         float minHeight = 0;
         float maxHeight = temp + temp/10;
@@ -283,9 +327,8 @@ public class MapChartFragment extends Fragment implements SwipeRefreshLayout.OnR
 //            values.add(new PointValue(i, normalizedHeight));
 //        }
 
-        for (int i = 0; i < mapCharts.size(); i++) {
-            MapChart chart = mapCharts.get(i);
-            float rawHeight = Float.valueOf(chart.getY());
+        for (int i = 0; i < numPoints; i++) {
+            float rawHeight = (float) chartValues[i];
             float normalizedHeight = rawHeight * scale - sub;
             values.add(new PointValue(i, normalizedHeight));
         }
@@ -308,10 +351,8 @@ public class MapChartFragment extends Fragment implements SwipeRefreshLayout.OnR
 //            float revertedTempo = tempoRange - realTempo;
 //            values.add(new PointValue(i, revertedTempo));
 //        }
-        for (int i = 0; i < mapCharts.size(); i++) {
-            // Some random raw tempo values.
-            MapChart chart = mapCharts.get(i);
-            float realTempo = Float.valueOf(chart.getY());
+        for (int i = 0; i < numPoints; i++) {
+            float realTempo = (float) chartValues[i];
             float revertedTempo = tempoRange - realTempo;
             values.add(new PointValue(i, revertedTempo));
         }
@@ -327,22 +368,15 @@ public class MapChartFragment extends Fragment implements SwipeRefreshLayout.OnR
 
         // Distance axis(bottom X) with formatter that will ad [km] to values, remember to modify max label charts
         // value.
-        List<String> strings = new ArrayList<String>();
-        for (int i = 0; i < 30; i++) {
-            Date dateNow = new Date();
-            Date dateChart = new Date();
-            dateChart.setDate(dateNow.getDate() - i);
-            strings.add(String.valueOf(dateChart.getDate()) + " " + theMonth(dateChart.getMonth()));
-        }
-        Collections.reverse(strings);
+        Calendar calendar = Calendar.getInstance(TimeZone.getTimeZone("UTC"));
 
         Axis distanceAxis = new Axis();
         distanceAxis.setTextColor(ChartUtils.COLOR_ORANGE);
         List<AxisValue> axisValues = new ArrayList<AxisValue>();
-        for (int i = 0; i < 30; i += 7) {
-            // I'am translating float to minutes because I don't have data in minutes, if You store some time data
-            // you may skip translation.
-            axisValues.add(new AxisValue(i).setLabel(strings.get(i)));
+        for (int i = 0; i < numPoints; i += Math.max(numPoints / 4, 1)) {
+            calendar.setTimeInMillis(chartTimes[i]);
+            axisValues.add(new AxisValue(i).setLabel(calendar.get(Calendar.DAY_OF_MONTH) + " "
+                    + theMonth(calendar.get(Calendar.MONTH))));
         }
         distanceAxis.setValues(axisValues);
         distanceAxis.setHasLines(true);
@@ -16,12 +16,6 @@ import android.widget.ImageView;
 import android.widget.Spinner;
 import android.widget.TextView;
 
-import com.android.volley.AuthFailureError;
-import com.android.volley.Request;
-import com.android.volley.Response;
-import com.android.volley.VolleyError;
-import com.android.volley.VolleyLog;
-import com.android.volley.toolbox.JsonObjectRequest;
 import com.ivan.fgwallet.R;
 import com.ivan.fgwallet.WalletApplication;
 import com.ivan.fgwallet.ReciveActivtiy;
@@ -29,42 +23,44 @@ import com.ivan.fgwallet.ScannerActivity;
 import com.ivan.fgwallet.SendBtcActivity;
 import com.ivan.fgwallet.helper.PrefManager;
 import com.ivan.fgwallet.interfaces.NetworkCallBack;
+import com.ivan.fgwallet.networking.Endpoints;
+import com.ivan.fgwallet.networking.HttpGateway;
 import com.ivan.fgwallet.listener.ChangeTitleListener;
 import com.ivan.fgwallet.schildbach.wallet.Constants;
 import com.ivan.fgwallet.schildbach.wallet.ui.RequestCoinsActivity;
 import com.ivan.fgwallet.schildbach.wallet.ui.SendCoinsQrActivity;
 import com.ivan.fgwallet.schildbach.wallet.ui.send.SendCoinsActivity;
+import com.ivan.fgwallet.schildbach.wallet.util.VersionedState;
+import com.ivan.fgwallet.service.BalanceService;
 import com.ivan.fgwallet.utils.Constant;
 import com.ivan.fgwallet.utils.MyClipboardManager;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
 import com.google.zxing.BarcodeFormat;
 import com.google.zxing.WriterException;
 import com.google.zxing.common.BitMatrix;
 import com.google.zxing.qrcode.QRCodeWriter;
-import com.kaopiz.kprogresshud.KProgressHUD;
 
 import org.bitcoinj.core.Address;
-import org.bitcoinj.core.Coin;
 import org.bitcoinj.core.ECKey;
 import org.bitcoinj.wallet.Wallet;
 import org.json.JSONException;
 import org.json.JSONObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
-import java.math.BigDecimal;
-import java.text.DecimalFormat;
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
 
 import static com.ivan.fgwallet.ReciveActivtiy.creatQrCode;
 
 
 public class WalletMenuFragment extends Fragment {
     public final String TAG = "VOLLEY";
+    private static final Logger log = LoggerFactory.getLogger(WalletMenuFragment.class);
     String tag_json_obj = "json_obj_req";
-    KProgressHUD progress_dialog;
-    Double curency;
-    BigDecimal totalBalance;
+    long totalBalance = -1;
+    long warnedBackendBalance = -1;
     String address;
     TextView tv_balance, tv_address, tv_jpy;
     ImageView qrimage;
@@ -201,10 +197,38 @@ public class WalletMenuFragment extends Fragment {
     @Override
     public void onResume() {
         super.onResume();
-       // getBalance();
+        WalletApplication.getInstance().getBalanceService().getBalance().subscribe(balanceListener);
         ChangeTitleListener.getIntance().setTitle("FG Wallet");
     }
 
+    @Override
+    public void onPause() {
+        WalletApplication.getInstance().getBalanceService().getBalance().unsubscribe(balanceListener);
+        super.onPause();
+    }
+
+    private final VersionedState.Listener<BalanceService.Balance> balanceListener = new VersionedState.Listener<BalanceService.Balance>() {
+        @Override
+        public void onStateChanged(VersionedState.Snapshot<BalanceService.Balance> snapshot) {
+            if (isAdded())
+                showBalance(snapshot.value);
+        }
+    };
+
+    private void showBalance(BalanceService.Balance balance) {
+        if (balance == null)
+            return;
+        totalBalance = balance.satoshis;
+        tv_balance.setText(BalanceService.formatBtc(totalBalance) + " BTC");
+        getCurencyRate();
+
+        if (balance.hasDiscrepancy() && balance.backendSatoshis != warnedBackendBalance && getView() != null) {
+            warnedBackendBalance = balance.backendSatoshis;
+            Snackbar.make(getView(), getString(R.string.balance_discrepancy,
+                    BalanceService.formatBtc(balance.backendSatoshis)), Snackbar.LENGTH_LONG).show();
+        }
+    }
+
     @Override
     public void onActivityResult(int requestCode, int resultCode, Intent data) {
         if (requestCode == 1) {
@@ -234,18 +258,32 @@ public class WalletMenuFragment extends Fragment {
 
         final WalletApplication application = (WalletApplication) getActivity().getApplication();
 
-        final Address new_address = application.getWallet().freshReceiveAddress();
-        // final Address new_address =   application.getWallet().getChangeAddress();
-        //  List<ECKey> lst = application.getWallet().getImportedKeys();
+        // on a cold start the wallet may still be loading, don't wait for it on the main thread
+        Futures.addCallback(application.getWalletFuture(), new FutureCallback<Wallet>() {
+            @Override
+            public void onSuccess(Wallet loaded) {
+                if (!isAdded())
+                    return;
 
-        String address = new_address.toString();
+                // the loaded wallet may have been replaced since
+                final Address new_address = application.getWallet().freshReceiveAddress();
+                // final Address new_address =   application.getWallet().getChangeAddress();
+                //  List<ECKey> lst = application.getWallet().getImportedKeys();
 
+                String address = new_address.toString();
 
-        PrefManager prefManager = new PrefManager(getActivity());
-        prefManager.setPref(PrefManager.KEY_ADDRESS, address);
-        tv_address.setText(address);
-        qrimage.setImageBitmap(creatQrCode("address", address));
 
+                PrefManager prefManager = new PrefManager(getActivity());
+                prefManager.setPref(PrefManager.KEY_ADDRESS, address);
+                tv_address.setText(address);
+                qrimage.setImageBitmap(creatQrCode("address", address));
+            }
+
+            @Override
+            public void onFailure(Throwable t) {
+                Log.e(TAG, "Wallet failed to load", t);
+            }
+        }, application.getMainExecutor());
     }
 /*
         String path = "http://128.199.129.208/api/wallet/last_address";
@@ -313,124 +351,29 @@ public class WalletMenuFragment extends Fragment {
 */
 
     public void getCurencyRate() {
-        String path = "https://api.coindesk.com/v1/bpi/currentprice/JPY.json";
-
-        JsonObjectRequest jsonObjReq = new JsonObjectRequest(Request.Method.GET,
-                path, new JSONObject(),
-                new Response.Listener<JSONObject>() {
-
-                    @Override
-                    public void onResponse(JSONObject response) {
-                        Log.d(TAG, response.toString());
-                        String message = "";
-                        try {
-                            JSONObject jsonObject = response.getJSONObject("bpi");
-                            JSONObject jsoJPY = jsonObject.getJSONObject("JPY");
-                            Constant.CURRENCY_JPY = Double.valueOf(jsoJPY.getString("rate_float"));
-                            DecimalFormat df = new DecimalFormat("0");
-
-                            if (jsoJPY.getString("rate_float") == null || jsoJPY.getString("rate_float").equals("")) {
-                                getCurencyRate();
-                                return;
-                            }
-                            curency = Double.valueOf(jsoJPY.getString("rate_float")) * Double.valueOf(String.valueOf(totalBalance));
-                            tv_jpy.setText("￥ " + df.format(curency));
-                        } catch (JSONException e) {
-                            e.printStackTrace();
-                        }
-                        progress_dialog.dismiss();
-                    }
-                }, new Response.ErrorListener() {
+        WalletApplication.getInstance().getHttpGateway().get(Endpoints.COINDESK_JPY, new HttpGateway.Callback<Double>() {
+            @Override
+            public void onResult(Double rate) {
+                if (!isAdded())
+                    return;
+                Constant.CURRENCY_JPY = rate;
+                if (totalBalance >= 0)
+                    tv_jpy.setText("￥ " + BalanceService.formatJpy(totalBalance, rate));
+            }
 
             @Override
-            public void onErrorResponse(VolleyError error) {
-                VolleyLog.d(TAG, "Error: " + error.getMessage());
-//                Toast.makeText(getActivity(), "Can't connect to server!", Toast.LENGTH_LONG).show();
+            public void onError(Exception x) {
+                if (!isAdded())
+                    return;
+                log.info("problem fetching exchange rate", x);
                 Snackbar.make(getView(), "Can't connect to server!", Snackbar.LENGTH_LONG)
                         .setAction("Action", null).show();
-                progress_dialog.dismiss();
-            }
-        }) {
-            /**
-             * Passing some request headers
-             * */
-            @Override
-            public Map<String, String> getHeaders() throws AuthFailureError {
-                HashMap<String, String> headers = new HashMap<String, String>();
-                headers.put("Content-Type", "application/json");
-                return headers;
             }
-
-        };
-
-        // Adding request to request queue
-        WalletApplication.getInstance().addToRequestQueue(jsonObjReq, tag_json_obj);
+        });
     }
 
-    public void getBalance()
-    {
-
-        String path = "http://128.199.129.208/api/wallet/balance";
-        String apiToken = "";
-        if (!new PrefManager(getActivity().getApplicationContext()).getpref(PrefManager.KEY_API_TOKEN).equals("")) {
-            apiToken = new PrefManager(getActivity()).getpref(PrefManager.KEY_API_TOKEN);
-        }
-        HashMap<String, String> params = new HashMap<String, String>();
-        params.put("api_token", apiToken);
-
-        JsonObjectRequest jsonObjReq = new JsonObjectRequest(Request.Method.POST,
-                path, new JSONObject(params),
-                new Response.Listener<JSONObject>() {
-
-                    @Override
-                    public void onResponse(JSONObject response) {
-                        Log.d(TAG, response.toString());
-                        String message = "";
-                        DecimalFormat df = new DecimalFormat("0.00000000");
-                        try {
-                            message = response.getString("status");
-                        } catch (JSONException e) {
-                            e.printStackTrace();
-                        }
-                        if (message.equals("SUCCESS")) {
-//                            Toast.makeText(getActivity().getApplicationContext(), "success", Toast.LENGTH_LONG).show();
-                            try {
-                                JSONObject ojb = response.getJSONObject("data");
-                                JSONObject address = ojb.getJSONObject("address");
-                                Double balance = Double.valueOf(address.getString("available_balance"));
-                                Double balancePending = Double.valueOf(address.getString("pending_received_balance"));
-                                totalBalance = BigDecimal.valueOf(balance + balancePending);
-
-                                PrefManager prefManager = new PrefManager(getActivity());
-                                prefManager.setPref(PrefManager.KEY_TOTAL_BALANCE, String.valueOf(totalBalance));
-                                tv_balance.setText(df.format(totalBalance) + " BTC");
-                            } catch (JSONException e) {
-                                e.printStackTrace();
-                            }
-                        }
-                    }
-                }, new Response.ErrorListener() {
-
-            @Override
-            public void onErrorResponse(VolleyError error) {
-                VolleyLog.d(TAG, "Error: " + error.getMessage());
-            }
-        }) {
-            /**
-             * Passing some request headers
-             * */
-            @Override
-            public Map<String, String> getHeaders() throws AuthFailureError {
-                HashMap<String, String> headers = new HashMap<String, String>();
-                headers.put("Content-Type", "application/json");
-                return headers;
-            }
-
-        };
-
-        // Adding request to request queue
-
-        WalletApplication.getInstance().addToRequestQueue(jsonObjReq, tag_json_obj);
+    public void getBalance() {
+        WalletApplication.getInstance().getBalanceService().reconcile(true);
     }
 
     NetworkCallBack networkCallBack = new NetworkCallBack() {
@@ -468,39 +411,14 @@ public class WalletMenuFragment extends Fragment {
     }
 
     public void refreshBtc() {
+        final BalanceService balanceService = WalletApplication.getInstance().getBalanceService();
+        showBalance(balanceService.getBalance().get().value);
+        balanceService.reconcile(false);
 
-        progress_dialog = KProgressHUD.create(getActivity())
-                .setStyle(KProgressHUD.Style.SPIN_INDETERMINATE)
-                .setLabel("Please wait")
-                .setCancellable(true)
-                .setAnimationSpeed(2)
-                .setDimAmount(0.5f)
-                .show();
-        progress_dialog.show();
-
-
-
-        final WalletApplication application = (WalletApplication) getActivity().getApplication();
-        final Coin balance = application.getWallet().getBalance(Wallet.BalanceType.ESTIMATED);
-
-         long satoshi = balance.value;
-         double btc = ((double)satoshi/100000000);
-
-         totalBalance =  new BigDecimal(btc);;
-         PrefManager prefManager = new PrefManager(getActivity());
-         prefManager.setPref(PrefManager.KEY_TOTAL_BALANCE, String.valueOf(totalBalance));
-         DecimalFormat df = new DecimalFormat("0.00000000");
-         tv_balance.setText(df.format(totalBalance) + " BTC");
-         getCurencyRate();
-
-          progress_dialog.dismiss();
-
-          if(tv_address.getText().toString().equals("Address"))
-              getLastAddress();
-
+        if (tv_address.getText().toString().equals("Address"))
+            getLastAddress();
     }
 
-
 }
 
 /*
@@ -24,6 +24,7 @@ import android.widget.Toast;
 
 import com.google.common.base.Joiner;
 import com.ivan.fgwallet.helper.PrefManager;
+import com.ivan.fgwallet.schildbach.wallet.service.SyncScheduler;
 import com.ivan.fgwallet.utils.Utils;
 
 import org.bitcoinj.wallet.DeterministicSeed;
@@ -140,7 +141,8 @@ public class MainActivity extends AppCompatActivity {
 
         application = (WalletApplication) getApplication();
         config = application.getConfiguration();
-        wallet = application.getWallet();
+        if (savedInstanceState == null)
+            new SyncScheduler(this).recordAppOpen();
 
 
         setContentView(R.layout.activity_main);
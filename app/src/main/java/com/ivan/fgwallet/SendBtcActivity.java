@@ -26,13 +26,20 @@ import com.android.volley.VolleyLog;
 import com.android.volley.toolbox.JsonObjectRequest;
 import com.ivan.fgwallet.helper.PrefManager;
 import com.ivan.fgwallet.listener.SendBTCListener;
+import com.ivan.fgwallet.networking.Endpoints;
+import com.ivan.fgwallet.networking.HttpGateway;
+import com.ivan.fgwallet.schildbach.wallet.util.VersionedState;
+import com.ivan.fgwallet.service.BalanceService;
 import com.ivan.fgwallet.utils.Constant;
 import com.ivan.fgwallet.utils.Utils;
 import com.kaopiz.kprogresshud.KProgressHUD;
 
 
+import org.bitcoinj.core.Coin;
 import org.json.JSONException;
 import org.json.JSONObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import java.math.BigDecimal;
 import java.text.DecimalFormat;
@@ -41,6 +48,7 @@ import java.util.Map;
 
 public class SendBtcActivity extends AppCompatActivity {
     public final String TAG = "VOLLEY";
+    private static final Logger log = LoggerFactory.getLogger(SendBtcActivity.class);
     String tag_json_obj = "json_obj_req";
     KProgressHUD progress_dialog;
 
@@ -56,8 +64,7 @@ public class SendBtcActivity extends AppCompatActivity {
     ScrollView scrollView;
     ImageView refresh;
 
-    Double curency;
-    BigDecimal totalBalance;
+    long totalBalance = -1;
     String address;
 
     private void init() {
@@ -96,14 +103,7 @@ public class SendBtcActivity extends AppCompatActivity {
             address = new PrefManager(getApplicationContext()).getpref(PrefManager.KEY_ADDRESS);
 
         }
-        String totalBalance = "";
-        DecimalFormat df = new DecimalFormat("0.00000000");
-        if (!new PrefManager(getApplicationContext()).getpref(PrefManager.KEY_TOTAL_BALANCE).equals("")) {
-            totalBalance = new PrefManager(getApplicationContext()).getpref(PrefManager.KEY_TOTAL_BALANCE);
-        }
-        tvBalance.setText(df.format(BigDecimal.valueOf(Double.valueOf(totalBalance))) + " BTC");
-        DecimalFormat df2 = new DecimalFormat("0");
-        tvJPYBalance.setText("￥ " + df2.format(Constant.CURRENCY_JPY * Double.valueOf(String.valueOf(totalBalance))));
+        showBalance(WalletApplication.getInstance().getBalanceService().getBalance().get().value);
         refresh.setOnClickListener(new View.OnClickListener() {
             @Override
             public void onClick(View view) {
@@ -278,7 +278,7 @@ public class SendBtcActivity extends AppCompatActivity {
                     public void onResponse(JSONObject response) {
                         Log.d(TAG, response.toString());
                         String message = "";
-                        double networkFee = 0;
+                        long networkFee = 0;
                         try {
                             message = response.getString("status");
                         } catch (JSONException e) {
@@ -288,9 +288,11 @@ public class SendBtcActivity extends AppCompatActivity {
                             JSONObject ojb = null;
                             try {
                                 ojb = response.getJSONObject("data");
-                                networkFee = ojb.getDouble("estimated_network_fee");
+                                networkFee = Coin.parseCoin(ojb.getString("estimated_network_fee")).value;
                             } catch (JSONException e) {
                                 e.printStackTrace();
+                            } catch (IllegalArgumentException e) {
+                                e.printStackTrace();
                             }
 //                            Toast.makeText(getApplicationContext(),networkFee + "",Toast.LENGTH_SHORT).show();
                         } else {
@@ -300,16 +302,11 @@ public class SendBtcActivity extends AppCompatActivity {
                         edtNetworkFee.setVisibility(View.VISIBLE);
                         edtMinusFee.setTextColor(getResources().getColor(R.color.colorAccent));
 
-                        String totalBalance = "";
-                        if (!new PrefManager(getApplicationContext()).getpref(PrefManager.KEY_TOTAL_BALANCE).equals("")) {
-                            totalBalance = new PrefManager(getApplicationContext()).getpref(PrefManager.KEY_TOTAL_BALANCE);
-                        }
-                        DecimalFormat df = new DecimalFormat("0.00000000");
-                        edtNetworkFee.setText(getResources().getString(R.string.send_network_fee) + " " + df.format(BigDecimal.valueOf(networkFee))+ " BTC");
-                        if (Double.valueOf(totalBalance) - networkFee <= 0) {
+                        edtNetworkFee.setText(getResources().getString(R.string.send_network_fee) + " " + BalanceService.formatBtc(networkFee) + " BTC");
+                        if (totalBalance - networkFee <= 0) {
                             edtMinusFee.setText(getResources().getString(R.string.balance_minus_fee) + " 0 BTC");
                         } else {
-                            edtMinusFee.setText(getResources().getString(R.string.balance_minus_fee) + " " + df.format(BigDecimal.valueOf(Double.valueOf(totalBalance) - networkFee)) + " BTC");
+                            edtMinusFee.setText(getResources().getString(R.string.balance_minus_fee) + " " + BalanceService.formatBtc(totalBalance - networkFee) + " BTC");
                         }
                         //                        progress_dialog.dismiss();
                     }
@@ -345,6 +342,7 @@ public class SendBtcActivity extends AppCompatActivity {
     @Override
     protected void onResume() {
         super.onResume();
+        WalletApplication.getInstance().getBalanceService().getBalance().subscribe(balanceListener);
         if (!new PrefManager(getApplicationContext()).getpref(PrefManager.KEY_RESULT_SENT).equals("")) {
             String result = new PrefManager(getApplicationContext()).getpref(PrefManager.KEY_RESULT_SENT);
             recipent.setText(result);
@@ -374,6 +372,27 @@ public class SendBtcActivity extends AppCompatActivity {
 //        }
     }
 
+    @Override
+    protected void onPause() {
+        WalletApplication.getInstance().getBalanceService().getBalance().unsubscribe(balanceListener);
+        super.onPause();
+    }
+
+    private final VersionedState.Listener<BalanceService.Balance> balanceListener = new VersionedState.Listener<BalanceService.Balance>() {
+        @Override
+        public void onStateChanged(VersionedState.Snapshot<BalanceService.Balance> snapshot) {
+            showBalance(snapshot.value);
+        }
+    };
+
+    private void showBalance(BalanceService.Balance balance) {
+        if (balance == null)
+            return;
+        totalBalance = balance.satoshis;
+        tvBalance.setText(BalanceService.formatBtc(totalBalance) + " BTC");
+        tvJPYBalance.setText("￥ " + BalanceService.formatJpy(totalBalance, Constant.CURRENCY_JPY));
+    }
+
     @Override
     protected void onActivityResult(int requestCode, int resultCode, Intent data) {
 
@@ -499,149 +518,31 @@ public class SendBtcActivity extends AppCompatActivity {
     }
 
     public void refreshBtc() {
-        String path = "http://128.199.129.208/api/wallet/balance";
-        progress_dialog = KProgressHUD.create(this)
-                .setStyle(KProgressHUD.Style.SPIN_INDETERMINATE)
-                .setLabel("Please wait")
-                .setCancellable(true)
-                .setAnimationSpeed(2)
-                .setDimAmount(0.5f)
-                .show();
-        progress_dialog.show();
-        String apiToken = "";
-        if (!new PrefManager(getApplicationContext().getApplicationContext()).getpref(PrefManager.KEY_API_TOKEN).equals("")) {
-            apiToken = new PrefManager(getApplicationContext()).getpref(PrefManager.KEY_API_TOKEN);
-        }
-        HashMap<String, String> params = new HashMap<String, String>();
-        params.put("api_token", apiToken);
-
-        JsonObjectRequest jsonObjReq = new JsonObjectRequest(Request.Method.POST,
-                path, new JSONObject(params),
-                new Response.Listener<JSONObject>() {
-
-                    @Override
-                    public void onResponse(JSONObject response) {
-                        Log.d(TAG, response.toString());
-                        String message = "";
-                        DecimalFormat df = new DecimalFormat("0.00000000");
-
-                        try {
-                            message = response.getString("status");
-                        } catch (JSONException e) {
-                            e.printStackTrace();
-                        }
-                        if (message.equals("SUCCESS")) {
-//                            Toast.makeText(getActivity().getApplicationContext(), "success", Toast.LENGTH_LONG).show();
-                            try {
-                                JSONObject ojb = response.getJSONObject("data");
-                                JSONObject address = ojb.getJSONObject("address");
-                                Double balance = Double.valueOf(address.getString("available_balance"));
-                                Double balancePending = Double.valueOf(address.getString("pending_received_balance"));
-                                totalBalance = BigDecimal.valueOf(balance + balancePending);
-                                PrefManager prefManager = new PrefManager(getApplicationContext());
-                                prefManager.setPref(PrefManager.KEY_TOTAL_BALANCE, String.valueOf(totalBalance));
-                                tvBalance.setText(df.format(totalBalance) + " BTC");
-                            } catch (JSONException e) {
-                                e.printStackTrace();
-                            }
-                            getCurencyRate();
-                        } else {
-                            String msg = "Something went wrong , Please try later";
-                            try {
-                                JSONObject ojb = response.getJSONObject("data");
-                                msg = ojb.getString("message");
-                            } catch (JSONException e) {
-                                e.printStackTrace();
-                            }
-//                            Toast.makeText(getApplicationContext().getApplicationContext(), msg, Toast.LENGTH_LONG).show();
-                            Snackbar.make(getWindow().getDecorView().getRootView(), msg, Snackbar.LENGTH_LONG)
-                                    .setAction("Action", null).show();
-                            progress_dialog.dismiss();
-                        }
-//                        progress_dialog.dismiss();
-                    }
-                }, new Response.ErrorListener() {
-
-            @Override
-            public void onErrorResponse(VolleyError error) {
-                VolleyLog.d(TAG, "Error: " + error.getMessage());
-//                Toast.makeText(getApplicationContext().getApplicationContext(), "Can't connect to server!", Toast.LENGTH_LONG).show();
-                Snackbar.make(getWindow().getDecorView().getRootView(), "Can't connect to server!", Snackbar.LENGTH_LONG)
-                        .setAction("Action", null).show();
-                progress_dialog.dismiss();
-            }
-        }) {
-            /**
-             * Passing some request headers
-             * */
-            @Override
-            public Map<String, String> getHeaders() throws AuthFailureError {
-                HashMap<String, String> headers = new HashMap<String, String>();
-                headers.put("Content-Type", "application/json");
-                return headers;
-            }
-
-        };
-        jsonObjReq.setRetryPolicy(new DefaultRetryPolicy(
-                0,
-                DefaultRetryPolicy.DEFAULT_MAX_RETRIES,
-                DefaultRetryPolicy.DEFAULT_BACKOFF_MULT));
-        // Adding request to request queue
-        WalletApplication.getInstance().addToRequestQueue(jsonObjReq, tag_json_obj);
+        final BalanceService balanceService = WalletApplication.getInstance().getBalanceService();
+        showBalance(balanceService.getBalance().get().value);
+        balanceService.reconcile(false);
+        getCurencyRate();
     }
 
     public void getCurencyRate() {
-        String path = "https://api.coindesk.com/v1/bpi/currentprice/JPY.json";
-
-        JsonObjectRequest jsonObjReq = new JsonObjectRequest(Request.Method.GET,
-                path, new JSONObject(),
-                new Response.Listener<JSONObject>() {
-
-                    @Override
-                    public void onResponse(JSONObject response) {
-                        Log.d(TAG, response.toString());
-                        String message = "";
-                        try {
-                            JSONObject jsonObject = response.getJSONObject("bpi");
-                            JSONObject jsoJPY = jsonObject.getJSONObject("JPY");
-                            Constant.CURRENCY_JPY = Double.valueOf(jsoJPY.getString("rate_float"));
-                            DecimalFormat df = new DecimalFormat("0");
-
-                            if (jsoJPY.getString("rate_float") == null || jsoJPY.getString("rate_float").equals("")) {
-                                getCurencyRate();
-                                return;
-                            }
-                            curency = Double.valueOf(jsoJPY.getString("rate_float")) * Double.valueOf(String.valueOf(totalBalance));
-                            tvJPYBalance.setText("￥ " + df.format(curency));
-                        } catch (JSONException e) {
-                            e.printStackTrace();
-                        }
-                        progress_dialog.dismiss();
-                    }
-                }, new Response.ErrorListener() {
+        WalletApplication.getInstance().getHttpGateway().get(Endpoints.COINDESK_JPY, new HttpGateway.Callback<Double>() {
+            @Override
+            public void onResult(Double rate) {
+                if (isFinishing())
+                    return;
+                Constant.CURRENCY_JPY = rate;
+                if (totalBalance >= 0)
+                    tvJPYBalance.setText("￥ " + BalanceService.formatJpy(totalBalance, rate));
+            }
 
             @Override
-            public void onErrorResponse(VolleyError error) {
-                VolleyLog.d(TAG, "Error: " + error.getMessage());
-//                Toast.makeText(getApplicationContext(), "Can't connect to server!", Toast.LENGTH_LONG).show();
+            public void onError(Exception x) {
+                if (isFinishing())
+                    return;
+                log.info("problem fetching exchange rate", x);
                 Snackbar.make(getWindow().getDecorView().getRootView(), "Can't connect to server!", Snackbar.LENGTH_LONG)
                         .setAction("Action", null).show();
-                progress_dialog.dismiss();
             }
-        }) {
-            /**
-             * Passing some request headers
-             * */
-            @Override
-            public Map<String, String> getHeaders() throws AuthFailureError {
-                HashMap<String, String> headers = new HashMap<String, String>();
-                headers.put("Content-Type", "application/json");
-                return headers;
-            }
-
-        };
-
-        // Adding request to request queue
-        WalletApplication.getInstance().addToRequestQueue(jsonObjReq, tag_json_obj);
+        });
     }
 }
@@ -19,21 +19,21 @@
 package com.ivan.fgwallet;
 
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.OutputStream;
 import java.time.Clock;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import org.bitcoinj.core.Transaction;
 import org.bitcoinj.core.VerificationException;
 import org.bitcoinj.core.VersionMessage;
 import org.bitcoinj.crypto.LinuxSecureRandom;
 import org.bitcoinj.crypto.MnemonicCode;
+import org.bitcoinj.utils.ContextPropagatingThreadFactory;
 import org.bitcoinj.utils.Threading;
-import org.bitcoinj.wallet.Protos;
 import org.bitcoinj.wallet.UnreadableWalletException;
 import org.bitcoinj.wallet.Wallet;
 import org.bitcoinj.wallet.WalletProtobufSerializer;
@@ -43,22 +43,37 @@ import org.slf4j.LoggerFactory;
 import com.google.common.base.Splitter;
 import com.google.common.base.Stopwatch;
 import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import com.squareup.okhttp.Cache;
+import com.squareup.okhttp.OkHttpClient;
 
+import com.ivan.fgwallet.networking.HttpGateway;
 import com.ivan.fgwallet.schildbach.wallet.Configuration;
+import com.ivan.fgwallet.schildbach.wallet.data.AddressBookLabelCache;
+import com.ivan.fgwallet.schildbach.wallet.data.KeySession;
 import com.ivan.fgwallet.schildbach.wallet.service.BlockchainService;
 import com.ivan.fgwallet.schildbach.wallet.service.BlockchainServiceImpl;
+import com.ivan.fgwallet.schildbach.wallet.service.BlockchainState;
+import com.ivan.fgwallet.schildbach.wallet.service.SyncMetrics;
+import com.ivan.fgwallet.schildbach.wallet.service.SyncScheduler;
 import com.ivan.fgwallet.schildbach.wallet.util.Bluetooth;
 import com.ivan.fgwallet.schildbach.wallet.util.CrashReporter;
+import com.ivan.fgwallet.schildbach.wallet.util.CryptoExecutor;
+import com.ivan.fgwallet.schildbach.wallet.util.StartupTrace;
+import com.ivan.fgwallet.schildbach.wallet.util.VersionedState;
+import com.ivan.fgwallet.schildbach.wallet.util.WalletJournal;
+import com.ivan.fgwallet.schildbach.wallet.util.WalletKeyBackup;
 import com.ivan.fgwallet.schildbach.wallet.Constants;
+import com.ivan.fgwallet.service.BalanceService;
 import com.ivan.fgwallet.BuildConfig;
 import com.ivan.fgwallet.R;
 
 import android.app.ActivityManager;
-import android.app.AlarmManager;
 import android.app.Application;
 import android.app.NotificationChannel;
 import android.app.NotificationManager;
-import android.app.PendingIntent;
 import android.bluetooth.BluetoothAdapter;
 import android.content.Context;
 import android.content.Intent;
@@ -68,10 +83,13 @@ import android.media.AudioAttributes;
 import android.media.AudioManager;
 import android.net.Uri;
 import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.MessageQueue;
+import android.os.Process;
 import android.os.StrictMode;
 import android.preference.PreferenceManager;
 import android.support.v4.content.LocalBroadcastManager;
-import android.text.format.DateUtils;
 import android.widget.Toast;
 import ch.qos.logback.classic.Level;
 import ch.qos.logback.classic.LoggerContext;
@@ -110,6 +128,7 @@ public class WalletApplication extends Application
             .getSimpleName();
 
     private RequestQueue mRequestQueue;
+    private HttpGateway httpGateway;
     private ImageLoader mImageLoader;
 
     private static WalletApplication mInstance;
@@ -118,13 +137,33 @@ public class WalletApplication extends Application
 
     private com.ivan.fgwallet.schildbach.wallet.Configuration config;
     private ActivityManager activityManager;
+    private AddressBookLabelCache addressBookLabelCache;
+    private CryptoExecutor cryptoExecutor;
+    private KeySession keySession;
+    private ExecutorService backupExecutor;
 
     private Intent blockchainServiceIntent;
     private Intent blockchainServiceCancelCoinsReceivedIntent;
     private Intent blockchainServiceResetBlockchainIntent;
 
+    private final StartupTrace startupTrace = new StartupTrace();
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final Executor mainExecutor = new Executor() {
+        @Override
+        public void execute(final Runnable command) {
+            mainHandler.post(command);
+        }
+    };
+    private final VersionedState<BlockchainState> blockchainState = new VersionedState<BlockchainState>();
+    private final VersionedState<Integer> peerCount = new VersionedState<Integer>();
+    private final SyncMetrics syncMetrics = new SyncMetrics();
+    private BalanceService balanceService;
+
     private File walletFile;
-    public Wallet wallet;
+    private File walletJournalFile;
+    private volatile Wallet wallet;
+    private volatile WalletJournal walletJournal;
+    private final SettableFuture<Wallet> walletFuture = SettableFuture.create();
     private PackageInfo packageInfo;
 
     public static final String ACTION_WALLET_REFERENCE_CHANGED = WalletApplication.class.getPackage().getName()
@@ -139,13 +178,10 @@ public class WalletApplication extends Application
     @Override
     public void onCreate()
     {
+        final StartupTrace.Phase criticalPhase = startupTrace.begin("critical path");
 
-       //from volley=====
-        Fabric.with(this, new Crashlytics());
         mInstance = this;
         loadLocale();
-       //==============
-
 
         new LinuxSecureRandom(); // init proper random number generator
 
@@ -175,10 +211,14 @@ public class WalletApplication extends Application
             }
         };
 
-        initMnemonicCode();
-
         config = new com.ivan.fgwallet.schildbach.wallet.Configuration(PreferenceManager.getDefaultSharedPreferences(this), getResources());
         activityManager = (ActivityManager) getSystemService(Context.ACTIVITY_SERVICE);
+        addressBookLabelCache = new AddressBookLabelCache(this);
+        cryptoExecutor = new CryptoExecutor();
+        keySession = new KeySession(this, config);
+        balanceService = new BalanceService(this);
+        backupExecutor = Executors.newSingleThreadExecutor(
+                new ContextPropagatingThreadFactory("wallet-backup", Thread.MIN_PRIORITY));
 
         blockchainServiceIntent = new Intent(this, BlockchainServiceImpl.class);
         blockchainServiceCancelCoinsReceivedIntent = new Intent(BlockchainService.ACTION_CANCEL_COINS_RECEIVED, null,
@@ -187,24 +227,91 @@ public class WalletApplication extends Application
                 BlockchainServiceImpl.class);
 
         walletFile = getFileStreamPath(Constants.Files.WALLET_FILENAME_PROTOBUF);
+        walletJournalFile = getFileStreamPath(Constants.Files.WALLET_JOURNAL_FILENAME);
 
-        loadWalletFromProtobuf();
+        startLoadingWallet();
 
-        if (config.versionCodeCrossed(packageInfo.versionCode, VERSION_CODE_SHOW_BACKUP_REMINDER)
-                && !wallet.getImportedKeys().isEmpty()) {
-            log.info("showing backup reminder once, because of imported keys being present");
-            config.armBackupReminder();
-        }
+        initNotificationManager();
+
+        // the main queue goes idle once the first activity (if any) has been drawn
+        Looper.myQueue().addIdleHandler(new MessageQueue.IdleHandler() {
+            @Override
+            public boolean queueIdle() {
+                runDeferredStartup();
+                return false;
+            }
+        });
 
-        config.updateLastVersionCode(packageInfo.versionCode);
-        config.updateLastBluetoothAddress(Bluetooth.getAddress(BluetoothAdapter.getDefaultAdapter()));
+        criticalPhase.end();
+    }
 
-        afterLoadWallet();
+    private void startLoadingWallet() {
+        final Thread thread = new Thread("wallet-loader") {
+            @Override
+            public void run() {
+                Process.setThreadPriority(Process.THREAD_PRIORITY_DEFAULT);
+                org.bitcoinj.core.Context.propagate(Constants.CONTEXT);
 
-        cleanupFiles();
+                // before anything writes temporary files into the files dir
+                final StartupTrace.Phase cleanupPhase = startupTrace.begin("cleanup files");
+                cleanupFiles();
+                cleanupPhase.end();
 
-        initNotificationManager();
+                final StartupTrace.Phase phase = startupTrace.begin("wallet load");
+                try {
+                    initMnemonicCode(); // needed for creating a new wallet
+
+                    loadWalletFromProtobuf();
+
+                    if (config.versionCodeCrossed(packageInfo.versionCode, VERSION_CODE_SHOW_BACKUP_REMINDER)
+                            && !wallet.getImportedKeys().isEmpty()) {
+                        log.info("showing backup reminder once, because of imported keys being present");
+                        config.armBackupReminder();
+                    }
+
+                    config.updateLastVersionCode(packageInfo.versionCode);
+                    config.updateLastBluetoothAddress(Bluetooth.getAddress(BluetoothAdapter.getDefaultAdapter()));
+
+                    afterLoadWallet();
+                } catch (final RuntimeException x) {
+                    walletFuture.setException(x);
+                    throw x;
+                } catch (final Error x) {
+                    walletFuture.setException(x);
+                    throw x;
+                }
+                phase.end();
+
+                walletFuture.set(wallet);
+            }
+        };
+        thread.start();
     }
+
+    private void runDeferredStartup() {
+        final StartupTrace.Phase fabricPhase = startupTrace.begin("crashlytics");
+        Fabric.with(this, new Crashlytics());
+        fabricPhase.end();
+
+        final Thread thread = new Thread("deferred-startup") {
+            @Override
+            public void run() {
+                Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                org.bitcoinj.core.Context.propagate(Constants.CONTEXT);
+
+                final StartupTrace.Phase loggingPhase = startupTrace.begin("file logging");
+                initFileLogging();
+                loggingPhase.end();
+
+                // make sure there is at least one recent backup
+                backupWallet();
+
+                startupTrace.summarize();
+            }
+        };
+        thread.start();
+    }
+
     @Override
     public void onConfigurationChanged(android.content.res.Configuration newConfig) {
         super.onConfigurationChanged(newConfig);
@@ -224,17 +331,40 @@ public class WalletApplication extends Application
 
 
     private void afterLoadWallet() {
-        wallet.autosaveToFile(walletFile, Constants.Files.WALLET_AUTOSAVE_DELAY_MS, TimeUnit.MILLISECONDS, null);
+        walletJournal = new WalletJournal(wallet, walletFile, walletJournalFile,
+                Constants.Files.WALLET_AUTOSAVE_DELAY_MS);
+        walletJournal.setSaveListener(syncMetrics);
+        balanceService.setWallet(wallet);
 
         // clean up spam
         wallet.cleanup();
-
-        // make sure there is at least one recent backup
-        if (!getFileStreamPath(Constants.Files.WALLET_KEY_BACKUP_PROTOBUF).exists())
-            backupWallet();
     }
 
     private void initLogging() {
+        final LoggerContext context = (LoggerContext) LoggerFactory.getILoggerFactory();
+
+        final PatternLayoutEncoder logcatTagPattern = new PatternLayoutEncoder();
+        logcatTagPattern.setContext(context);
+        logcatTagPattern.setPattern("%logger{0}");
+        logcatTagPattern.start();
+
+        final PatternLayoutEncoder logcatPattern = new PatternLayoutEncoder();
+        logcatPattern.setContext(context);
+        logcatPattern.setPattern("[%thread] %msg%n");
+        logcatPattern.start();
+
+        final LogcatAppender logcatAppender = new LogcatAppender();
+        logcatAppender.setContext(context);
+        logcatAppender.setTagEncoder(logcatTagPattern);
+        logcatAppender.setEncoder(logcatPattern);
+        logcatAppender.start();
+
+        final ch.qos.logback.classic.Logger log = context.getLogger(Logger.ROOT_LOGGER_NAME);
+        log.addAppender(logcatAppender);
+        log.setLevel(Level.INFO);
+    }
+
+    private void initFileLogging() {
         // create log dir
         final File logDir = new File(getFilesDir(), "log");
         logDir.mkdir();
@@ -272,26 +402,34 @@ public class WalletApplication extends Application
         fileAppender.setRollingPolicy(rollingPolicy);
         fileAppender.start();
 
-        final PatternLayoutEncoder logcatTagPattern = new PatternLayoutEncoder();
-        logcatTagPattern.setContext(context);
-        logcatTagPattern.setPattern("%logger{0}");
-        logcatTagPattern.start();
+        final ch.qos.logback.classic.Logger log = context.getLogger(Logger.ROOT_LOGGER_NAME);
+        log.addAppender(fileAppender);
 
-        final PatternLayoutEncoder logcatPattern = new PatternLayoutEncoder();
-        logcatPattern.setContext(context);
-        logcatPattern.setPattern("[%thread] %msg%n");
-        logcatPattern.start();
+        // sync metrics go to their own, shorter lived log
+        final PatternLayoutEncoder metricsPattern = new PatternLayoutEncoder();
+        metricsPattern.setContext(context);
+        metricsPattern.setPattern("%d{HH:mm:ss,UTC} %msg%n");
+        metricsPattern.start();
 
-        final LogcatAppender logcatAppender = new LogcatAppender();
-        logcatAppender.setContext(context);
-        logcatAppender.setTagEncoder(logcatTagPattern);
-        logcatAppender.setEncoder(logcatPattern);
-        logcatAppender.start();
+        final RollingFileAppender<ILoggingEvent> metricsAppender = new RollingFileAppender<ILoggingEvent>();
+        metricsAppender.setContext(context);
+        metricsAppender.setFile(new File(logDir, "sync-metrics.log").getAbsolutePath());
 
-        final ch.qos.logback.classic.Logger log = context.getLogger(Logger.ROOT_LOGGER_NAME);
-        log.addAppender(fileAppender);
-        log.addAppender(logcatAppender);
-        log.setLevel(Level.INFO);
+        final TimeBasedRollingPolicy<ILoggingEvent> metricsRollingPolicy = new TimeBasedRollingPolicy<ILoggingEvent>();
+        metricsRollingPolicy.setContext(context);
+        metricsRollingPolicy.setParent(metricsAppender);
+        metricsRollingPolicy
+                .setFileNamePattern(logDir.getAbsolutePath() + "/sync-metrics.%d{yyyy-MM-dd,UTC}.log.gz");
+        metricsRollingPolicy.setMaxHistory(2);
+        metricsRollingPolicy.start();
+
+        metricsAppender.setEncoder(metricsPattern);
+        metricsAppender.setRollingPolicy(metricsRollingPolicy);
+        metricsAppender.start();
+
+        final ch.qos.logback.classic.Logger metricsLog = context.getLogger(SyncMetrics.LOGGER_NAME);
+        metricsLog.setAdditive(false);
+        metricsLog.addAppender(metricsAppender);
     }
 
     private static final String BIP39_WORDLIST_FILENAME = "bip39-wordlist.txt";
@@ -311,48 +449,106 @@ public class WalletApplication extends Application
         return config;
     }
 
+    /**
+     * Latest state of the block chain, as published by the blockchain service.
+     */
+    public VersionedState<BlockchainState> getBlockchainState() {
+        return blockchainState;
+    }
+
+    /**
+     * Latest number of connected peers, as published by the blockchain service.
+     */
+    public VersionedState<Integer> getPeerCount() {
+        return peerCount;
+    }
+
+    /**
+     * Balance of the wallet, published from memory and reconciled with the backend in the background.
+     */
+    public BalanceService getBalanceService() {
+        return balanceService;
+    }
+
+    public SyncMetrics getSyncMetrics() {
+        return syncMetrics;
+    }
+
+    /**
+     * Returns the wallet, waiting for it to be loaded if needed. Screens that can show something meaningful in the
+     * meantime should rather use {@link #getWalletFuture()}.
+     */
     public Wallet getWallet() {
+        if (!walletFuture.isDone()) {
+            final Stopwatch watch = Stopwatch.createStarted();
+            Futures.getUnchecked(walletFuture);
+            log.info("{} waited {} for the wallet to load", Thread.currentThread().getName(), watch.stop());
+        }
         return wallet;
     }
 
+    /**
+     * Completes once the wallet is loaded. The wallet may be replaced later on, so hold on to the reference only as
+     * long as {@link #ACTION_WALLET_REFERENCE_CHANGED} is observed.
+     */
+    public ListenableFuture<Wallet> getWalletFuture() {
+        return walletFuture;
+    }
+
+    /**
+     * Runs callbacks on the main thread, for example those of {@link #getWalletFuture()}.
+     */
+    public Executor getMainExecutor() {
+        return mainExecutor;
+    }
+
+    public AddressBookLabelCache getAddressBookLabelCache() {
+        return addressBookLabelCache;
+    }
+
+    public CryptoExecutor getCryptoExecutor() {
+        return cryptoExecutor;
+    }
+
+    public KeySession getKeySession() {
+        return keySession;
+    }
+
+    @Override
+    public void onTrimMemory(final int level) {
+        super.onTrimMemory(level);
+
+        // also called when the UI goes to the background
+        keySession.wipe("trim memory, level " + level);
+    }
+
     private void loadWalletFromProtobuf() {
         if (walletFile.exists()) {
-            FileInputStream walletStream = null;
-
             try {
                 final Stopwatch watch = Stopwatch.createStarted();
-                walletStream = new FileInputStream(walletFile);
-                wallet = new WalletProtobufSerializer().readWallet(walletStream);
+                wallet = WalletJournal.loadWallet(walletFile, walletJournalFile);
                 watch.stop();
 
                 if (!wallet.getParams().equals(Constants.NETWORK_PARAMETERS))
                     throw new UnreadableWalletException("bad wallet network parameters: " + wallet.getParams().getId());
 
                 log.info("wallet loaded from: '{}', took {}", walletFile, watch);
-            } catch (final FileNotFoundException x) {
+            } catch (final IOException x) {
                 log.error("problem loading wallet", x);
 
-                Toast.makeText(WalletApplication.this, x.getClass().getName(), Toast.LENGTH_LONG).show();
+                toast(x.getClass().getName());
 
                 wallet = restoreWalletFromBackup();
             } catch (final UnreadableWalletException x) {
                 log.error("problem loading wallet", x);
 
-                Toast.makeText(WalletApplication.this, x.getClass().getName(), Toast.LENGTH_LONG).show();
+                toast(x.getClass().getName());
 
                 wallet = restoreWalletFromBackup();
-            } finally {
-                if (walletStream != null) {
-                    try {
-                        walletStream.close();
-                    } catch (final IOException x) {
-                        // swallow
-                    }
-                }
             }
 
             if (!wallet.isConsistent()) {
-                Toast.makeText(this, "inconsistent wallet: " + walletFile, Toast.LENGTH_LONG).show();
+                toast("inconsistent wallet: " + walletFile);
 
                 wallet = restoreWalletFromBackup();
             }
@@ -384,7 +580,7 @@ public class WalletApplication extends Application
 
             resetBlockchain();
 
-            Toast.makeText(this, R.string.toast_wallet_reset, Toast.LENGTH_LONG).show();
+            toast(getString(R.string.toast_wallet_reset));
 
             log.info("wallet restored from backup: '" + Constants.Files.WALLET_KEY_BACKUP_PROTOBUF + "'");
 
@@ -402,9 +598,27 @@ public class WalletApplication extends Application
         }
     }
 
+    private void toast(final String text) {
+        // wallet is loaded off the main thread
+        mainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                Toast.makeText(WalletApplication.this, text, Toast.LENGTH_LONG).show();
+            }
+        });
+    }
+
+    /**
+     * Persists all changes of the wallet right away. Needed after changes to the keychain that don't notify wallet
+     * listeners, like encryption.
+     */
     public void saveWallet() {
         try {
-            protobufSerializeWallet(wallet);
+            final WalletJournal walletJournal = this.walletJournal;
+            if (walletJournal != null)
+                walletJournal.saveNow();
+            else
+                protobufSerializeWallet(wallet);
         } catch (final IOException x) {
             throw new RuntimeException(x);
         }
@@ -418,33 +632,55 @@ public class WalletApplication extends Application
         log.info("wallet saved to: '{}', took {}", walletFile, watch);
     }
 
+    /**
+     * Writes the automatic key backup in the background. Skipped if the keys haven't changed since the last backup.
+     */
     public void backupWallet() {
-        final Stopwatch watch = Stopwatch.createStarted();
-        final Protos.Wallet.Builder builder = new WalletProtobufSerializer().walletToProto(wallet).toBuilder();
-
-        // strip redundant
-        builder.clearTransaction();
-        builder.clearLastSeenBlockHash();
-        builder.setLastSeenBlockHeight(-1);
-        builder.clearLastSeenBlockTimeSecs();
-        final Protos.Wallet walletProto = builder.build();
-
-        OutputStream os = null;
+        backupExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                org.bitcoinj.core.Context.propagate(Constants.CONTEXT);
+                final Wallet wallet = getWallet();
+                final File backupFile = getFileStreamPath(Constants.Files.WALLET_KEY_BACKUP_PROTOBUF);
+
+                final String fingerprint = WalletKeyBackup.fingerprint(wallet);
+                if (backupFile.exists() && fingerprint.equals(config.getKeyBackupFingerprint())) {
+                    log.info("keys unchanged since last backup to: '{}', skipping", backupFile);
+                    return;
+                }
 
-        try {
-            os = openFileOutput(Constants.Files.WALLET_KEY_BACKUP_PROTOBUF, Context.MODE_PRIVATE);
-            walletProto.writeTo(os);
-            watch.stop();
-            log.info("wallet backed up to: '{}', took {}", Constants.Files.WALLET_KEY_BACKUP_PROTOBUF, watch);
-        } catch (final IOException x) {
-            log.error("problem writing wallet backup", x);
-        } finally {
-            try {
-                os.close();
-            } catch (final IOException x) {
-                // swallow
+                final Stopwatch watch = Stopwatch.createStarted();
+                final File tempFile = getFileStreamPath(Constants.Files.WALLET_KEY_BACKUP_PROTOBUF_PARTIAL);
+                FileOutputStream os = null;
+
+                try {
+                    os = new FileOutputStream(tempFile);
+                    WalletKeyBackup.writeTo(wallet, os);
+                    os.flush();
+                    os.getFD().sync();
+                    os.close();
+                    os = null;
+
+                    if (!tempFile.renameTo(backupFile))
+                        throw new IOException("cannot rename " + tempFile + " to " + backupFile);
+                    config.setKeyBackupFingerprint(fingerprint);
+
+                    watch.stop();
+                    log.info("wallet backed up to: '{}', took {}", backupFile, watch);
+                } catch (final IOException x) {
+                    log.error("problem writing wallet backup", x);
+                    tempFile.delete();
+                } finally {
+                    if (os != null) {
+                        try {
+                            os.close();
+                        } catch (final IOException x) {
+                            // swallow
+                        }
+                    }
+                }
             }
-        }
+        });
     }
 
     private void cleanupFiles() {
@@ -485,10 +721,16 @@ public class WalletApplication extends Application
     }
 
     public void startBlockchainService(final boolean cancelCoinsReceived) {
-        if (cancelCoinsReceived)
-            startService(blockchainServiceCancelCoinsReceivedIntent);
-        else
-            startService(blockchainServiceIntent);
+        // the service takes the wallet in onCreate(), on the main thread, so don't start it before the wallet is loaded
+        walletFuture.addListener(new Runnable() {
+            @Override
+            public void run() {
+                if (cancelCoinsReceived)
+                    startService(blockchainServiceCancelCoinsReceivedIntent);
+                else
+                    startService(blockchainServiceIntent);
+            }
+        }, mainExecutor);
     }
 
     public void stopBlockchainService() {
@@ -502,11 +744,14 @@ public class WalletApplication extends Application
 
     public void replaceWallet(final Wallet newWallet) {
         resetBlockchain();
-        wallet.shutdownAutosaveAndWait();
+        getWallet();
+        walletJournal.shutdownAndWait();
 
         wallet = newWallet;
         config.maybeIncrementBestChainHeightEver(newWallet.getLastBlockSeenHeight());
         afterLoadWallet();
+        saveWallet();
+        backupWallet();
 
         final Intent broadcast = new Intent(ACTION_WALLET_REFERENCE_CHANGED);
         broadcast.setPackage(getPackageName());
@@ -514,6 +759,7 @@ public class WalletApplication extends Application
     }
 
     public void processDirectTransaction(final Transaction tx) throws VerificationException {
+        final Wallet wallet = getWallet();
         if (wallet.isTransactionRelevant(tx)) {
             wallet.receivePending(tx, null);
             broadcastTransaction(tx);
@@ -575,31 +821,7 @@ public class WalletApplication extends Application
     }
 
     public static void scheduleStartBlockchainService(final Context context) {
-        final  com.ivan.fgwallet.schildbach.wallet.Configuration config = new  com.ivan.fgwallet.schildbach.wallet.Configuration(PreferenceManager.getDefaultSharedPreferences(context),
-                context.getResources());
-        final long lastUsedAgo = config.getLastUsedAgo();
-
-        // apply some backoff
-        final long alarmInterval;
-        if (lastUsedAgo < Constants.LAST_USAGE_THRESHOLD_JUST_MS)
-            alarmInterval = AlarmManager.INTERVAL_FIFTEEN_MINUTES;
-        else if (lastUsedAgo < Constants.LAST_USAGE_THRESHOLD_RECENTLY_MS)
-            alarmInterval = AlarmManager.INTERVAL_HALF_DAY;
-        else
-            alarmInterval = AlarmManager.INTERVAL_DAY;
-
-        log.info("last used {} minutes ago, rescheduling blockchain sync in roughly {} minutes",
-                lastUsedAgo / DateUtils.MINUTE_IN_MILLIS, alarmInterval / DateUtils.MINUTE_IN_MILLIS);
-
-        final AlarmManager alarmManager = (AlarmManager) context.getSystemService(Context.ALARM_SERVICE);
-        final PendingIntent alarmIntent = PendingIntent.getService(context, 0,
-                new Intent(context, BlockchainServiceImpl.class), 0);
-        alarmManager.cancel(alarmIntent);
-
-        // workaround for no inexact set() before KitKat
-        final long now = System.currentTimeMillis();
-        alarmManager.setInexactRepeating(AlarmManager.RTC_WAKEUP, now + alarmInterval, AlarmManager.INTERVAL_DAY,
-                alarmIntent);
+        new SyncScheduler(context).schedule();
     }
 
     public static String versionLine(final PackageInfo packageInfo) {
@@ -632,6 +854,22 @@ public class WalletApplication extends Application
         return mRequestQueue;
     }
 
+    /**
+     * Gateway for the app's own HTTP requests, sharing the connection pool of {@link Constants#HTTP_CLIENT} and
+     * adding a disk response cache.
+     */
+    public synchronized HttpGateway getHttpGateway() {
+        if (httpGateway == null) {
+            final OkHttpClient client = Constants.HTTP_CLIENT.clone();
+            client.setCache(new Cache(new File(getCacheDir(), HTTP_CACHE_DIRNAME), HTTP_CACHE_SIZE));
+            httpGateway = new HttpGateway(client, mainExecutor);
+        }
+        return httpGateway;
+    }
+
+    private static final String HTTP_CACHE_DIRNAME = "http";
+    private static final long HTTP_CACHE_SIZE = 10 * 1024 * 1024;
+
     public ImageLoader getImageLoader() {
         getRequestQueue();
         if (mImageLoader == null) {
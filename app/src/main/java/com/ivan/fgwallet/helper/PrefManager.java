@@ -20,6 +20,7 @@ public class PrefManager {
     // Shared pref mode
     int PRIVATE_MODE = 0;
 
+    public static final String PREFS_NAME = "FWWallet";
 
 
     public static final String KEY_ADDRESS = "address";
@@ -28,12 +29,12 @@ public class PrefManager {
     public static final String KEY_API_TOKEN = "api_token";
     public static final String KEY_RECOVERY_PHRASE = "recovery_phrase";
     public static final String KEY_RESULT_SENT = "result_sent";
-    public static final String KEY_TOTAL_BALANCE = "total_balance";
+    public static final String KEY_BALANCE_SATOSHIS = "balance_satoshis";
     public static final String TIMESTAMP_CREATION ="0";
 
     public PrefManager(Context context) {
         this._context = context;
-        pref = _context.getSharedPreferences("FWWallet", PRIVATE_MODE);
+        pref = _context.getSharedPreferences(PREFS_NAME, PRIVATE_MODE);
         editor = pref.edit();
     }
     public static void setPref(String key,String mobileNumber) {
@@ -1,24 +0,0 @@
-package com.ivan.fgwallet.model;
-
-@SuppressWarnings("serial")
-public class MapChart {
-
-	private String x;
-	private String y;
-
-	public String getX() {
-		return x;
-	}
-
-	public void setX(String x) {
-		this.x = x;
-	}
-
-	public String getY() {
-		return y;
-	}
-
-	public void setY(String y) {
-		this.y = y;
-	}
-}
\ No newline at end of file
@@ -0,0 +1,193 @@
+package com.ivan.fgwallet.networking;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The endpoints the app talks to, with their TTLs and streaming parsers.
+ */
+public final class Endpoints {
+
+    private static final String COINDESK_JPY_URL = "https://api.coindesk.com/v1/bpi/currentprice/JPY.json";
+    private static final String QUANDL_URL = "https://www.quandl.com/api/v3/datasets/BCHARTS/%s.json"
+            + "?api_key=SHty8AwZ5qSiJPBC4E8j&start_date=%s";
+
+    private static final Map<String, String> NO_HEADERS = Collections.emptyMap();
+
+    private Endpoints() {
+    }
+
+    /**
+     * Daily values, oldest first.
+     */
+    public static final class DailyPrices {
+        public final long[] times;
+        public final double[] values;
+        public final int size;
+
+        DailyPrices(long[] times, double[] values, int size) {
+            this.times = times;
+            this.values = values;
+            this.size = size;
+        }
+    }
+
+    /**
+     * Coindesk's current BTC price in JPY. Coindesk updates once a minute.
+     */
+    public static final HttpGateway.Endpoint<Double> COINDESK_JPY = new HttpGateway.Endpoint<Double>(COINDESK_JPY_URL,
+            NO_HEADERS, TimeUnit.MINUTES.toMillis(1), new HttpGateway.Parser<Double>() {
+                @Override
+                public Double parse(Reader body) throws IOException {
+                    final JsonReader reader = new JsonReader(body);
+                    Double rate = null;
+                    reader.beginObject();
+                    while (reader.hasNext()) {
+                        if (reader.nextName().equals("bpi")) {
+                            reader.beginObject();
+                            while (reader.hasNext()) {
+                                if (reader.nextName().equals("JPY"))
+                                    rate = parseRateFloat(reader);
+                                else
+                                    reader.skipValue();
+                            }
+                            reader.endObject();
+                        } else {
+                            reader.skipValue();
+                        }
+                    }
+                    reader.endObject();
+                    if (rate == null)
+                        throw new IOException("no JPY rate");
+                    return rate;
+                }
+            });
+
+    /**
+     * Daily opening prices of a Quandl BCHARTS dataset from the given day on. New values appear once a day.
+     *
+     * @param startDate yyyy-MM-dd
+     */
+    public static HttpGateway.Endpoint<DailyPrices> quandlDaily(String dataset, String startDate) {
+        return new HttpGateway.Endpoint<DailyPrices>(String.format(Locale.US, QUANDL_URL, dataset, startDate),
+                NO_HEADERS, TimeUnit.HOURS.toMillis(1), new HttpGateway.Parser<DailyPrices>() {
+                    @Override
+                    public DailyPrices parse(Reader body) throws IOException {
+                        final JsonReader reader = new JsonReader(body);
+                        DailyPrices prices = null;
+                        reader.beginObject();
+                        while (reader.hasNext()) {
+                            if (reader.nextName().equals("dataset")) {
+                                reader.beginObject();
+                                while (reader.hasNext()) {
+                                    if (reader.nextName().equals("data"))
+                                        prices = parseQuandlData(reader);
+                                    else
+                                        reader.skipValue();
+                                }
+                                reader.endObject();
+                            } else {
+                                reader.skipValue();
+                            }
+                        }
+                        reader.endObject();
+                        if (prices == null)
+                            throw new IOException("no data");
+                        return prices;
+                    }
+                });
+    }
+
+    /**
+     * The raw body of a GET request, never cached but still coalesced.
+     */
+    public static HttpGateway.Endpoint<String> string(String url, Map<String, String> headers) {
+        return new HttpGateway.Endpoint<String>(url, headers, 0, new HttpGateway.Parser<String>() {
+            @Override
+            public String parse(Reader body) throws IOException {
+                final StringBuilder builder = new StringBuilder();
+                final char[] buffer = new char[4096];
+                int read;
+                while ((read = body.read(buffer)) != -1)
+                    builder.append(buffer, 0, read);
+                return builder.toString();
+            }
+        });
+    }
+
+    private static double parseRateFloat(JsonReader reader) throws IOException {
+        double rate = Double.NaN;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            if (reader.nextName().equals("rate_float"))
+                rate = reader.nextDouble();
+            else
+                reader.skipValue();
+        }
+        reader.endObject();
+        if (Double.isNaN(rate) || rate <= 0)
+            throw new IOException("invalid rate_float");
+        return rate;
+    }
+
+    /**
+     * Rows are [date, open, high, low, close, ...], newest first.
+     */
+    private static DailyPrices parseQuandlData(JsonReader reader) throws IOException {
+        final SimpleDateFormat dayFormat = new SimpleDateFormat("yyyy-MM-dd", Locale.US);
+        dayFormat.setTimeZone(TimeZone.getTimeZone("UTC"));
+        long[] times = new long[64];
+        double[] values = new double[64];
+        int size = 0;
+
+        reader.beginArray();
+        while (reader.hasNext()) {
+            reader.beginArray();
+            final String date = reader.nextString();
+            final boolean hasValue = reader.peek() != JsonToken.NULL;
+            final double value = hasValue ? reader.nextDouble() : 0;
+            if (!hasValue)
+                reader.nextNull();
+            while (reader.hasNext())
+                reader.skipValue();
+            reader.endArray();
+
+            if (!hasValue)
+                continue;
+            if (size == times.length) {
+                times = Arrays.copyOf(times, size * 2);
+                values = Arrays.copyOf(values, size * 2);
+            }
+            try {
+                times[size] = dayFormat.parse(date).getTime();
+            } catch (ParseException x) {
+                throw new IOException("invalid date: " + date);
+            }
+            values[size] = value;
+            size++;
+        }
+        reader.endArray();
+
+        // reverse into oldest first
+        for (int i = 0, j = size - 1; i < j; i++, j--) {
+            final long time = times[i];
+            times[i] = times[j];
+            times[j] = time;
+            final double value = values[i];
+            values[i] = values[j];
+            values[j] = value;
+        }
+        return new DailyPrices(times, values, size);
+    }
+}
@@ -0,0 +1,265 @@
+package com.ivan.fgwallet.networking;
+
+import com.squareup.okhttp.CacheControl;
+import com.squareup.okhttp.Call;
+import com.squareup.okhttp.Interceptor;
+import com.squareup.okhttp.MediaType;
+import com.squareup.okhttp.OkHttpClient;
+import com.squareup.okhttp.Request;
+import com.squareup.okhttp.RequestBody;
+import com.squareup.okhttp.Response;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Typed gateway for all HTTP requests of the app, over one shared {@link OkHttpClient}:
+ * <ul>
+ * <li>concurrent requests for the same {@link Endpoint} share a single network call,</li>
+ * <li>results younger than the endpoint's TTL are served from memory, and responses are kept in the client's disk
+ * cache for as long as the TTL, so they survive process restarts,</li>
+ * <li>if the network fails, a stale response from the disk cache is served rather than an error,</li>
+ * <li>bodies are parsed as a stream on OkHttp's worker threads, and only the result is handed to the callback
+ * executor (the main thread in the app).</li>
+ * </ul>
+ * Knows nothing about Android, so it can be driven against a local mock web server.
+ */
+public class HttpGateway {
+
+    public interface Parser<T> {
+        T parse(Reader body) throws IOException;
+    }
+
+    public interface Callback<T> {
+        void onResult(T result);
+
+        void onError(Exception x);
+    }
+
+    /**
+     * What to fetch and how to parse it. Endpoints with equal URL, headers and parser class are considered identical,
+     * so endpoints parsing the same URL into different types never share a result.
+     */
+    public static final class Endpoint<T> {
+        final String url;
+        final Map<String, String> headers;
+        final long ttlMs;
+        final Parser<T> parser;
+        final String key;
+
+        /**
+         * @param ttlMs how long a result stays fresh, or 0 to always go to the network
+         */
+        public Endpoint(String url, Map<String, String> headers, long ttlMs, Parser<T> parser) {
+            this.url = url;
+            this.headers = Collections.unmodifiableMap(new TreeMap<String, String>(headers));
+            this.ttlMs = ttlMs;
+            this.parser = parser;
+            this.key = url + ' ' + this.headers + ' ' + parser.getClass().getName();
+        }
+    }
+
+    private static final class Cached {
+        final Object value;
+        final long fetchedAt;
+
+        Cached(Object value, long fetchedAt) {
+            this.value = value;
+            this.fetchedAt = fetchedAt;
+        }
+    }
+
+    // tells the network interceptor how long the response may be cached, never sent to the server
+    private static final String TTL_HEADER = "X-Gateway-Ttl";
+    private static final MediaType JSON = MediaType.parse("application/json; charset=utf-8");
+
+    private final OkHttpClient client;
+    private final Executor callbackExecutor;
+    // guarded by this
+    private final Map<String, Cached> results = new HashMap<String, Cached>();
+    private final Map<String, List<Callback<?>>> inFlight = new HashMap<String, List<Callback<?>>>();
+
+    /**
+     * @param client shared client, should have a disk cache set
+     * @param callbackExecutor where callbacks are run
+     */
+    public HttpGateway(OkHttpClient client, Executor callbackExecutor) {
+        this.client = client;
+        this.callbackExecutor = callbackExecutor;
+        client.networkInterceptors().add(new Interceptor() {
+            @Override
+            public Response intercept(Chain chain) throws IOException {
+                final Request request = chain.request();
+                final String ttl = request.header(TTL_HEADER);
+                if (ttl == null)
+                    return chain.proceed(request);
+                final Response response = chain.proceed(request.newBuilder().removeHeader(TTL_HEADER).build());
+                if (!response.isSuccessful())
+                    return response;
+                return response.newBuilder().removeHeader("Pragma").header("Cache-Control", "max-age=" + ttl)
+                        .build();
+            }
+        });
+    }
+
+    /**
+     * Fetches the endpoint, unless a fresh result is at hand or the same request is already underway.
+     */
+    public <T> void get(final Endpoint<T> endpoint, Callback<T> callback) {
+        synchronized (this) {
+            final Cached cached = results.get(endpoint.key);
+            if (cached != null && System.currentTimeMillis() - cached.fetchedAt < endpoint.ttlMs) {
+                deliver(Collections.<Callback<?>> singletonList(callback), cached.value, null);
+                return;
+            }
+
+            final List<Callback<?>> waiting = inFlight.get(endpoint.key);
+            if (waiting != null) {
+                waiting.add(callback);
+                return;
+            }
+            final List<Callback<?>> callbacks = new ArrayList<Callback<?>>();
+            callbacks.add(callback);
+            inFlight.put(endpoint.key, callbacks);
+        }
+
+        final Request.Builder request = newRequest(endpoint.url, endpoint.headers);
+        if (endpoint.ttlMs > 0) {
+            final long ttlSecs = TimeUnit.MILLISECONDS.toSeconds(endpoint.ttlMs);
+            request.header(TTL_HEADER, Long.toString(ttlSecs));
+            request.cacheControl(new CacheControl.Builder().maxAge((int) ttlSecs, TimeUnit.SECONDS).build());
+        }
+
+        client.newCall(request.build()).enqueue(new com.squareup.okhttp.Callback() {
+            @Override
+            public void onFailure(Request request, IOException x) {
+                serveStaleOrFail(endpoint, x);
+            }
+
+            @Override
+            public void onResponse(Response response) {
+                try {
+                    if (!response.isSuccessful()) {
+                        response.body().close();
+                        serveStaleOrFail(endpoint, new IOException("HTTP " + response.code() + " from " + endpoint.url));
+                        return;
+                    }
+                    final T result = parse(endpoint, response);
+                    complete(endpoint, result, null, true);
+                } catch (Exception x) {
+                    serveStaleOrFail(endpoint, x);
+                }
+            }
+        });
+    }
+
+    /**
+     * Posts to the given URL with an empty body. Posts are neither cached nor coalesced.
+     */
+    public void post(String url, Map<String, String> headers, Callback<String> callback) {
+        post(url, headers, RequestBody.create((MediaType) null, new byte[0]), callback);
+    }
+
+    /**
+     * Posts the given JSON document to the given URL. Posts are neither cached nor coalesced.
+     */
+    public void postJson(String url, Map<String, String> headers, String json, Callback<String> callback) {
+        post(url, headers, RequestBody.create(JSON, json), callback);
+    }
+
+    private void post(String url, Map<String, String> headers, RequestBody body, final Callback<String> callback) {
+        final Request.Builder request = newRequest(url, headers);
+        request.post(body);
+        client.newCall(request.build()).enqueue(new com.squareup.okhttp.Callback() {
+            @Override
+            public void onFailure(Request request, IOException x) {
+                deliver(Collections.<Callback<?>> singletonList(callback), null, x);
+            }
+
+            @Override
+            public void onResponse(Response response) {
+                try {
+                    if (!response.isSuccessful()) {
+                        response.body().close();
+                        throw new IOException("HTTP " + response.code() + " from " + response.request().urlString());
+                    }
+                    deliver(Collections.<Callback<?>> singletonList(callback), response.body().string(), null);
+                } catch (IOException x) {
+                    deliver(Collections.<Callback<?>> singletonList(callback), null, x);
+                }
+            }
+        });
+    }
+
+    /**
+     * Runs on an OkHttp worker thread, so the blocking cache lookup is fine.
+     */
+    private <T> void serveStaleOrFail(Endpoint<T> endpoint, Exception cause) {
+        if (endpoint.ttlMs > 0) {
+            try {
+                final Request request = newRequest(endpoint.url, endpoint.headers)
+                        .cacheControl(CacheControl.FORCE_CACHE).build();
+                final Response response = client.newCall(request).execute();
+                if (response.isSuccessful()) {
+                    // stale, so don't remember it as fresh
+                    complete(endpoint, parse(endpoint, response), null, false);
+                    return;
+                }
+                response.body().close();
+            } catch (Exception x) {
+                // fall through to the original error
+            }
+        }
+        complete(endpoint, null, cause, false);
+    }
+
+    private <T> void complete(Endpoint<T> endpoint, T result, Exception error, boolean fresh) {
+        final List<Callback<?>> callbacks;
+        synchronized (this) {
+            if (fresh && endpoint.ttlMs > 0)
+                results.put(endpoint.key, new Cached(result, System.currentTimeMillis()));
+            callbacks = inFlight.remove(endpoint.key);
+        }
+        if (callbacks != null)
+            deliver(callbacks, result, error);
+    }
+
+    private void deliver(final List<Callback<?>> callbacks, final Object result, final Exception error) {
+        callbackExecutor.execute(new Runnable() {
+            @Override
+            @SuppressWarnings("unchecked")
+            public void run() {
+                for (final Callback<?> callback : callbacks) {
+                    if (error != null)
+                        callback.onError(error);
+                    else
+                        ((Callback<Object>) callback).onResult(result);
+                }
+            }
+        });
+    }
+
+    private static <T> T parse(Endpoint<T> endpoint, Response response) throws IOException {
+        final Reader body = response.body().charStream();
+        try {
+            return endpoint.parser.parse(body);
+        } finally {
+            body.close();
+        }
+    }
+
+    private static Request.Builder newRequest(String url, Map<String, String> headers) {
+        final Request.Builder request = new Request.Builder().url(url);
+        for (final Map.Entry<String, String> header : headers.entrySet())
+            request.header(header.getKey(), header.getValue());
+        return request;
+    }
+}
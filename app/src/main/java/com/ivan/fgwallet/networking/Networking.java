@@ -2,14 +2,17 @@ package com.ivan.fgwallet.networking;
 
 import android.content.Context;
 
-import com.androidnetworking.AndroidNetworking;
-import com.androidnetworking.common.Priority;
-import com.androidnetworking.error.ANError;
-import com.androidnetworking.interfaces.StringRequestListener;
+import com.ivan.fgwallet.WalletApplication;
 import com.ivan.fgwallet.interfaces.NetworkCallBack;
 import com.ivan.fgwallet.service.Constants;
 import com.kaopiz.kprogresshud.KProgressHUD;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Collections;
+import java.util.Map;
+
 
 /**
  * Created by arvind on 16/07/17.
@@ -37,103 +40,48 @@ public class Networking {
 
     public static String URL = "http://www.marketbugs.com/fg-wallet/?";
 
+    private static final Map<String, String> NO_HEADERS = Collections.emptyMap();
+
+    private static final Logger log = LoggerFactory.getLogger(Networking.class);
+
     public void doexecuteGET(String method) {
         showProgress();
-        AndroidNetworking.get(URL+ method)
-                .addHeaders(Constants.getHeader())
-                .addPathParameter(method)
-                .setPriority(Priority.MEDIUM)
-                .build()
-                .getAsString(new StringRequestListener() {
-                    @Override
-                    public void onResponse(String response) {
-                        System.out.println(response);
-                        hideProgress();
-                        networkCallBack.callBack(response);
-
-                    }
-
-                    @Override
-                    public void onError(ANError anError) {
-                        System.out.println(anError.getResponse());
-                        hideProgress();
-                        networkCallBack.callBack("error");
-                    }
-                });
+        WalletApplication.getInstance().getHttpGateway().get(Endpoints.string(URL + method, Constants.getHeader()),
+                stringCallback);
     }
 
 
     public void doexecutePOST(String  path) {
         showProgress();
-        AndroidNetworking.post(path)
-                .addHeaders(Constants.getHeader())
-                .setPriority(Priority.MEDIUM)
-                .build()
-                .getAsString(new StringRequestListener() {
-                    @Override
-                    public void onResponse(String response) {
-                        System.out.println(response);
-                        hideProgress();
-                        networkCallBack.callBack(response);
-
-                    }
-
-                    @Override
-                    public void onError(ANError anError) {
-                        System.out.println(anError);
-                        hideProgress();
-                        networkCallBack.callBack("error");
-                    }
-                });
+        WalletApplication.getInstance().getHttpGateway().post(path, Constants.getHeader(), stringCallback);
     }
 
     public void doexecutePOSTWITHOUTHEADER(String  path) {
         showProgress();
-        AndroidNetworking.post(path)
-                .setPriority(Priority.MEDIUM)
-                .build()
-                .getAsString(new StringRequestListener() {
-                    @Override
-                    public void onResponse(String response) {
-                        System.out.println(response);
-                        hideProgress();
-                        networkCallBack.callBack(response);
-
-                    }
-
-                    @Override
-                    public void onError(ANError anError) {
-                        System.out.println(anError);
-                        hideProgress();
-                        networkCallBack.callBack("error");
-                    }
-                });
+        WalletApplication.getInstance().getHttpGateway().post(path, NO_HEADERS, stringCallback);
     }
 
 
     public void doexecuteGETWITHOUTHEADER(String  path) {
         showProgress();
-        AndroidNetworking.get(path)
-                .setPriority(Priority.MEDIUM)
-                .build()
-                .getAsString(new StringRequestListener() {
-                    @Override
-                    public void onResponse(String response) {
-                        System.out.println(response);
-                        hideProgress();
-                        networkCallBack.callBack(response);
-
-                    }
-
-                    @Override
-                    public void onError(ANError anError) {
-                        System.out.println(anError);
-                        hideProgress();
-                        networkCallBack.callBack("error");
-                    }
-                });
+        WalletApplication.getInstance().getHttpGateway().get(Endpoints.string(path, NO_HEADERS), stringCallback);
     }
 
+    private final HttpGateway.Callback<String> stringCallback = new HttpGateway.Callback<String>() {
+        @Override
+        public void onResult(String response) {
+            hideProgress();
+            networkCallBack.callBack(response);
+        }
+
+        @Override
+        public void onError(Exception x) {
+            log.warn("request failed", x);
+            hideProgress();
+            networkCallBack.callBack("error");
+        }
+    };
+
     public void showProgress() {
         if (progress_dialog != null)
             if (progress_dialog.isShowing()) {
@@ -30,7 +30,6 @@ import com.ivan.fgwallet.schildbach.wallet.data.ExchangeRate;
 import com.ivan.fgwallet.R;
 
 import android.content.SharedPreferences;
-import android.content.SharedPreferences.Editor;
 import android.content.SharedPreferences.OnSharedPreferenceChangeListener;
 import android.content.res.Resources;
 import android.net.Uri;
@@ -48,6 +47,7 @@ public class Configuration {
     public static final String PREFS_KEY_BTC_PRECISION = "btc_precision";
     public static final String PREFS_KEY_OWN_NAME = "own_name";
     public static final String PREFS_KEY_SEND_COINS_AUTOCLOSE = "send_coins_autoclose";
+    public static final String PREFS_KEY_SPENDING_SESSION = "spending_session";
     public static final String PREFS_KEY_CONNECTIVITY_NOTIFICATION = "connectivity_notification";
     public static final String PREFS_KEY_EXCHANGE_CURRENCY = "exchange_currency";
     public static final String PREFS_KEY_TRUSTED_PEER = "trusted_peer";
@@ -68,6 +68,7 @@ public class Configuration {
     public static final String PREFS_KEY_REMIND_BACKUP = "remind_backup";
     private static final String PREFS_KEY_LAST_BACKUP = "last_backup";
     private static final String PREFS_KEY_LAST_BLUETOOTH_ADDRESS = "last_bluetooth_address";
+    private static final String PREFS_KEY_KEY_BACKUP_FINGERPRINT = "key_backup_fingerprint";
 
     private static final int PREFS_DEFAULT_BTC_SHIFT = 3;
     private static final int PREFS_DEFAULT_BTC_PRECISION = 2;
@@ -135,6 +136,11 @@ public class Configuration {
         return prefs.getBoolean(PREFS_KEY_SEND_COINS_AUTOCLOSE, true);
     }
 
+    /** idle window of the unlocked spending session, or 0 if disabled */
+    public long getSpendingSessionMs() {
+        return Long.parseLong(prefs.getString(PREFS_KEY_SPENDING_SESSION, "0")) * DateUtils.SECOND_IN_MILLIS;
+    }
+
     public boolean getConnectivityNotificationEnabled() {
         return prefs.getBoolean(PREFS_KEY_CONNECTIVITY_NOTIFICATION, false);
     }
@@ -247,14 +253,6 @@ public class Configuration {
         }
     }
 
-    public void setCachedExchangeRate(final ExchangeRate cachedExchangeRate) {
-        final Editor edit = prefs.edit();
-        edit.putString(PREFS_KEY_CACHED_EXCHANGE_CURRENCY, cachedExchangeRate.getCurrencyCode());
-        edit.putLong(PREFS_KEY_CACHED_EXCHANGE_RATE_COIN, cachedExchangeRate.rate.coin.value);
-        edit.putLong(PREFS_KEY_CACHED_EXCHANGE_RATE_FIAT, cachedExchangeRate.rate.fiat.value);
-        edit.apply();
-    }
-
     public boolean getLastExchangeDirection() {
         return prefs.getBoolean(PREFS_KEY_LAST_EXCHANGE_DIRECTION, true);
     }
@@ -280,6 +278,14 @@ public class Configuration {
             prefs.edit().putString(PREFS_KEY_LAST_BLUETOOTH_ADDRESS, bluetoothAddress).apply();
     }
 
+    public String getKeyBackupFingerprint() {
+        return prefs.getString(PREFS_KEY_KEY_BACKUP_FINGERPRINT, null);
+    }
+
+    public void setKeyBackupFingerprint(final String fingerprint) {
+        prefs.edit().putString(PREFS_KEY_KEY_BACKUP_FINGERPRINT, fingerprint).apply();
+    }
+
     public void registerOnSharedPreferenceChangeListener(final OnSharedPreferenceChangeListener listener) {
         prefs.registerOnSharedPreferenceChangeListener(listener);
     }
@@ -67,7 +67,10 @@ public final class Constants {
         /** Filename of the wallet. */
         public static final String WALLET_FILENAME_PROTOBUF = "wallet-protobuf" + FILENAME_NETWORK_SUFFIX;
 
-        /** How often the wallet is autosaved. */
+        /** Filename of the journal of wallet changes since the last full save. */
+        public static final String WALLET_JOURNAL_FILENAME = WALLET_FILENAME_PROTOBUF + ".journal";
+
+        /** How often wallet changes are written to the journal. */
         public static final long WALLET_AUTOSAVE_DELAY_MS = 3 * DateUtils.SECOND_IN_MILLIS;
 
         /** Filename of the automatic key backup (old format, can only be read). */
@@ -76,6 +79,9 @@ public final class Constants {
         /** Filename of the automatic wallet backup. */
         public static final String WALLET_KEY_BACKUP_PROTOBUF = "key-backup-protobuf" + FILENAME_NETWORK_SUFFIX;
 
+        /** Filename the automatic wallet backup is written to before it replaces the previous one. */
+        public static final String WALLET_KEY_BACKUP_PROTOBUF_PARTIAL = "key-backup-partial" + FILENAME_NETWORK_SUFFIX;
+
         /** Path to external storage */
         public static final File EXTERNAL_STORAGE_DIR = Environment.getExternalStorageDirectory();
 
@@ -96,9 +102,18 @@ public final class Constants {
         /** Filename of the block store for storing the chain. */
         public static final String BLOCKCHAIN_FILENAME = "blockchain" + FILENAME_NETWORK_SUFFIX;
 
+        /** Filename of the peer address book. */
+        public static final String PEERS_FILENAME = "peers" + FILENAME_NETWORK_SUFFIX;
+
         /** Filename of the block checkpoints file. */
         public static final String CHECKPOINTS_FILENAME = "checkpoints" + FILENAME_NETWORK_SUFFIX + ".txt";
 
+        /** Filename of the binary block checkpoints file, generated from the text file at build time. */
+        public static final String CHECKPOINTS_BINARY_FILENAME = "checkpoints" + FILENAME_NETWORK_SUFFIX + ".bin";
+
+        /** Filename of the cached exchange rates of all currencies. */
+        public static final String EXCHANGE_RATES_FILENAME = "exchange-rates";
+
         /** Filename of the fees files. */
         public static final String FEES_FILENAME = "fees" + FILENAME_NETWORK_SUFFIX + ".txt";
 
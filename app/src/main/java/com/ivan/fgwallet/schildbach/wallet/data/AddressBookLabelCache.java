@@ -0,0 +1,176 @@
+/*
+ * Copyright 2011-2015 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.ivan.fgwallet.schildbach.wallet.data;
+
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import javax.annotation.Nullable;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Stopwatch;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.database.ContentObserver;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.Process;
+
+/**
+ * In-memory mirror of the address book labels. The table is bulk-loaded once on a background thread and individual
+ * entries are re-read whenever {@link AddressBookProvider} notifies a change, so lookups never touch SQLite.
+ *
+ * @author Andreas, soos
+ */
+public final class AddressBookLabelCache {
+    private final ContentResolver resolver;
+    private final Uri contentUri;
+
+    private final ConcurrentHashMap<String, String> labels = new ConcurrentHashMap<String, String>();
+    private volatile boolean loaded = false;
+
+    private final List<OnLabelsChangedListener> listeners = new CopyOnWriteArrayList<OnLabelsChangedListener>();
+    private final Handler callbackHandler = new Handler(Looper.getMainLooper());
+    private final Handler backgroundHandler;
+
+    private static final Logger log = LoggerFactory.getLogger(AddressBookLabelCache.class);
+
+    public interface OnLabelsChangedListener {
+        /** will be called back on UI thread */
+        void onLabelsChanged();
+    }
+
+    public AddressBookLabelCache(final Context context) {
+        this.resolver = context.getContentResolver();
+        this.contentUri = AddressBookProvider.contentUri(context.getPackageName());
+
+        final HandlerThread backgroundThread = new HandlerThread("addressBookLabelCache",
+                Process.THREAD_PRIORITY_BACKGROUND);
+        backgroundThread.start();
+        backgroundHandler = new Handler(backgroundThread.getLooper());
+
+        resolver.registerContentObserver(contentUri, true, new ContentObserver(backgroundHandler) {
+            @Override
+            public void onChange(final boolean selfChange) {
+                onChange(selfChange, null);
+            }
+
+            @Override
+            public void onChange(final boolean selfChange, @Nullable final Uri uri) {
+                // observer runs on the background thread already
+                final List<String> pathSegments = uri != null ? uri.getPathSegments() : null;
+                if (pathSegments != null && !pathSegments.isEmpty())
+                    reload(pathSegments.get(0));
+                else
+                    reloadAll();
+                notifyListeners();
+            }
+        });
+
+        backgroundHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                reloadAll();
+                notifyListeners();
+            }
+        });
+    }
+
+    /**
+     * Returns the label for the given address from memory, or {@code null} if there is none or the cache hasn't been
+     * loaded yet. Listeners are told once the initial load is done.
+     */
+    @Nullable
+    public String get(final String address) {
+        return labels.get(address);
+    }
+
+    public boolean isLoaded() {
+        return loaded;
+    }
+
+    public void addOnLabelsChangedListener(final OnLabelsChangedListener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeOnLabelsChangedListener(final OnLabelsChangedListener listener) {
+        listeners.remove(listener);
+    }
+
+    private void reloadAll() {
+        final Stopwatch watch = Stopwatch.createStarted();
+        final Cursor cursor = resolver.query(contentUri,
+                new String[] { AddressBookProvider.KEY_ADDRESS, AddressBookProvider.KEY_LABEL }, null, null, null);
+        if (cursor == null)
+            return;
+
+        try {
+            final int addressIndex = cursor.getColumnIndexOrThrow(AddressBookProvider.KEY_ADDRESS);
+            final int labelIndex = cursor.getColumnIndexOrThrow(AddressBookProvider.KEY_LABEL);
+
+            final ConcurrentHashMap<String, String> fresh = new ConcurrentHashMap<String, String>(cursor.getCount());
+            while (cursor.moveToNext()) {
+                final String label = cursor.getString(labelIndex);
+                if (label != null)
+                    fresh.put(cursor.getString(addressIndex), label);
+            }
+
+            labels.keySet().retainAll(fresh.keySet());
+            labels.putAll(fresh);
+        } finally {
+            cursor.close();
+        }
+
+        loaded = true;
+        log.info("{} address book labels loaded, took {}", labels.size(), watch);
+    }
+
+    private void reload(final String address) {
+        final Uri uri = contentUri.buildUpon().appendPath(address).build();
+        final Cursor cursor = resolver.query(uri, new String[] { AddressBookProvider.KEY_LABEL }, null, null, null);
+        if (cursor == null)
+            return;
+
+        try {
+            final String label = cursor.moveToFirst() ? cursor.getString(0) : null;
+            if (label != null)
+                labels.put(address, label);
+            else
+                labels.remove(address);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private void notifyListeners() {
+        callbackHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                for (final OnLabelsChangedListener listener : listeners)
+                    listener.onLabelsChanged();
+            }
+        });
+    }
+}
@@ -17,12 +17,17 @@
 
 package com.ivan.fgwallet.schildbach.wallet.data;
 
+import java.util.ArrayList;
 import java.util.List;
 
 import android.content.ContentProvider;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
 import android.content.ContentValues;
 import android.content.Context;
+import android.content.OperationApplicationException;
 import android.database.Cursor;
+import android.database.DatabaseUtils;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
 import android.database.sqlite.SQLiteQueryBuilder;
@@ -33,6 +38,7 @@ import android.net.Uri;
  */
 public class AddressBookProvider extends ContentProvider {
     private static final String DATABASE_TABLE = "address_book";
+    private static final String FTS_TABLE = DATABASE_TABLE + "_fts";
 
     public static final String KEY_ROWID = "_id";
     public static final String KEY_ADDRESS = "address";
@@ -83,7 +89,21 @@ public class AddressBookProvider extends ContentProvider {
         final String address = uri.getLastPathSegment();
         values.put(KEY_ADDRESS, address);
 
-        long rowId = helper.getWritableDatabase().insertOrThrow(DATABASE_TABLE, null, values);
+        final SQLiteDatabase db = helper.getWritableDatabase();
+        final long rowId;
+        db.beginTransaction();
+        try {
+            // the address may have been added in the meantime, e.g. by a second "add" dialog
+            if (updateByAddress(db, values) > 0)
+                rowId = DatabaseUtils.longForQuery(db, "SELECT " + KEY_ROWID + " FROM " + DATABASE_TABLE + " WHERE "
+                        + KEY_ADDRESS + "=?", new String[] { address });
+            else
+                rowId = db.insertOrThrow(DATABASE_TABLE, null, values);
+
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
 
         final Uri rowUri = contentUri(getContext().getPackageName()).buildUpon().appendPath(address)
                 .appendPath(Long.toString(rowId)).build();
@@ -93,6 +113,58 @@ public class AddressBookProvider extends ContentProvider {
         return rowUri;
     }
 
+    /**
+     * Inserts or updates all entries in one transaction, notifying observers once. Each entry must carry its
+     * {@link #KEY_ADDRESS}.
+     */
+    @Override
+    public int bulkInsert(final Uri uri, final ContentValues[] values) {
+        if (uri.getPathSegments().size() != 0)
+            throw new IllegalArgumentException(uri.toString());
+
+        final SQLiteDatabase db = helper.getWritableDatabase();
+        int count = 0;
+        db.beginTransaction();
+        try {
+            for (final ContentValues entry : values) {
+                if (!entry.containsKey(KEY_ADDRESS))
+                    throw new IllegalArgumentException("missing " + KEY_ADDRESS);
+
+                // no INSERT OR REPLACE: its implicit delete doesn't fire the FTS delete trigger
+                if (updateByAddress(db, entry) > 0 || db.insertOrThrow(DATABASE_TABLE, null, entry) != -1)
+                    count++;
+            }
+
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+
+        if (count > 0)
+            getContext().getContentResolver().notifyChange(uri, null);
+
+        return count;
+    }
+
+    private static int updateByAddress(final SQLiteDatabase db, final ContentValues values) {
+        return db.update(DATABASE_TABLE, values, KEY_ADDRESS + "=?",
+                new String[] { values.getAsString(KEY_ADDRESS) });
+    }
+
+    @Override
+    public ContentProviderResult[] applyBatch(final ArrayList<ContentProviderOperation> operations)
+            throws OperationApplicationException {
+        final SQLiteDatabase db = helper.getWritableDatabase();
+        db.beginTransaction();
+        try {
+            final ContentProviderResult[] results = super.applyBatch(operations);
+            db.setTransactionSuccessful();
+            return results;
+        } finally {
+            db.endTransaction();
+        }
+    }
+
     @Override
     public int update(final Uri uri, final ContentValues values, final String selection, final String[] selectionArgs) {
         if (uri.getPathSegments().size() != 1)
@@ -157,9 +229,11 @@ public class AddressBookProvider extends ContentProvider {
             appendAddresses(qb, addresses);
             qb.appendWhere(")");
         } else if (SELECTION_QUERY.equals(originalSelection)) {
-            final String query = '%' + originalSelectionArgs[0].trim() + '%';
-            selection = KEY_ADDRESS + " LIKE ? OR " + KEY_LABEL + " LIKE ?";
-            selectionArgs = new String[] { query, query };
+            final String match = ftsPrefixQuery(originalSelectionArgs[0]);
+            if (match != null) {
+                selection = KEY_ROWID + " IN (SELECT docid FROM " + FTS_TABLE + " WHERE " + FTS_TABLE + " MATCH ?)";
+                selectionArgs = new String[] { match };
+            }
         }
 
         final Cursor cursor = qb.query(helper.getReadableDatabase(), projection, selection, selectionArgs, null, null,
@@ -170,6 +244,23 @@ public class AddressBookProvider extends ContentProvider {
         return cursor;
     }
 
+    /**
+     * Turns free text into an FTS query matching rows where every word is a prefix of a word in the address or label.
+     * Returns {@code null} if there is nothing to search for.
+     */
+    private static String ftsPrefixQuery(final String query) {
+        final StringBuilder match = new StringBuilder();
+        for (final String word : query.trim().split("\\s+")) {
+            final String token = word.replace("\"", "");
+            if (token.isEmpty())
+                continue;
+            if (match.length() > 0)
+                match.append(' ');
+            match.append('"').append(token).append("\"*");
+        }
+        return match.length() > 0 ? match.toString() : null;
+    }
+
     private static void appendAddresses(final SQLiteQueryBuilder qb, final String[] addresses) {
         for (final String address : addresses) {
             qb.appendWhereEscapeString(address.trim());
@@ -180,13 +271,32 @@ public class AddressBookProvider extends ContentProvider {
 
     private static class Helper extends SQLiteOpenHelper {
         private static final String DATABASE_NAME = "address_book";
-        private static final int DATABASE_VERSION = 1;
+        private static final int DATABASE_VERSION = 2;
 
         private static final String DATABASE_CREATE = "CREATE TABLE " + DATABASE_TABLE + " (" //
                 + KEY_ROWID + " INTEGER PRIMARY KEY AUTOINCREMENT, " //
                 + KEY_ADDRESS + " TEXT NOT NULL, " //
                 + KEY_LABEL + " TEXT NULL);";
 
+        private static final String INDEX_ADDRESS_CREATE = "CREATE UNIQUE INDEX " + DATABASE_TABLE + "_"
+                + KEY_ADDRESS + " ON " + DATABASE_TABLE + " (" + KEY_ADDRESS + ");";
+
+        // external content table, kept in sync by the triggers below
+        private static final String FTS_CREATE = "CREATE VIRTUAL TABLE " + FTS_TABLE + " USING fts4(content=\""
+                + DATABASE_TABLE + "\", " + KEY_ADDRESS + ", " + KEY_LABEL + ", tokenize=unicode61);";
+
+        private static final String[] FTS_TRIGGERS_CREATE = { //
+                "CREATE TRIGGER " + FTS_TABLE + "_bu BEFORE UPDATE ON " + DATABASE_TABLE + " BEGIN DELETE FROM "
+                        + FTS_TABLE + " WHERE docid=old." + KEY_ROWID + "; END;",
+                "CREATE TRIGGER " + FTS_TABLE + "_bd BEFORE DELETE ON " + DATABASE_TABLE + " BEGIN DELETE FROM "
+                        + FTS_TABLE + " WHERE docid=old." + KEY_ROWID + "; END;",
+                "CREATE TRIGGER " + FTS_TABLE + "_au AFTER UPDATE ON " + DATABASE_TABLE + " BEGIN INSERT INTO "
+                        + FTS_TABLE + "(docid, " + KEY_ADDRESS + ", " + KEY_LABEL + ") VALUES(new." + KEY_ROWID
+                        + ", new." + KEY_ADDRESS + ", new." + KEY_LABEL + "); END;",
+                "CREATE TRIGGER " + FTS_TABLE + "_ai AFTER INSERT ON " + DATABASE_TABLE + " BEGIN INSERT INTO "
+                        + FTS_TABLE + "(docid, " + KEY_ADDRESS + ", " + KEY_LABEL + ") VALUES(new." + KEY_ROWID
+                        + ", new." + KEY_ADDRESS + ", new." + KEY_LABEL + "); END;" };
+
         public Helper(final Context context) {
             super(context, DATABASE_NAME, null, DATABASE_VERSION);
         }
@@ -194,6 +304,14 @@ public class AddressBookProvider extends ContentProvider {
         @Override
         public void onCreate(final SQLiteDatabase db) {
             db.execSQL(DATABASE_CREATE);
+            createIndexes(db);
+        }
+
+        private static void createIndexes(final SQLiteDatabase db) {
+            db.execSQL(INDEX_ADDRESS_CREATE);
+            db.execSQL(FTS_CREATE);
+            for (final String trigger : FTS_TRIGGERS_CREATE)
+                db.execSQL(trigger);
         }
 
         @Override
@@ -211,7 +329,11 @@ public class AddressBookProvider extends ContentProvider {
 
         private void upgrade(final SQLiteDatabase db, final int oldVersion) {
             if (oldVersion == 1) {
-                // future
+                // duplicates would violate the unique index, keep the newest entry per address
+                db.execSQL("DELETE FROM " + DATABASE_TABLE + " WHERE " + KEY_ROWID + " NOT IN (SELECT MAX("
+                        + KEY_ROWID + ") FROM " + DATABASE_TABLE + " GROUP BY " + KEY_ADDRESS + ")");
+                createIndexes(db);
+                db.execSQL("INSERT INTO " + FTS_TABLE + "(" + FTS_TABLE + ") VALUES('rebuild')");
             } else {
                 throw new UnsupportedOperationException("old=" + oldVersion);
             }
@@ -0,0 +1,320 @@
+/*
+ * Copyright 2011-2015 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.ivan.fgwallet.schildbach.wallet.data;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.annotation.Nullable;
+
+import org.bitcoinj.core.Coin;
+import org.bitcoinj.utils.ContextPropagatingThreadFactory;
+import org.bitcoinj.utils.Fiat;
+import org.bitcoinj.utils.MonetaryFormat;
+import org.json.JSONObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Stopwatch;
+import com.squareup.okhttp.Call;
+import com.squareup.okhttp.HttpUrl;
+import com.squareup.okhttp.Request;
+import com.squareup.okhttp.Response;
+
+import com.ivan.fgwallet.schildbach.wallet.Constants;
+
+/**
+ * Keeps the exchange rates of all currencies in memory and on disk, and serves them without ever blocking. Stale
+ * rates are served while a refresh runs in the background. Refreshes are conditional requests, so an unchanged
+ * ticker costs a {@code 304} rather than the full document.
+ *
+ * @author Andreas, soos
+ */
+final class ExchangeRatesCache {
+    public interface Listener {
+        void onExchangeRatesUpdated();
+    }
+
+    private static final class Snapshot {
+        public final Map<String, ExchangeRate> rates;
+        public final long fetchedAt;
+        @Nullable
+        public final String etag;
+        @Nullable
+        public final String lastModified;
+
+        public Snapshot(final Map<String, ExchangeRate> rates, final long fetchedAt, @Nullable final String etag,
+                @Nullable final String lastModified) {
+            this.rates = Collections.unmodifiableMap(rates);
+            this.fetchedAt = fetchedAt;
+            this.etag = etag;
+            this.lastModified = lastModified;
+        }
+    }
+
+    private final File file;
+    private final String userAgent;
+    private final Listener listener;
+    private volatile Snapshot snapshot;
+    private final AtomicBoolean refreshing = new AtomicBoolean();
+    private final ExecutorService executor = Executors
+            .newSingleThreadExecutor(new ContextPropagatingThreadFactory("exchange-rates", Thread.MIN_PRIORITY));
+
+    private static final int FILE_VERSION = 1;
+
+    private static final HttpUrl BITCOINAVERAGE_URL = HttpUrl
+            .parse("https://apiv2.bitcoinaverage.com/indices/global/ticker/short?crypto=BTC");
+    private static final String BITCOINAVERAGE_SOURCE = "BitcoinAverage.com";
+
+    private static final Logger log = LoggerFactory.getLogger(ExchangeRatesCache.class);
+
+    /**
+     * @param seed
+     *            rate to serve until the cache file has been loaded, can be null
+     */
+    public ExchangeRatesCache(final File file, final String userAgent, @Nullable final ExchangeRate seed,
+            final Listener listener) {
+        this.file = file;
+        this.userAgent = userAgent;
+        this.listener = listener;
+
+        final Map<String, ExchangeRate> rates = new TreeMap<String, ExchangeRate>();
+        if (seed != null)
+            rates.put(seed.getCurrencyCode(), seed);
+        this.snapshot = new Snapshot(rates, 0, null, null);
+    }
+
+    /**
+     * Loads the cache file in the background. Listeners are notified once the rates are available.
+     */
+    public void loadAsync() {
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                final Snapshot loaded = load();
+                if (loaded != null && snapshot.fetchedAt == 0) {
+                    snapshot = loaded;
+                    listener.onExchangeRatesUpdated();
+                }
+            }
+        });
+    }
+
+    /**
+     * Returns all known rates, possibly stale. Never blocks.
+     */
+    public Map<String, ExchangeRate> getRates() {
+        return snapshot.rates;
+    }
+
+    /**
+     * Starts a refresh in the background if the rates are older than the given age, unless one is already running.
+     */
+    public void refreshAsync(final long maxAgeMs) {
+        if (System.currentTimeMillis() - snapshot.fetchedAt <= maxAgeMs)
+            return;
+        if (!refreshing.compareAndSet(false, true))
+            return;
+
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    // rates might have been loaded from disk in the meantime
+                    if (System.currentTimeMillis() - snapshot.fetchedAt > maxAgeMs)
+                        refresh();
+                } finally {
+                    refreshing.set(false);
+                }
+            }
+        });
+    }
+
+    private void refresh() {
+        final Snapshot current = snapshot;
+        final Stopwatch watch = Stopwatch.createStarted();
+
+        final Request.Builder request = new Request.Builder();
+        request.url(BITCOINAVERAGE_URL);
+        request.header("User-Agent", userAgent);
+        if (!current.rates.isEmpty()) {
+            if (current.etag != null)
+                request.header("If-None-Match", current.etag);
+            if (current.lastModified != null)
+                request.header("If-Modified-Since", current.lastModified);
+        }
+
+        final Call call = Constants.HTTP_CLIENT.newCall(request.build());
+        try {
+            final Response response = call.execute();
+            if (response.code() == 304) {
+                response.body().close();
+                snapshot = new Snapshot(current.rates, System.currentTimeMillis(), current.etag,
+                        current.lastModified);
+                save(snapshot);
+                log.info("exchange rates from {} not modified, took {}", BITCOINAVERAGE_URL, watch);
+            } else if (response.isSuccessful()) {
+                final String content = response.body().string();
+                final Map<String, ExchangeRate> rates = parse(content);
+                watch.stop();
+                log.info("fetched exchange rates from {}, {} chars, took {}", BITCOINAVERAGE_URL, content.length(),
+                        watch);
+
+                if (!rates.isEmpty()) {
+                    snapshot = new Snapshot(rates, System.currentTimeMillis(), response.header("ETag"),
+                            response.header("Last-Modified"));
+                    save(snapshot);
+                    listener.onExchangeRatesUpdated();
+                }
+            } else {
+                response.body().close();
+                log.warn("http status {} when fetching exchange rates from {}", response.code(), BITCOINAVERAGE_URL);
+            }
+        } catch (final Exception x) {
+            log.warn("problem fetching exchange rates from " + BITCOINAVERAGE_URL, x);
+        }
+    }
+
+    private static Map<String, ExchangeRate> parse(final String content) throws Exception {
+        final JSONObject head = new JSONObject(content);
+        final Map<String, ExchangeRate> rates = new TreeMap<String, ExchangeRate>();
+
+        for (final Iterator<String> i = head.keys(); i.hasNext();) {
+            final String currencyCode = i.next();
+            if (currencyCode.startsWith("BTC")) {
+                final String fiatCurrencyCode = currencyCode.substring(3);
+                if (!fiatCurrencyCode.equals(MonetaryFormat.CODE_BTC)
+                        && !fiatCurrencyCode.equals(MonetaryFormat.CODE_MBTC)
+                        && !fiatCurrencyCode.equals(MonetaryFormat.CODE_UBTC)) {
+                    final JSONObject exchangeRate = head.getJSONObject(currencyCode);
+                    final JSONObject averages = exchangeRate.getJSONObject("averages");
+                    try {
+                        final Fiat rate = parseFiatInexact(fiatCurrencyCode, averages.getString("day"));
+                        if (rate.signum() > 0)
+                            rates.put(fiatCurrencyCode, new ExchangeRate(new org.bitcoinj.utils.ExchangeRate(rate),
+                                    BITCOINAVERAGE_SOURCE));
+                    } catch (final IllegalArgumentException x) {
+                        log.warn("problem fetching {} exchange rate from {}: {}", currencyCode, BITCOINAVERAGE_URL,
+                                x.getMessage());
+                    }
+                }
+            }
+        }
+
+        return rates;
+    }
+
+    // backport from bitcoinj 0.15
+    private static Fiat parseFiatInexact(final String currencyCode, final String str) {
+        final long val = new BigDecimal(str).movePointRight(Fiat.SMALLEST_UNIT_EXPONENT).longValue();
+        return Fiat.valueOf(currencyCode, val);
+    }
+
+    @Nullable
+    private Snapshot load() {
+        DataInputStream is = null;
+        try {
+            is = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            if (is.readInt() != FILE_VERSION)
+                throw new IOException("unknown version");
+            final long fetchedAt = is.readLong();
+            final String etag = is.readBoolean() ? is.readUTF() : null;
+            final String lastModified = is.readBoolean() ? is.readUTF() : null;
+            final int count = is.readInt();
+            final Map<String, ExchangeRate> rates = new TreeMap<String, ExchangeRate>();
+            for (int i = 0; i < count; i++) {
+                final String currencyCode = is.readUTF();
+                final Coin coin = Coin.valueOf(is.readLong());
+                final Fiat fiat = Fiat.valueOf(currencyCode, is.readLong());
+                final String source = is.readBoolean() ? is.readUTF() : null;
+                rates.put(currencyCode, new ExchangeRate(new org.bitcoinj.utils.ExchangeRate(coin, fiat), source));
+            }
+            log.info("loaded {} exchange rates from '{}'", rates.size(), file);
+            return new Snapshot(rates, fetchedAt, etag, lastModified);
+        } catch (final FileNotFoundException x) {
+            // first run
+            return null;
+        } catch (final IOException x) {
+            log.info("problem loading exchange rates from '" + file + "', ignoring", x);
+            return null;
+        } finally {
+            if (is != null) {
+                try {
+                    is.close();
+                } catch (final IOException x) {
+                    // swallow
+                }
+            }
+        }
+    }
+
+    private void save(final Snapshot snapshot) {
+        final File tmpFile = new File(file.getPath() + ".tmp");
+        DataOutputStream os = null;
+        try {
+            os = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmpFile)));
+            os.writeInt(FILE_VERSION);
+            os.writeLong(snapshot.fetchedAt);
+            writeNullableUTF(os, snapshot.etag);
+            writeNullableUTF(os, snapshot.lastModified);
+            os.writeInt(snapshot.rates.size());
+            for (final ExchangeRate exchangeRate : snapshot.rates.values()) {
+                os.writeUTF(exchangeRate.getCurrencyCode());
+                os.writeLong(exchangeRate.rate.coin.value);
+                os.writeLong(exchangeRate.rate.fiat.value);
+                writeNullableUTF(os, exchangeRate.source);
+            }
+            os.close();
+            os = null;
+
+            if (!tmpFile.renameTo(file))
+                throw new IOException("cannot rename " + tmpFile + " to " + file);
+        } catch (final IOException x) {
+            log.warn("problem saving exchange rates to '" + file + "'", x);
+        } finally {
+            if (os != null) {
+                try {
+                    os.close();
+                } catch (final IOException x) {
+                    // swallow
+                }
+            }
+        }
+    }
+
+    private static void writeNullableUTF(final DataOutputStream os, @Nullable final String str) throws IOException {
+        os.writeBoolean(str != null);
+        if (str != null)
+            os.writeUTF(str);
+    }
+}
@@ -17,27 +17,12 @@
 
 package com.ivan.fgwallet.schildbach.wallet.data;
 
-import java.math.BigDecimal;
 import java.util.Currency;
-import java.util.Iterator;
 import java.util.Locale;
 import java.util.Map;
-import java.util.TreeMap;
-
-import javax.annotation.Nullable;
 
 import org.bitcoinj.core.Coin;
 import org.bitcoinj.utils.Fiat;
-import org.bitcoinj.utils.MonetaryFormat;
-import org.json.JSONObject;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
-
-import com.google.common.base.Stopwatch;
-import com.squareup.okhttp.Call;
-import com.squareup.okhttp.HttpUrl;
-import com.squareup.okhttp.Request;
-import com.squareup.okhttp.Response;
 
 import com.ivan.fgwallet.schildbach.wallet.Configuration;
 import com.ivan.fgwallet.schildbach.wallet.Constants;
@@ -67,21 +52,10 @@ public class ExchangeRatesProvider extends ContentProvider {
     public static final String QUERY_PARAM_Q = "q";
     private static final String QUERY_PARAM_OFFLINE = "offline";
 
-    private Configuration config;
-    private String userAgent;
-
-    @Nullable
-    private Map<String, ExchangeRate> exchangeRates = null;
-    private long lastUpdated = 0;
-
-    private static final HttpUrl BITCOINAVERAGE_URL = HttpUrl
-            .parse("https://apiv2.bitcoinaverage.com/indices/global/ticker/short?crypto=BTC");
-    private static final String BITCOINAVERAGE_SOURCE = "BitcoinAverage.com";
+    private ExchangeRatesCache cache;
 
     private static final long UPDATE_FREQ_MS = 10 * DateUtils.MINUTE_IN_MILLIS;
 
-    private static final Logger log = LoggerFactory.getLogger(ExchangeRatesProvider.class);
-
     @Override
     public boolean onCreate() {
         if (!Constants.ENABLE_EXCHANGE_RATES)
@@ -89,14 +63,21 @@ public class ExchangeRatesProvider extends ContentProvider {
 
         final Context context = getContext();
 
-        this.config = new Configuration(PreferenceManager.getDefaultSharedPreferences(context), context.getResources());
-        this.userAgent = WalletApplication.httpUserAgent(WalletApplication.packageInfoFromContext(context).versionName);
-
-        final ExchangeRate cachedExchangeRate = config.getCachedExchangeRate();
-        if (cachedExchangeRate != null) {
-            exchangeRates = new TreeMap<String, ExchangeRate>();
-            exchangeRates.put(cachedExchangeRate.getCurrencyCode(), cachedExchangeRate);
-        }
+        final Configuration config = new Configuration(PreferenceManager.getDefaultSharedPreferences(context),
+                context.getResources());
+        final String userAgent = WalletApplication
+                .httpUserAgent(WalletApplication.packageInfoFromContext(context).versionName);
+        final Uri contentUri = contentUri(context.getPackageName(), false);
+
+        // the single cached rate of older versions is served until the cache file is loaded
+        cache = new ExchangeRatesCache(context.getFileStreamPath(Constants.Files.EXCHANGE_RATES_FILENAME), userAgent,
+                config.getCachedExchangeRate(), new ExchangeRatesCache.Listener() {
+                    @Override
+                    public void onExchangeRatesUpdated() {
+                        context.getContentResolver().notifyChange(contentUri, null);
+                    }
+                });
+        cache.loadAsync();
 
         return true;
     }
@@ -111,30 +92,16 @@ public class ExchangeRatesProvider extends ContentProvider {
     @Override
     public Cursor query(final Uri uri, final String[] projection, final String selection, final String[] selectionArgs,
             final String sortOrder) {
-        final long now = System.currentTimeMillis();
-
         final boolean offline = uri.getQueryParameter(QUERY_PARAM_OFFLINE) != null;
 
-        if (!offline && (lastUpdated == 0 || now - lastUpdated > UPDATE_FREQ_MS)) {
-            Map<String, ExchangeRate> newExchangeRates = null;
-            if (newExchangeRates == null)
-                newExchangeRates = requestExchangeRates();
+        if (!offline)
+            cache.refreshAsync(UPDATE_FREQ_MS);
 
-            if (newExchangeRates != null) {
-                exchangeRates = newExchangeRates;
-                lastUpdated = now;
-
-                final ExchangeRate exchangeRateToCache = bestExchangeRate(config.getExchangeCurrencyCode());
-                if (exchangeRateToCache != null)
-                    config.setCachedExchangeRate(exchangeRateToCache);
-            }
-        }
-
-        if (exchangeRates == null)
-            return null;
+        final Map<String, ExchangeRate> exchangeRates = cache.getRates();
 
         final MatrixCursor cursor = new MatrixCursor(
                 new String[] { BaseColumns._ID, KEY_CURRENCY_CODE, KEY_RATE_COIN, KEY_RATE_FIAT, KEY_SOURCE });
+        cursor.setNotificationUri(getContext().getContentResolver(), uri);
 
         if (selection == null) {
             for (final Map.Entry<String, ExchangeRate> entry : exchangeRates.entrySet()) {
@@ -158,7 +125,7 @@ public class ExchangeRatesProvider extends ContentProvider {
             }
         } else if (selection.equals(KEY_CURRENCY_CODE)) {
             final String selectionArg = selectionArgs[0];
-            final ExchangeRate exchangeRate = bestExchangeRate(selectionArg);
+            final ExchangeRate exchangeRate = bestExchangeRate(exchangeRates, selectionArg);
             if (exchangeRate != null) {
                 final org.bitcoinj.utils.ExchangeRate rate = exchangeRate.rate;
                 final String currencyCode = exchangeRate.getCurrencyCode();
@@ -170,7 +137,7 @@ public class ExchangeRatesProvider extends ContentProvider {
         return cursor;
     }
 
-    private ExchangeRate bestExchangeRate(final String currencyCode) {
+    private ExchangeRate bestExchangeRate(final Map<String, ExchangeRate> exchangeRates, final String currencyCode) {
 
 
        // ExchangeRate rate = currencyCode != null ? exchangeRates.get(currencyCode) : null;
@@ -227,62 +194,4 @@ public class ExchangeRatesProvider extends ContentProvider {
     public String getType(final Uri uri) {
         throw new UnsupportedOperationException();
     }
-
-    private Map<String, ExchangeRate> requestExchangeRates() {
-        final Stopwatch watch = Stopwatch.createStarted();
-
-        final Request.Builder request = new Request.Builder();
-        request.url(BITCOINAVERAGE_URL);
-        request.header("User-Agent", userAgent);
-
-        final Call call = Constants.HTTP_CLIENT.newCall(request.build());
-        try {
-            final Response response = call.execute();
-            if (response.isSuccessful()) {
-                final String content = response.body().string();
-                final JSONObject head = new JSONObject(content);
-                final Map<String, ExchangeRate> rates = new TreeMap<String, ExchangeRate>();
-
-                for (final Iterator<String> i = head.keys(); i.hasNext();) {
-                    final String currencyCode = i.next();
-                    if (currencyCode.startsWith("BTC")) {
-                        final String fiatCurrencyCode = currencyCode.substring(3);
-                        if (!fiatCurrencyCode.equals(MonetaryFormat.CODE_BTC)
-                                && !fiatCurrencyCode.equals(MonetaryFormat.CODE_MBTC)
-                                && !fiatCurrencyCode.equals(MonetaryFormat.CODE_UBTC)) {
-                            final JSONObject exchangeRate = head.getJSONObject(currencyCode);
-                            final JSONObject averages = exchangeRate.getJSONObject("averages");
-                            try {
-                                final Fiat rate = parseFiatInexact(fiatCurrencyCode, averages.getString("day"));
-                                if (rate.signum() > 0)
-                                    rates.put(fiatCurrencyCode, new ExchangeRate(
-                                            new org.bitcoinj.utils.ExchangeRate(rate), BITCOINAVERAGE_SOURCE));
-                            } catch (final IllegalArgumentException x) {
-                                log.warn("problem fetching {} exchange rate from {}: {}", currencyCode,
-                                        BITCOINAVERAGE_URL, x.getMessage());
-                            }
-                        }
-                    }
-                }
-
-                watch.stop();
-                log.info("fetched exchange rates from {}, {} chars, took {}", BITCOINAVERAGE_URL, content.length(),
-                        watch);
-
-                return rates;
-            } else {
-                log.warn("http status {} when fetching exchange rates from {}", response.code(), BITCOINAVERAGE_URL);
-            }
-        } catch (final Exception x) {
-            log.warn("problem fetching exchange rates from " + BITCOINAVERAGE_URL, x);
-        }
-
-        return null;
-    }
-
-    // backport from bitcoinj 0.15
-    private static Fiat parseFiatInexact(final String currencyCode, final String str) {
-        final long val = new BigDecimal(str).movePointRight(Fiat.SMALLEST_UNIT_EXPONENT).longValue();
-        return Fiat.valueOf(currencyCode, val);
-    }
 }
@@ -0,0 +1,157 @@
+/*
+ * Copyright 2011-2015 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.ivan.fgwallet.schildbach.wallet.data;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import javax.annotation.Nullable;
+
+import org.bitcoinj.wallet.Wallet;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.spongycastle.crypto.params.KeyParameter;
+
+import com.ivan.fgwallet.schildbach.wallet.Configuration;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.content.SharedPreferences;
+import android.content.SharedPreferences.OnSharedPreferenceChangeListener;
+import android.os.Handler;
+import android.os.Looper;
+
+/**
+ * Opt-in unlocked spending session. After a successful key derivation the wallet's AES key is kept for an idle window
+ * configured by the user, so that subsequent payments can skip scrypt. The key lives in a direct buffer outside of
+ * the Java heap and is overwritten with zeros when the session ends: on timeout, screen-off, memory trimming or when
+ * the option is switched off.
+ *
+ * Note that bitcoinj needs the key as a {@link KeyParameter}, so every use briefly creates an on-heap copy.
+ *
+ * @author Andreas, soos
+ */
+public final class KeySession {
+    private final Configuration config;
+    private final Handler handler = new Handler(Looper.getMainLooper());
+
+    @Nullable
+    private ByteBuffer keyBuffer = null;
+
+    private static final Logger log = LoggerFactory.getLogger(KeySession.class);
+
+    public KeySession(final Context context, final Configuration config) {
+        this.config = config;
+
+        context.registerReceiver(new BroadcastReceiver() {
+            @Override
+            public void onReceive(final Context context, final Intent intent) {
+                wipe("screen off");
+            }
+        }, new IntentFilter(Intent.ACTION_SCREEN_OFF));
+
+        config.registerOnSharedPreferenceChangeListener(preferenceChangeListener);
+    }
+
+    public synchronized boolean isUnlocked() {
+        return keyBuffer != null;
+    }
+
+    /**
+     * Returns the session key if there is one and it still decrypts the wallet, and restarts the idle window.
+     */
+    @Nullable
+    public synchronized KeyParameter get(final Wallet wallet) {
+        if (keyBuffer == null)
+            return null;
+
+        final byte[] bytes = new byte[keyBuffer.capacity()];
+        keyBuffer.position(0);
+        keyBuffer.get(bytes);
+        final KeyParameter key = new KeyParameter(bytes);
+        Arrays.fill(bytes, (byte) 0);
+
+        if (!wallet.checkAESKey(key)) {
+            // spending PIN was changed or the scrypt parameters were upgraded
+            wipe("key outdated");
+            return null;
+        }
+
+        scheduleTimeout();
+        return key;
+    }
+
+    /**
+     * Starts or renews the session with a freshly derived key, if the user opted in. Keys that don't decrypt the
+     * wallet are never kept.
+     */
+    public synchronized void put(final Wallet wallet, final KeyParameter key) {
+        if (config.getSpendingSessionMs() <= 0 || !wallet.checkAESKey(key))
+            return;
+
+        zero();
+        final byte[] bytes = key.getKey(); // not a copy, so must be left alone
+        keyBuffer = ByteBuffer.allocateDirect(bytes.length);
+        keyBuffer.put(bytes);
+
+        scheduleTimeout();
+        log.info("spending session unlocked for {} ms", config.getSpendingSessionMs());
+    }
+
+    public synchronized void wipe(final String reason) {
+        handler.removeCallbacks(timeoutRunnable);
+        if (keyBuffer == null)
+            return;
+
+        zero();
+        log.info("spending session locked: {}", reason);
+    }
+
+    private void zero() {
+        if (keyBuffer == null)
+            return;
+
+        keyBuffer.position(0);
+        while (keyBuffer.hasRemaining())
+            keyBuffer.put((byte) 0);
+        keyBuffer = null;
+    }
+
+    private void scheduleTimeout() {
+        handler.removeCallbacks(timeoutRunnable);
+        handler.postDelayed(timeoutRunnable, config.getSpendingSessionMs());
+    }
+
+    // preferences only keep a weak reference to their listeners
+    private final OnSharedPreferenceChangeListener preferenceChangeListener = new OnSharedPreferenceChangeListener() {
+        @Override
+        public void onSharedPreferenceChanged(final SharedPreferences prefs, final String key) {
+            if (Configuration.PREFS_KEY_SPENDING_SESSION.equals(key) && config.getSpendingSessionMs() <= 0)
+                wipe("disabled");
+        }
+    };
+
+    private final Runnable timeoutRunnable = new Runnable() {
+        @Override
+        public void run() {
+            wipe("idle timeout");
+        }
+    };
+}
@@ -28,12 +28,6 @@ import org.bitcoinj.core.StoredBlock;
  * @author Andreas Schildbach
  */
 public interface BlockchainService {
-    public static final String ACTION_PEER_STATE = BlockchainService.class.getPackage().getName() + ".peer_state";
-    public static final String ACTION_PEER_STATE_NUM_PEERS = "num_peers";
-
-    public static final String ACTION_BLOCKCHAIN_STATE = BlockchainService.class.getPackage().getName()
-            + ".blockchain_state";
-
     public static final String ACTION_CANCEL_COINS_RECEIVED = BlockchainService.class.getPackage().getName()
             + ".cancel_coins_received";
     public static final String ACTION_RESET_BLOCKCHAIN = BlockchainService.class.getPackage().getName()
@@ -42,10 +36,21 @@ public interface BlockchainService {
             + ".broadcast_transaction";
     public static final String ACTION_BROADCAST_TRANSACTION_HASH = "hash";
 
+    /** Local broadcast sent when the service stops, e.g. because it is idle. */
+    public static final String ACTION_STOPPED = BlockchainService.class.getPackage().getName() + ".stopped";
+
     BlockchainState getBlockchainState();
 
     @Nullable
     List<Peer> getConnectedPeers();
 
     List<StoredBlock> getRecentBlocks(int maxBlocks);
+
+    /**
+     * Keeps the sync metrics sampled while they are shown, also once the chain has caught up. Call on the main thread
+     * and balance with {@link #releaseMetrics()}.
+     */
+    void acquireMetrics();
+
+    void releaseMetrics();
 }
@@ -21,7 +21,6 @@ import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.InetSocketAddress;
-import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Date;
 import java.util.EnumSet;
@@ -51,6 +50,7 @@ import org.bitcoinj.core.listeners.AbstractPeerDataEventListener;
 import org.bitcoinj.core.listeners.PeerConnectedEventListener;
 import org.bitcoinj.core.listeners.PeerDataEventListener;
 import org.bitcoinj.core.listeners.PeerDisconnectedEventListener;
+import org.bitcoinj.core.listeners.ReorganizeListener;
 import org.bitcoinj.net.discovery.MultiplexingDiscovery;
 import org.bitcoinj.net.discovery.PeerDiscovery;
 import org.bitcoinj.net.discovery.PeerDiscoveryException;
@@ -69,10 +69,10 @@ import com.ivan.fgwallet.schildbach.wallet.Configuration;
 import com.ivan.fgwallet.schildbach.wallet.Constants;
 import com.ivan.fgwallet.WalletApplication;
 import com.ivan.fgwallet.schildbach.wallet.WalletBalanceWidgetProvider;
-import com.ivan.fgwallet.schildbach.wallet.data.AddressBookProvider;
 import com.ivan.fgwallet.schildbach.wallet.service.BlockchainState.Impediment;
 import com.ivan.fgwallet.schildbach.wallet.ui.WalletActivity;
 import com.ivan.fgwallet.schildbach.wallet.util.CrashReporter;
+import com.ivan.fgwallet.schildbach.wallet.util.MappedCheckpoints;
 import com.ivan.fgwallet.schildbach.wallet.util.ThrottlingWalletChangeListener;
 import com.ivan.fgwallet.schildbach.wallet.util.WalletUtils;
 import com.ivan.fgwallet.R;
@@ -109,8 +109,17 @@ public class BlockchainServiceImpl extends android.app.Service implements Blockc
     private BlockStore blockStore;
     private File blockChainFile;
     private BlockChain blockChain;
+    private final RecentBlocks recentBlocks = new RecentBlocks(RECENT_BLOCKS_CAPACITY);
+    private PeerAddressBook peerAddressBook;
+    private SyncScheduler syncScheduler;
+    private SyncMetrics syncMetrics;
+    private volatile boolean downloading = false;
+    private int metricsViewers = 0; // main thread only
+    private boolean sampling = false; // main thread only
     @Nullable
     private PeerGroup peerGroup;
+    @Nullable
+    private volatile BloomFilterController bloomFilterController;
 
     private final Handler handler = new Handler();
     private final Handler delayHandler = new Handler();
@@ -133,6 +142,8 @@ public class BlockchainServiceImpl extends android.app.Service implements Blockc
     private static final int MAX_HISTORY_SIZE = Math.max(IDLE_TRANSACTION_TIMEOUT_MIN, IDLE_BLOCK_TIMEOUT_MIN);
     private static final long APPWIDGET_THROTTLE_MS = DateUtils.SECOND_IN_MILLIS;
     private static final long BLOCKCHAIN_STATE_BROADCAST_THROTTLE_MS = DateUtils.SECOND_IN_MILLIS;
+    private static final long METRICS_SAMPLE_INTERVAL_MS = DateUtils.SECOND_IN_MILLIS;
+    private static final int RECENT_BLOCKS_CAPACITY = 1024;
 
     private static final Logger log = LoggerFactory.getLogger(BlockchainServiceImpl.class);
 
@@ -162,8 +173,10 @@ public class BlockchainServiceImpl extends android.app.Service implements Blockc
                     final boolean replaying = bestChainHeight < config.getBestChainHeightEver();
                     final boolean isReplayedTx = confidenceType == ConfidenceType.BUILDING && replaying;
 
-                    if (isReceived && !isReplayedTx)
+                    if (isReceived && !isReplayedTx) {
                         notifyCoinsReceived(address, amount, hash);
+                        syncScheduler.recordPaymentReceived();
+                    }
                 }
             });
         }
@@ -203,7 +216,7 @@ public class BlockchainServiceImpl extends android.app.Service implements Blockc
                 if (text.length() > 0)
                     text.append(", ");
                 final String addressStr = notificationAddress.toBase58();
-                final String label = AddressBookProvider.resolveLabel(getApplicationContext(), addressStr);
+                final String label = application.getAddressBookLabelCache().get(addressStr);
                 text.append(label != null ? label : addressStr);
             }
             summaryNotification.setContentText(text);
@@ -224,7 +237,7 @@ public class BlockchainServiceImpl extends android.app.Service implements Blockc
         childNotification.setContentTitle(msg);
         if (address != null) {
             final String addressStr = address.toBase58();
-            final String addressLabel = AddressBookProvider.resolveLabel(getApplicationContext(), addressStr);
+            final String addressLabel = application.getAddressBookLabelCache().get(addressStr);
             if (addressLabel != null)
                 childNotification.setContentText(addressLabel);
             else
@@ -262,6 +275,7 @@ public class BlockchainServiceImpl extends android.app.Service implements Blockc
         @Override
         public void onPeerDisconnected(final Peer peer, final int peerCount) {
             this.peerCount = peerCount;
+            syncMetrics.peerDisconnected(peer);
             changed(peerCount);
         }
 
@@ -295,8 +309,8 @@ public class BlockchainServiceImpl extends android.app.Service implements Blockc
                         startForeground(Constants.NOTIFICATION_ID_CONNECTED, notification.build());
                     }
 
-                    // send broadcast
-                    broadcastPeerState(numPeers);
+                    // publish state
+                    publishPeerState(numPeers);
                 }
             });
         }
@@ -305,9 +319,37 @@ public class BlockchainServiceImpl extends android.app.Service implements Blockc
     private final PeerDataEventListener blockchainDownloadListener = new AbstractPeerDataEventListener() {
         private final AtomicLong lastMessageTime = new AtomicLong(0);
 
+        @Override
+        public void onChainDownloadStarted(final Peer peer, final int blocksLeft) {
+            if (blocksLeft == 0) {
+                syncScheduler.recordSynced();
+                syncMetrics.synced();
+                setDownloading(false);
+            }
+        }
+
         @Override
         public void onBlocksDownloaded(final Peer peer, final Block block, final FilteredBlock filteredBlock,
                 final int blocksLeft) {
+            if (blocksLeft == 0) {
+                syncScheduler.recordSynced();
+                setDownloading(false);
+            }
+
+            int matched = 0, falsePositives = 0;
+            if (filteredBlock != null) {
+                final Wallet wallet = application.getWallet();
+                for (final Sha256Hash hash : filteredBlock.getAssociatedTransactions().keySet()) {
+                    matched++;
+                    if (wallet.getTransaction(hash) == null)
+                        falsePositives++;
+                }
+            }
+            syncMetrics.blockDownloaded(peer, matched, falsePositives, blocksLeft);
+            final BloomFilterController bloomFilterController = BlockchainServiceImpl.this.bloomFilterController;
+            if (filteredBlock != null && bloomFilterController != null)
+                bloomFilterController.onFilteredBlock(falsePositives, blocksLeft);
+
             delayHandler.removeCallbacksAndMessages(null);
 
             final long now = System.currentTimeMillis();
@@ -323,11 +365,59 @@ public class BlockchainServiceImpl extends android.app.Service implements Blockc
                 lastMessageTime.set(System.currentTimeMillis());
 
                 config.maybeIncrementBestChainHeightEver(blockChain.getChainHead().getHeight());
-                broadcastBlockchainState();
+                publishBlockchainState();
             }
         };
     };
 
+    private final Runnable metricsSampler = new Runnable() {
+        @Override
+        public void run() {
+            if (!sampling)
+                return;
+            syncMetrics.sample(peerGroup != null ? peerGroup.getConnectedPeers() : null);
+            handler.postDelayed(this, METRICS_SAMPLE_INTERVAL_MS);
+        }
+    };
+
+    private final Runnable updateSampling = new Runnable() {
+        @Override
+        public void run() {
+            updateSampling();
+        }
+    };
+
+    private void setDownloading(final boolean downloading) {
+        if (this.downloading == downloading)
+            return;
+        this.downloading = downloading;
+        handler.post(updateSampling);
+    }
+
+    // metrics are only sampled while the chain is being downloaded or while they are shown
+    private void updateSampling() {
+        final boolean sample = downloading || metricsViewers > 0;
+        if (sample == sampling)
+            return;
+        sampling = sample;
+        if (sample)
+            handler.postDelayed(metricsSampler, METRICS_SAMPLE_INTERVAL_MS);
+        else
+            handler.removeCallbacks(metricsSampler);
+    }
+
+    @Override
+    public void acquireMetrics() {
+        metricsViewers++;
+        updateSampling();
+    }
+
+    @Override
+    public void releaseMetrics() {
+        metricsViewers--;
+        updateSampling();
+    }
+
     private final BroadcastReceiver connectivityReceiver = new BroadcastReceiver() {
         @Override
         public void onReceive(final Context context, final Intent intent) {
@@ -391,12 +481,19 @@ public class BlockchainServiceImpl extends android.app.Service implements Blockc
                 }
 
                 log.info("starting peergroup");
+                syncMetrics.syncStarted();
+                setDownloading(true);
                 peerGroup = new PeerGroup(Constants.NETWORK_PARAMETERS, blockChain);
                 peerGroup.setDownloadTxDependencies(0); // recursive implementation causes StackOverflowError
                 peerGroup.addWallet(wallet);
                 peerGroup.setUserAgent(Constants.USER_AGENT, application.packageInfo().versionName);
                 peerGroup.addConnectedEventListener(peerConnectivityListener);
                 peerGroup.addDisconnectedEventListener(peerConnectivityListener);
+                peerGroup.addConnectedEventListener(Threading.SAME_THREAD, peerAddressBook);
+                peerGroup.addDisconnectedEventListener(Threading.SAME_THREAD, peerAddressBook);
+                peerGroup.addBlocksDownloadedEventListener(Threading.SAME_THREAD, peerAddressBook);
+                bloomFilterController = new BloomFilterController(peerGroup, wallet, syncMetrics);
+                bloomFilterController.start();
 
                 final int maxConnectedPeers = application.maxConnectedPeers();
 
@@ -409,8 +506,8 @@ public class BlockchainServiceImpl extends android.app.Service implements Blockc
                 peerGroup.setPeerDiscoveryTimeoutMillis(Constants.PEER_DISCOVERY_TIMEOUT_MS);
 
                 peerGroup.addPeerDiscovery(new PeerDiscovery() {
-                    private final PeerDiscovery normalPeerDiscovery = MultiplexingDiscovery
-                            .forServices(Constants.NETWORK_PARAMETERS, 0);
+                    private final PeerDiscovery normalPeerDiscovery = peerAddressBook.discovery(
+                            MultiplexingDiscovery.forServices(Constants.NETWORK_PARAMETERS, 0), maxConnectedPeers);
 
                     @Override
                     public InetSocketAddress[] getPeers(final long services, final long timeoutValue,
@@ -456,15 +553,18 @@ public class BlockchainServiceImpl extends android.app.Service implements Blockc
                 log.info("stopping peergroup");
                 peerGroup.removeDisconnectedEventListener(peerConnectivityListener);
                 peerGroup.removeConnectedEventListener(peerConnectivityListener);
+                stopRecordingPeers(peerGroup);
                 peerGroup.removeWallet(wallet);
                 peerGroup.stopAsync();
                 peerGroup = null;
+                bloomFilterController = null;
+                setDownloading(false);
 
                 log.debug("releasing wakelock");
                 wakeLock.release();
             }
 
-            broadcastBlockchainState();
+            publishBlockchainState();
         }
     };
 
@@ -536,9 +636,20 @@ public class BlockchainServiceImpl extends android.app.Service implements Blockc
             }
 
             lastChainHeight = chainHeight;
+
+            peerAddressBook.saveIfDirty();
         }
     };
 
+    private void stopRecordingPeers(final PeerGroup peerGroup) {
+        peerGroup.removeBlocksDownloadedEventListener(peerAddressBook);
+        peerGroup.removeDisconnectedEventListener(peerAddressBook);
+        peerGroup.removeConnectedEventListener(peerAddressBook);
+        peerAddressBook.recordPings(peerGroup.getConnectedPeers());
+        peerAddressBook.saveIfDirty();
+        log.info("peer address book: {}", peerAddressBook);
+    }
+
     public class LocalBinder extends Binder {
         public BlockchainService getService() {
             return BlockchainServiceImpl.this;
@@ -579,8 +690,13 @@ public class BlockchainServiceImpl extends android.app.Service implements Blockc
         final Wallet wallet = application.getWallet();
 
         peerConnectivityListener = new PeerConnectivityListener();
+        syncScheduler = new SyncScheduler(this);
+        syncMetrics = application.getSyncMetrics();
 
-        broadcastPeerState(0);
+        publishPeerState(0);
+
+        peerAddressBook = new PeerAddressBook(new File(getFilesDir(), Constants.Files.PEERS_FILENAME));
+        peerAddressBook.load();
 
         blockChainFile = new File(getDir("blockstore", Context.MODE_PRIVATE), Constants.Files.BLOCKCHAIN_FILENAME);
         final boolean blockChainFileExists = blockChainFile.exists();
@@ -597,15 +713,25 @@ public class BlockchainServiceImpl extends android.app.Service implements Blockc
             final long earliestKeyCreationTime = wallet.getEarliestKeyCreationTime();
 
             if (!blockChainFileExists && earliestKeyCreationTime > 0) {
+                final Stopwatch watch = Stopwatch.createStarted();
                 try {
-                    final Stopwatch watch = Stopwatch.createStarted();
-                    final InputStream checkpointsInputStream = getAssets().open(Constants.Files.CHECKPOINTS_FILENAME);
-                    CheckpointManager.checkpoint(Constants.NETWORK_PARAMETERS, checkpointsInputStream, blockStore,
-                            earliestKeyCreationTime);
+                    MappedCheckpoints.open(Constants.NETWORK_PARAMETERS, getAssets(),
+                            Constants.Files.CHECKPOINTS_BINARY_FILENAME).checkpoint(blockStore, earliestKeyCreationTime);
                     watch.stop();
-                    log.info("checkpoints loaded from '{}', took {}", Constants.Files.CHECKPOINTS_FILENAME, watch);
+                    log.info("checkpoints mapped from '{}', took {}", Constants.Files.CHECKPOINTS_BINARY_FILENAME,
+                            watch);
                 } catch (final IOException x) {
-                    log.error("problem reading checkpoints, continuing without", x);
+                    log.warn("problem mapping binary checkpoints, falling back to text: {}", x.getMessage());
+                    try {
+                        final InputStream checkpointsInputStream = getAssets()
+                                .open(Constants.Files.CHECKPOINTS_FILENAME);
+                        CheckpointManager.checkpoint(Constants.NETWORK_PARAMETERS, checkpointsInputStream, blockStore,
+                                earliestKeyCreationTime);
+                        watch.stop();
+                        log.info("checkpoints loaded from '{}', took {}", Constants.Files.CHECKPOINTS_FILENAME, watch);
+                    } catch (final IOException x2) {
+                        log.error("problem reading checkpoints, continuing without", x2);
+                    }
                 }
             }
         } catch (final BlockStoreException x) {
@@ -621,6 +747,15 @@ public class BlockchainServiceImpl extends android.app.Service implements Blockc
         } catch (final BlockStoreException x) {
             throw new Error("blockchain cannot be created", x);
         }
+        blockChain.addNewBestBlockListener(Threading.SAME_THREAD, recentBlocks);
+        blockChain.addReorganizeListener(Threading.SAME_THREAD, recentBlocks);
+        blockChain.addReorganizeListener(Threading.SAME_THREAD, new ReorganizeListener() {
+            @Override
+            public void reorganize(final StoredBlock splitPoint, final List<StoredBlock> oldBlocks,
+                    final List<StoredBlock> newBlocks) {
+                syncMetrics.reorganized();
+            }
+        });
 
         final IntentFilter intentFilter = new IntentFilter();
         intentFilter.addAction(ConnectivityManager.CONNECTIVITY_ACTION);
@@ -690,6 +825,7 @@ public class BlockchainServiceImpl extends android.app.Service implements Blockc
         if (peerGroup != null) {
             peerGroup.removeDisconnectedEventListener(peerConnectivityListener);
             peerGroup.removeConnectedEventListener(peerConnectivityListener);
+            stopRecordingPeers(peerGroup);
             peerGroup.removeWallet(application.getWallet());
             peerGroup.stop();
 
@@ -699,6 +835,10 @@ public class BlockchainServiceImpl extends android.app.Service implements Blockc
         peerConnectivityListener.stop();
 
         delayHandler.removeCallbacksAndMessages(null);
+        downloading = false;
+        sampling = false;
+        handler.removeCallbacks(updateSampling);
+        handler.removeCallbacks(metricsSampler);
 
         try {
             blockStore.close();
@@ -720,6 +860,8 @@ public class BlockchainServiceImpl extends android.app.Service implements Blockc
 
         stopForeground(true);
 
+        LocalBroadcastManager.getInstance(this).sendBroadcast(new Intent(BlockchainService.ACTION_STOPPED));
+
         super.onDestroy();
 
         log.info("service was up for " + ((System.currentTimeMillis() - serviceCreatedAt) / 1000 / 60) + " minutes");
@@ -755,38 +897,14 @@ public class BlockchainServiceImpl extends android.app.Service implements Blockc
 
     @Override
     public List<StoredBlock> getRecentBlocks(final int maxBlocks) {
-        final List<StoredBlock> blocks = new ArrayList<StoredBlock>(maxBlocks);
-
-        try {
-            StoredBlock block = blockChain.getChainHead();
-
-            while (block != null) {
-                blocks.add(block);
-
-                if (blocks.size() >= maxBlocks)
-                    break;
-
-                block = block.getPrev(blockStore);
-            }
-        } catch (final BlockStoreException x) {
-            // swallow
-        }
-
-        return blocks;
+        return recentBlocks.get(maxBlocks, blockChain.getChainHead(), blockStore);
     }
 
-    private void broadcastPeerState(final int numPeers) {
-        final Intent broadcast = new Intent(ACTION_PEER_STATE);
-        broadcast.setPackage(getPackageName());
-        broadcast.putExtra(ACTION_PEER_STATE_NUM_PEERS, numPeers);
-
-        LocalBroadcastManager.getInstance(this).sendBroadcast(broadcast);
+    private void publishPeerState(final int numPeers) {
+        application.getPeerCount().publish(numPeers);
     }
 
-    private void broadcastBlockchainState() {
-        final Intent broadcast = new Intent(ACTION_BLOCKCHAIN_STATE);
-        broadcast.setPackage(getPackageName());
-        getBlockchainState().putExtras(broadcast);
-        LocalBroadcastManager.getInstance(this).sendBroadcast(broadcast);
+    private void publishBlockchainState() {
+        application.getBlockchainState().publish(getBlockchainState());
     }
 }
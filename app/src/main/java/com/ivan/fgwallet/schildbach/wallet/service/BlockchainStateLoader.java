@@ -22,40 +22,36 @@ import java.util.concurrent.RejectedExecutionException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.ivan.fgwallet.WalletApplication;
 import com.ivan.fgwallet.schildbach.wallet.ui.AbstractBindServiceActivity;
+import com.ivan.fgwallet.schildbach.wallet.util.VersionedState;
 
 import android.content.AsyncTaskLoader;
-import android.content.BroadcastReceiver;
-import android.content.Context;
-import android.content.Intent;
-import android.content.IntentFilter;
-import android.support.v4.content.LocalBroadcastManager;
 
 /**
  * @author Andreas Schildbach
  */
 public class BlockchainStateLoader extends AsyncTaskLoader<BlockchainState> {
     private final AbstractBindServiceActivity activity;
-    private final LocalBroadcastManager broadcastManager;
+    private final VersionedState<BlockchainState> blockchainState;
 
     private static final Logger log = LoggerFactory.getLogger(BlockchainStateLoader.class);
 
     public BlockchainStateLoader(final AbstractBindServiceActivity activity) {
         super(activity);
         this.activity = activity;
-        this.broadcastManager = LocalBroadcastManager.getInstance(activity.getApplicationContext());
+        this.blockchainState = ((WalletApplication) activity.getApplication()).getBlockchainState();
     }
 
     @Override
     protected void onStartLoading() {
         super.onStartLoading();
-        broadcastManager.registerReceiver(broadcastReceiver,
-                new IntentFilter(BlockchainService.ACTION_BLOCKCHAIN_STATE));
+        blockchainState.subscribe(listener);
     }
 
     @Override
     protected void onStopLoading() {
-        broadcastManager.unregisterReceiver(broadcastReceiver);
+        blockchainState.unsubscribe(listener);
         super.onStopLoading();
     }
 
@@ -64,11 +60,11 @@ public class BlockchainStateLoader extends AsyncTaskLoader<BlockchainState> {
         return activity.getBlockchainService().getBlockchainState();
     }
 
-    private final BroadcastReceiver broadcastReceiver = new BroadcastReceiver() {
+    private final VersionedState.Listener<BlockchainState> listener = new VersionedState.Listener<BlockchainState>() {
         @Override
-        public void onReceive(final Context context, final Intent broadcast) {
+        public void onStateChanged(final VersionedState.Snapshot<BlockchainState> snapshot) {
             try {
-                deliverResult(BlockchainState.fromIntent(broadcast));
+                deliverResult(snapshot.value);
             } catch (final RejectedExecutionException x) {
                 log.info("rejected execution: " + BlockchainStateLoader.this.toString());
             }
@@ -0,0 +1,88 @@
+/*
+ * Copyright 2011-2015 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.ivan.fgwallet.schildbach.wallet.service;
+
+import javax.annotation.Nullable;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import android.app.job.JobParameters;
+import android.app.job.JobService;
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.support.v4.content.LocalBroadcastManager;
+
+/**
+ * Starts the {@link BlockchainServiceImpl} when a sync scheduled by {@link SyncScheduler} is due. The job lasts until
+ * the service stops itself when idle, which also schedules the next sync. If the system stops the job early, the
+ * sync is stopped and the job asks to be rescheduled.
+ *
+ * @author Andreas, soos
+ */
+public class BlockchainSyncJobService extends JobService {
+    @Nullable
+    private JobParameters runningJob; // main thread only
+
+    private static final Logger log = LoggerFactory.getLogger(BlockchainSyncJobService.class);
+
+    @Override
+    public boolean onStartJob(final JobParameters params) {
+        log.info("scheduled blockchain sync is due");
+        runningJob = params;
+        LocalBroadcastManager.getInstance(this).registerReceiver(serviceStoppedReceiver,
+                new IntentFilter(BlockchainService.ACTION_STOPPED));
+        startService(new Intent(this, BlockchainServiceImpl.class));
+        return true;
+    }
+
+    @Override
+    public boolean onStopJob(final JobParameters params) {
+        log.info("scheduled blockchain sync was stopped by the system, asking to reschedule");
+        release();
+        stopService(new Intent(this, BlockchainServiceImpl.class));
+        return true;
+    }
+
+    @Override
+    public void onDestroy() {
+        release();
+        super.onDestroy();
+    }
+
+    private void release() {
+        if (runningJob == null)
+            return;
+        LocalBroadcastManager.getInstance(this).unregisterReceiver(serviceStoppedReceiver);
+        runningJob = null;
+    }
+
+    private final BroadcastReceiver serviceStoppedReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(final Context context, final Intent intent) {
+            final JobParameters job = runningJob;
+            if (job == null)
+                return;
+            log.info("blockchain service stopped, scheduled sync finished");
+            release();
+            jobFinished(job, false);
+        }
+    };
+}
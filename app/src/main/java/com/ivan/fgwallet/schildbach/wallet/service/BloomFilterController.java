@@ -0,0 +1,144 @@
+/*
+ * Copyright 2011-2015 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.ivan.fgwallet.schildbach.wallet.service;
+
+import org.bitcoinj.core.PeerGroup;
+import org.bitcoinj.wallet.Wallet;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Picks the Bloom filter false positive rate of a {@link PeerGroup} by weighing the bytes of false positive
+ * transactions against the bytes of the filter itself, instead of using a fixed rate.
+ *
+ * <p>
+ * The number of false positives per block is modeled as {@code k * rate}, where {@code k} (roughly the number of
+ * elements tested per block) is calibrated from the false positives actually observed in filtered blocks. A filter
+ * for {@code n} elements costs {@code -n ln(rate) / (8 ln(2)^2)} bytes per peer, which gives a closed form for the
+ * cheapest rate. The filter is only re-sent if the expected savings over the coming blocks exceed the cost of
+ * sending it to all peers.
+ * </p>
+ *
+ * <p>
+ * The rate is never lowered below {@link #PRIVACY_FLOOR_RATE}, bitcoinj's default. False positives are all that
+ * hides the wallet's own transactions from the peers (BIP37), so a lower rate would trade privacy for bandwidth. The
+ * controller only raises the rate, for wallets whose filter costs more than the false positives it avoids.
+ * </p>
+ *
+ * @author Andreas, soos
+ */
+final class BloomFilterController {
+    private final PeerGroup peerGroup;
+    private final Wallet wallet;
+    private final SyncMetrics metrics;
+
+    private double rate = PeerGroup.DEFAULT_BLOOM_FILTER_FP_RATE;
+    private double observedRateSum = 0; // sum of the rate in effect, over all observed blocks
+    private long observedFalsePositives = 0;
+    private int blocksSinceEvaluation = 0;
+
+    /** Lowest rate ever used. Below that, peers could tell the wallet's transactions from false positives. */
+    private static final double PRIVACY_FLOOR_RATE = PeerGroup.DEFAULT_BLOOM_FILTER_FP_RATE;
+    private static final double MAX_RATE = 0.001;
+    private static final double PRIOR_ELEMENTS_TESTED_PER_BLOCK = 8000; // ~2000 transactions with ~4 elements each
+    private static final double PRIOR_RATE_SUM = 100 * PeerGroup.DEFAULT_BLOOM_FILTER_FP_RATE; // worth 100 blocks
+    private static final int AVERAGE_TRANSACTION_BYTES = 400;
+    private static final int FILTER_MESSAGE_OVERHEAD_BYTES = 24 + 9;
+    private static final long MAX_FILTER_BYTES = 36000; // BIP37, private in BloomFilter
+    private static final int MIN_HORIZON_BLOCKS = 144;
+    private static final int EVALUATION_INTERVAL_BLOCKS = 50;
+    private static final double LN2_SQUARED = Math.log(2) * Math.log(2);
+
+    private static final Logger log = LoggerFactory.getLogger(BloomFilterController.class);
+
+    public BloomFilterController(final PeerGroup peerGroup, final Wallet wallet, final SyncMetrics metrics) {
+        this.peerGroup = peerGroup;
+        this.wallet = wallet;
+        this.metrics = metrics;
+    }
+
+    /**
+     * Chooses the initial rate. Call before the peer group connects, so the first filter is already right.
+     */
+    public synchronized void start() {
+        rate = optimalRate(wallet.getBloomFilterElementCount(), MIN_HORIZON_BLOCKS, 1);
+        peerGroup.setBloomFilterFalsePositiveRate(rate);
+        metrics.filterChanged(rate, filterBytes(wallet.getBloomFilterElementCount(), rate));
+        log.info("initial bloom filter false positive rate {}", rate);
+    }
+
+    /**
+     * Call for every filtered block. Re-evaluates the rate every now and then.
+     */
+    public synchronized void onFilteredBlock(final int falsePositives, final int blocksLeft) {
+        observedRateSum += rate;
+        observedFalsePositives += falsePositives;
+
+        final double elementsTested = elementsTestedPerBlock();
+        final double savedPerBlock = elementsTested * (PeerGroup.DEFAULT_BLOOM_FILTER_FP_RATE - rate)
+                * AVERAGE_TRANSACTION_BYTES;
+        metrics.filterBandwidthSaved(Math.round(savedPerBlock));
+
+        if (++blocksSinceEvaluation >= EVALUATION_INTERVAL_BLOCKS) {
+            blocksSinceEvaluation = 0;
+            evaluate(Math.max(blocksLeft, MIN_HORIZON_BLOCKS));
+        }
+    }
+
+    private void evaluate(final int horizonBlocks) {
+        final int numPeers = Math.max(peerGroup.numConnectedPeers(), 1);
+        final int numElements = wallet.getBloomFilterElementCount();
+        final double newRate = optimalRate(numElements, horizonBlocks, numPeers);
+        final double elementsTested = elementsTestedPerBlock();
+
+        final double keepCost = elementsTested * rate * AVERAGE_TRANSACTION_BYTES * horizonBlocks;
+        final long resendCost = (filterBytes(numElements, newRate) + FILTER_MESSAGE_OVERHEAD_BYTES) * numPeers;
+        final double changeCost = elementsTested * newRate * AVERAGE_TRANSACTION_BYTES * horizonBlocks + resendCost;
+
+        if (keepCost - changeCost > 0) {
+            log.info("changing bloom filter false positive rate {} -> {} ({} elements, ~{} tested per block, "
+                    + "saves ~{} bytes over {} blocks)", rate, newRate, numElements, Math.round(elementsTested),
+                    Math.round(keepCost - changeCost), horizonBlocks);
+            rate = newRate;
+            peerGroup.setBloomFilterFalsePositiveRate(rate);
+            metrics.filterChanged(rate, filterBytes(numElements, rate));
+            metrics.filterBandwidthSaved(
+                    (filterBytes(numElements, PRIVACY_FLOOR_RATE) - filterBytes(numElements, rate)) * numPeers
+                            - resendCost);
+        }
+    }
+
+    /**
+     * Rate that minimizes false positive bytes over the horizon plus filter bytes sent to all peers.
+     */
+    private double optimalRate(final int numElements, final int horizonBlocks, final int numPeers) {
+        final double rate = Math.max(numElements, 1) * numPeers
+                / (8 * LN2_SQUARED * elementsTestedPerBlock() * AVERAGE_TRANSACTION_BYTES * horizonBlocks);
+        return Math.min(Math.max(rate, PRIVACY_FLOOR_RATE), MAX_RATE);
+    }
+
+    private double elementsTestedPerBlock() {
+        return (observedFalsePositives + PRIOR_ELEMENTS_TESTED_PER_BLOCK * PRIOR_RATE_SUM)
+                / (observedRateSum + PRIOR_RATE_SUM);
+    }
+
+    private static long filterBytes(final int numElements, final double rate) {
+        final double bytes = -Math.max(numElements, 1) * Math.log(rate) / LN2_SQUARED / 8;
+        return Math.min((long) Math.ceil(bytes), MAX_FILTER_BYTES);
+    }
+}
@@ -0,0 +1,375 @@
+/*
+ * Copyright 2011-2015 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.ivan.fgwallet.schildbach.wallet.service;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.Nullable;
+
+import org.bitcoinj.core.Block;
+import org.bitcoinj.core.FilteredBlock;
+import org.bitcoinj.core.Peer;
+import org.bitcoinj.core.PeerAddress;
+import org.bitcoinj.core.listeners.BlocksDownloadedEventListener;
+import org.bitcoinj.core.listeners.PeerConnectedEventListener;
+import org.bitcoinj.core.listeners.PeerDisconnectedEventListener;
+import org.bitcoinj.net.discovery.PeerDiscovery;
+import org.bitcoinj.net.discovery.PeerDiscoveryException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Remembers how well the peers we connected to served us: how long it took from handing out their address to a
+ * completed handshake, their ping time, how many blocks they delivered and how often connecting to them failed. The
+ * book is persisted across service restarts and is consulted by {@link #discovery(PeerDiscovery, int)} before
+ * resorting to DNS seeds.
+ *
+ * Has no Android dependencies, so it can be driven by local fake peers.
+ *
+ * @author Andreas, soos
+ */
+final class PeerAddressBook
+        implements PeerConnectedEventListener, PeerDisconnectedEventListener, BlocksDownloadedEventListener {
+    private final File file;
+    private final Map<InetSocketAddress, Entry> entries = new HashMap<InetSocketAddress, Entry>();
+    private final Map<InetSocketAddress, Long> offeredAt = new HashMap<InetSocketAddress, Long>();
+    private final Set<InetSocketAddress> connected = new HashSet<InetSocketAddress>();
+    private boolean dirty = false;
+
+    private static final int FILE_VERSION = 1;
+    private static final int MAX_ENTRIES = 256;
+    private static final long EXPIRY_MS = TimeUnit.DAYS.toMillis(30);
+    private static final int MAX_CONSECUTIVE_FAILURES = 5;
+    private static final long UNKNOWN_LATENCY_MS = 2000;
+    private static final long UNKNOWN_PING_MS = 1000;
+    private static final float LATENCY_SMOOTHING = 0.3f;
+
+    private static final Logger log = LoggerFactory.getLogger(PeerAddressBook.class);
+
+    private static final class Entry {
+        final InetSocketAddress address;
+        long connectLatencyMs = -1;
+        long pingMs = -1;
+        long blocksServed = 0;
+        int consecutiveFailures = 0;
+        int totalFailures = 0;
+        long lastSuccessMs = 0;
+
+        Entry(final InetSocketAddress address) {
+            this.address = address;
+        }
+
+        /** Lower is better. */
+        double score() {
+            final long latency = connectLatencyMs >= 0 ? connectLatencyMs : UNKNOWN_LATENCY_MS;
+            final long ping = pingMs >= 0 ? pingMs : UNKNOWN_PING_MS;
+            final double failurePenalty = 1 << Math.min(consecutiveFailures, 10);
+            final double servedBonus = Math.log(2 + blocksServed) / Math.log(2);
+            return (latency + ping) * failurePenalty / servedBonus;
+        }
+
+        @Override
+        public String toString() {
+            return address + "[latency=" + connectLatencyMs + "ms, ping=" + pingMs + "ms, blocks=" + blocksServed
+                    + ", failures=" + consecutiveFailures + "/" + totalFailures + "]";
+        }
+    }
+
+    private static final Comparator<Entry> SCORE_COMPARATOR = new Comparator<Entry>() {
+        @Override
+        public int compare(final Entry lhs, final Entry rhs) {
+            return Double.compare(lhs.score(), rhs.score());
+        }
+    };
+
+    public PeerAddressBook(final File file) {
+        this.file = file;
+    }
+
+    public synchronized void load() {
+        entries.clear();
+        DataInputStream is = null;
+        try {
+            is = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            if (is.readInt() != FILE_VERSION)
+                throw new IOException("unknown version");
+            final long now = System.currentTimeMillis();
+            final int count = is.readInt();
+            for (int i = 0; i < count; i++) {
+                final byte[] addr = new byte[is.readUnsignedByte()];
+                is.readFully(addr);
+                final Entry entry = new Entry(new InetSocketAddress(InetAddress.getByAddress(addr), is.readInt()));
+                entry.connectLatencyMs = is.readLong();
+                entry.pingMs = is.readLong();
+                entry.blocksServed = is.readLong();
+                entry.consecutiveFailures = is.readInt();
+                entry.totalFailures = is.readInt();
+                entry.lastSuccessMs = is.readLong();
+                if (now - entry.lastSuccessMs < EXPIRY_MS)
+                    entries.put(entry.address, entry);
+            }
+            log.info("loaded {} peers from '{}'", entries.size(), file);
+        } catch (final FileNotFoundException x) {
+            // first run
+        } catch (final IOException x) {
+            log.info("problem loading peers from '" + file + "', starting over", x);
+            entries.clear();
+        } finally {
+            if (is != null) {
+                try {
+                    is.close();
+                } catch (final IOException x) {
+                    // swallow
+                }
+            }
+        }
+        dirty = false;
+    }
+
+    public synchronized void saveIfDirty() {
+        if (!dirty)
+            return;
+
+        final File tmpFile = new File(file.getPath() + ".tmp");
+        DataOutputStream os = null;
+        try {
+            os = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmpFile)));
+            os.writeInt(FILE_VERSION);
+            os.writeInt(entries.size());
+            for (final Entry entry : entries.values()) {
+                final byte[] addr = entry.address.getAddress().getAddress();
+                os.writeByte(addr.length);
+                os.write(addr);
+                os.writeInt(entry.address.getPort());
+                os.writeLong(entry.connectLatencyMs);
+                os.writeLong(entry.pingMs);
+                os.writeLong(entry.blocksServed);
+                os.writeInt(entry.consecutiveFailures);
+                os.writeInt(entry.totalFailures);
+                os.writeLong(entry.lastSuccessMs);
+            }
+            os.close();
+            os = null;
+
+            if (!tmpFile.renameTo(file))
+                throw new IOException("cannot rename " + tmpFile + " to " + file);
+            dirty = false;
+            log.debug("saved {} peers to '{}'", entries.size(), file);
+        } catch (final IOException x) {
+            log.warn("problem saving peers to '" + file + "'", x);
+        } finally {
+            if (os != null) {
+                try {
+                    os.close();
+                } catch (final IOException x) {
+                    // swallow
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns up to {@code max} known good peers, best first, skipping the given addresses.
+     */
+    public synchronized List<InetSocketAddress> best(final int max, final Set<InetSocketAddress> exclude) {
+        final List<Entry> candidates = new ArrayList<Entry>(entries.size());
+        for (final Entry entry : entries.values())
+            if (entry.lastSuccessMs > 0 && entry.consecutiveFailures < MAX_CONSECUTIVE_FAILURES
+                    && !exclude.contains(entry.address))
+                candidates.add(entry);
+        Collections.sort(candidates, SCORE_COMPARATOR);
+
+        final List<InetSocketAddress> result = new ArrayList<InetSocketAddress>(Math.min(max, candidates.size()));
+        for (final Entry entry : candidates) {
+            if (result.size() >= max)
+                break;
+            result.add(entry.address);
+        }
+        return result;
+    }
+
+    public synchronized void offered(final InetSocketAddress address) {
+        offeredAt.put(address, System.currentTimeMillis());
+    }
+
+    @Override
+    public synchronized void onPeerConnected(final Peer peer, final int peerCount) {
+        final InetSocketAddress address = socketAddress(peer);
+        if (address == null)
+            return;
+
+        final long now = System.currentTimeMillis();
+        final Entry entry = getOrCreate(address);
+        final Long offered = offeredAt.remove(address);
+        if (offered != null)
+            entry.connectLatencyMs = smooth(entry.connectLatencyMs, now - offered);
+        entry.consecutiveFailures = 0;
+        entry.lastSuccessMs = now;
+        connected.add(address);
+        dirty = true;
+    }
+
+    @Override
+    public synchronized void onPeerDisconnected(final Peer peer, final int peerCount) {
+        final InetSocketAddress address = socketAddress(peer);
+        if (address == null)
+            return;
+
+        offeredAt.remove(address);
+        if (connected.remove(address)) {
+            recordPing(peer);
+        } else {
+            // never completed the handshake
+            final Entry entry = getOrCreate(address);
+            entry.consecutiveFailures++;
+            entry.totalFailures++;
+            if (entry.lastSuccessMs == 0 && entry.consecutiveFailures >= MAX_CONSECUTIVE_FAILURES)
+                entries.remove(address);
+        }
+        dirty = true;
+    }
+
+    @Override
+    public synchronized void onBlocksDownloaded(final Peer peer, final Block block,
+            @Nullable final FilteredBlock filteredBlock, final int blocksLeft) {
+        final InetSocketAddress address = socketAddress(peer);
+        if (address == null)
+            return;
+
+        getOrCreate(address).blocksServed++;
+        dirty = true;
+    }
+
+    /**
+     * Samples the ping times of peers that are still connected, e.g. before saving.
+     */
+    public synchronized void recordPings(final List<Peer> peers) {
+        for (final Peer peer : peers)
+            recordPing(peer);
+    }
+
+    /**
+     * Wraps the given discovery, which is only asked if the book cannot come up with {@code minPeers} good peers. Each
+     * address is handed out at most once per discovery, so a peer that just failed is not offered again right away.
+     */
+    public PeerDiscovery discovery(final PeerDiscovery fallback, final int minPeers) {
+        return new PeerDiscovery() {
+            private final Set<InetSocketAddress> handedOut = new HashSet<InetSocketAddress>();
+
+            @Override
+            public InetSocketAddress[] getPeers(final long services, final long timeoutValue,
+                    final TimeUnit timeoutUnit) throws PeerDiscoveryException {
+                final Set<InetSocketAddress> peers = new LinkedHashSet<InetSocketAddress>(best(minPeers * 2, handedOut));
+
+                if (peers.size() < minPeers) {
+                    try {
+                        for (final InetSocketAddress addr : fallback.getPeers(services, timeoutValue, timeoutUnit))
+                            peers.add(addr);
+                    } catch (final PeerDiscoveryException x) {
+                        if (peers.isEmpty())
+                            throw x;
+                        log.info("fallback discovery failed, using {} known peers: {}", peers.size(), x.getMessage());
+                    }
+                } else {
+                    log.info("using {} known peers, skipping fallback discovery", peers.size());
+                }
+
+                for (final InetSocketAddress addr : peers)
+                    offered(addr);
+                handedOut.addAll(peers);
+                return peers.toArray(new InetSocketAddress[0]);
+            }
+
+            @Override
+            public void shutdown() {
+                fallback.shutdown();
+            }
+        };
+    }
+
+    @Override
+    public synchronized String toString() {
+        final List<Entry> sorted = new ArrayList<Entry>(entries.values());
+        Collections.sort(sorted, SCORE_COMPARATOR);
+        return sorted.toString();
+    }
+
+    private void recordPing(final Peer peer) {
+        final InetSocketAddress address = socketAddress(peer);
+        final long ping = peer.getPingTime();
+        if (address != null && ping >= 0 && ping < Long.MAX_VALUE) {
+            final Entry entry = getOrCreate(address);
+            entry.pingMs = smooth(entry.pingMs, ping);
+            dirty = true;
+        }
+    }
+
+    private Entry getOrCreate(final InetSocketAddress address) {
+        Entry entry = entries.get(address);
+        if (entry == null) {
+            if (entries.size() >= MAX_ENTRIES)
+                evictWorst();
+            entry = new Entry(address);
+            entries.put(address, entry);
+        }
+        return entry;
+    }
+
+    private void evictWorst() {
+        Entry worst = null;
+        for (final Entry entry : entries.values())
+            if (worst == null || SCORE_COMPARATOR.compare(entry, worst) > 0)
+                worst = entry;
+        if (worst != null)
+            entries.remove(worst.address);
+    }
+
+    private static long smooth(final long previous, final long sample) {
+        if (previous < 0)
+            return sample;
+        return (long) (previous + LATENCY_SMOOTHING * (sample - previous));
+    }
+
+    @Nullable
+    private static InetSocketAddress socketAddress(final Peer peer) {
+        final PeerAddress peerAddress = peer.getAddress();
+        if (peerAddress == null || peerAddress.getAddr() == null)
+            return null;
+        return new InetSocketAddress(peerAddress.getAddr(), peerAddress.getPort());
+    }
+}
@@ -0,0 +1,149 @@
+/*
+ * Copyright 2011-2015 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.ivan.fgwallet.schildbach.wallet.service;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+
+import org.bitcoinj.core.StoredBlock;
+import org.bitcoinj.core.listeners.NewBestBlockListener;
+import org.bitcoinj.core.listeners.ReorganizeListener;
+import org.bitcoinj.store.BlockStore;
+import org.bitcoinj.store.BlockStoreException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Bounded ring buffer of the most recent blocks of the best chain, newest first. It follows the chain head via the
+ * block chain listeners, so recent blocks can be served without reading the block store. Blocks older than what was
+ * seen since startup are read from the store once, on first request.
+ *
+ * @author Andreas, soos
+ */
+final class RecentBlocks implements NewBestBlockListener, ReorganizeListener {
+    private final int capacity;
+    private final ArrayDeque<StoredBlock> blocks;
+    private boolean reachedStart = false; // oldest block has no predecessor in the store
+
+    private static final Logger log = LoggerFactory.getLogger(RecentBlocks.class);
+
+    public RecentBlocks(final int capacity) {
+        this.capacity = capacity;
+        this.blocks = new ArrayDeque<StoredBlock>(capacity);
+    }
+
+    @Override
+    public synchronized void notifyNewBestBlock(final StoredBlock block) {
+        final StoredBlock newest = blocks.peekFirst();
+        if (newest != null && newest.getHeader().getHash().equals(block.getHeader().getHash()))
+            return;
+
+        if (newest != null && !newest.getHeader().getHash().equals(block.getHeader().getPrevBlockHash())) {
+            log.info("block {} doesn't connect to the recent blocks, starting over", block.getHeight());
+            reset();
+        }
+        push(block);
+    }
+
+    @Override
+    public synchronized void reorganize(final StoredBlock splitPoint, final List<StoredBlock> oldBlocks,
+            final List<StoredBlock> newBlocks) {
+        // unwind to the split point
+        while (!blocks.isEmpty() && blocks.peekFirst().getHeight() > splitPoint.getHeight())
+            blocks.removeFirst();
+        final StoredBlock newest = blocks.peekFirst();
+        if (newest == null || !newest.getHeader().getHash().equals(splitPoint.getHeader().getHash())) {
+            log.info("reorganize split point {} is not among the recent blocks, starting over",
+                    splitPoint.getHeight());
+            reset();
+        }
+
+        final List<StoredBlock> connect = new ArrayList<StoredBlock>(newBlocks);
+        Collections.sort(connect, HEIGHT_COMPARATOR);
+        for (final StoredBlock block : connect)
+            push(block);
+
+        log.info("reorganized recent blocks: {} blocks replaced by {}", oldBlocks.size(), newBlocks.size());
+    }
+
+    /**
+     * Returns up to {@code maxBlocks} blocks, newest first, ending at the given chain head. Only the first call (or
+     * calls asking for more than the capacity) reads from the block store.
+     */
+    public synchronized List<StoredBlock> get(final int maxBlocks, final StoredBlock chainHead,
+            final BlockStore blockStore) {
+        final StoredBlock newest = blocks.peekFirst();
+        if (newest == null || !newest.getHeader().getHash().equals(chainHead.getHeader().getHash())) {
+            // head listener not yet attached, or events got lost
+            reset();
+            blocks.addFirst(chainHead);
+        }
+
+        final List<StoredBlock> result = new ArrayList<StoredBlock>(Math.min(maxBlocks, capacity));
+        try {
+            final int wanted = Math.min(maxBlocks, capacity);
+            while (blocks.size() < wanted && !reachedStart) {
+                final StoredBlock prev = blocks.peekLast().getPrev(blockStore);
+                if (prev != null)
+                    blocks.addLast(prev);
+                else
+                    reachedStart = true;
+            }
+
+            final Iterator<StoredBlock> i = blocks.iterator();
+            while (result.size() < maxBlocks && i.hasNext())
+                result.add(i.next());
+
+            // beyond capacity, fall back to walking the store
+            StoredBlock block = result.isEmpty() || reachedStart ? null : result.get(result.size() - 1);
+            while (block != null && result.size() < maxBlocks) {
+                block = block.getPrev(blockStore);
+                if (block != null)
+                    result.add(block);
+            }
+        } catch (final BlockStoreException x) {
+            // swallow
+        }
+
+        return result;
+    }
+
+    private void push(final StoredBlock block) {
+        blocks.addFirst(block);
+        if (blocks.size() > capacity) {
+            blocks.removeLast();
+            reachedStart = false;
+        }
+    }
+
+    private void reset() {
+        blocks.clear();
+        reachedStart = false;
+    }
+
+    private static final Comparator<StoredBlock> HEIGHT_COMPARATOR = new Comparator<StoredBlock>() {
+        @Override
+        public int compare(final StoredBlock lhs, final StoredBlock rhs) {
+            return Integer.compare(lhs.getHeight(), rhs.getHeight());
+        }
+    };
+}
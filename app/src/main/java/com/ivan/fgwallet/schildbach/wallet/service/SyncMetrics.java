@@ -0,0 +1,301 @@
+/*
+ * Copyright 2011-2015 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.ivan.fgwallet.schildbach.wallet.service;
+
+import java.net.InetAddress;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.Nullable;
+
+import org.bitcoinj.core.Peer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.ivan.fgwallet.schildbach.wallet.util.WalletJournal;
+
+import android.net.TrafficStats;
+import android.os.Process;
+
+/**
+ * Collects sync and network metrics: counters are fed by the blockchain service as events happen, and
+ * {@link #sample(List)} turns them into per-second rates once a second. The last {@link #HISTORY_SIZE} samples of
+ * each {@link Series} are kept for charts, and a summary line is periodically written to its own rolling log.
+ *
+ * @author Andreas, soos
+ */
+public final class SyncMetrics implements WalletJournal.SaveListener {
+    public enum Series {
+        BLOCKS_PER_SEC, BYTES_IN_PER_SEC, BYTES_OUT_PER_SEC, FALSE_POSITIVE_RATE
+    }
+
+    public static final int HISTORY_SIZE = 120;
+    public static final String LOGGER_NAME = "sync-metrics";
+
+    private static final int LOG_INTERVAL_SAMPLES = 10;
+
+    // fed from any thread
+    private final AtomicLong blocks = new AtomicLong();
+    private final AtomicLong matchedTransactions = new AtomicLong();
+    private final AtomicLong falsePositives = new AtomicLong();
+    private final AtomicInteger reorganizations = new AtomicInteger();
+    private final ConcurrentHashMap<InetAddress, PeerStats> peerStats = new ConcurrentHashMap<InetAddress, PeerStats>();
+    private volatile long syncStartedAt = 0;
+    private volatile long timeToSyncedMs = -1;
+    private volatile long lastWalletSaveMs = -1;
+    private volatile long maxWalletSaveMs = -1;
+    private final AtomicInteger walletSaves = new AtomicInteger();
+    private volatile double filterFalsePositiveRate = -1;
+    private volatile long filterBytes = -1;
+    private final AtomicInteger filterChanges = new AtomicInteger();
+    private final AtomicLong filterBandwidthSaved = new AtomicLong();
+
+    // guarded by this
+    private final float[][] history = new float[Series.values().length][HISTORY_SIZE];
+    private int historyHead = 0;
+    private int historySize = 0;
+    private long lastSampleAt = 0;
+    private long lastBlocks = 0, lastMatched = 0, lastFalsePositives = 0;
+    private long lastRxBytes = -1, lastTxBytes = -1;
+    private int samplesSinceLog = 0;
+
+    private static final Logger log = LoggerFactory.getLogger(LOGGER_NAME);
+
+    public static final class PeerStats {
+        private final AtomicLong blocks = new AtomicLong();
+        private long lastBlocks = 0;
+        private volatile float blocksPerSec = 0;
+        private volatile long pingMs = -1;
+
+        public float getBlocksPerSec() {
+            return blocksPerSec;
+        }
+
+        public long getPingMs() {
+            return pingMs;
+        }
+    }
+
+    public void syncStarted() {
+        syncStartedAt = System.currentTimeMillis();
+        timeToSyncedMs = -1;
+        peerStats.clear();
+        synchronized (this) {
+            lastSampleAt = 0; // don't average over the time sampling was paused
+        }
+    }
+
+    public void peerDisconnected(final Peer peer) {
+        final InetAddress address = peer.getAddress().getAddr();
+        if (address != null)
+            peerStats.remove(address);
+    }
+
+    /**
+     * @param matched
+     *            transactions the filtered block came with
+     * @param falsePositive
+     *            of those, transactions that turned out not to be relevant to the wallet
+     */
+    public void blockDownloaded(@Nullable final Peer peer, final int matched, final int falsePositive,
+            final int blocksLeft) {
+        blocks.incrementAndGet();
+        matchedTransactions.addAndGet(matched);
+        falsePositives.addAndGet(falsePositive);
+        if (peer != null && peer.getAddress().getAddr() != null)
+            getOrCreatePeerStats(peer.getAddress().getAddr()).blocks.incrementAndGet();
+        if (blocksLeft == 0)
+            synced();
+    }
+
+    public void synced() {
+        if (timeToSyncedMs < 0 && syncStartedAt > 0) {
+            timeToSyncedMs = System.currentTimeMillis() - syncStartedAt;
+            log.info("synced {} ms after start", timeToSyncedMs);
+        }
+    }
+
+    public void reorganized() {
+        reorganizations.incrementAndGet();
+    }
+
+    /**
+     * The Bloom filter false positive rate was changed, resulting in a filter of about the given size.
+     */
+    public void filterChanged(final double falsePositiveRate, final long filterBytes) {
+        this.filterFalsePositiveRate = falsePositiveRate;
+        this.filterBytes = filterBytes;
+        filterChanges.incrementAndGet();
+    }
+
+    /**
+     * Estimated bytes saved compared to the default Bloom filter false positive rate. Negative for bytes spent.
+     */
+    public void filterBandwidthSaved(final long bytes) {
+        filterBandwidthSaved.addAndGet(bytes);
+    }
+
+    @Override
+    public void onWalletSaved(final boolean compaction, final long durationMs) {
+        lastWalletSaveMs = durationMs;
+        if (durationMs > maxWalletSaveMs)
+            maxWalletSaveMs = durationMs;
+        walletSaves.incrementAndGet();
+    }
+
+    /**
+     * Takes a sample of all rates. Call about once a second while syncing.
+     */
+    public synchronized void sample(@Nullable final List<Peer> connectedPeers) {
+        final long now = System.currentTimeMillis();
+        final float secs = lastSampleAt > 0 ? Math.max(now - lastSampleAt, 1) / 1000f : 0;
+        lastSampleAt = now;
+
+        final long blocks = this.blocks.get();
+        final long matched = matchedTransactions.get();
+        final long falsePositives = this.falsePositives.get();
+        final int uid = Process.myUid();
+        final long rxBytes = TrafficStats.getUidRxBytes(uid);
+        final long txBytes = TrafficStats.getUidTxBytes(uid);
+
+        if (secs > 0) {
+            final int i = historyHead;
+            history[Series.BLOCKS_PER_SEC.ordinal()][i] = (blocks - lastBlocks) / secs;
+            history[Series.BYTES_IN_PER_SEC.ordinal()][i] = rate(lastRxBytes, rxBytes, secs);
+            history[Series.BYTES_OUT_PER_SEC.ordinal()][i] = rate(lastTxBytes, txBytes, secs);
+            final long matchedDelta = matched - lastMatched;
+            history[Series.FALSE_POSITIVE_RATE.ordinal()][i] = matchedDelta > 0
+                    ? (float) (falsePositives - lastFalsePositives) / matchedDelta : 0;
+            historyHead = (historyHead + 1) % HISTORY_SIZE;
+            historySize = Math.min(historySize + 1, HISTORY_SIZE);
+
+            if (connectedPeers != null) {
+                for (final Peer peer : connectedPeers) {
+                    final InetAddress address = peer.getAddress().getAddr();
+                    if (address == null)
+                        continue;
+                    final PeerStats stats = getOrCreatePeerStats(address);
+                    final long peerBlocks = stats.blocks.get();
+                    stats.blocksPerSec = (peerBlocks - stats.lastBlocks) / secs;
+                    stats.lastBlocks = peerBlocks;
+                    final long ping = peer.getPingTime();
+                    stats.pingMs = ping < Long.MAX_VALUE ? ping : -1;
+                }
+            }
+        }
+
+        lastBlocks = blocks;
+        lastMatched = matched;
+        lastFalsePositives = falsePositives;
+        lastRxBytes = rxBytes;
+        lastTxBytes = txBytes;
+
+        if (++samplesSinceLog >= LOG_INTERVAL_SAMPLES) {
+            samplesSinceLog = 0;
+            log.info(summary(connectedPeers != null ? connectedPeers.size() : 0));
+        }
+    }
+
+    /**
+     * Returns the sampled history of the given series, oldest first.
+     */
+    public synchronized float[] getHistory(final Series series) {
+        final float[] values = history[series.ordinal()];
+        final float[] result = new float[historySize];
+        final int start = (historyHead - historySize + HISTORY_SIZE) % HISTORY_SIZE;
+        for (int i = 0; i < historySize; i++)
+            result[i] = values[(start + i) % HISTORY_SIZE];
+        return result;
+    }
+
+    public synchronized float getLatest(final Series series) {
+        if (historySize == 0)
+            return 0;
+        return history[series.ordinal()][(historyHead - 1 + HISTORY_SIZE) % HISTORY_SIZE];
+    }
+
+    @Nullable
+    public PeerStats getPeerStats(final InetAddress address) {
+        return peerStats.get(address);
+    }
+
+    /**
+     * Overall share of matched transactions that were false positives, or -1 if nothing was matched yet.
+     */
+    public float getFalsePositiveRate() {
+        final long matched = matchedTransactions.get();
+        return matched > 0 ? (float) falsePositives.get() / matched : -1;
+    }
+
+    public int getReorganizations() {
+        return reorganizations.get();
+    }
+
+    public long getTimeToSyncedMs() {
+        return timeToSyncedMs;
+    }
+
+    public double getFilterFalsePositiveRate() {
+        return filterFalsePositiveRate;
+    }
+
+    public long getFilterBytes() {
+        return filterBytes;
+    }
+
+    public long getFilterBandwidthSaved() {
+        return filterBandwidthSaved.get();
+    }
+
+    public long getLastWalletSaveMs() {
+        return lastWalletSaveMs;
+    }
+
+    public long getMaxWalletSaveMs() {
+        return maxWalletSaveMs;
+    }
+
+    private String summary(final int numPeers) {
+        return String.format(Locale.US, "peers=%d blocks/s=%.1f in=%.0fB/s out=%.0fB/s fp=%.3f reorgs=%d "
+                + "synced=%dms saves=%d last=%dms max=%dms filter=%.6f/%dB changes=%d saved=%dB",
+                numPeers, getLatest(Series.BLOCKS_PER_SEC), getLatest(Series.BYTES_IN_PER_SEC),
+                getLatest(Series.BYTES_OUT_PER_SEC), getFalsePositiveRate(), reorganizations.get(), timeToSyncedMs,
+                walletSaves.get(), lastWalletSaveMs, maxWalletSaveMs, filterFalsePositiveRate, filterBytes,
+                filterChanges.get(), filterBandwidthSaved.get());
+    }
+
+    private PeerStats getOrCreatePeerStats(final InetAddress address) {
+        PeerStats stats = peerStats.get(address);
+        if (stats == null) {
+            final PeerStats newStats = new PeerStats();
+            stats = peerStats.putIfAbsent(address, newStats);
+            if (stats == null)
+                stats = newStats;
+        }
+        return stats;
+    }
+
+    private static float rate(final long previous, final long current, final float secs) {
+        if (previous < 0 || current < 0)
+            return 0; // unsupported on this device
+        return (current - previous) / secs;
+    }
+}
@@ -0,0 +1,231 @@
+/*
+ * Copyright 2011-2015 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.ivan.fgwallet.schildbach.wallet.service;
+
+import java.util.Calendar;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Joiner;
+import com.google.common.base.Splitter;
+import com.google.common.primitives.Floats;
+
+import com.ivan.fgwallet.schildbach.wallet.Configuration;
+import com.ivan.fgwallet.schildbach.wallet.Constants;
+
+import android.app.AlarmManager;
+import android.app.PendingIntent;
+import android.app.job.JobInfo;
+import android.app.job.JobScheduler;
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.Intent;
+import android.content.SharedPreferences;
+import android.preference.PreferenceManager;
+import android.text.format.DateUtils;
+
+/**
+ * Schedules background syncs of the block chain. Keeps a decaying histogram of when during the week the app is opened
+ * and payments come in, and uses it to sync shortly before the next likely app open. Without a usable prediction, it
+ * falls back to the usage-based backoff and lets the system batch the sync with charging.
+ *
+ * @author Andreas, soos
+ */
+public final class SyncScheduler {
+    private final Context context;
+    private final SharedPreferences prefs;
+
+    private static final String PREFS_NAME = "sync_scheduler";
+    private static final String PREFS_KEY_HISTOGRAM = "histogram";
+    private static final String PREFS_KEY_HISTOGRAM_DECAYED = "histogram_decayed";
+    private static final String PREFS_KEY_LAST_SYNCED = "last_synced";
+    private static final String PREFS_KEY_PREDICTED_OPEN = "predicted_open";
+    private static final String PREFS_KEY_SCHEDULED_SYNC = "scheduled_sync";
+
+    private static final int JOB_ID = 1;
+    private static final int NUM_BUCKETS = 7 * 24; // hours of the week
+    private static final long HALF_LIFE_MS = 4 * DateUtils.WEEK_IN_MILLIS;
+    private static final float WEIGHT_APP_OPEN = 1.0f;
+    private static final float WEIGHT_PAYMENT_RECEIVED = 0.5f;
+    private static final float MIN_BUCKET_WEIGHT = 1.5f;
+    private static final float MIN_BUCKET_SHARE_OF_PEAK = 0.25f;
+    private static final long PRE_SYNC_LEAD_MS = 20 * DateUtils.MINUTE_IN_MILLIS;
+    private static final long PRE_SYNC_WINDOW_MS = 15 * DateUtils.MINUTE_IN_MILLIS;
+    private static final long MIN_DELAY_MS = 5 * DateUtils.MINUTE_IN_MILLIS;
+
+    // instances share the preferences, so the histogram is guarded across all of them
+    private static final Object histogramLock = new Object();
+
+    private static final Logger log = LoggerFactory.getLogger(SyncScheduler.class);
+
+    public SyncScheduler(final Context context) {
+        this.context = context.getApplicationContext();
+        this.prefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+    }
+
+    /**
+     * Call when the user opens the app. Logs how fresh the chain actually was compared to what was predicted.
+     */
+    public void recordAppOpen() {
+        final long now = System.currentTimeMillis();
+        final long lastSynced = prefs.getLong(PREFS_KEY_LAST_SYNCED, 0);
+        final long predictedOpen = prefs.getLong(PREFS_KEY_PREDICTED_OPEN, 0);
+        final long scheduledSync = prefs.getLong(PREFS_KEY_SCHEDULED_SYNC, 0);
+
+        if (lastSynced > 0) {
+            final StringBuilder s = new StringBuilder("app opened, chain synced ")
+                    .append((now - lastSynced) / DateUtils.MINUTE_IN_MILLIS).append(" minutes ago");
+            if (predictedOpen > 0)
+                s.append(", predicted open ").append((now - predictedOpen) / DateUtils.MINUTE_IN_MILLIS)
+                        .append(" minutes ago with expected freshness ")
+                        .append((predictedOpen - scheduledSync) / DateUtils.MINUTE_IN_MILLIS).append(" minutes");
+            else
+                s.append(", no open was predicted");
+            log.info(s.toString());
+        }
+
+        record(now, WEIGHT_APP_OPEN);
+    }
+
+    public void recordPaymentReceived() {
+        record(System.currentTimeMillis(), WEIGHT_PAYMENT_RECEIVED);
+    }
+
+    /**
+     * Call when the chain has caught up with the network.
+     */
+    public void recordSynced() {
+        prefs.edit().putLong(PREFS_KEY_LAST_SYNCED, System.currentTimeMillis()).apply();
+    }
+
+    /**
+     * Replaces any pending sync with one at the predicted time, or a batched one after the usage backoff.
+     */
+    public void schedule() {
+        final Configuration config = new Configuration(PreferenceManager.getDefaultSharedPreferences(context),
+                context.getResources());
+        final long now = System.currentTimeMillis();
+        final long lastUsedAgo = config.getLastUsedAgo();
+
+        // apply some backoff
+        final long backoffInterval;
+        if (lastUsedAgo < Constants.LAST_USAGE_THRESHOLD_JUST_MS)
+            backoffInterval = AlarmManager.INTERVAL_FIFTEEN_MINUTES;
+        else if (lastUsedAgo < Constants.LAST_USAGE_THRESHOLD_RECENTLY_MS)
+            backoffInterval = AlarmManager.INTERVAL_HALF_DAY;
+        else
+            backoffInterval = AlarmManager.INTERVAL_DAY;
+
+        final long predictedOpen = predictNextOpen(now);
+        final JobInfo.Builder job = new JobInfo.Builder(JOB_ID,
+                new ComponentName(context, BlockchainSyncJobService.class));
+        job.setRequiredNetworkType(JobInfo.NETWORK_TYPE_ANY);
+        job.setPersisted(true);
+
+        final long scheduledSync;
+        if (predictedOpen > 0 && predictedOpen - PRE_SYNC_LEAD_MS - now < backoffInterval) {
+            final long delay = Math.max(predictedOpen - PRE_SYNC_LEAD_MS - now, MIN_DELAY_MS);
+            job.setMinimumLatency(delay);
+            job.setOverrideDeadline(delay + PRE_SYNC_WINDOW_MS);
+            scheduledSync = now + delay;
+            log.info("last used {} minutes ago, predicting next use in {} minutes, pre-syncing in {} minutes",
+                    lastUsedAgo / DateUtils.MINUTE_IN_MILLIS, (predictedOpen - now) / DateUtils.MINUTE_IN_MILLIS,
+                    delay / DateUtils.MINUTE_IN_MILLIS);
+        } else {
+            // nobody is waiting, so let the system batch us with other work
+            job.setMinimumLatency(backoffInterval);
+            job.setOverrideDeadline(backoffInterval * 2);
+            if (backoffInterval >= AlarmManager.INTERVAL_HALF_DAY)
+                job.setRequiresCharging(true);
+            scheduledSync = now + backoffInterval;
+            log.info("last used {} minutes ago, no use predicted soon, rescheduling blockchain sync in roughly {} minutes",
+                    lastUsedAgo / DateUtils.MINUTE_IN_MILLIS, backoffInterval / DateUtils.MINUTE_IN_MILLIS);
+        }
+
+        // remove alarm scheduled by previous versions
+        final AlarmManager alarmManager = (AlarmManager) context.getSystemService(Context.ALARM_SERVICE);
+        alarmManager.cancel(PendingIntent.getService(context, 0, new Intent(context, BlockchainServiceImpl.class), 0));
+
+        final JobScheduler jobScheduler = (JobScheduler) context.getSystemService(Context.JOB_SCHEDULER_SERVICE);
+        if (jobScheduler.schedule(job.build()) != JobScheduler.RESULT_SUCCESS)
+            log.warn("could not schedule blockchain sync");
+
+        prefs.edit().putLong(PREFS_KEY_PREDICTED_OPEN, predictedOpen).putLong(PREFS_KEY_SCHEDULED_SYNC, scheduledSync)
+                .apply();
+    }
+
+    /**
+     * Returns the start of the next hour with enough past activity, or 0 if there is none within a week.
+     */
+    private long predictNextOpen(final long now) {
+        final float[] histogram = loadHistogram(now);
+        float peak = 0;
+        for (final float weight : histogram)
+            peak = Math.max(peak, weight);
+        final float threshold = Math.max(MIN_BUCKET_WEIGHT, peak * MIN_BUCKET_SHARE_OF_PEAK);
+
+        final Calendar calendar = Calendar.getInstance();
+        calendar.setTimeInMillis(now);
+        calendar.set(Calendar.MINUTE, 0);
+        calendar.set(Calendar.SECOND, 0);
+        calendar.set(Calendar.MILLISECOND, 0);
+        for (int i = 0; i < NUM_BUCKETS; i++) {
+            calendar.add(Calendar.HOUR_OF_DAY, 1);
+            if (histogram[bucket(calendar)] >= threshold)
+                return calendar.getTimeInMillis();
+        }
+        return 0;
+    }
+
+    private void record(final long time, final float weight) {
+        synchronized (histogramLock) {
+            final float[] histogram = loadHistogram(time);
+            final Calendar calendar = Calendar.getInstance();
+            calendar.setTimeInMillis(time);
+            histogram[bucket(calendar)] += weight;
+            prefs.edit().putString(PREFS_KEY_HISTOGRAM, Joiner.on(',').join(Floats.asList(histogram)))
+                    .putLong(PREFS_KEY_HISTOGRAM_DECAYED, time).apply();
+        }
+    }
+
+    private float[] loadHistogram(final long now) {
+        final float[] histogram = new float[NUM_BUCKETS];
+        final String stored = prefs.getString(PREFS_KEY_HISTOGRAM, null);
+        if (stored != null) {
+            try {
+                int i = 0;
+                for (final String weight : Splitter.on(',').split(stored))
+                    histogram[i++] = Float.parseFloat(weight);
+            } catch (final RuntimeException x) {
+                log.info("discarding unreadable usage histogram", x);
+                return new float[NUM_BUCKETS];
+            }
+        }
+
+        final long decayed = prefs.getLong(PREFS_KEY_HISTOGRAM_DECAYED, now);
+        final float factor = (float) Math.pow(0.5, (double) Math.max(now - decayed, 0) / HALF_LIFE_MS);
+        for (int i = 0; i < NUM_BUCKETS; i++)
+            histogram[i] *= factor;
+        return histogram;
+    }
+
+    private static int bucket(final Calendar calendar) {
+        return (calendar.get(Calendar.DAY_OF_WEEK) - Calendar.SUNDAY) * 24 + calendar.get(Calendar.HOUR_OF_DAY);
+    }
+}
@@ -81,6 +81,7 @@ public final class UpgradeWalletService extends IntentService {
 
             // upgrade wallet to HD
             wallet.upgradeToDeterministic(null);
+            application.saveWallet();
 
             // let other service pre-generate look-ahead keys
             application.startBlockchainService(false);
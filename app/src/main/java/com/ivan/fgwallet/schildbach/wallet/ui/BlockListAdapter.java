@@ -19,14 +19,16 @@ package com.ivan.fgwallet.schildbach.wallet.ui;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
-import java.util.Set;
+import java.util.Map;
 
 import javax.annotation.Nullable;
 
 import org.bitcoinj.core.Address;
 import org.bitcoinj.core.Block;
 import org.bitcoinj.core.Coin;
+import org.bitcoinj.core.Sha256Hash;
 import org.bitcoinj.core.StoredBlock;
 import org.bitcoinj.core.Transaction;
 import org.bitcoinj.core.Transaction.Purpose;
@@ -34,12 +36,14 @@ import org.bitcoinj.utils.MonetaryFormat;
 import org.bitcoinj.wallet.Wallet;
 
 import com.ivan.fgwallet.schildbach.wallet.Constants;
-import com.ivan.fgwallet.schildbach.wallet.data.AddressBookProvider;
+import com.ivan.fgwallet.WalletApplication;
+import com.ivan.fgwallet.schildbach.wallet.data.AddressBookLabelCache;
 import com.ivan.fgwallet.schildbach.wallet.util.WalletUtils;
 import com.ivan.fgwallet.R;
 
 import android.content.Context;
 import android.graphics.Typeface;
+import android.support.v7.util.DiffUtil;
 import android.support.v7.widget.RecyclerView;
 import android.text.format.DateUtils;
 import android.view.LayoutInflater;
@@ -57,6 +61,7 @@ public class BlockListAdapter extends RecyclerView.Adapter<BlockListAdapter.Bloc
 
     private final Context context;
     private final Wallet wallet;
+    private final AddressBookLabelCache labelCache;
     private final LayoutInflater inflater;
     @Nullable
     private final OnClickListener onClickListener;
@@ -64,7 +69,7 @@ public class BlockListAdapter extends RecyclerView.Adapter<BlockListAdapter.Bloc
     private MonetaryFormat format;
 
     private final List<StoredBlock> blocks = new ArrayList<StoredBlock>();
-    private Set<Transaction> transactions;
+    private Map<Sha256Hash, List<Transaction>> transactions = Collections.emptyMap();
 
     private final String textCoinBase;
     private final String textInternal;
@@ -74,6 +79,7 @@ public class BlockListAdapter extends RecyclerView.Adapter<BlockListAdapter.Bloc
         this.context = context;
         inflater = LayoutInflater.from(context);
         this.wallet = wallet;
+        this.labelCache = ((WalletApplication) context.getApplicationContext()).getAddressBookLabelCache();
         this.onClickListener = onClickListener;
 
         textCoinBase = context.getString(R.string.wallet_transactions_fragment_coinbase);
@@ -95,22 +101,65 @@ public class BlockListAdapter extends RecyclerView.Adapter<BlockListAdapter.Bloc
     }
 
     public void replace(final Collection<StoredBlock> blocks) {
+        final List<StoredBlock> oldBlocks = new ArrayList<StoredBlock>(this.blocks);
+        final List<StoredBlock> newBlocks = new ArrayList<StoredBlock>(blocks);
+
+        // usually just a new block on top, so only touch the rows that moved
+        final DiffUtil.DiffResult diff = DiffUtil.calculateDiff(new DiffUtil.Callback() {
+            @Override
+            public int getOldListSize() {
+                return oldBlocks.size();
+            }
+
+            @Override
+            public int getNewListSize() {
+                return newBlocks.size();
+            }
+
+            @Override
+            public boolean areItemsTheSame(final int oldPosition, final int newPosition) {
+                return oldBlocks.get(oldPosition).getHeader().getHash()
+                        .equals(newBlocks.get(newPosition).getHeader().getHash());
+            }
+
+            @Override
+            public boolean areContentsTheSame(final int oldPosition, final int newPosition) {
+                return true; // block headers are immutable
+            }
+        }, false);
+
         this.blocks.clear();
-        this.blocks.addAll(blocks);
+        this.blocks.addAll(newBlocks);
 
-        notifyDataSetChanged();
+        diff.dispatchUpdatesTo(this);
     }
 
     public void clearTransactions() {
-        transactions = null;
-
-        notifyDataSetChanged();
+        replaceTransactions(Collections.<Sha256Hash, List<Transaction>> emptyMap());
     }
 
-    public void replaceTransactions(final Set<Transaction> transactions) {
+    public void replaceTransactions(final Map<Sha256Hash, List<Transaction>> transactions) {
+        final Map<Sha256Hash, List<Transaction>> oldTransactions = this.transactions;
         this.transactions = transactions;
 
-        notifyDataSetChanged();
+        // rebind only the blocks whose transactions changed
+        for (int position = 0; position < blocks.size(); position++) {
+            final Sha256Hash blockHash = blocks.get(position).getHeader().getHash();
+            if (!sameTransactions(oldTransactions.get(blockHash), transactions.get(blockHash)))
+                notifyItemChanged(position);
+        }
+    }
+
+    private static boolean sameTransactions(@Nullable final List<Transaction> list1,
+            @Nullable final List<Transaction> list2) {
+        final int size1 = list1 != null ? list1.size() : 0;
+        final int size2 = list2 != null ? list2.size() : 0;
+        if (size1 != size2)
+            return false;
+        for (int i = 0; i < size1; i++)
+            if (!list1.get(i).getHash().equals(list2.get(i).getHash()))
+                return false;
+        return true;
     }
 
     public StoredBlock getItem(final int position) {
@@ -157,21 +206,20 @@ public class BlockListAdapter extends RecyclerView.Adapter<BlockListAdapter.Bloc
         final int transactionChildCount = holder.transactionsViewGroup.getChildCount() - ROW_BASE_CHILD_COUNT;
         int iTransactionView = 0;
 
-        if (transactions != null) {
-            for (final Transaction tx : transactions) {
-                if (tx.getAppearsInHashes().containsKey(header.getHash())) {
-                    final View view;
-                    if (iTransactionView < transactionChildCount) {
-                        view = holder.transactionsViewGroup.getChildAt(ROW_INSERT_INDEX + iTransactionView);
-                    } else {
-                        view = inflater.inflate(R.layout.block_row_transaction, null);
-                        holder.transactionsViewGroup.addView(view, ROW_INSERT_INDEX + iTransactionView);
-                    }
+        final List<Transaction> blockTransactions = transactions.get(header.getHash());
+        if (blockTransactions != null) {
+            for (final Transaction tx : blockTransactions) {
+                final View view;
+                if (iTransactionView < transactionChildCount) {
+                    view = holder.transactionsViewGroup.getChildAt(ROW_INSERT_INDEX + iTransactionView);
+                } else {
+                    view = inflater.inflate(R.layout.block_row_transaction, null);
+                    holder.transactionsViewGroup.addView(view, ROW_INSERT_INDEX + iTransactionView);
+                }
 
-                    bindView(view, tx);
+                bindView(view, tx);
 
-                    iTransactionView++;
-                }
+                iTransactionView++;
             }
         }
 
@@ -219,7 +267,7 @@ public class BlockListAdapter extends RecyclerView.Adapter<BlockListAdapter.Bloc
         else if (isInternal || self)
             label = textInternal;
         else if (address != null)
-            label = AddressBookProvider.resolveLabel(context, address.toBase58());
+            label = labelCache.get(address.toBase58());
         else
             label = "?";
         rowAddress.setText(label != null ? label : address.toBase58());
@@ -17,6 +17,10 @@
 
 package com.ivan.fgwallet.schildbach.wallet.ui;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
@@ -35,6 +39,8 @@ import com.ivan.fgwallet.schildbach.wallet.Constants;
 import com.ivan.fgwallet.WalletApplication;
 import com.ivan.fgwallet.schildbach.wallet.service.BlockchainService;
 import com.ivan.fgwallet.schildbach.wallet.service.BlockchainServiceImpl;
+import com.ivan.fgwallet.schildbach.wallet.service.BlockchainState;
+import com.ivan.fgwallet.schildbach.wallet.util.VersionedState;
 import com.ivan.fgwallet.R;
 
 import android.app.Activity;
@@ -52,7 +58,6 @@ import android.content.ServiceConnection;
 import android.net.Uri;
 import android.os.Bundle;
 import android.os.IBinder;
-import android.support.v4.content.LocalBroadcastManager;
 import android.support.v7.widget.LinearLayoutManager;
 import android.support.v7.widget.RecyclerView;
 import android.view.LayoutInflater;
@@ -78,6 +83,7 @@ public final class BlockListFragment extends Fragment implements BlockListAdapte
     private ViewAnimator viewGroup;
     private RecyclerView recyclerView;
     private BlockListAdapter adapter;
+    private Set<Sha256Hash> blockHashes = Collections.emptySet(); // blocks currently shown
 
     private static final int ID_BLOCK_LOADER = 0;
     private static final int ID_TRANSACTION_LOADER = 1;
@@ -212,13 +218,13 @@ public final class BlockListFragment extends Fragment implements BlockListAdapte
     };
 
     private static class BlockLoader extends AsyncTaskLoader<List<StoredBlock>> {
-        private LocalBroadcastManager broadcastManager;
+        private VersionedState<BlockchainState> blockchainState;
         private BlockchainService service;
 
         private BlockLoader(final Context context, final BlockchainService service) {
             super(context);
 
-            this.broadcastManager = LocalBroadcastManager.getInstance(context.getApplicationContext());
+            this.blockchainState = ((WalletApplication) context.getApplicationContext()).getBlockchainState();
             this.service = service;
         }
 
@@ -226,15 +232,14 @@ public final class BlockListFragment extends Fragment implements BlockListAdapte
         protected void onStartLoading() {
             super.onStartLoading();
 
-            broadcastManager.registerReceiver(broadcastReceiver,
-                    new IntentFilter(BlockchainService.ACTION_BLOCKCHAIN_STATE));
+            blockchainState.subscribe(blockchainStateListener);
 
             forceLoad();
         }
 
         @Override
         protected void onStopLoading() {
-            broadcastManager.unregisterReceiver(broadcastReceiver);
+            blockchainState.unsubscribe(blockchainStateListener);
 
             super.onStopLoading();
         }
@@ -244,9 +249,10 @@ public final class BlockListFragment extends Fragment implements BlockListAdapte
             return service.getRecentBlocks(MAX_BLOCKS);
         }
 
-        private final BroadcastReceiver broadcastReceiver = new BroadcastReceiver() {
+        private final VersionedState.Listener<BlockchainState> blockchainStateListener = //
+                new VersionedState.Listener<BlockchainState>() {
             @Override
-            public void onReceive(final Context context, final Intent intent) {
+            public void onStateChanged(final VersionedState.Snapshot<BlockchainState> snapshot) {
                 try {
                     forceLoad();
                 } catch (final RejectedExecutionException x) {
@@ -267,9 +273,17 @@ public final class BlockListFragment extends Fragment implements BlockListAdapte
             adapter.replace(blocks);
             viewGroup.setDisplayedChild(1);
 
-            final Loader<Set<Transaction>> transactionLoader = loaderManager.getLoader(ID_TRANSACTION_LOADER);
-            if (transactionLoader != null && transactionLoader.isStarted())
+            final Set<Sha256Hash> blockHashes = new HashSet<Sha256Hash>(blocks.size());
+            for (final StoredBlock block : blocks)
+                blockHashes.add(block.getHeader().getHash());
+            BlockListFragment.this.blockHashes = blockHashes;
+
+            final TransactionsLoader transactionLoader = (TransactionsLoader) loaderManager
+                    .<Map<Sha256Hash, List<Transaction>>> getLoader(ID_TRANSACTION_LOADER);
+            if (transactionLoader != null && transactionLoader.isStarted()) {
+                transactionLoader.setBlockHashes(blockHashes);
                 transactionLoader.forceLoad();
+            }
         }
 
         @Override
@@ -278,45 +292,80 @@ public final class BlockListFragment extends Fragment implements BlockListAdapte
         }
     };
 
-    private static class TransactionsLoader extends AsyncTaskLoader<Set<Transaction>> {
+    /**
+     * Groups the wallet's transactions by the blocks they appear in, restricted to the blocks currently shown.
+     */
+    private static class TransactionsLoader extends AsyncTaskLoader<Map<Sha256Hash, List<Transaction>>> {
         private final Wallet wallet;
 
-        private TransactionsLoader(final Context context, final Wallet wallet) {
+        private volatile Set<Sha256Hash> blockHashes;
+
+        private TransactionsLoader(final Context context, final Wallet wallet, final Set<Sha256Hash> blockHashes) {
             super(context);
 
             this.wallet = wallet;
+            this.blockHashes = blockHashes;
+        }
+
+        public void setBlockHashes(final Set<Sha256Hash> blockHashes) {
+            this.blockHashes = blockHashes;
         }
 
         @Override
-        public Set<Transaction> loadInBackground() {
+        public Map<Sha256Hash, List<Transaction>> loadInBackground() {
             org.bitcoinj.core.Context.propagate(Constants.CONTEXT);
 
-            final Set<Transaction> transactions = wallet.getTransactions(true);
+            final Set<Sha256Hash> blockHashes = this.blockHashes;
+            final Map<Sha256Hash, List<Transaction>> transactionsByBlock = new HashMap<Sha256Hash, List<Transaction>>();
+            if (blockHashes.isEmpty())
+                return transactionsByBlock;
 
-            final Set<Transaction> filteredTransactions = new HashSet<Transaction>(transactions.size());
-            for (final Transaction tx : transactions) {
+            for (final Transaction tx : wallet.getTransactions(true)) {
                 final Map<Sha256Hash, Integer> appearsIn = tx.getAppearsInHashes();
-                if (appearsIn != null && !appearsIn.isEmpty()) // TODO filter by updateTime
-                    filteredTransactions.add(tx);
+                if (appearsIn == null)
+                    continue;
+
+                for (final Sha256Hash blockHash : appearsIn.keySet()) {
+                    if (blockHashes.contains(blockHash)) {
+                        List<Transaction> transactions = transactionsByBlock.get(blockHash);
+                        if (transactions == null) {
+                            transactions = new ArrayList<Transaction>(1);
+                            transactionsByBlock.put(blockHash, transactions);
+                        }
+                        transactions.add(tx);
+                    }
+                }
             }
 
-            return filteredTransactions;
+            // stable order, so unchanged blocks compare equal across reloads
+            for (final List<Transaction> transactions : transactionsByBlock.values())
+                Collections.sort(transactions, TRANSACTION_HASH_COMPARATOR);
+
+            return transactionsByBlock;
         }
+
+        private static final Comparator<Transaction> TRANSACTION_HASH_COMPARATOR = new Comparator<Transaction>() {
+            @Override
+            public int compare(final Transaction tx1, final Transaction tx2) {
+                return tx1.getHash().compareTo(tx2.getHash());
+            }
+        };
     }
 
-    private final LoaderCallbacks<Set<Transaction>> transactionLoaderCallbacks = new LoaderCallbacks<Set<Transaction>>() {
+    private final LoaderCallbacks<Map<Sha256Hash, List<Transaction>>> transactionLoaderCallbacks = new LoaderCallbacks<Map<Sha256Hash, List<Transaction>>>() {
         @Override
-        public Loader<Set<Transaction>> onCreateLoader(final int id, final Bundle args) {
-            return new TransactionsLoader(activity, wallet);
+        public Loader<Map<Sha256Hash, List<Transaction>>> onCreateLoader(final int id, final Bundle args) {
+            return new TransactionsLoader(activity, wallet, blockHashes);
         }
 
         @Override
-        public void onLoadFinished(final Loader<Set<Transaction>> loader, final Set<Transaction> transactions) {
+        public void onLoadFinished(final Loader<Map<Sha256Hash, List<Transaction>>> loader,
+                final Map<Sha256Hash, List<Transaction>> transactions) {
             adapter.replaceTransactions(transactions);
         }
 
         @Override
-        public void onLoaderReset(final Loader<Set<Transaction>> loader) {
+        public void onLoaderReset(final Loader<Map<Sha256Hash, List<Transaction>>> loader) {
             adapter.clearTransactions();
         }
     };
@@ -272,6 +272,7 @@ public class EncryptKeysDialogFragment extends DialogFragment {
                         updateView();
 
                         if (state == State.DONE) {
+                            application.saveWallet();
                             application.backupWallet();
                             delayedDismiss();
                         }
@@ -26,19 +26,14 @@ import org.bitcoinj.wallet.Wallet;
 import com.google.common.util.concurrent.ListenableFuture;
 
 import com.ivan.fgwallet.WalletApplication;
-import com.ivan.fgwallet.schildbach.wallet.service.BlockchainService;
 import com.ivan.fgwallet.schildbach.wallet.service.BlockchainState;
 import com.ivan.fgwallet.schildbach.wallet.ui.send.MaintenanceDialogFragment;
+import com.ivan.fgwallet.schildbach.wallet.util.VersionedState;
 
 import android.app.Activity;
 import android.app.Fragment;
 import android.app.FragmentManager;
-import android.content.BroadcastReceiver;
-import android.content.Context;
-import android.content.Intent;
-import android.content.IntentFilter;
 import android.os.Bundle;
-import android.support.v4.content.LocalBroadcastManager;
 
 /**
  * @author Andreas, soos
@@ -55,7 +50,7 @@ public class MaybeMaintenanceFragment extends Fragment {
     }
 
     private Wallet wallet;
-    private LocalBroadcastManager broadcastManager;
+    private VersionedState<BlockchainState> blockchainState;
     private boolean dialogWasShown = false;
 
     @Override
@@ -64,7 +59,7 @@ public class MaybeMaintenanceFragment extends Fragment {
 
         final WalletApplication application = ((AbstractWalletActivity) activity).getWalletApplication();
         this.wallet = application.getWallet();
-        this.broadcastManager = LocalBroadcastManager.getInstance(activity);
+        this.blockchainState = application.getBlockchainState();
     }
 
     @Override
@@ -78,21 +73,21 @@ public class MaybeMaintenanceFragment extends Fragment {
     public void onResume() {
         super.onResume();
 
-        broadcastManager.registerReceiver(broadcastReceiver,
-                new IntentFilter(BlockchainService.ACTION_BLOCKCHAIN_STATE));
+        blockchainState.subscribe(blockchainStateListener);
     }
 
     @Override
     public void onPause() {
-        broadcastManager.unregisterReceiver(broadcastReceiver);
+        blockchainState.unsubscribe(blockchainStateListener);
 
         super.onPause();
     }
 
-    private final BroadcastReceiver broadcastReceiver = new BroadcastReceiver() {
+    private final VersionedState.Listener<BlockchainState> blockchainStateListener = //
+            new VersionedState.Listener<BlockchainState>() {
         @Override
-        public void onReceive(final Context context, final Intent broadcast) {
-            final BlockchainState blockchainState = BlockchainState.fromIntent(broadcast);
+        public void onStateChanged(final VersionedState.Snapshot<BlockchainState> snapshot) {
+            final BlockchainState blockchainState = snapshot.value;
 
             if (!dialogWasShown && !blockchainState.replaying && maintenanceRecommended()) {
                 MaintenanceDialogFragment.show(getFragmentManager());
@@ -20,6 +20,7 @@ package com.ivan.fgwallet.schildbach.wallet.ui;
 import java.net.InetAddress;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 import java.util.WeakHashMap;
 import java.util.concurrent.RejectedExecutionException;
@@ -29,8 +30,12 @@ import org.bitcoinj.core.VersionMessage;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.ivan.fgwallet.WalletApplication;
 import com.ivan.fgwallet.schildbach.wallet.service.BlockchainService;
 import com.ivan.fgwallet.schildbach.wallet.service.BlockchainServiceImpl;
+import com.ivan.fgwallet.schildbach.wallet.service.SyncMetrics;
+import com.ivan.fgwallet.schildbach.wallet.util.SparklineView;
+import com.ivan.fgwallet.schildbach.wallet.util.VersionedState;
 import com.ivan.fgwallet.R;
 
 import android.app.Activity;
@@ -38,18 +43,15 @@ import android.app.Fragment;
 import android.app.LoaderManager;
 import android.app.LoaderManager.LoaderCallbacks;
 import android.content.AsyncTaskLoader;
-import android.content.BroadcastReceiver;
 import android.content.ComponentName;
 import android.content.Context;
 import android.content.Intent;
-import android.content.IntentFilter;
 import android.content.Loader;
 import android.content.ServiceConnection;
 import android.graphics.Typeface;
 import android.os.Bundle;
 import android.os.Handler;
 import android.os.IBinder;
-import android.support.v4.content.LocalBroadcastManager;
 import android.support.v7.widget.LinearLayoutManager;
 import android.support.v7.widget.RecyclerView;
 import android.text.format.DateUtils;
@@ -67,8 +69,14 @@ public final class PeerListFragment extends Fragment {
     private LoaderManager loaderManager;
 
     private BlockchainService service;
+    private boolean metricsAcquired = false;
+    private SyncMetrics syncMetrics;
 
     private ViewAnimator viewGroup;
+    private SparklineView blocksView;
+    private SparklineView bytesInView;
+    private SparklineView falsePositivesView;
+    private TextView metricsSummaryView;
     private RecyclerView recyclerView;
     private PeerViewAdapter adapter;
 
@@ -89,6 +97,7 @@ public final class PeerListFragment extends Fragment {
 
         this.activity = (AbstractWalletActivity) activity;
         this.loaderManager = getLoaderManager();
+        this.syncMetrics = this.activity.getWalletApplication().getSyncMetrics();
     }
 
     @Override
@@ -113,6 +122,11 @@ public final class PeerListFragment extends Fragment {
 
         viewGroup = (ViewAnimator) view.findViewById(R.id.peer_list_group);
 
+        blocksView = (SparklineView) view.findViewById(R.id.peer_list_metrics_blocks);
+        bytesInView = (SparklineView) view.findViewById(R.id.peer_list_metrics_bytes_in);
+        falsePositivesView = (SparklineView) view.findViewById(R.id.peer_list_metrics_false_positives);
+        metricsSummaryView = (TextView) view.findViewById(R.id.peer_list_metrics_summary);
+
         recyclerView = (RecyclerView) view.findViewById(R.id.peer_list);
         recyclerView.setLayoutManager(new LinearLayoutManager(activity));
         recyclerView.setAdapter(adapter);
@@ -125,10 +139,13 @@ public final class PeerListFragment extends Fragment {
     public void onResume() {
         super.onResume();
 
+        acquireMetrics();
+
         handler.postDelayed(new Runnable() {
             @Override
             public void run() {
                 adapter.notifyDataSetChanged();
+                updateMetrics();
 
                 final Loader<String> loader = loaderManager.getLoader(ID_REVERSE_DNS_LOADER);
                 final boolean loaderRunning = loader != null && loader.isStarted();
@@ -154,13 +171,58 @@ public final class PeerListFragment extends Fragment {
         }, REFRESH_MS);
     }
 
+    private void updateMetrics() {
+        final float[] blocks = syncMetrics.getHistory(SyncMetrics.Series.BLOCKS_PER_SEC);
+        blocksView.setValues(blocks, SyncMetrics.HISTORY_SIZE, getString(R.string.peer_list_metrics_blocks),
+                String.format(Locale.US, "%.1f", syncMetrics.getLatest(SyncMetrics.Series.BLOCKS_PER_SEC)));
+
+        final float[] bytesIn = syncMetrics.getHistory(SyncMetrics.Series.BYTES_IN_PER_SEC);
+        for (int i = 0; i < bytesIn.length; i++)
+            bytesIn[i] /= 1024;
+        bytesInView.setValues(bytesIn, SyncMetrics.HISTORY_SIZE, getString(R.string.peer_list_metrics_bytes_in),
+                String.format(Locale.US, "%.1f", syncMetrics.getLatest(SyncMetrics.Series.BYTES_IN_PER_SEC) / 1024));
+
+        final float[] falsePositives = syncMetrics.getHistory(SyncMetrics.Series.FALSE_POSITIVE_RATE);
+        final float falsePositiveRate = syncMetrics.getFalsePositiveRate();
+        falsePositivesView.setValues(falsePositives, SyncMetrics.HISTORY_SIZE,
+                getString(R.string.peer_list_metrics_false_positives), falsePositiveRate >= 0
+                        ? String.format(Locale.US, "%.0f%%", falsePositiveRate * 100) : "");
+
+        final String unknown = getString(R.string.peer_list_metrics_unknown);
+        final long timeToSyncedMs = syncMetrics.getTimeToSyncedMs();
+        final long lastSaveMs = syncMetrics.getLastWalletSaveMs();
+        metricsSummaryView.setText(getString(R.string.peer_list_metrics_summary,
+                syncMetrics.getLatest(SyncMetrics.Series.BYTES_OUT_PER_SEC) / 1024,
+                syncMetrics.getReorganizations(),
+                timeToSyncedMs >= 0 ? DateUtils.formatElapsedTime(timeToSyncedMs / DateUtils.SECOND_IN_MILLIS)
+                        : unknown,
+                lastSaveMs >= 0 ? lastSaveMs + " ms (max " + syncMetrics.getMaxWalletSaveMs() + " ms)" : unknown,
+                syncMetrics.getFilterBandwidthSaved() / 1024f));
+    }
+
     @Override
     public void onPause() {
         handler.removeCallbacksAndMessages(null);
 
+        releaseMetrics();
+
         super.onPause();
     }
 
+    // keeps the service sampling while the charts are shown, also once the chain has caught up
+    private void acquireMetrics() {
+        if (service != null && !metricsAcquired) {
+            service.acquireMetrics();
+            metricsAcquired = true;
+        }
+    }
+
+    private void releaseMetrics() {
+        if (service != null && metricsAcquired)
+            service.releaseMetrics();
+        metricsAcquired = false;
+    }
+
     @Override
     public void onDestroy() {
         activity.unbindService(serviceConnection);
@@ -174,6 +236,8 @@ public final class PeerListFragment extends Fragment {
         @Override
         public void onServiceConnected(final ComponentName name, final IBinder binder) {
             service = ((BlockchainServiceImpl.LocalBinder) binder).getService();
+            if (isResumed())
+                acquireMetrics();
 
             loaderManager.initLoader(ID_PEER_LOADER, null, peerLoaderCallbacks);
         }
@@ -183,6 +247,7 @@ public final class PeerListFragment extends Fragment {
             loaderManager.destroyLoader(ID_PEER_LOADER);
 
             service = null;
+            metricsAcquired = false;
         }
     };
 
@@ -246,6 +311,11 @@ public final class PeerListFragment extends Fragment {
             holder.protocolView.setText("protocol: " + versionMessage.clientVersion);
             holder.protocolView.setTypeface(isDownloading ? Typeface.DEFAULT_BOLD : Typeface.DEFAULT);
 
+            final SyncMetrics.PeerStats stats = syncMetrics.getPeerStats(address);
+            holder.throughputView.setText(stats != null && stats.getBlocksPerSec() > 0
+                    ? getString(R.string.peer_list_row_throughput, stats.getBlocksPerSec()) : null);
+            holder.throughputView.setTypeface(isDownloading ? Typeface.DEFAULT_BOLD : Typeface.DEFAULT);
+
             final long pingTime = peer.getPingTime();
             holder.pingView
                     .setText(pingTime < Long.MAX_VALUE ? getString(R.string.peer_list_row_ping_time, pingTime) : null);
@@ -258,6 +328,7 @@ public final class PeerListFragment extends Fragment {
         private final TextView heightView;
         private final TextView versionView;
         private final TextView protocolView;
+        private final TextView throughputView;
         private final TextView pingView;
 
         private PeerViewHolder(final View itemView) {
@@ -267,18 +338,19 @@ public final class PeerListFragment extends Fragment {
             heightView = (TextView) itemView.findViewById(R.id.peer_list_row_height);
             versionView = (TextView) itemView.findViewById(R.id.peer_list_row_version);
             protocolView = (TextView) itemView.findViewById(R.id.peer_list_row_protocol);
+            throughputView = (TextView) itemView.findViewById(R.id.peer_list_row_throughput);
             pingView = (TextView) itemView.findViewById(R.id.peer_list_row_ping);
         }
     }
 
     private static class PeerLoader extends AsyncTaskLoader<List<Peer>> {
-        private LocalBroadcastManager broadcastManager;
+        private VersionedState<Integer> peerCount;
         private BlockchainService service;
 
         private PeerLoader(final Context context, final BlockchainService service) {
             super(context);
 
-            this.broadcastManager = LocalBroadcastManager.getInstance(context.getApplicationContext());
+            this.peerCount = ((WalletApplication) context.getApplicationContext()).getPeerCount();
             this.service = service;
         }
 
@@ -286,14 +358,14 @@ public final class PeerListFragment extends Fragment {
         protected void onStartLoading() {
             super.onStartLoading();
 
-            broadcastManager.registerReceiver(broadcastReceiver, new IntentFilter(BlockchainService.ACTION_PEER_STATE));
+            peerCount.subscribe(peerCountListener);
 
             forceLoad();
         }
 
         @Override
         protected void onStopLoading() {
-            broadcastManager.unregisterReceiver(broadcastReceiver);
+            peerCount.unsubscribe(peerCountListener);
 
             super.onStopLoading();
         }
@@ -303,9 +375,9 @@ public final class PeerListFragment extends Fragment {
             return service.getConnectedPeers();
         }
 
-        private final BroadcastReceiver broadcastReceiver = new BroadcastReceiver() {
+        private final VersionedState.Listener<Integer> peerCountListener = new VersionedState.Listener<Integer>() {
             @Override
-            public void onReceive(final Context context, final Intent intent) {
+            public void onStateChanged(final VersionedState.Snapshot<Integer> snapshot) {
                 try {
                     forceLoad();
                 } catch (final RejectedExecutionException x) {
@@ -42,6 +42,17 @@ public class ProgressDialogFragment extends DialogFragment {
         fragment.dismiss();
     }
 
+    public static void updateProgress(final FragmentManager fm, final String message) {
+        final ProgressDialogFragment fragment = (ProgressDialogFragment) fm.findFragmentByTag(FRAGMENT_TAG);
+        if (fragment == null)
+            return;
+
+        fragment.getArguments().putString(KEY_MESSAGE, message);
+        final ProgressDialog dialog = (ProgressDialog) fragment.getDialog();
+        if (dialog != null)
+            dialog.setMessage(message);
+    }
+
     private static ProgressDialogFragment instance(final String message) {
         final ProgressDialogFragment fragment = new ProgressDialogFragment();
 
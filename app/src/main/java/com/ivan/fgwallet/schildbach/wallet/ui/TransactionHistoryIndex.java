@@ -0,0 +1,238 @@
+/*
+ * Copyright 2011-2015 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.ivan.fgwallet.schildbach.wallet.ui;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+import javax.annotation.Nullable;
+
+import org.bitcoinj.core.Sha256Hash;
+import org.bitcoinj.core.Transaction;
+import org.bitcoinj.core.Transaction.Purpose;
+import org.bitcoinj.core.TransactionConfidence.ConfidenceType;
+import org.bitcoinj.wallet.Wallet;
+
+import com.ivan.fgwallet.schildbach.wallet.ui.WalletTransactionsFragment.Direction;
+
+/**
+ * Time-ordered index of the wallet's transactions, maintained incrementally. Pending transactions come first, then
+ * descending by update time. Each direction has its own sorted view, so reading a view never sorts.
+ *
+ * @author Andreas, soos
+ */
+public final class TransactionHistoryIndex {
+    private final Wallet wallet;
+
+    private final Map<Sha256Hash, Entry> entries = new HashMap<Sha256Hash, Entry>();
+    private final TreeSet<Entry> all = new TreeSet<Entry>(ENTRY_COMPARATOR);
+    private final TreeSet<Entry> received = new TreeSet<Entry>(ENTRY_COMPARATOR);
+    private final TreeSet<Entry> sent = new TreeSet<Entry>(ENTRY_COMPARATOR);
+
+    public TransactionHistoryIndex(final Wallet wallet) {
+        this.wallet = wallet;
+    }
+
+    /**
+     * Reconciles the index with every transaction in the wallet. Only entries whose sort key or direction changed
+     * are re-inserted.
+     */
+    public synchronized Delta sync(@Nullable final Direction direction) {
+        final Set<Transaction> transactions = wallet.getTransactions(true);
+        final Delta delta = new Delta();
+
+        final Set<Sha256Hash> seen = new HashSet<Sha256Hash>(transactions.size());
+        for (final Transaction tx : transactions) {
+            seen.add(tx.getHash());
+            reindex(tx.getHash(), tx, direction, delta);
+        }
+
+        for (final Sha256Hash hash : new ArrayList<Sha256Hash>(entries.keySet()))
+            if (!seen.contains(hash))
+                reindex(hash, null, direction, delta);
+
+        return delta;
+    }
+
+    /**
+     * Re-indexes the given transactions only, looking each one up in the wallet. A hash that is no longer known to
+     * the wallet is removed from the index.
+     */
+    public synchronized Delta update(final Collection<Sha256Hash> hashes, @Nullable final Direction direction) {
+        final Delta delta = new Delta();
+
+        for (final Sha256Hash hash : hashes)
+            reindex(hash, wallet.getTransaction(hash), direction, delta);
+
+        return delta;
+    }
+
+    public synchronized List<Transaction> list(@Nullable final Direction direction) {
+        final TreeSet<Entry> view = view(direction);
+        final List<Transaction> transactions = new ArrayList<Transaction>(view.size());
+        for (final Entry entry : view)
+            transactions.add(entry.tx);
+        return transactions;
+    }
+
+    public synchronized int size(@Nullable final Direction direction) {
+        return view(direction).size();
+    }
+
+    private TreeSet<Entry> view(@Nullable final Direction direction) {
+        if (direction == Direction.RECEIVED)
+            return received;
+        else if (direction == Direction.SENT)
+            return sent;
+        else
+            return all;
+    }
+
+    private void reindex(final Sha256Hash hash, @Nullable final Transaction tx, @Nullable final Direction direction,
+            final Delta delta) {
+        final Entry oldEntry = entries.get(hash);
+        final Entry newEntry = tx != null ? new Entry(tx, wallet) : null;
+
+        if (oldEntry != null && newEntry != null && oldEntry.sameKey(newEntry)) {
+            // position unchanged, but the row content (confidence, depth, fee) might be
+            if (oldEntry.in(direction))
+                delta.updated.add(hash);
+            oldEntry.tx = newEntry.tx;
+            return;
+        }
+
+        if (oldEntry != null) {
+            entries.remove(hash);
+            all.remove(oldEntry);
+            if (oldEntry.direction == Direction.RECEIVED)
+                received.remove(oldEntry);
+            else if (oldEntry.direction == Direction.SENT)
+                sent.remove(oldEntry);
+            if (oldEntry.in(direction))
+                delta.removed.add(hash);
+        }
+
+        if (newEntry != null) {
+            entries.put(hash, newEntry);
+            all.add(newEntry);
+            if (newEntry.direction == Direction.RECEIVED)
+                received.add(newEntry);
+            else if (newEntry.direction == Direction.SENT)
+                sent.add(newEntry);
+            if (newEntry.in(direction))
+                delta.inserted.add(hash);
+        }
+    }
+
+    /**
+     * Changes to one direction view. A transaction that moved within the view shows up as both removed and
+     * inserted.
+     */
+    public static final class Delta {
+        public final Set<Sha256Hash> inserted = new HashSet<Sha256Hash>();
+        public final Set<Sha256Hash> updated = new HashSet<Sha256Hash>();
+        public final Set<Sha256Hash> removed = new HashSet<Sha256Hash>();
+
+        public boolean isEmpty() {
+            return inserted.isEmpty() && updated.isEmpty() && removed.isEmpty();
+        }
+
+        public int size() {
+            return inserted.size() + updated.size() + removed.size();
+        }
+
+        public boolean isRepositioned(final Sha256Hash hash) {
+            return inserted.contains(hash) || removed.contains(hash);
+        }
+
+        public void merge(final Delta other) {
+            inserted.addAll(other.inserted);
+            updated.addAll(other.updated);
+            removed.addAll(other.removed);
+        }
+
+        public void subtract(final Delta other) {
+            inserted.removeAll(other.inserted);
+            updated.removeAll(other.updated);
+            removed.removeAll(other.removed);
+        }
+
+        public Delta copy() {
+            final Delta copy = new Delta();
+            copy.merge(this);
+            return copy;
+        }
+
+        @Override
+        public String toString() {
+            return "+" + inserted.size() + " ~" + updated.size() + " -" + removed.size();
+        }
+    }
+
+    /** Snapshot of the sort key; transactions are mutable, so the tree must never look at them directly. */
+    private static final class Entry {
+        private Transaction tx;
+        private final Sha256Hash hash;
+        private final boolean pending;
+        private final long time;
+        @Nullable
+        private final Direction direction;
+
+        private Entry(final Transaction tx, final Wallet wallet) {
+            this.tx = tx;
+            this.hash = tx.getHash();
+            this.pending = tx.getConfidence().getConfidenceType() == ConfidenceType.PENDING;
+            final Date updateTime = tx.getUpdateTime();
+            this.time = updateTime != null ? updateTime.getTime() : 0;
+
+            if (tx.getPurpose() == Purpose.KEY_ROTATION)
+                this.direction = null;
+            else
+                this.direction = tx.getValue(wallet).signum() < 0 ? Direction.SENT : Direction.RECEIVED;
+        }
+
+        private boolean sameKey(final Entry other) {
+            return pending == other.pending && time == other.time && direction == other.direction;
+        }
+
+        private boolean in(@Nullable final Direction view) {
+            return view == null || view == direction;
+        }
+    }
+
+    private static final Comparator<Entry> ENTRY_COMPARATOR = new Comparator<Entry>() {
+        @Override
+        public int compare(final Entry entry1, final Entry entry2) {
+            if (entry1.pending != entry2.pending)
+                return entry1.pending ? -1 : 1;
+
+            if (entry1.time != entry2.time)
+                return entry1.time > entry2.time ? -1 : 1;
+
+            return entry1.hash.compareTo(entry2.hash);
+        }
+    };
+}
@@ -39,7 +39,8 @@ import org.bitcoinj.wallet.DefaultCoinSelector;
 import org.bitcoinj.wallet.Wallet;
 
 import com.ivan.fgwallet.schildbach.wallet.Constants;
-import com.ivan.fgwallet.schildbach.wallet.data.AddressBookProvider;
+import com.ivan.fgwallet.WalletApplication;
+import com.ivan.fgwallet.schildbach.wallet.data.AddressBookLabelCache;
 import com.ivan.fgwallet.schildbach.wallet.util.CircularProgressView;
 import com.ivan.fgwallet.schildbach.wallet.util.Formats;
 import com.ivan.fgwallet.schildbach.wallet.util.WalletUtils;
@@ -73,6 +74,7 @@ public class TransactionsAdapter extends RecyclerView.Adapter<RecyclerView.ViewH
 
     private final boolean useCards;
     private final Wallet wallet;
+    private final AddressBookLabelCache labelCache;
     private final int maxConnectedPeers;
     @Nullable
     private final OnClickListener onClickListener;
@@ -98,6 +100,8 @@ public class TransactionsAdapter extends RecyclerView.Adapter<RecyclerView.ViewH
     private static final int VIEW_TYPE_TRANSACTION = 0;
     private static final int VIEW_TYPE_WARNING = 1;
 
+    private static final int MAX_DELTA_ROWS = 500;
+
     private Map<Sha256Hash, TransactionCacheEntry> transactionCache = new HashMap<Sha256Hash, TransactionCacheEntry>();
 
     private static class TransactionCacheEntry {
@@ -128,6 +132,7 @@ public class TransactionsAdapter extends RecyclerView.Adapter<RecyclerView.ViewH
 
         this.useCards = useCards;
         this.wallet = wallet;
+        this.labelCache = ((WalletApplication) context.getApplicationContext()).getAddressBookLabelCache();
         this.maxConnectedPeers = maxConnectedPeers;
         this.onClickListener = onClickListener;
 
@@ -180,6 +185,51 @@ public class TransactionsAdapter extends RecyclerView.Adapter<RecyclerView.ViewH
         notifyDataSetChanged();
     }
 
+    /**
+     * Brings the adapter in line with {@code transactions}, notifying only the rows touched by {@code delta}. Rows not
+     * mentioned in the delta must keep their relative order. A {@code null} delta replaces everything.
+     */
+    public void replace(final List<Transaction> transactions, @Nullable final TransactionHistoryIndex.Delta delta) {
+        if (delta == null || delta.size() > MAX_DELTA_ROWS) {
+            replace(transactions);
+            return;
+        }
+
+        final int offset = warning != null ? 1 : 0;
+
+        for (final Sha256Hash hash : delta.inserted)
+            transactionCache.remove(hash);
+        for (final Sha256Hash hash : delta.removed)
+            transactionCache.remove(hash);
+
+        for (int i = this.transactions.size() - 1; i >= 0; i--) {
+            if (delta.isRepositioned(this.transactions.get(i).getHash())) {
+                this.transactions.remove(i);
+                notifyItemRemoved(i + offset);
+            }
+        }
+
+        for (int i = 0; i < transactions.size(); i++) {
+            final Transaction tx = transactions.get(i);
+            final Sha256Hash hash = tx.getHash();
+            if (delta.isRepositioned(hash)) {
+                this.transactions.add(i, tx);
+                notifyItemInserted(i + offset);
+            } else if (i < this.transactions.size() && this.transactions.get(i).getHash().equals(hash)) {
+                this.transactions.set(i, tx);
+                if (delta.updated.contains(hash))
+                    notifyItemChanged(i + offset);
+            } else {
+                // delta doesn't match what we're showing, fall back to a full refresh
+                replace(transactions);
+                return;
+            }
+        }
+
+        if (this.transactions.size() != transactions.size())
+            replace(transactions);
+    }
+
     public void setSelectedItemId(final long itemId) {
         selectedItemId = itemId;
 
@@ -372,8 +422,7 @@ public class TransactionsAdapter extends RecyclerView.Adapter<RecyclerView.ViewH
                     address = WalletUtils.getToAddressOfSent(tx, wallet);
                 else
                     address = WalletUtils.getWalletAddressOfReceived(tx, wallet);
-                final String addressLabel = address != null
-                        ? AddressBookProvider.resolveLabel(context, address.toBase58()) : null;
+                final String addressLabel = address != null ? labelCache.get(address.toBase58()) : null;
 
                 txCache = new TransactionCacheEntry(value, sent, self, showFee, address, addressLabel);
                 transactionCache.put(tx.getHash(), txCache);
@@ -19,20 +19,20 @@ package com.ivan.fgwallet.schildbach.wallet.ui;
 
 import java.io.IOException;
 import java.util.ArrayList;
-import java.util.Collections;
-import java.util.Comparator;
-import java.util.Date;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
 import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import javax.annotation.Nullable;
 
 import org.bitcoinj.core.Address;
+import org.bitcoinj.core.Coin;
 import org.bitcoinj.core.ScriptException;
+import org.bitcoinj.core.Sha256Hash;
 import org.bitcoinj.core.Transaction;
 import org.bitcoinj.core.Transaction.Purpose;
-import org.bitcoinj.core.TransactionConfidence.ConfidenceType;
 import org.bitcoinj.utils.Threading;
 import org.bitcoinj.wallet.Wallet;
 import org.slf4j.Logger;
@@ -41,7 +41,8 @@ import org.slf4j.LoggerFactory;
 import com.ivan.fgwallet.schildbach.wallet.Configuration;
 import com.ivan.fgwallet.schildbach.wallet.Constants;
 import com.ivan.fgwallet.WalletApplication;
-import com.ivan.fgwallet.schildbach.wallet.data.AddressBookProvider;
+import com.ivan.fgwallet.schildbach.wallet.data.AddressBookLabelCache;
+import com.ivan.fgwallet.schildbach.wallet.data.AddressBookLabelCache.OnLabelsChangedListener;
 import com.ivan.fgwallet.schildbach.wallet.ui.TransactionsAdapter.Warning;
 import com.ivan.fgwallet.schildbach.wallet.ui.send.RaiseFeeDialogFragment;
 import com.ivan.fgwallet.schildbach.wallet.util.BitmapFragment;
@@ -58,21 +59,18 @@ import android.app.LoaderManager.LoaderCallbacks;
 import android.app.admin.DevicePolicyManager;
 import android.content.AsyncTaskLoader;
 import android.content.BroadcastReceiver;
-import android.content.ContentResolver;
 import android.content.Context;
 import android.content.Intent;
 import android.content.IntentFilter;
 import android.content.Loader;
 import android.content.SharedPreferences;
 import android.content.SharedPreferences.OnSharedPreferenceChangeListener;
-import android.database.ContentObserver;
 import android.graphics.Bitmap;
 import android.graphics.Rect;
 import android.graphics.Typeface;
 import android.net.Uri;
 import android.os.Build;
 import android.os.Bundle;
-import android.os.Handler;
 import android.provider.Settings;
 import android.support.v4.content.LocalBroadcastManager;
 import android.support.v7.widget.LinearLayoutManager;
@@ -95,7 +93,7 @@ import android.widget.ViewAnimator;
  * @author Andreas, soos
  */
 public class WalletTransactionsFragment extends
-        Fragment implements LoaderCallbacks<List<Transaction>>,
+        Fragment implements LoaderCallbacks<WalletTransactionsFragment.LoadedTransactions>,
         TransactionsAdapter.OnClickListener, OnSharedPreferenceChangeListener {
     public enum Direction {
         RECEIVED, SENT
@@ -105,7 +103,7 @@ public class WalletTransactionsFragment extends
     private WalletApplication application;
     private Configuration config;
     private Wallet wallet;
-    private ContentResolver resolver;
+    private AddressBookLabelCache labelCache;
     private LoaderManager loaderManager;
     private DevicePolicyManager devicePolicyManager;
 
@@ -113,13 +111,12 @@ public class WalletTransactionsFragment extends
     private TextView emptyView;
     private RecyclerView recyclerView;
     private TransactionsAdapter adapter;
+    private TransactionHistoryIndex index;
     private MenuItem filterMenuItem;
 
     @Nullable
     private Direction direction;
 
-    private final Handler handler = new Handler();
-
     private static final int ID_TRANSACTION_LOADER = 0;
     private static final String ARG_DIRECTION = "direction";
 
@@ -129,9 +126,9 @@ public class WalletTransactionsFragment extends
 
     private static final Logger log = LoggerFactory.getLogger(WalletTransactionsFragment.class);
 
-    private final ContentObserver addressBookObserver = new ContentObserver(handler) {
+    private final OnLabelsChangedListener labelsChangedListener = new OnLabelsChangedListener() {
         @Override
-        public void onChange(final boolean selfChange) {
+        public void onLabelsChanged() {
             adapter.clearCacheAndNotifyDataSetChanged();
         }
     };
@@ -144,7 +141,7 @@ public class WalletTransactionsFragment extends
         this.application = (WalletApplication) activity.getApplication();
         this.config = application.getConfiguration();
         this.wallet = application.getWallet();
-        this.resolver = activity.getContentResolver();
+        this.labelCache = application.getAddressBookLabelCache();
         this.loaderManager = getLoaderManager();
         this.devicePolicyManager = (DevicePolicyManager) application.getSystemService(Context.DEVICE_POLICY_SERVICE);
     }
@@ -157,6 +154,7 @@ public class WalletTransactionsFragment extends
         setHasOptionsMenu(true);
 
         adapter = new TransactionsAdapter(activity, wallet, true, application.maxConnectedPeers(), this);
+        index = new TransactionHistoryIndex(wallet);
 
         this.direction = null;
     }
@@ -198,8 +196,7 @@ public class WalletTransactionsFragment extends
     public void onResume() {
         super.onResume();
 
-        resolver.registerContentObserver(AddressBookProvider.contentUri(activity.getPackageName()), true,
-                addressBookObserver);
+        labelCache.addOnLabelsChangedListener(labelsChangedListener);
 
         config.registerOnSharedPreferenceChangeListener(this);
 
@@ -207,27 +204,16 @@ public class WalletTransactionsFragment extends
         args.putSerializable(ARG_DIRECTION, direction);
         loaderManager.initLoader(ID_TRANSACTION_LOADER, args, this);
 
-        wallet.addCoinsReceivedEventListener(Threading.SAME_THREAD, transactionChangeListener);
-        wallet.addCoinsSentEventListener(Threading.SAME_THREAD, transactionChangeListener);
-        wallet.addChangeEventListener(Threading.SAME_THREAD, transactionChangeListener);
-        wallet.addTransactionConfidenceEventListener(Threading.SAME_THREAD, transactionChangeListener);
-
         updateView();
     }
 
     @Override
     public void onPause() {
-        wallet.removeTransactionConfidenceEventListener(transactionChangeListener);
-        wallet.removeChangeEventListener(transactionChangeListener);
-        wallet.removeCoinsSentEventListener(transactionChangeListener);
-        wallet.removeCoinsReceivedEventListener(transactionChangeListener);
-        transactionChangeListener.removeCallbacks();
-
         loaderManager.destroyLoader(ID_TRANSACTION_LOADER);
 
         config.unregisterOnSharedPreferenceChangeListener(this);
 
-        resolver.unregisterContentObserver(addressBookObserver);
+        labelCache.removeOnLabelsChangedListener(labelsChangedListener);
 
         super.onPause();
     }
@@ -298,7 +284,7 @@ public class WalletTransactionsFragment extends
                 .findItem(R.id.wallet_transactions_context_edit_address);
         if (!txRotation && txAddress != null) {
             editAddressMenuItem.setVisible(true);
-            final boolean isAdd = AddressBookProvider.resolveLabel(activity, txAddress.toBase58()) == null;
+            final boolean isAdd = labelCache.get(txAddress.toBase58()) == null;
             final boolean isOwn = wallet.isPubKeyHashMine(txAddress.getHash160());
 
             if (isOwn)
@@ -424,15 +410,16 @@ public class WalletTransactionsFragment extends
     }
 
     @Override
-    public Loader<List<Transaction>> onCreateLoader(final int id, final Bundle args) {
-        return new TransactionsLoader(activity, wallet, (Direction) args.getSerializable(ARG_DIRECTION));
+    public Loader<LoadedTransactions> onCreateLoader(final int id, final Bundle args) {
+        return new TransactionsLoader(activity, wallet, index, (Direction) args.getSerializable(ARG_DIRECTION));
     }
 
     @Override
-    public void onLoadFinished(final Loader<List<Transaction>> loader, final List<Transaction> transactions) {
+    public void onLoadFinished(final Loader<LoadedTransactions> loader, final LoadedTransactions result) {
         final Direction direction = ((TransactionsLoader) loader).getDirection();
+        final List<Transaction> transactions = result.transactions;
 
-        adapter.replace(transactions);
+        adapter.replace(transactions, result.delta);
 
         if (transactions.isEmpty()) {
             viewGroup.setDisplayedChild(1);
@@ -451,29 +438,42 @@ public class WalletTransactionsFragment extends
     }
 
     @Override
-    public void onLoaderReset(final Loader<List<Transaction>> loader) {
+    public void onLoaderReset(final Loader<LoadedTransactions> loader) {
         // don't clear the adapter, because it will confuse users
     }
 
-    private final ThrottlingWalletChangeListener transactionChangeListener = new ThrottlingWalletChangeListener(
-            THROTTLE_MS) {
-        @Override
-        public void onThrottledWalletChanged() {
-            adapter.notifyDataSetChanged();
+    static class LoadedTransactions {
+        public final List<Transaction> transactions;
+        @Nullable
+        public final TransactionHistoryIndex.Delta delta;
+
+        private LoadedTransactions(final List<Transaction> transactions,
+                @Nullable final TransactionHistoryIndex.Delta delta) {
+            this.transactions = transactions;
+            this.delta = delta;
         }
-    };
+    }
 
-    private static class TransactionsLoader extends AsyncTaskLoader<List<Transaction>> {
+    private static class TransactionsLoader extends AsyncTaskLoader<LoadedTransactions> {
         private LocalBroadcastManager broadcastManager;
         private final Wallet wallet;
+        private final TransactionHistoryIndex index;
         @Nullable
         private final Direction direction;
 
-        private TransactionsLoader(final Context context, final Wallet wallet, @Nullable final Direction direction) {
+        private final Set<Sha256Hash> dirtyHashes = new HashSet<Sha256Hash>();
+        private final AtomicBoolean resync = new AtomicBoolean(true);
+        // changes not yet seen by the adapter, null until the first full list has been delivered
+        @Nullable
+        private TransactionHistoryIndex.Delta undelivered = null;
+
+        private TransactionsLoader(final Context context, final Wallet wallet, final TransactionHistoryIndex index,
+                @Nullable final Direction direction) {
             super(context);
 
             this.broadcastManager = LocalBroadcastManager.getInstance(context.getApplicationContext());
             this.wallet = wallet;
+            this.index = index;
             this.direction = direction;
         }
 
@@ -488,9 +488,10 @@ public class WalletTransactionsFragment extends
             wallet.addCoinsReceivedEventListener(Threading.SAME_THREAD, transactionAddRemoveListener);
             wallet.addCoinsSentEventListener(Threading.SAME_THREAD, transactionAddRemoveListener);
             wallet.addChangeEventListener(Threading.SAME_THREAD, transactionAddRemoveListener);
+            wallet.addTransactionConfidenceEventListener(Threading.SAME_THREAD, transactionAddRemoveListener);
             broadcastManager.registerReceiver(walletChangeReceiver,
                     new IntentFilter(WalletApplication.ACTION_WALLET_REFERENCE_CHANGED));
-            transactionAddRemoveListener.onReorganize(null); // trigger at least one reload
+            resync.set(true); // events might have been missed while stopped
 
             safeForceLoad();
         }
@@ -498,6 +499,7 @@ public class WalletTransactionsFragment extends
         @Override
         protected void onStopLoading() {
             broadcastManager.unregisterReceiver(walletChangeReceiver);
+            wallet.removeTransactionConfidenceEventListener(transactionAddRemoveListener);
             wallet.removeChangeEventListener(transactionAddRemoveListener);
             wallet.removeCoinsSentEventListener(transactionAddRemoveListener);
             wallet.removeCoinsReceivedEventListener(transactionAddRemoveListener);
@@ -509,6 +511,7 @@ public class WalletTransactionsFragment extends
         @Override
         protected void onReset() {
             broadcastManager.unregisterReceiver(walletChangeReceiver);
+            wallet.removeTransactionConfidenceEventListener(transactionAddRemoveListener);
             wallet.removeChangeEventListener(transactionAddRemoveListener);
             wallet.removeCoinsSentEventListener(transactionAddRemoveListener);
             wallet.removeCoinsReceivedEventListener(transactionAddRemoveListener);
@@ -518,37 +521,86 @@ public class WalletTransactionsFragment extends
         }
 
         @Override
-        public List<Transaction> loadInBackground() {
+        public LoadedTransactions loadInBackground() {
             org.bitcoinj.core.Context.propagate(Constants.CONTEXT);
 
-            final Set<Transaction> transactions = wallet.getTransactions(true);
-            final List<Transaction> filteredTransactions = new ArrayList<Transaction>(transactions.size());
-
-            for (final Transaction tx : transactions) {
-                final boolean sent = tx.getValue(wallet).signum() < 0;
-                final boolean isInternal = tx.getPurpose() == Purpose.KEY_ROTATION;
+            final TransactionHistoryIndex.Delta delta;
+            if (resync.getAndSet(false)) {
+                delta = index.sync(direction);
+            } else {
+                final List<Sha256Hash> hashes;
+                synchronized (dirtyHashes) {
+                    hashes = new ArrayList<Sha256Hash>(dirtyHashes);
+                    dirtyHashes.clear();
+                }
+                delta = index.update(hashes, direction);
+            }
+            final List<Transaction> transactions = index.list(direction);
 
-                if ((direction == Direction.RECEIVED && !sent && !isInternal) || direction == null
-                        || (direction == Direction.SENT && sent && !isInternal))
-                    filteredTransactions.add(tx);
+            synchronized (this) {
+                if (undelivered == null)
+                    return new LoadedTransactions(transactions, null);
+                undelivered.merge(delta);
+                return new LoadedTransactions(transactions, undelivered.copy());
             }
+        }
 
-            Collections.sort(filteredTransactions, TRANSACTION_COMPARATOR);
+        @Override
+        public void deliverResult(final LoadedTransactions result) {
+            synchronized (this) {
+                if (undelivered == null)
+                    undelivered = new TransactionHistoryIndex.Delta();
+                else if (result.delta != null)
+                    undelivered.subtract(result.delta);
+            }
 
-            return filteredTransactions;
+            super.deliverResult(result);
         }
 
         private final ThrottlingWalletChangeListener transactionAddRemoveListener = new ThrottlingWalletChangeListener(
-                THROTTLE_MS, true, true, false) {
+                THROTTLE_MS) {
+            @Override
+            public void onCoinsReceived(final Wallet wallet, final Transaction tx, final Coin prevBalance,
+                    final Coin newBalance) {
+                markDirty(tx);
+                super.onCoinsReceived(wallet, tx, prevBalance, newBalance);
+            }
+
+            @Override
+            public void onCoinsSent(final Wallet wallet, final Transaction tx, final Coin prevBalance,
+                    final Coin newBalance) {
+                markDirty(tx);
+                super.onCoinsSent(wallet, tx, prevBalance, newBalance);
+            }
+
+            @Override
+            public void onTransactionConfidenceChanged(final Wallet wallet, final Transaction tx) {
+                markDirty(tx);
+                super.onTransactionConfidenceChanged(wallet, tx);
+            }
+
+            @Override
+            public void onReorganize(final Wallet wallet) {
+                resync.set(true);
+                super.onReorganize(wallet);
+            }
+
             @Override
             public void onThrottledWalletChanged() {
                 safeForceLoad();
             }
         };
 
+        private void markDirty(final Transaction tx) {
+            synchronized (dirtyHashes) {
+                dirtyHashes.add(tx.getHash());
+            }
+        }
+
         private final BroadcastReceiver walletChangeReceiver = new BroadcastReceiver() {
             @Override
             public void onReceive(final Context context, final Intent intent) {
+                resync.set(true);
                 safeForceLoad();
             }
         };
@@ -560,27 +612,6 @@ public class WalletTransactionsFragment extends
                 log.info("rejected execution: " + TransactionsLoader.this.toString());
             }
         }
-
-        private static final Comparator<Transaction> TRANSACTION_COMPARATOR = new Comparator<Transaction>() {
-            @Override
-            public int compare(final Transaction tx1, final Transaction tx2) {
-                final boolean pending1 = tx1.getConfidence().getConfidenceType() == ConfidenceType.PENDING;
-                final boolean pending2 = tx2.getConfidence().getConfidenceType() == ConfidenceType.PENDING;
-
-                if (pending1 != pending2)
-                    return pending1 ? -1 : 1;
-
-                final Date updateTime1 = tx1.getUpdateTime();
-                final long time1 = updateTime1 != null ? updateTime1.getTime() : 0;
-                final Date updateTime2 = tx2.getUpdateTime();
-                final long time2 = updateTime2 != null ? updateTime2.getTime() : 0;
-
-                if (time1 != time2)
-                    return time1 > time2 ? -1 : 1;
-
-                return tx1.getHash().compareTo(tx2.getHash());
-            }
-        };
     }
 
     @Override
@@ -0,0 +1,122 @@
+/*
+ * Copyright 2011-2015 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.ivan.fgwallet.schildbach.wallet.ui.send;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import org.bitcoinj.core.ECKey;
+import org.bitcoinj.crypto.BIP38PrivateKey;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.ivan.fgwallet.schildbach.wallet.util.CryptoExecutor;
+
+/**
+ * Decrypts a batch of BIP38 keys with one passphrase. Each key costs a full scrypt run, so they are spread across
+ * the cores of the crypto executor rather than decrypted one after another.
+ *
+ * @author Andreas, soos
+ */
+public abstract class DecodePrivateKeysTask {
+    /** Where the decryption jobs run and their callbacks are delivered. */
+    interface Jobs {
+        void execute(String name, Runnable job);
+
+        void post(Runnable callback);
+    }
+
+    private final Jobs jobs;
+
+    private static final Logger log = LoggerFactory.getLogger(DecodePrivateKeysTask.class);
+
+    public DecodePrivateKeysTask(final CryptoExecutor.Scope cryptoScope) {
+        this(new Jobs() {
+            @Override
+            public void execute(final String name, final Runnable job) {
+                cryptoScope.execute(name, job);
+            }
+
+            @Override
+            public void post(final Runnable callback) {
+                cryptoScope.post(callback);
+            }
+        });
+    }
+
+    DecodePrivateKeysTask(final Jobs jobs) {
+        this.jobs = jobs;
+    }
+
+    public final void decodePrivateKeys(final List<BIP38PrivateKey> encryptedKeys, final String passphrase) {
+        final int numKeys = encryptedKeys.size();
+        log.info("decrypting {} BIP38 keys", numKeys);
+
+        final AtomicReferenceArray<ECKey> decryptedKeys = new AtomicReferenceArray<ECKey>(numKeys);
+        final AtomicInteger numDone = new AtomicInteger();
+
+        for (int i = 0; i < numKeys; i++) {
+            final int index = i;
+            jobs.execute("decodePrivateKey #" + index, new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        decryptedKeys.set(index, encryptedKeys.get(index).decrypt(passphrase)); // takes time
+                    } catch (final BIP38PrivateKey.BadPassphraseException x) {
+                        // leave slot empty
+                    }
+
+                    final int done = numDone.incrementAndGet();
+                    jobs.post(new Runnable() {
+                        @Override
+                        public void run() {
+                            onProgress(done, numKeys);
+                        }
+                    });
+
+                    if (done == numKeys) {
+                        final List<ECKey> succeeded = new ArrayList<ECKey>(numKeys);
+                        final List<BIP38PrivateKey> badPassphrase = new ArrayList<BIP38PrivateKey>();
+                        for (int j = 0; j < numKeys; j++) {
+                            final ECKey key = decryptedKeys.get(j);
+                            if (key != null)
+                                succeeded.add(key);
+                            else
+                                badPassphrase.add(encryptedKeys.get(j));
+                        }
+
+                        jobs.post(new Runnable() {
+                            @Override
+                            public void run() {
+                                onResult(succeeded, badPassphrase);
+                            }
+                        });
+                    }
+                }
+            });
+        }
+    }
+
+    protected void onProgress(final int numDone, final int numTotal) {
+    }
+
+    /** Keys are reported in the order they were passed in. */
+    protected abstract void onResult(List<ECKey> decryptedKeys, List<BIP38PrivateKey> badPassphraseKeys);
+}
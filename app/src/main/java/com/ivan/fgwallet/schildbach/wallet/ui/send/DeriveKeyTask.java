@@ -20,6 +20,8 @@ package com.ivan.fgwallet.schildbach.wallet.ui.send;
 import static com.google.common.base.Preconditions.checkNotNull;
 import static com.google.common.base.Preconditions.checkState;
 
+import javax.annotation.Nullable;
+
 import org.bitcoinj.crypto.KeyCrypter;
 import org.bitcoinj.crypto.KeyCrypterException;
 import org.bitcoinj.crypto.KeyCrypterScrypt;
@@ -28,35 +30,46 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.spongycastle.crypto.params.KeyParameter;
 
-import com.ivan.fgwallet.schildbach.wallet.Constants;
-
-import android.os.Handler;
-import android.os.Looper;
+import com.ivan.fgwallet.schildbach.wallet.data.KeySession;
+import com.ivan.fgwallet.schildbach.wallet.util.CryptoExecutor;
 
 /**
  * @author Andreas, soos
  */
 public abstract class DeriveKeyTask {
-    private final Handler backgroundHandler;
-    private final Handler callbackHandler;
+    private final CryptoExecutor.Scope cryptoScope;
     private final int scryptIterationsTarget;
+    @Nullable
+    private final KeySession keySession;
 
     private static final Logger log = LoggerFactory.getLogger(DeriveKeyTask.class);
 
-    public DeriveKeyTask(final Handler backgroundHandler, final int scryptIterationsTarget) {
-        this.backgroundHandler = backgroundHandler;
-        this.callbackHandler = new Handler(Looper.myLooper());
+    public DeriveKeyTask(final CryptoExecutor.Scope cryptoScope, final int scryptIterationsTarget,
+            @Nullable final KeySession keySession) {
+        this.cryptoScope = cryptoScope;
         this.scryptIterationsTarget = scryptIterationsTarget;
+        this.keySession = keySession;
     }
 
     public final void deriveKey(final Wallet wallet, final String password) {
         checkState(wallet.isEncrypted());
         final KeyCrypter keyCrypter = checkNotNull(wallet.getKeyCrypter());
 
-        backgroundHandler.post(new Runnable() {
+        cryptoScope.execute("deriveKey", new Runnable() {
             @Override
             public void run() {
-                org.bitcoinj.core.Context.propagate(Constants.CONTEXT);
+                // An unlocked session saves us the key derivation.
+                final KeyParameter sessionKey = keySession != null ? keySession.get(wallet) : null;
+                if (sessionKey != null) {
+                    log.info("using key of unlocked spending session");
+                    cryptoScope.post(new Runnable() {
+                        @Override
+                        public void run() {
+                            onSuccess(sessionKey, false);
+                        }
+                    });
+                    return;
+                }
 
                 // Key derivation takes time.
                 KeyParameter key = keyCrypter.deriveKey(password);
@@ -85,10 +98,13 @@ public abstract class DeriveKeyTask {
                     }
                 }
 
+                if (keySession != null)
+                    keySession.put(wallet, key);
+
                 // Hand back the (possibly changed) encryption key.
                 final KeyParameter keyToReturn = key;
                 final boolean keyToReturnWasChanged = wasChanged;
-                callbackHandler.post(new Runnable() {
+                cryptoScope.post(new Runnable() {
                     @Override
                     public void run() {
                         onSuccess(keyToReturn, keyToReturnWasChanged);
@@ -0,0 +1,232 @@
+/*
+ * Copyright 2011-2015 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.ivan.fgwallet.schildbach.wallet.ui.send;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.annotation.Nullable;
+
+import org.bitcoinj.core.Address;
+import org.bitcoinj.core.Coin;
+import org.bitcoinj.core.Transaction;
+import org.bitcoinj.utils.Threading;
+import org.bitcoinj.wallet.SendRequest;
+import org.bitcoinj.wallet.Wallet;
+import org.bitcoinj.wallet.Wallet.BalanceType;
+import org.bitcoinj.wallet.listeners.WalletChangeEventListener;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Objects;
+import com.google.common.base.Stopwatch;
+
+import com.ivan.fgwallet.schildbach.wallet.Constants;
+import com.ivan.fgwallet.schildbach.wallet.data.PaymentIntent;
+
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.Process;
+
+/**
+ * Runs the fee dry run of the send screen off the UI thread. Requests are debounced, results of superseded requests
+ * are dropped, and completed coin selections are cached until the wallet changes.
+ *
+ * @author Andreas, soos
+ */
+public abstract class DryrunEstimator {
+    private final Wallet wallet;
+    private final HandlerThread backgroundThread;
+    private final Handler backgroundHandler;
+    private final Handler callbackHandler;
+
+    private final Map<Key, Result> cache = new LinkedHashMap<Key, Result>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(final Map.Entry<Key, Result> eldest) {
+            return size() > CACHE_SIZE;
+        }
+    };
+    private int cacheVersion = 0; // guarded by cache
+    private volatile int generation = 0;
+
+    private static final long DEBOUNCE_MS = 150;
+    private static final int CACHE_SIZE = 32;
+
+    private static final Logger log = LoggerFactory.getLogger(DryrunEstimator.class);
+
+    public static final class Result {
+        @Nullable
+        public final Transaction transaction;
+        @Nullable
+        public final Exception exception;
+
+        private Result(@Nullable final Transaction transaction, @Nullable final Exception exception) {
+            this.transaction = transaction;
+            this.exception = exception;
+        }
+    }
+
+    public DryrunEstimator(final Wallet wallet) {
+        this.wallet = wallet;
+        this.backgroundThread = new HandlerThread("dryrun", Process.THREAD_PRIORITY_BACKGROUND);
+        this.backgroundThread.start();
+        this.backgroundHandler = new Handler(backgroundThread.getLooper());
+        this.callbackHandler = new Handler(Looper.myLooper());
+
+        wallet.addChangeEventListener(Threading.SAME_THREAD, walletChangeListener);
+    }
+
+    public void release() {
+        cancel();
+        wallet.removeChangeEventListener(walletChangeListener);
+        backgroundThread.getLooper().quit();
+    }
+
+    /**
+     * Estimates the given payment. A cached result is delivered right away, otherwise the dry run starts once the
+     * input has settled for a moment.
+     *
+     * @param mayEmptyWallet
+     *            if the payment empties the wallet when the amount equals the available balance. That balance is
+     *            looked up on the background thread, as it takes a full coin selection.
+     */
+    public void estimate(final PaymentIntent paymentIntent, final Coin amount, final Coin feePerKb,
+            final boolean mayEmptyWallet) {
+        final int requestGeneration = ++generation;
+        backgroundHandler.removeCallbacksAndMessages(null);
+
+        // the cache is cleared on every wallet change, so the available balance can't change under a key
+        final Key key = new Key(paymentIntent, amount, feePerKb, mayEmptyWallet);
+        final Result cached;
+        synchronized (cache) {
+            cached = cache.get(key);
+        }
+        if (cached != null) {
+            onResult(cached);
+            return;
+        }
+
+        backgroundHandler.postDelayed(new Runnable() {
+            @Override
+            public void run() {
+                if (requestGeneration != generation)
+                    return;
+
+                org.bitcoinj.core.Context.propagate(Constants.CONTEXT);
+                final int version;
+                synchronized (cache) {
+                    version = cacheVersion;
+                }
+                final Stopwatch watch = Stopwatch.createStarted();
+                final boolean emptyWallet = mayEmptyWallet
+                        && amount.equals(wallet.getBalance(BalanceType.AVAILABLE));
+                final Result result = dryrun(paymentIntent, amount, feePerKb, emptyWallet);
+                watch.stop();
+
+                synchronized (cache) {
+                    if (version == cacheVersion)
+                        cache.put(key, result);
+                }
+
+                if (requestGeneration != generation) {
+                    log.debug("dry run superseded, took {}", watch);
+                    return;
+                }
+                log.debug("dry run took {}", watch);
+
+                callbackHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (requestGeneration == generation)
+                            onResult(result);
+                    }
+                });
+            }
+        }, DEBOUNCE_MS);
+    }
+
+    /**
+     * Drops pending and running requests, their results won't be delivered.
+     */
+    public void cancel() {
+        generation++;
+        backgroundHandler.removeCallbacksAndMessages(null);
+    }
+
+    private Result dryrun(final PaymentIntent paymentIntent, final Coin amount, final Coin feePerKb,
+            final boolean emptyWallet) {
+        try {
+            final Address dummy = wallet.currentReceiveAddress(); // won't be used, tx is never committed
+            final SendRequest sendRequest = paymentIntent.mergeWithEditedValues(amount, dummy).toSendRequest();
+            sendRequest.signInputs = false;
+            sendRequest.emptyWallet = emptyWallet;
+            sendRequest.feePerKb = feePerKb;
+            wallet.completeTx(sendRequest);
+            return new Result(sendRequest.tx, null);
+        } catch (final Exception x) {
+            return new Result(null, x);
+        }
+    }
+
+    /** will be called back on the thread that created this estimator */
+    protected abstract void onResult(Result result);
+
+    private final WalletChangeEventListener walletChangeListener = new WalletChangeEventListener() {
+        @Override
+        public void onWalletChanged(final Wallet wallet) {
+            // coin selection depends on the set of spendable outputs
+            synchronized (cache) {
+                cache.clear();
+                cacheVersion++;
+            }
+        }
+    };
+
+    private static final class Key {
+        private final PaymentIntent paymentIntent;
+        private final Coin amount;
+        private final Coin feePerKb;
+        private final boolean mayEmptyWallet;
+
+        private Key(final PaymentIntent paymentIntent, final Coin amount, final Coin feePerKb,
+                final boolean mayEmptyWallet) {
+            this.paymentIntent = paymentIntent;
+            this.amount = amount;
+            this.feePerKb = feePerKb;
+            this.mayEmptyWallet = mayEmptyWallet;
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+            if (this == o)
+                return true;
+            if (!(o instanceof Key))
+                return false;
+            final Key other = (Key) o;
+            // payment intents are immutable and replaced on every edit, so identity is enough
+            return paymentIntent == other.paymentIntent && amount.equals(other.amount)
+                    && Objects.equal(feePerKb, other.feePerKb) && mayEmptyWallet == other.mayEmptyWallet;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hashCode(System.identityHashCode(paymentIntent), amount, feePerKb, mayEmptyWallet);
+        }
+    }
+}
@@ -0,0 +1,575 @@
+/*
+ * Copyright 2011-2015 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.ivan.fgwallet.schildbach.wallet.ui.send;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.security.cert.Certificate;
+import java.security.cert.CertificateException;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.Nullable;
+import javax.net.SocketFactory;
+import javax.net.ssl.HttpsURLConnection;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLHandshakeException;
+import javax.net.ssl.SSLSession;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.SSLSocketFactory;
+import javax.net.ssl.TrustManager;
+import javax.net.ssl.X509TrustManager;
+
+import org.bitcoinj.core.Address;
+import org.bitcoinj.core.Coin;
+import org.bitcoinj.core.Sha256Hash;
+import org.bitcoinj.core.UTXO;
+import org.bitcoinj.script.Script;
+import org.bitcoinj.script.ScriptBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Splitter;
+import com.google.common.base.Strings;
+import com.google.common.hash.Hashing;
+import com.google.common.util.concurrent.SettableFuture;
+import com.squareup.moshi.JsonAdapter;
+import com.squareup.moshi.JsonDataException;
+import com.squareup.moshi.Moshi;
+
+import com.ivan.fgwallet.schildbach.wallet.Constants;
+
+import android.content.res.AssetManager;
+import okio.Buffer;
+import okio.BufferedSink;
+import okio.BufferedSource;
+import okio.Okio;
+
+/**
+ * Electrum JSON-RPC client keeping a small pool of warm connections. Requests are pipelined over one socket and
+ * matched to their responses by id. Per-server latency and failures are tracked, so the fastest healthy server is
+ * preferred.
+ *
+ * @author Andreas, soos
+ */
+public final class ElectrumClient {
+    private final List<ServerStats> servers;
+    private final Map<ElectrumServer, Connection> connections = new HashMap<ElectrumServer, Connection>();
+    private final AtomicInteger idCounter = new AtomicInteger();
+
+    private static final Moshi MOSHI = new Moshi.Builder().build();
+    private static final JsonAdapter<JsonRpcRequest> REQUEST_ADAPTER = MOSHI.adapter(JsonRpcRequest.class);
+    private static final JsonAdapter<JsonRpcResponse> RESPONSE_ADAPTER = MOSHI.adapter(JsonRpcResponse.class);
+
+    private static final int MAX_CONNECTIONS = 2;
+    private static final long CONNECT_TIMEOUT_MS = 5000;
+    private static final long REQUEST_TIMEOUT_MS = 10000;
+    private static final long IDLE_TIMEOUT_MS = TimeUnit.MINUTES.toMillis(2);
+    private static final long UNKNOWN_LATENCY_MS = 1000;
+    private static final long FAILURE_BACKOFF_MS = TimeUnit.SECONDS.toMillis(30);
+    private static final long MAX_FAILURE_BACKOFF_MS = TimeUnit.MINUTES.toMillis(10);
+    private static final int MAX_ATTEMPTS = 3;
+
+    private static ElectrumClient instance;
+
+    private static final Logger log = LoggerFactory.getLogger(ElectrumClient.class);
+
+    /** Process-wide client for the servers listed in {@link Constants.Files#ELECTRUM_SERVERS_FILENAME}. */
+    public static synchronized ElectrumClient getInstance(final AssetManager assets) throws IOException {
+        if (instance == null)
+            instance = new ElectrumClient(loadElectrumServers(assets.open(Constants.Files.ELECTRUM_SERVERS_FILENAME)));
+        return instance;
+    }
+
+    public ElectrumClient(final List<ElectrumServer> servers) {
+        if (servers.isEmpty())
+            throw new IllegalArgumentException("no servers");
+
+        final List<ElectrumServer> shuffled = new ArrayList<ElectrumServer>(servers);
+        Collections.shuffle(shuffled); // spread load among equally unknown servers
+        this.servers = new ArrayList<ServerStats>(shuffled.size());
+        for (final ElectrumServer server : shuffled)
+            this.servers.add(new ServerStats(server));
+    }
+
+    /**
+     * Fetches unspent outputs for all addresses, pipelining one {@code blockchain.address.listunspent} call per
+     * address over a single pooled connection. Falls back to the next best server if a connection fails or the server
+     * answers with an error.
+     */
+    public Map<Address, Set<UTXO>> listUnspent(final Collection<Address> addresses) throws IOException {
+        IOException lastException = null;
+        for (int attempt = 0; attempt < MAX_ATTEMPTS; attempt++) {
+            final ServerStats stats = bestServer();
+            try {
+                return listUnspent(stats, addresses);
+            } catch (final IOException x) {
+                log.info("problem querying unspent outputs from {}: {}", stats.server.socketAddress, x.getMessage());
+                stats.failed();
+                closeConnection(stats.server);
+                lastException = x;
+            }
+        }
+        throw lastException;
+    }
+
+    public Set<UTXO> listUnspent(final Address address) throws IOException {
+        return listUnspent(Collections.singleton(address)).get(address);
+    }
+
+    private Map<Address, Set<UTXO>> listUnspent(final ServerStats stats, final Collection<Address> addresses)
+            throws IOException {
+        final Connection connection = connection(stats.server);
+
+        final Map<Address, JsonRpcRequest> requests = new LinkedHashMap<Address, JsonRpcRequest>();
+        for (final Address address : addresses)
+            requests.put(address, new JsonRpcRequest(idCounter.incrementAndGet(), "blockchain.address.listunspent",
+                    new String[] { address.toBase58() }));
+
+        final long start = System.currentTimeMillis();
+        final Map<Address, SettableFuture<JsonRpcResponse>> futures = connection.send(requests);
+
+        final Map<Address, Set<UTXO>> result = new LinkedHashMap<Address, Set<UTXO>>();
+        for (final Map.Entry<Address, SettableFuture<JsonRpcResponse>> entry : futures.entrySet()) {
+            final Address address = entry.getKey();
+            final JsonRpcResponse response = await(entry.getValue(), start);
+            // an error answer counts against the server, so the next one is tried
+            if (response.result == null)
+                throw new IOException("empty response for " + address + ": " + response.error);
+
+            final Script script = ScriptBuilder.createOutputScript(address);
+            final Set<UTXO> utxos = new HashSet<UTXO>(response.result.length);
+            for (final JsonRpcResponse.Utxo responseUtxo : response.result)
+                utxos.add(new UTXO(Sha256Hash.wrap(responseUtxo.tx_hash), responseUtxo.tx_pos,
+                        Coin.valueOf(responseUtxo.value), responseUtxo.height, false, script));
+            result.put(address, utxos);
+        }
+
+        final long latency = System.currentTimeMillis() - start;
+        stats.succeeded(latency / Math.max(1, addresses.size()));
+        log.info("fetched unspent outputs for {} addresses from {}, took {} ms", addresses.size(),
+                stats.server.socketAddress, latency);
+        return result;
+    }
+
+    private static JsonRpcResponse await(final SettableFuture<JsonRpcResponse> future, final long start)
+            throws IOException {
+        try {
+            final long remaining = Math.max(1, start + REQUEST_TIMEOUT_MS - System.currentTimeMillis());
+            return future.get(remaining, TimeUnit.MILLISECONDS);
+        } catch (final TimeoutException x) {
+            throw new IOException("timeout waiting for response", x);
+        } catch (final InterruptedException x) {
+            Thread.currentThread().interrupt();
+            throw new IOException(x);
+        } catch (final ExecutionException x) {
+            final Throwable cause = x.getCause();
+            if (cause instanceof IOException)
+                throw (IOException) cause;
+            throw new IOException(cause);
+        }
+    }
+
+    private synchronized ServerStats bestServer() {
+        final long now = System.currentTimeMillis();
+        ServerStats best = null;
+        for (final ServerStats stats : servers)
+            if (best == null || stats.score(now) < best.score(now))
+                best = stats;
+        return best;
+    }
+
+    private Connection connection(final ElectrumServer server) throws IOException {
+        synchronized (this) {
+            final long now = System.currentTimeMillis();
+
+            // drop idle or dead connections
+            for (final Iterator<Connection> i = connections.values().iterator(); i.hasNext();) {
+                final Connection connection = i.next();
+                if (!connection.isOpen() || now - connection.lastUsed > IDLE_TIMEOUT_MS) {
+                    connection.close();
+                    i.remove();
+                }
+            }
+
+            final Connection connection = connections.get(server);
+            if (connection != null)
+                return connection;
+        }
+
+        // connect without holding the lock, so a dead server doesn't stall callers of other servers
+        final Connection connection = new Connection(server);
+        return pool(connection);
+    }
+
+    private synchronized Connection pool(final Connection connection) {
+        final Connection raced = connections.get(connection.server);
+        if (raced != null && raced.isOpen()) {
+            connection.close();
+            return raced;
+        }
+
+        // make room for the new connection
+        if (raced == null && connections.size() >= MAX_CONNECTIONS) {
+            Connection oldest = null;
+            for (final Connection c : connections.values())
+                if (oldest == null || c.lastUsed < oldest.lastUsed)
+                    oldest = c;
+            oldest.close();
+            connections.remove(oldest.server);
+        }
+
+        connections.put(connection.server, connection);
+        return connection;
+    }
+
+    private synchronized void closeConnection(final ElectrumServer server) {
+        final Connection connection = connections.remove(server);
+        if (connection != null)
+            connection.close();
+    }
+
+    public synchronized void close() {
+        for (final Connection connection : connections.values())
+            connection.close();
+        connections.clear();
+    }
+
+    private static final class ServerStats {
+        private final ElectrumServer server;
+        private long latencyMs = -1; // exponentially weighted moving average, -1 if unknown
+        private int failures = 0;
+        private long lastFailure = 0;
+
+        private ServerStats(final ElectrumServer server) {
+            this.server = server;
+        }
+
+        private synchronized long score(final long now) {
+            final long latency = latencyMs >= 0 ? latencyMs : UNKNOWN_LATENCY_MS;
+            if (failures == 0)
+                return latency;
+            final long backoff = Math.min(FAILURE_BACKOFF_MS << Math.min(failures - 1, 10), MAX_FAILURE_BACKOFF_MS);
+            return now - lastFailure < backoff ? Long.MAX_VALUE / 2 + latency : latency + failures * UNKNOWN_LATENCY_MS;
+        }
+
+        private synchronized void succeeded(final long latency) {
+            latencyMs = latencyMs >= 0 ? (latencyMs * 3 + latency) / 4 : latency;
+            failures = 0;
+        }
+
+        private synchronized void failed() {
+            failures++;
+            lastFailure = System.currentTimeMillis();
+        }
+    }
+
+    private static final class Connection {
+        private final ElectrumServer server;
+        private final Socket socket;
+        private final BufferedSink sink;
+        private final BufferedSource source;
+        private final Map<Integer, SettableFuture<JsonRpcResponse>> pending = //
+                new ConcurrentHashMap<Integer, SettableFuture<JsonRpcResponse>>();
+        private volatile boolean open = true;
+        private volatile long lastUsed = System.currentTimeMillis();
+
+        private Connection(final ElectrumServer server) throws IOException {
+            this.server = server;
+            this.socket = connect(server);
+            this.sink = Okio.buffer(Okio.sink(socket));
+            sink.timeout().timeout(CONNECT_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+            this.source = Okio.buffer(Okio.source(socket));
+
+            final Thread reader = new Thread("electrum " + server.socketAddress) {
+                @Override
+                public void run() {
+                    read();
+                }
+            };
+            reader.setDaemon(true);
+            reader.start();
+        }
+
+        private boolean isOpen() {
+            return open;
+        }
+
+        private <K> Map<K, SettableFuture<JsonRpcResponse>> send(final Map<K, JsonRpcRequest> requests)
+                throws IOException {
+            lastUsed = System.currentTimeMillis();
+            final Map<K, SettableFuture<JsonRpcResponse>> futures = //
+                    new LinkedHashMap<K, SettableFuture<JsonRpcResponse>>();
+            final Buffer buffer = new Buffer();
+            for (final Map.Entry<K, JsonRpcRequest> entry : requests.entrySet()) {
+                futures.put(entry.getKey(), SettableFuture.<JsonRpcResponse> create());
+                REQUEST_ADAPTER.toJson(buffer, entry.getValue());
+                buffer.writeUtf8("\n");
+            }
+
+            synchronized (sink) {
+                // close() fails pending futures while holding the sink, so none can be registered after that
+                if (!open)
+                    throw new IOException("connection closed: " + server.socketAddress);
+                for (final Map.Entry<K, JsonRpcRequest> entry : requests.entrySet())
+                    pending.put(entry.getValue().id, futures.get(entry.getKey()));
+                try {
+                    sink.writeAll(buffer);
+                    sink.flush();
+                } catch (final IOException x) {
+                    close();
+                    throw x;
+                }
+            }
+            return futures;
+        }
+
+        private void read() {
+            try {
+                while (open) {
+                    final String line = source.readUtf8LineStrict();
+                    final JsonRpcResponse response;
+                    try {
+                        response = RESPONSE_ADAPTER.fromJson(line);
+                    } catch (final IOException | JsonDataException x) {
+                        // the line has been read completely, so this is only about its content
+                        log.info("ignoring unparseable message from {}: {}", server.socketAddress, x.getMessage());
+                        continue;
+                    }
+                    // notifications carry no id
+                    final SettableFuture<JsonRpcResponse> future = response != null && response.id != null
+                            ? pending.remove(response.id) : null;
+                    if (future != null)
+                        future.set(response);
+                }
+            } catch (final IOException x) {
+                if (open)
+                    log.info("connection to {} lost: {}", server.socketAddress, x.getMessage());
+                failPending(x);
+            } finally {
+                close();
+            }
+        }
+
+        private void failPending(final IOException x) {
+            for (final Iterator<SettableFuture<JsonRpcResponse>> i = pending.values().iterator(); i.hasNext();) {
+                i.next().setException(x);
+                i.remove();
+            }
+        }
+
+        private void close() {
+            open = false;
+            try {
+                socket.close();
+            } catch (final IOException x) {
+                // swallow
+            }
+            synchronized (sink) {
+                failPending(new IOException("connection closed: " + server.socketAddress));
+            }
+        }
+
+        private static Socket connect(final ElectrumServer server) throws IOException {
+            final InetSocketAddress address = server.socketAddress.isUnresolved()
+                    ? new InetSocketAddress(server.socketAddress.getHostName(), server.socketAddress.getPort())
+                    : server.socketAddress;
+            final Socket socket;
+            if (server.type == ElectrumServer.Type.TLS) {
+                final SocketFactory sf = sslTrustAllCertificates();
+                socket = sf.createSocket();
+                socket.connect(address, (int) CONNECT_TIMEOUT_MS);
+                socket.setSoTimeout((int) CONNECT_TIMEOUT_MS); // bounds the handshake
+                try {
+                    ((SSLSocket) socket).startHandshake();
+                } catch (final IOException x) {
+                    socket.close();
+                    throw x;
+                }
+                socket.setSoTimeout(0);
+                final SSLSession sslSession = ((SSLSocket) socket).getSession();
+                final Certificate certificate = sslSession.getPeerCertificates()[0];
+                final String certificateFingerprint = sslCertificateFingerprint(certificate);
+                if (server.certificateFingerprint == null) {
+                    // signed by CA
+                    if (!HttpsURLConnection.getDefaultHostnameVerifier().verify(server.socketAddress.getHostName(),
+                            sslSession)) {
+                        socket.close();
+                        throw new SSLHandshakeException("Expected " + server.socketAddress.getHostName() + ", got "
+                                + sslSession.getPeerPrincipal());
+                    }
+                } else {
+                    // self-signed
+                    if (!certificateFingerprint.equals(server.certificateFingerprint)) {
+                        socket.close();
+                        throw new SSLHandshakeException(
+                                "Expected " + server.certificateFingerprint + ", got " + certificateFingerprint);
+                    }
+                }
+            } else if (server.type == ElectrumServer.Type.TCP) {
+                socket = new Socket();
+                socket.connect(address, (int) CONNECT_TIMEOUT_MS);
+            } else {
+                throw new IllegalStateException("Cannot handle: " + server.type);
+            }
+            socket.setKeepAlive(true);
+            log.info("connected to {}", server.socketAddress);
+            return socket;
+        }
+    }
+
+    public static class JsonRpcRequest {
+        public final int id;
+        public final String method;
+        public final String[] params;
+
+        public JsonRpcRequest(final int id, final String method, final String[] params) {
+            this.id = id;
+            this.method = method;
+            this.params = params;
+        }
+    }
+
+    public static class JsonRpcResponse {
+        public Integer id;
+        public Utxo[] result;
+        @Nullable
+        public Object error;
+
+        public static class Utxo {
+            public String tx_hash;
+            public int tx_pos;
+            public long value;
+            public int height;
+        }
+    }
+
+    public static class ElectrumServer {
+        public enum Type {
+            TCP, TLS
+        }
+
+        public final InetSocketAddress socketAddress;
+        public final Type type;
+        public final String certificateFingerprint;
+
+        public ElectrumServer(final String type, final String host, final String port,
+                final String certificateFingerprint) {
+            this.type = Type.valueOf(type.toUpperCase());
+            if (port != null)
+                this.socketAddress = InetSocketAddress.createUnresolved(host, Integer.parseInt(port));
+            else if ("tcp".equalsIgnoreCase(type))
+                this.socketAddress = InetSocketAddress.createUnresolved(host,
+                        Constants.ELECTRUM_SERVER_DEFAULT_PORT_TCP);
+            else if ("tls".equalsIgnoreCase(type))
+                this.socketAddress = InetSocketAddress.createUnresolved(host,
+                        Constants.ELECTRUM_SERVER_DEFAULT_PORT_TLS);
+            else
+                throw new IllegalStateException("Cannot handle: " + type);
+            this.certificateFingerprint = certificateFingerprint;
+        }
+    }
+
+    public static List<ElectrumServer> loadElectrumServers(final InputStream is) throws IOException {
+        final Splitter splitter = Splitter.on(':').trimResults();
+        final List<ElectrumServer> servers = new LinkedList<>();
+        BufferedReader reader = null;
+        String line = null;
+        try {
+            reader = new BufferedReader(new InputStreamReader(is, Charsets.UTF_8));
+            while (true) {
+                line = reader.readLine();
+                if (line == null)
+                    break;
+                line = line.trim();
+                if (line.length() == 0 || line.charAt(0) == '#')
+                    continue;
+
+                final Iterator<String> i = splitter.split(line).iterator();
+                final String type = i.next();
+                final String host = i.next();
+                final String port = i.hasNext() ? Strings.emptyToNull(i.next()) : null;
+                final String fingerprint = i.hasNext() ? Strings.emptyToNull(i.next()) : null;
+                servers.add(new ElectrumServer(type, host, port, fingerprint));
+            }
+        } catch (final Exception x) {
+            throw new RuntimeException("Error while parsing: '" + line + "'", x);
+        } finally {
+            if (reader != null)
+                reader.close();
+            is.close();
+        }
+        return servers;
+    }
+
+    private static SSLSocketFactory sslTrustAllCertificates() {
+        try {
+            final SSLContext context = SSLContext.getInstance("SSL");
+            context.init(null, new TrustManager[] { TRUST_ALL_CERTIFICATES }, null);
+            final SSLSocketFactory socketFactory = context.getSocketFactory();
+            return socketFactory;
+        } catch (final Exception x) {
+            throw new RuntimeException(x);
+        }
+    }
+
+    private static final X509TrustManager TRUST_ALL_CERTIFICATES = new X509TrustManager() {
+        @Override
+        public void checkClientTrusted(final X509Certificate[] chain, final String authType)
+                throws CertificateException {
+        }
+
+        @Override
+        public void checkServerTrusted(final X509Certificate[] chain, final String authType)
+                throws CertificateException {
+        }
+
+        @Override
+        public X509Certificate[] getAcceptedIssuers() {
+            return new X509Certificate[0];
+        }
+    };
+
+    private static String sslCertificateFingerprint(final Certificate certificate) {
+        try {
+            return Hashing.sha256().newHasher().putBytes(certificate.getEncoded()).hash().toString();
+        } catch (final Exception x) {
+            throw new RuntimeException(x);
+        }
+    }
+}
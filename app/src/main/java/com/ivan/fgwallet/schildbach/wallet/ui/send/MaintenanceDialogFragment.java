@@ -34,10 +34,10 @@ import org.spongycastle.crypto.params.KeyParameter;
 
 import com.google.common.util.concurrent.ListenableFuture;
 
-import com.ivan.fgwallet.schildbach.wallet.Constants;
 import com.ivan.fgwallet.WalletApplication;
 import com.ivan.fgwallet.schildbach.wallet.ui.AbstractWalletActivity;
 import com.ivan.fgwallet.schildbach.wallet.ui.DialogBuilder;
+import com.ivan.fgwallet.schildbach.wallet.util.CryptoExecutor;
 import com.ivan.fgwallet.R;
 
 import android.app.Activity;
@@ -51,8 +51,6 @@ import android.content.DialogInterface.OnShowListener;
 import android.graphics.Typeface;
 import android.os.Bundle;
 import android.os.Handler;
-import android.os.HandlerThread;
-import android.os.Process;
 import android.text.Editable;
 import android.text.TextWatcher;
 import android.view.LayoutInflater;
@@ -89,8 +87,7 @@ public class MaintenanceDialogFragment extends DialogFragment {
     private Button positiveButton, negativeButton;
 
     private Handler handler = new Handler();
-    private HandlerThread backgroundThread;
-    private Handler backgroundHandler;
+    private CryptoExecutor.Scope cryptoScope;
 
     private enum State {
         INPUT, DECRYPTING, DONE
@@ -113,9 +110,7 @@ public class MaintenanceDialogFragment extends DialogFragment {
     public void onCreate(final Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
 
-        backgroundThread = new HandlerThread("backgroundThread", Process.THREAD_PRIORITY_BACKGROUND);
-        backgroundThread.start();
-        backgroundHandler = new Handler(backgroundThread.getLooper());
+        cryptoScope = application.getCryptoExecutor().newScope();
     }
 
     @Override
@@ -202,7 +197,7 @@ public class MaintenanceDialogFragment extends DialogFragment {
 
     @Override
     public void onDestroy() {
-        backgroundThread.getLooper().quit();
+        cryptoScope.cancel();
 
         super.onDestroy();
     }
@@ -212,7 +207,8 @@ public class MaintenanceDialogFragment extends DialogFragment {
         updateView();
 
         if (wallet.isEncrypted()) {
-            new DeriveKeyTask(backgroundHandler, application.scryptIterationsTarget()) {
+            new DeriveKeyTask(cryptoScope, application.scryptIterationsTarget(),
+                    application.getKeySession()) {
                 @Override
                 protected void onSuccess(final KeyParameter encryptionKey, final boolean wasChanged) {
                     if (wasChanged)
@@ -228,15 +224,13 @@ public class MaintenanceDialogFragment extends DialogFragment {
     }
 
     private void doMaintenance(final KeyParameter encryptionKey) {
-        backgroundHandler.post(new Runnable() {
+        cryptoScope.execute("doMaintenance", new Runnable() {
             @Override
             public void run() {
-                org.bitcoinj.core.Context.propagate(Constants.CONTEXT);
-
                 try {
                     wallet.doMaintenance(encryptionKey, true);
 
-                    handler.post(new Runnable() {
+                    cryptoScope.post(new Runnable() {
                         @Override
                         public void run() {
                             state = State.DONE;
@@ -246,7 +240,7 @@ public class MaintenanceDialogFragment extends DialogFragment {
                         }
                     });
                 } catch (final KeyCrypterException x) {
-                    handler.post(new Runnable() {
+                    cryptoScope.post(new Runnable() {
                         @Override
                         public void run() {
                             badPasswordView.setVisibility(View.VISIBLE);
@@ -281,7 +275,7 @@ public class MaintenanceDialogFragment extends DialogFragment {
         if (dialog == null)
             return;
 
-        final boolean needsPassword = wallet.isEncrypted();
+        final boolean needsPassword = wallet.isEncrypted() && !application.getKeySession().isUnlocked();
         passwordGroup.setVisibility(needsPassword ? View.VISIBLE : View.GONE);
 
         if (state == State.INPUT) {
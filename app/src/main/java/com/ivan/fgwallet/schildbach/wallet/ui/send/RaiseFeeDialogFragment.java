@@ -41,6 +41,7 @@ import com.ivan.fgwallet.WalletApplication;
 import com.ivan.fgwallet.schildbach.wallet.data.DynamicFeeLoader;
 import com.ivan.fgwallet.schildbach.wallet.ui.AbstractWalletActivity;
 import com.ivan.fgwallet.schildbach.wallet.ui.DialogBuilder;
+import com.ivan.fgwallet.schildbach.wallet.util.CryptoExecutor;
 import com.ivan.fgwallet.schildbach.wallet.util.WalletUtils;
 import com.ivan.fgwallet.R;
 
@@ -56,9 +57,6 @@ import android.content.DialogInterface.OnShowListener;
 import android.content.Loader;
 import android.graphics.Typeface;
 import android.os.Bundle;
-import android.os.Handler;
-import android.os.HandlerThread;
-import android.os.Process;
 import android.text.Editable;
 import android.text.TextWatcher;
 import android.view.LayoutInflater;
@@ -108,8 +106,7 @@ public class RaiseFeeDialogFragment extends DialogFragment {
     private View badPasswordView;
     private Button positiveButton, negativeButton;
 
-    private HandlerThread backgroundThread;
-    private Handler backgroundHandler;
+    private CryptoExecutor.Scope cryptoScope;
 
     private static final int ID_DYNAMIC_FEES_LOADER = 0;
 
@@ -160,9 +157,7 @@ public class RaiseFeeDialogFragment extends DialogFragment {
         final byte[] txHash = (byte[]) args.getSerializable(KEY_TRANSACTION);
         transaction = checkNotNull(wallet.getTransaction(Sha256Hash.wrap(txHash)));
 
-        backgroundThread = new HandlerThread("backgroundThread", Process.THREAD_PRIORITY_BACKGROUND);
-        backgroundThread.start();
-        backgroundHandler = new Handler(backgroundThread.getLooper());
+        cryptoScope = application.getCryptoExecutor().newScope();
 
         loaderManager.initLoader(ID_DYNAMIC_FEES_LOADER, null, dynamicFeesLoaderCallbacks);
     }
@@ -236,7 +231,7 @@ public class RaiseFeeDialogFragment extends DialogFragment {
     public void onDestroy() {
         loaderManager.destroyLoader(ID_DYNAMIC_FEES_LOADER);
 
-        backgroundThread.getLooper().quit();
+        cryptoScope.cancel();
 
         super.onDestroy();
     }
@@ -246,7 +241,8 @@ public class RaiseFeeDialogFragment extends DialogFragment {
         updateView();
 
         if (wallet.isEncrypted()) {
-            new DeriveKeyTask(backgroundHandler, application.scryptIterationsTarget()) {
+            new DeriveKeyTask(cryptoScope, application.scryptIterationsTarget(),
+                    application.getKeySession()) {
                 @Override
                 protected void onSuccess(final KeyParameter encryptionKey, final boolean wasChanged) {
                     if (wasChanged)
@@ -305,7 +301,7 @@ public class RaiseFeeDialogFragment extends DialogFragment {
         if (dialog == null)
             return;
 
-        final boolean needsPassword = wallet.isEncrypted();
+        final boolean needsPassword = wallet.isEncrypted() && !application.getKeySession().isUnlocked();
 
         if (feeRaise == null) {
             messageView.setText(R.string.raise_fee_dialog_determining_fee);
@@ -80,6 +80,7 @@ import com.ivan.fgwallet.schildbach.wallet.ui.ProgressDialogFragment;
 import com.ivan.fgwallet.schildbach.wallet.ui.ScanActivity;
 import com.ivan.fgwallet.schildbach.wallet.ui.TransactionsAdapter;
 import com.ivan.fgwallet.schildbach.wallet.util.Bluetooth;
+import com.ivan.fgwallet.schildbach.wallet.util.CryptoExecutor;
 import com.ivan.fgwallet.schildbach.wallet.util.Nfc;
 import com.ivan.fgwallet.schildbach.wallet.util.WalletUtils;
 import com.ivan.fgwallet.R;
@@ -148,6 +149,7 @@ public final class SendCoinsFragment extends Fragment {
     private final Handler handler = new Handler();
     private HandlerThread backgroundThread;
     private Handler backgroundHandler;
+    private CryptoExecutor.Scope cryptoScope;
 
     private View payeeGroup;
     private TextView payeeNameView;
@@ -187,6 +189,7 @@ public final class SendCoinsFragment extends Fragment {
     private Transaction sentTransaction = null;
     private Boolean directPaymentAck = null;
 
+    private DryrunEstimator dryrunEstimator;
     private Transaction dryrunTransaction;
     private Exception dryrunException;
 
@@ -260,7 +263,7 @@ public final class SendCoinsFragment extends Fragment {
         @Override
         public void changed() {
             updateView();
-            handler.post(dryrunRunnable);
+            requestDryrun();
         }
 
         @Override
@@ -350,7 +353,7 @@ public final class SendCoinsFragment extends Fragment {
         public void onLoadFinished(final Loader<Map<FeeCategory, Coin>> loader, final Map<FeeCategory, Coin> data) {
             fees = data;
             updateView();
-            handler.post(dryrunRunnable);
+            requestDryrun();
         }
 
         @Override
@@ -515,6 +518,15 @@ public final class SendCoinsFragment extends Fragment {
         backgroundThread = new HandlerThread("backgroundThread", Process.THREAD_PRIORITY_BACKGROUND);
         backgroundThread.start();
         backgroundHandler = new Handler(backgroundThread.getLooper());
+        cryptoScope = application.getCryptoExecutor().newScope();
+        dryrunEstimator = new DryrunEstimator(wallet) {
+            @Override
+            protected void onResult(final Result result) {
+                dryrunTransaction = result.transaction;
+                dryrunException = result.exception;
+                updateView();
+            }
+        };
 
         if (savedInstanceState != null) {
             restoreInstanceState(savedInstanceState);
@@ -665,7 +677,7 @@ public final class SendCoinsFragment extends Fragment {
         loaderManager.initLoader(ID_RECEIVING_ADDRESS_BOOK_LOADER, null, receivingAddressLoaderCallbacks);
 
         updateView();
-        handler.post(dryrunRunnable);
+        requestDryrun();
     }
 
     @Override
@@ -694,6 +706,8 @@ public final class SendCoinsFragment extends Fragment {
     @Override
     public void onDestroy() {
         backgroundThread.getLooper().quit();
+        cryptoScope.cancel();
+        dryrunEstimator.release();
 
         if (sentTransaction != null)
             sentTransaction.getConfidence().removeEventListener(sentTransactionConfidenceListener);
@@ -878,7 +892,7 @@ public final class SendCoinsFragment extends Fragment {
     }
 
     private boolean isPasswordPlausible() {
-        if (!wallet.isEncrypted())
+        if (!wallet.isEncrypted() || application.getKeySession().isUnlocked())
             return true;
 
         return !privateKeyPasswordView.getText().toString().trim().isEmpty();
@@ -905,7 +919,8 @@ public final class SendCoinsFragment extends Fragment {
         privateKeyBadPasswordView.setVisibility(View.INVISIBLE);
 
         if (wallet.isEncrypted()) {
-            new DeriveKeyTask(backgroundHandler, application.scryptIterationsTarget()) {
+            new DeriveKeyTask(cryptoScope, application.scryptIterationsTarget(),
+                    application.getKeySession()) {
                 @Override
                 protected void onSuccess(final KeyParameter encryptionKey, final boolean wasChanged) {
                     if (wasChanged)
@@ -1106,7 +1121,7 @@ public final class SendCoinsFragment extends Fragment {
         log.info("switching to {} fee category", feeCategory);
 
         updateView();
-        handler.post(dryrunRunnable);
+        requestDryrun();
     }
 
     private void handleEmpty() {
@@ -1114,41 +1129,25 @@ public final class SendCoinsFragment extends Fragment {
         amountCalculatorLink.setBtcAmount(available);
 
         updateView();
-        handler.post(dryrunRunnable);
+        requestDryrun();
     }
 
-    private Runnable dryrunRunnable = new Runnable() {
-        @Override
-        public void run() {
-            if (state == State.INPUT)
-                executeDryrun();
-
-            updateView();
-        }
-
-        private void executeDryrun() {
+    private void requestDryrun() {
+        if (state == State.INPUT) {
             dryrunTransaction = null;
             dryrunException = null;
 
             final Coin amount = amountCalculatorLink.getAmount();
             if (amount != null && fees != null) {
-                try {
-                    final Address dummy = wallet.currentReceiveAddress(); // won't be used, tx is never
-                                                                          // committed
-                    final SendRequest sendRequest = paymentIntent.mergeWithEditedValues(amount, dummy).toSendRequest();
-                    sendRequest.signInputs = false;
-                    sendRequest.emptyWallet = paymentIntent.mayEditAmount()
-                            && amount.equals(wallet.getBalance(BalanceType.AVAILABLE));
-                  //  sendRequest.feePerKb = fees.get(feeCategory);
-                    sendRequest.feePerKb = fees.get(feeCategory);
-                    wallet.completeTx(sendRequest);
-                    dryrunTransaction = sendRequest.tx;
-                } catch (final Exception x) {
-                    dryrunException = x;
-                }
+                dryrunEstimator.estimate(paymentIntent, amount, fees.get(feeCategory),
+                        paymentIntent.mayEditAmount());
+            } else {
+                dryrunEstimator.cancel();
             }
         }
-    };
+
+        updateView();
+    }
 
     private void setState(final State state) {
         this.state = state;
@@ -1331,7 +1330,7 @@ public final class SendCoinsFragment extends Fragment {
             }
 
             final boolean privateKeyPasswordViewVisible = (state == State.INPUT || state == State.DECRYPTING)
-                    && wallet.isEncrypted();
+                    && wallet.isEncrypted() && !application.getKeySession().isUnlocked();
             privateKeyPasswordViewGroup.setVisibility(privateKeyPasswordViewVisible ? View.VISIBLE : View.GONE);
             privateKeyPasswordView.setEnabled(state == State.INPUT);
 
@@ -1459,7 +1458,7 @@ public final class SendCoinsFragment extends Fragment {
 
                     requestFocusFirst();
                     updateView();
-                    handler.post(dryrunRunnable);
+                    requestDryrun();
                 }
             }
         });
@@ -1486,7 +1485,7 @@ public final class SendCoinsFragment extends Fragment {
                     setState(State.INPUT);
                     updateStateFrom(paymentIntent);
                     updateView();
-                    handler.post(dryrunRunnable);
+                    requestDryrun();
                 } else {
                     final List<String> reasons = new LinkedList<>();
                     if (!SendCoinsFragment.this.paymentIntent.equalsAddress(paymentIntent))
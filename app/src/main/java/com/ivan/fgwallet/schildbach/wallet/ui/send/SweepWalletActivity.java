@@ -17,6 +17,9 @@
 
 package com.ivan.fgwallet.schildbach.wallet.ui.send;
 
+import java.util.ArrayList;
+import java.util.List;
+
 import org.bitcoinj.core.VersionedChecksummedBytes;
 
 import com.ivan.fgwallet.schildbach.wallet.ui.AbstractBindServiceActivity;
@@ -32,6 +35,7 @@ import android.view.MenuItem;
  */
 public final class SweepWalletActivity extends AbstractBindServiceActivity {
     public static final String INTENT_EXTRA_KEY = "sweep_key";
+    public static final String INTENT_EXTRA_KEYS = "sweep_keys";
 
     public static void start(final Context context) {
         context.startActivity(new Intent(context, SweepWalletActivity.class));
@@ -43,6 +47,12 @@ public final class SweepWalletActivity extends AbstractBindServiceActivity {
         context.startActivity(intent);
     }
 
+    public static void start(final Context context, final List<VersionedChecksummedBytes> keys) {
+        final Intent intent = new Intent(context, SweepWalletActivity.class);
+        intent.putExtra(INTENT_EXTRA_KEYS, new ArrayList<VersionedChecksummedBytes>(keys));
+        context.startActivity(intent);
+    }
+
     @Override
     public void onCreate(final Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
@@ -19,11 +19,12 @@ package com.ivan.fgwallet.schildbach.wallet.ui.send;
 
 import static com.google.common.base.Preconditions.checkState;
 
-import java.util.Comparator;
-import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.TreeSet;
 
 import javax.annotation.Nullable;
 
@@ -31,13 +32,9 @@ import org.bitcoinj.core.Address;
 import org.bitcoinj.core.Coin;
 import org.bitcoinj.core.DumpedPrivateKey;
 import org.bitcoinj.core.ECKey;
-import org.bitcoinj.core.NetworkParameters;
 import org.bitcoinj.core.Sha256Hash;
 import org.bitcoinj.core.Transaction;
 import org.bitcoinj.core.TransactionConfidence;
-import org.bitcoinj.core.TransactionConfidence.ConfidenceType;
-import org.bitcoinj.core.TransactionInput;
-import org.bitcoinj.core.TransactionOutPoint;
 import org.bitcoinj.core.TransactionOutput;
 import org.bitcoinj.core.UTXO;
 import org.bitcoinj.core.VerificationException;
@@ -48,12 +45,9 @@ import org.bitcoinj.wallet.KeyChainGroup;
 import org.bitcoinj.wallet.SendRequest;
 import org.bitcoinj.wallet.Wallet;
 import org.bitcoinj.wallet.Wallet.BalanceType;
-import org.bitcoinj.wallet.WalletTransaction;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import com.google.common.collect.ComparisonChain;
-
 import com.ivan.fgwallet.schildbach.wallet.Configuration;
 import com.ivan.fgwallet.schildbach.wallet.Constants;
 import com.ivan.fgwallet.WalletApplication;
@@ -65,6 +59,7 @@ import com.ivan.fgwallet.schildbach.wallet.ui.InputParser.StringInputParser;
 import com.ivan.fgwallet.schildbach.wallet.ui.ProgressDialogFragment;
 import com.ivan.fgwallet.schildbach.wallet.ui.ScanActivity;
 import com.ivan.fgwallet.schildbach.wallet.ui.TransactionsAdapter;
+import com.ivan.fgwallet.schildbach.wallet.util.CryptoExecutor;
 import com.ivan.fgwallet.schildbach.wallet.util.MonetarySpannable;
 import com.ivan.fgwallet.schildbach.wallet.util.WalletUtils;
 import com.ivan.fgwallet.R;
@@ -110,13 +105,15 @@ public class SweepWalletFragment extends Fragment {
     private final Handler handler = new Handler();
     private HandlerThread backgroundThread;
     private Handler backgroundHandler;
+    private CryptoExecutor.Scope cryptoScope;
 
     private State state = State.DECODE_KEY;
-    private VersionedChecksummedBytes privateKeyToSweep = null;
+    private final List<VersionedChecksummedBytes> privateKeysToSweep = new ArrayList<>(); // still to be decoded
     @Nullable
     private Map<FeeCategory, Coin> fees = null;
     private Wallet walletToSweep = null;
-    private Transaction sentTransaction = null;
+    private final List<Transaction> sentTransactions = new ArrayList<>();
+    private int numSweepTransactions = 0;
 
     private TextView messageView;
     private View passwordViewGroup;
@@ -186,15 +183,22 @@ public class SweepWalletFragment extends Fragment {
         backgroundThread = new HandlerThread("backgroundThread", Process.THREAD_PRIORITY_BACKGROUND);
         backgroundThread.start();
         backgroundHandler = new Handler(backgroundThread.getLooper());
+        cryptoScope = application.getCryptoExecutor().newScope();
 
         if (savedInstanceState != null) {
             restoreInstanceState(savedInstanceState);
         } else {
             final Intent intent = activity.getIntent();
 
-            if (intent.hasExtra(SweepWalletActivity.INTENT_EXTRA_KEY)) {
-                privateKeyToSweep = (VersionedChecksummedBytes) intent
-                        .getSerializableExtra(SweepWalletActivity.INTENT_EXTRA_KEY);
+            if (intent.hasExtra(SweepWalletActivity.INTENT_EXTRA_KEYS)) {
+                privateKeysToSweep.addAll((List<VersionedChecksummedBytes>) intent
+                        .getSerializableExtra(SweepWalletActivity.INTENT_EXTRA_KEYS));
+
+                // delay until fragment is resumed
+                handler.post(maybeDecodeKeyRunnable);
+            } else if (intent.hasExtra(SweepWalletActivity.INTENT_EXTRA_KEY)) {
+                privateKeysToSweep.add((VersionedChecksummedBytes) intent
+                        .getSerializableExtra(SweepWalletActivity.INTENT_EXTRA_KEY));
 
                 // delay until fragment is resumed
                 handler.post(maybeDecodeKeyRunnable);
@@ -265,8 +269,9 @@ public class SweepWalletFragment extends Fragment {
     @Override
     public void onDestroy() {
         backgroundThread.getLooper().quit();
+        cryptoScope.cancel();
 
-        if (sentTransaction != null)
+        for (final Transaction sentTransaction : sentTransactions)
             sentTransaction.getConfidence().removeEventListener(sentTransactionConfidenceListener);
 
         super.onDestroy();
@@ -283,18 +288,28 @@ public class SweepWalletFragment extends Fragment {
         outState.putSerializable("state", state);
         if (walletToSweep != null)
             outState.putByteArray("wallet_to_sweep", WalletUtils.walletToByteArray(walletToSweep));
-        if (sentTransaction != null)
-            outState.putSerializable("sent_transaction_hash", sentTransaction.getHash());
+        if (!sentTransactions.isEmpty()) {
+            final ArrayList<Sha256Hash> sentTransactionHashes = new ArrayList<>(sentTransactions.size());
+            for (final Transaction sentTransaction : sentTransactions)
+                sentTransactionHashes.add(sentTransaction.getHash());
+            outState.putSerializable("sent_transaction_hashes", sentTransactionHashes);
+            outState.putInt("num_sweep_transactions", numSweepTransactions);
+        }
     }
 
     private void restoreInstanceState(final Bundle savedInstanceState) {
         state = (State) savedInstanceState.getSerializable("state");
         if (savedInstanceState.containsKey("wallet_to_sweep"))
             walletToSweep = WalletUtils.walletFromByteArray(savedInstanceState.getByteArray("wallet_to_sweep"));
-        if (savedInstanceState.containsKey("sent_transaction_hash")) {
-            sentTransaction = application.getWallet()
-                    .getTransaction((Sha256Hash) savedInstanceState.getSerializable("sent_transaction_hash"));
-            sentTransaction.getConfidence().addEventListener(sentTransactionConfidenceListener);
+        if (savedInstanceState.containsKey("sent_transaction_hashes")) {
+            final List<Sha256Hash> sentTransactionHashes = (List<Sha256Hash>) savedInstanceState
+                    .getSerializable("sent_transaction_hashes");
+            for (final Sha256Hash hash : sentTransactionHashes) {
+                final Transaction sentTransaction = application.getWallet().getTransaction(hash);
+                sentTransaction.getConfidence().addEventListener(sentTransactionConfidenceListener);
+                sentTransactions.add(sentTransaction);
+            }
+            numSweepTransactions = savedInstanceState.getInt("num_sweep_transactions");
         }
     }
 
@@ -307,7 +322,9 @@ public class SweepWalletFragment extends Fragment {
                 new StringInputParser(input) {
                     @Override
                     protected void handlePrivateKey(final VersionedChecksummedBytes key) {
-                        privateKeyToSweep = key;
+                        // scanning more keys adds them to the batch
+                        if (!privateKeysToSweep.contains(key))
+                            privateKeysToSweep.add(key);
                         setState(State.DECODE_KEY);
                         maybeDecodeKey();
                     }
@@ -381,17 +398,10 @@ public class SweepWalletFragment extends Fragment {
                     if (!isResumed())
                         return;
 
-                    final TransactionConfidence confidence = sentTransaction.getConfidence();
                     final TransactionConfidence.ConfidenceType confidenceType = confidence.getConfidenceType();
                     final int numBroadcastPeers = confidence.numBroadcastPeers();
 
-                    if (state == State.SENDING) {
-                        if (confidenceType == TransactionConfidence.ConfidenceType.DEAD)
-                            setState(State.FAILED);
-                        else if (numBroadcastPeers > 1
-                                || confidenceType == TransactionConfidence.ConfidenceType.BUILDING)
-                            setState(State.SENT);
-                    }
+                    updateSendingState();
 
                     if (reason == ChangeReason.SEEN_PEERS
                             && confidenceType == TransactionConfidence.ConfidenceType.PENDING) {
@@ -411,6 +421,28 @@ public class SweepWalletFragment extends Fragment {
         }
     };
 
+    private void updateSendingState() {
+        if (state != State.SENDING)
+            return;
+
+        boolean allSent = true;
+        for (final Transaction sentTransaction : sentTransactions) {
+            final TransactionConfidence confidence = sentTransaction.getConfidence();
+            final TransactionConfidence.ConfidenceType confidenceType = confidence.getConfidenceType();
+
+            if (confidenceType == TransactionConfidence.ConfidenceType.DEAD) {
+                setState(State.FAILED);
+                return;
+            }
+            if (confidence.numBroadcastPeers() <= 1
+                    && confidenceType != TransactionConfidence.ConfidenceType.BUILDING)
+                allSent = false;
+        }
+
+        if (allSent)
+            setState(State.SENT);
+    }
+
     private final Runnable maybeDecodeKeyRunnable = new Runnable() {
         @Override
         public void run() {
@@ -420,52 +452,92 @@ public class SweepWalletFragment extends Fragment {
 
     private void maybeDecodeKey() {
         checkState(state == State.DECODE_KEY);
-        checkState(privateKeyToSweep != null);
+        checkState(!privateKeysToSweep.isEmpty());
+
+        final List<ECKey> keys = new ArrayList<>();
+        final List<BIP38PrivateKey> encryptedKeys = new ArrayList<>();
+        for (final VersionedChecksummedBytes privateKeyToSweep : privateKeysToSweep) {
+            if (privateKeyToSweep instanceof DumpedPrivateKey)
+                keys.add(((DumpedPrivateKey) privateKeyToSweep).getKey());
+            else if (privateKeyToSweep instanceof BIP38PrivateKey)
+                encryptedKeys.add((BIP38PrivateKey) privateKeyToSweep);
+            else
+                throw new IllegalStateException("cannot handle type: " + privateKeyToSweep.getClass().getName());
+        }
 
-        if (privateKeyToSweep instanceof DumpedPrivateKey) {
-            final ECKey key = ((DumpedPrivateKey) privateKeyToSweep).getKey();
-            askConfirmSweep(key);
-        } else if (privateKeyToSweep instanceof BIP38PrivateKey) {
-            badPasswordView.setVisibility(View.INVISIBLE);
+        privateKeysToSweep.clear();
+        privateKeysToSweep.addAll(encryptedKeys);
 
-            final String password = passwordView.getText().toString().trim();
-            passwordView.setText(null); // get rid of it asap
+        if (encryptedKeys.isEmpty()) {
+            askConfirmSweep(keys);
+            return;
+        }
 
-            if (!password.isEmpty()) {
-                ProgressDialogFragment.showProgress(fragmentManager,
-                        getString(R.string.sweep_wallet_fragment_decrypt_progress));
+        importKeys(keys);
 
-                new DecodePrivateKeyTask(backgroundHandler) {
-                    @Override
-                    protected void onSuccess(ECKey decryptedKey) {
-                        log.info("successfully decoded BIP38 private key");
+        badPasswordView.setVisibility(View.INVISIBLE);
 
-                        ProgressDialogFragment.dismissProgress(fragmentManager);
+        final String password = passwordView.getText().toString().trim();
+        passwordView.setText(null); // get rid of it asap
 
-                        askConfirmSweep(decryptedKey);
-                    }
+        if (!password.isEmpty()) {
+            final int numKeys = encryptedKeys.size();
+            ProgressDialogFragment.showProgress(fragmentManager,
+                    numKeys > 1 ? getString(R.string.sweep_wallet_fragment_decrypt_batch_progress, 0, numKeys)
+                            : getString(R.string.sweep_wallet_fragment_decrypt_progress));
 
-                    @Override
-                    protected void onBadPassphrase() {
-                        log.info("failed decoding BIP38 private key (bad password)");
+            new DecodePrivateKeysTask(cryptoScope) {
+                @Override
+                protected void onProgress(final int numDone, final int numTotal) {
+                    if (numTotal > 1)
+                        ProgressDialogFragment.updateProgress(fragmentManager,
+                                getString(R.string.sweep_wallet_fragment_decrypt_batch_progress, numDone, numTotal));
+                }
+
+                @Override
+                protected void onResult(final List<ECKey> decryptedKeys,
+                        final List<BIP38PrivateKey> badPassphraseKeys) {
+                    log.info("decoded {} BIP38 private keys, {} failed (bad password)", decryptedKeys.size(),
+                            badPassphraseKeys.size());
 
-                        ProgressDialogFragment.dismissProgress(fragmentManager);
+                    ProgressDialogFragment.dismissProgress(fragmentManager);
+
+                    privateKeysToSweep.clear();
+                    privateKeysToSweep.addAll(badPassphraseKeys);
+
+                    if (badPassphraseKeys.isEmpty()) {
+                        askConfirmSweep(decryptedKeys);
+                    } else {
+                        // keep what could be decrypted, ask again for the rest
+                        importKeys(decryptedKeys);
+                        updateView();
 
                         badPasswordView.setVisibility(View.VISIBLE);
                         passwordView.requestFocus();
                     }
-                }.decodePrivateKey((BIP38PrivateKey) privateKeyToSweep, password);
-            }
+                }
+            }.decodePrivateKeys(encryptedKeys, password);
+        } else {
+            updateView();
+        }
+    }
+
+    private void importKeys(final List<ECKey> keys) {
+        if (keys.isEmpty())
+            return;
+
+        if (walletToSweep == null) {
+            // create non-HD wallet
+            final KeyChainGroup group = new KeyChainGroup(Constants.NETWORK_PARAMETERS);
+            group.importKeys(keys);
+            walletToSweep = new Wallet(Constants.NETWORK_PARAMETERS, group);
         } else {
-            throw new IllegalStateException("cannot handle type: " + privateKeyToSweep.getClass().getName());
+            walletToSweep.importKeys(keys);
         }
     }
 
-    private void askConfirmSweep(final ECKey key) {
-        // create non-HD wallet
-        final KeyChainGroup group = new KeyChainGroup(Constants.NETWORK_PARAMETERS);
-        group.importKeys(key);
-        walletToSweep = new Wallet(Constants.NETWORK_PARAMETERS, group);
+    private void askConfirmSweep(final List<ECKey> keys) {
+        importKeys(keys);
 
         setState(State.CONFIRM_SWEEP);
 
@@ -480,14 +552,6 @@ public class SweepWalletFragment extends Fragment {
         }
     };
 
-    private static final Comparator<UTXO> UTXO_COMPARATOR = new Comparator<UTXO>() {
-        @Override
-        public int compare(final UTXO lhs, final UTXO rhs) {
-            return ComparisonChain.start().compare(lhs.getHash(), rhs.getHash()).compare(lhs.getIndex(), rhs.getIndex())
-                    .result();
-        }
-    };
-
     private void requestWalletBalance() {
         ProgressDialogFragment.showProgress(fragmentManager,
                 getString(R.string.sweep_wallet_fragment_request_wallet_balance_progress));
@@ -495,51 +559,21 @@ public class SweepWalletFragment extends Fragment {
         final RequestWalletBalanceTask.ResultCallback callback = new RequestWalletBalanceTask.ResultCallback() {
             @Override
             public void onResult(final Set<UTXO> utxos) {
-                ProgressDialogFragment.dismissProgress(fragmentManager);
-
-                // Filter UTXOs we've already spent and sort the rest.
-                final Set<Transaction> walletTxns = application.getWallet().getTransactions(false);
-                final Set<UTXO> sortedUtxos = new TreeSet<>(UTXO_COMPARATOR);
-                for (final UTXO utxo : utxos)
-                    if (!utxoSpentBy(walletTxns, utxo))
-                        sortedUtxos.add(utxo);
-
-                // Fake transaction funding the wallet to sweep.
-                final Map<Sha256Hash, Transaction> fakeTxns = new HashMap<>();
-                for (final UTXO utxo : sortedUtxos) {
-                    Transaction fakeTx = fakeTxns.get(utxo.getHash());
-                    if (fakeTx == null) {
-                        fakeTx = new FakeTransaction(Constants.NETWORK_PARAMETERS, utxo.getHash());
-                        fakeTx.getConfidence().setConfidenceType(ConfidenceType.BUILDING);
-                        fakeTxns.put(fakeTx.getHash(), fakeTx);
-                    }
-                    final TransactionOutput fakeOutput = new TransactionOutput(Constants.NETWORK_PARAMETERS, fakeTx,
-                            utxo.getValue(), utxo.getScript().getProgram());
-                    // Fill with output dummies as needed.
-                    while (fakeTx.getOutputs().size() < utxo.getIndex())
-                        fakeTx.addOutput(new TransactionOutput(Constants.NETWORK_PARAMETERS, fakeTx,
-                                Coin.NEGATIVE_SATOSHI, new byte[] {}));
-                    // Add the actual output we will spend later.
-                    fakeTx.addOutput(fakeOutput);
-                }
+                backgroundHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        buildWalletToSweep(utxos);
 
-                walletToSweep.clearTransactions(0);
-                for (final Transaction tx : fakeTxns.values())
-                    walletToSweep.addWalletTransaction(new WalletTransaction(WalletTransaction.Pool.UNSPENT, tx));
-                log.info("built wallet to sweep:\n{}", walletToSweep.toString(false, true, false, null));
+                        handler.post(new Runnable() {
+                            @Override
+                            public void run() {
+                                ProgressDialogFragment.dismissProgress(fragmentManager);
 
-                updateView();
-            }
-
-            private boolean utxoSpentBy(final Set<Transaction> transactions, final UTXO utxo) {
-                for (final Transaction tx : transactions) {
-                    for (final TransactionInput input : tx.getInputs()) {
-                        final TransactionOutPoint outpoint = input.getOutpoint();
-                        if (outpoint.getHash().equals(utxo.getHash()) && outpoint.getIndex() == utxo.getIndex())
-                            return true;
+                                updateView();
+                            }
+                        });
                     }
-                }
-                return false;
+                });
             }
 
             @Override
@@ -560,9 +594,16 @@ public class SweepWalletFragment extends Fragment {
             }
         };
 
-        final Address address = walletToSweep.getImportedKeys().iterator().next()
-                .toAddress(Constants.NETWORK_PARAMETERS);
-        new RequestWalletBalanceTask(backgroundHandler, callback).requestWalletBalance(activity.getAssets(), address);
+        final List<ECKey> keys = walletToSweep.getImportedKeys();
+        final Set<Address> addresses = new HashSet<>(keys.size());
+        for (final ECKey key : keys)
+            addresses.add(key.toAddress(Constants.NETWORK_PARAMETERS));
+        new RequestWalletBalanceTask(backgroundHandler, callback).requestWalletBalance(activity.getAssets(),
+                addresses);
+    }
+
+    private void buildWalletToSweep(final Collection<UTXO> utxos) {
+        WalletToSweep.fund(walletToSweep, utxos, application.getWallet().getTransactions(false));
     }
 
     private void setState(final State state) {
@@ -587,25 +628,37 @@ public class SweepWalletFragment extends Fragment {
             balanceView.setVisibility(View.GONE);
         }
 
-        if (state == State.DECODE_KEY && privateKeyToSweep == null) {
+        final int numKeysInBatch = walletToSweep != null ? walletToSweep.getImportedKeys().size() : 0;
+        if (state == State.DECODE_KEY && privateKeysToSweep.isEmpty()) {
             messageView.setVisibility(View.VISIBLE);
             messageView.setText(R.string.sweep_wallet_fragment_wallet_unknown);
-        } else if (state == State.DECODE_KEY && privateKeyToSweep != null) {
+        } else if (state == State.DECODE_KEY && privateKeysToSweep.size() == 1) {
             messageView.setVisibility(View.VISIBLE);
             messageView.setText(R.string.sweep_wallet_fragment_encrypted);
-        } else if (privateKeyToSweep != null) {
+        } else if (state == State.DECODE_KEY) {
+            messageView.setVisibility(View.VISIBLE);
+            messageView.setText(getString(R.string.sweep_wallet_fragment_encrypted_batch, privateKeysToSweep.size()));
+        } else if (state == State.CONFIRM_SWEEP && numKeysInBatch > 1) {
+            messageView.setVisibility(View.VISIBLE);
+            messageView.setText(getString(R.string.sweep_wallet_fragment_batch, numKeysInBatch));
+        } else if (state == State.PREPARATION && numSweepTransactions > 1) {
+            messageView.setVisibility(View.VISIBLE);
+            messageView.setText(getString(R.string.sweep_wallet_fragment_sweep_progress, sentTransactions.size(),
+                    numSweepTransactions));
+        } else {
             messageView.setVisibility(View.GONE);
         }
 
         passwordViewGroup
-                .setVisibility(state == State.DECODE_KEY && privateKeyToSweep != null ? View.VISIBLE : View.GONE);
+                .setVisibility(state == State.DECODE_KEY && !privateKeysToSweep.isEmpty() ? View.VISIBLE : View.GONE);
 
-        hintView.setVisibility(state == State.DECODE_KEY && privateKeyToSweep == null ? View.VISIBLE : View.GONE);
+        hintView.setVisibility(state == State.DECODE_KEY && privateKeysToSweep.isEmpty() && walletToSweep == null
+                ? View.VISIBLE : View.GONE);
 
-        if (sentTransaction != null) {
+        if (!sentTransactions.isEmpty()) {
             sweepTransactionView.setVisibility(View.VISIBLE);
             sweepTransactionAdapter.setFormat(btcFormat);
-            sweepTransactionAdapter.replace(sentTransaction);
+            sweepTransactionAdapter.replace(sentTransactions.get(sentTransactions.size() - 1));
             sweepTransactionAdapter.bindViewHolder(sweepTransactionViewHolder, 0);
         } else {
             sweepTransactionView.setVisibility(View.GONE);
@@ -614,7 +667,7 @@ public class SweepWalletFragment extends Fragment {
         if (state == State.DECODE_KEY) {
             viewCancel.setText(R.string.button_cancel);
             viewGo.setText(R.string.sweep_wallet_fragment_button_decrypt);
-            viewGo.setEnabled(privateKeyToSweep != null);
+            viewGo.setEnabled(!privateKeysToSweep.isEmpty());
         } else if (state == State.CONFIRM_SWEEP) {
             viewCancel.setText(R.string.button_cancel);
             viewGo.setText(R.string.sweep_wallet_fragment_button_sweep);
@@ -654,19 +707,39 @@ public class SweepWalletFragment extends Fragment {
     private void handleSweep() {
         setState(State.PREPARATION);
 
-        final SendRequest sendRequest = SendRequest.emptyWallet(application.getWallet().freshReceiveAddress());
-        sendRequest.feePerKb = fees.get(FeeCategory.NORMAL);
+        // A large batch is split into several transactions, each bounded in its number of inputs.
+        final List<List<TransactionOutput>> chunks = WalletToSweep.chunks(walletToSweep);
+        log.info("sweeping {} outputs in {} transactions",
+                walletToSweep.calculateAllSpendCandidates(false, true).size(), chunks.size());
+
+        for (final Transaction sentTransaction : sentTransactions)
+            sentTransaction.getConfidence().removeEventListener(sentTransactionConfidenceListener);
+        sentTransactions.clear();
+        numSweepTransactions = chunks.size();
+
+        sweepChunk(chunks, 0);
+    }
+
+    private void sweepChunk(final List<List<TransactionOutput>> chunks, final int index) {
+        final SendRequest sendRequest = WalletToSweep.sendRequest(application.getWallet().freshReceiveAddress(),
+                fees.get(FeeCategory.NORMAL), chunks, index);
 
         new SendCoinsOfflineTask(walletToSweep, backgroundHandler) {
             @Override
             protected void onSuccess(final Transaction transaction) {
-                sentTransaction = transaction;
+                sentTransactions.add(transaction);
 
-                setState(State.SENDING);
+                transaction.getConfidence().addEventListener(sentTransactionConfidenceListener);
 
-                sentTransaction.getConfidence().addEventListener(sentTransactionConfidenceListener);
+                application.processDirectTransaction(transaction);
 
-                application.processDirectTransaction(sentTransaction);
+                if (index + 1 < chunks.size()) {
+                    updateView();
+                    sweepChunk(chunks, index + 1);
+                } else {
+                    setState(State.SENDING);
+                    updateSendingState();
+                }
             }
 
             @Override
@@ -707,18 +780,4 @@ public class SweepWalletFragment extends Fragment {
             }
         }.sendCoinsOffline(sendRequest); // send asynchronously
     }
-
-    private static class FakeTransaction extends Transaction {
-        private final Sha256Hash hash;
-
-        public FakeTransaction(final NetworkParameters params, final Sha256Hash hash) {
-            super(params);
-            this.hash = hash;
-        }
-
-        @Override
-        public Sha256Hash getHash() {
-            return hash;
-        }
-    }
 }
@@ -0,0 +1,173 @@
+/*
+ * Copyright 2011-2015 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.ivan.fgwallet.schildbach.wallet.ui.send;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.bitcoinj.core.Address;
+import org.bitcoinj.core.Coin;
+import org.bitcoinj.core.NetworkParameters;
+import org.bitcoinj.core.Sha256Hash;
+import org.bitcoinj.core.Transaction;
+import org.bitcoinj.core.TransactionConfidence.ConfidenceType;
+import org.bitcoinj.core.TransactionInput;
+import org.bitcoinj.core.TransactionOutPoint;
+import org.bitcoinj.core.TransactionOutput;
+import org.bitcoinj.core.UTXO;
+import org.bitcoinj.wallet.CoinSelection;
+import org.bitcoinj.wallet.CoinSelector;
+import org.bitcoinj.wallet.SendRequest;
+import org.bitcoinj.wallet.Wallet;
+import org.bitcoinj.wallet.WalletTransaction;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.collect.ComparisonChain;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+
+/**
+ * Funds a wallet of swept keys from their unspent outputs and splits emptying it into transactions of bounded size.
+ *
+ * @author Andreas, soos
+ */
+final class WalletToSweep {
+    // a P2PKH input is about 148 bytes, so this keeps each sweep transaction well below the 100 kB standard limit
+    static final int MAX_INPUTS_PER_TRANSACTION = 400;
+
+    private static final Logger log = LoggerFactory.getLogger(WalletToSweep.class);
+
+    private WalletToSweep() {
+    }
+
+    private static final Comparator<UTXO> UTXO_COMPARATOR = new Comparator<UTXO>() {
+        @Override
+        public int compare(final UTXO lhs, final UTXO rhs) {
+            return ComparisonChain.start().compare(lhs.getHash(), rhs.getHash()).compare(lhs.getIndex(), rhs.getIndex())
+                    .result();
+        }
+    };
+
+    /**
+     * Replaces the transactions of the wallet to sweep by fake transactions funding it with the given outputs. Outputs
+     * already spent by one of our own transactions are left out.
+     */
+    static void fund(final Wallet walletToSweep, final Collection<UTXO> utxos, final Set<Transaction> ownTransactions) {
+        final NetworkParameters params = walletToSweep.getParams();
+
+        // Filter UTXOs we've already spent and sort the rest. Our own spent outpoints are collected once, so this
+        // stays linear in the number of transactions plus UTXOs.
+        final Set<TransactionOutPoint> spentOutpoints = new HashSet<>();
+        for (final Transaction tx : ownTransactions)
+            for (final TransactionInput input : tx.getInputs())
+                spentOutpoints.add(input.getOutpoint());
+
+        final Set<UTXO> sortedUtxos = new TreeSet<>(UTXO_COMPARATOR);
+        for (final UTXO utxo : utxos)
+            if (!spentOutpoints.contains(new TransactionOutPoint(params, utxo.getIndex(), utxo.getHash())))
+                sortedUtxos.add(utxo);
+
+        // Fake transaction funding the wallet to sweep.
+        final Map<Sha256Hash, Transaction> fakeTxns = new HashMap<>();
+        for (final UTXO utxo : sortedUtxos) {
+            Transaction fakeTx = fakeTxns.get(utxo.getHash());
+            if (fakeTx == null) {
+                fakeTx = new FakeTransaction(params, utxo.getHash());
+                fakeTx.getConfidence().setConfidenceType(ConfidenceType.BUILDING);
+                fakeTxns.put(fakeTx.getHash(), fakeTx);
+            }
+            final TransactionOutput fakeOutput = new TransactionOutput(params, fakeTx, utxo.getValue(),
+                    utxo.getScript().getProgram());
+            // Fill with output dummies as needed.
+            while (fakeTx.getOutputs().size() < utxo.getIndex())
+                fakeTx.addOutput(new TransactionOutput(params, fakeTx, Coin.NEGATIVE_SATOSHI, new byte[] {}));
+            // Add the actual output we will spend later.
+            fakeTx.addOutput(fakeOutput);
+        }
+
+        walletToSweep.clearTransactions(0);
+        for (final Transaction tx : fakeTxns.values())
+            walletToSweep.addWalletTransaction(new WalletTransaction(WalletTransaction.Pool.UNSPENT, tx));
+        log.info("built wallet to sweep from {} of {} UTXOs:\n{}", sortedUtxos.size(), utxos.size(),
+                walletToSweep.toString(false, true, false, null));
+    }
+
+    /**
+     * Splits the spendable outputs of the wallet to sweep into chunks of at most {@link #MAX_INPUTS_PER_TRANSACTION}.
+     */
+    static List<List<TransactionOutput>> chunks(final Wallet walletToSweep) {
+        final List<TransactionOutput> candidates = walletToSweep.calculateAllSpendCandidates(false, true);
+        return Lists.partition(candidates, MAX_INPUTS_PER_TRANSACTION);
+    }
+
+    /**
+     * Request emptying the given chunk of the wallet to sweep into the given address.
+     */
+    static SendRequest sendRequest(final Address to, final Coin feePerKb, final List<List<TransactionOutput>> chunks,
+            final int index) {
+        final SendRequest sendRequest = SendRequest.emptyWallet(to);
+        sendRequest.feePerKb = feePerKb;
+        if (chunks.size() > 1)
+            sendRequest.coinSelector = new OutputsCoinSelector(chunks.get(index));
+        return sendRequest;
+    }
+
+    /** Selects exactly the given outputs, as far as they are still spendable. */
+    private static class OutputsCoinSelector implements CoinSelector {
+        private final Set<TransactionOutput> outputs = Sets.newIdentityHashSet();
+
+        public OutputsCoinSelector(final Collection<TransactionOutput> outputs) {
+            this.outputs.addAll(outputs);
+        }
+
+        @Override
+        public CoinSelection select(final Coin target, final List<TransactionOutput> candidates) {
+            final List<TransactionOutput> gathered = new ArrayList<>(outputs.size());
+            Coin valueGathered = Coin.ZERO;
+            for (final TransactionOutput candidate : candidates) {
+                if (outputs.contains(candidate)) {
+                    gathered.add(candidate);
+                    valueGathered = valueGathered.add(candidate.getValue());
+                }
+            }
+            return new CoinSelection(valueGathered, gathered);
+        }
+    }
+
+    private static class FakeTransaction extends Transaction {
+        private final Sha256Hash hash;
+
+        public FakeTransaction(final NetworkParameters params, final Sha256Hash hash) {
+            super(params);
+            this.hash = hash;
+        }
+
+        @Override
+        public Sha256Hash getHash() {
+            return hash;
+        }
+    }
+}
@@ -0,0 +1,153 @@
+/*
+ * Copyright 2011-2015 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.ivan.fgwallet.schildbach.wallet.util;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Stopwatch;
+
+import com.ivan.fgwallet.schildbach.wallet.Constants;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+
+/**
+ * Application-wide pool for CPU-bound crypto work like scrypt key derivation and BIP38 decryption. It has one thread
+ * per core, so independent jobs run in parallel instead of queueing behind each other on a per-screen thread.
+ *
+ * Jobs are submitted through a {@link Scope}, which is tied to the lifecycle of a screen: cancelling the scope drops
+ * its queued jobs and swallows callbacks of jobs that are already running.
+ *
+ * @author Andreas, soos
+ */
+public final class CryptoExecutor {
+    private final ThreadPoolExecutor executor;
+
+    private static final Logger log = LoggerFactory.getLogger(CryptoExecutor.class);
+
+    public CryptoExecutor() {
+        final int numThreads = Runtime.getRuntime().availableProcessors();
+        executor = new ThreadPoolExecutor(numThreads, numThreads, 30, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                    private final AtomicInteger count = new AtomicInteger();
+
+                    @Override
+                    public Thread newThread(final Runnable r) {
+                        final Thread thread = new Thread(new Runnable() {
+                            @Override
+                            public void run() {
+                                Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                                org.bitcoinj.core.Context.propagate(Constants.CONTEXT);
+                                r.run();
+                            }
+                        }, "crypto-" + count.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+        executor.allowCoreThreadTimeOut(true);
+        log.info("crypto executor using {} threads", numThreads);
+    }
+
+    /**
+     * Creates a new scope. Callbacks of jobs submitted through it are delivered on the calling thread's looper.
+     */
+    public Scope newScope() {
+        return new Scope();
+    }
+
+    public final class Scope {
+        private final Handler callbackHandler = new Handler(Looper.myLooper());
+        private final Set<FutureTask<Void>> tasks = Collections
+                .newSetFromMap(new ConcurrentHashMap<FutureTask<Void>, Boolean>());
+        private volatile boolean cancelled = false;
+
+        private Scope() {
+        }
+
+        /**
+         * Runs the job on the pool. The time spent queueing and running is logged under the given name.
+         */
+        public void execute(final String name, final Runnable job) {
+            if (cancelled)
+                return;
+
+            final Stopwatch queued = Stopwatch.createStarted();
+            final FutureTask<Void> task = new FutureTask<Void>(new Runnable() {
+                @Override
+                public void run() {
+                    queued.stop();
+                    final Stopwatch running = Stopwatch.createStarted();
+                    try {
+                        job.run();
+                    } finally {
+                        log.info("{}: queued {}, ran {}{}", name, queued, running.stop(),
+                                cancelled ? " (cancelled)" : "");
+                    }
+                }
+            }, null) {
+                @Override
+                protected void done() {
+                    tasks.remove(this);
+                }
+            };
+            tasks.add(task);
+            executor.execute(task);
+        }
+
+        /**
+         * Posts the callback to the scope's looper, unless the scope has been cancelled by then.
+         */
+        public void post(final Runnable callback) {
+            callbackHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    if (!cancelled)
+                        callback.run();
+                }
+            });
+        }
+
+        /**
+         * Drops all queued jobs of this scope. Running jobs finish, as scrypt cannot be interrupted, but their
+         * callbacks are not delivered anymore.
+         */
+        public void cancel() {
+            cancelled = true;
+            for (final FutureTask<Void> task : tasks)
+                task.cancel(false);
+            callbackHandler.removeCallbacksAndMessages(null);
+        }
+
+        public boolean isCancelled() {
+            return cancelled;
+        }
+    }
+}
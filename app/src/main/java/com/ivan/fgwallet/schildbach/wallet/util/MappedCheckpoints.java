@@ -0,0 +1,133 @@
+/*
+ * Copyright 2011-2015 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.ivan.fgwallet.schildbach.wallet.util;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+import org.bitcoinj.core.Block;
+import org.bitcoinj.core.NetworkParameters;
+import org.bitcoinj.core.StoredBlock;
+import org.bitcoinj.store.BlockStore;
+import org.bitcoinj.store.BlockStoreException;
+
+import android.content.res.AssetFileDescriptor;
+import android.content.res.AssetManager;
+
+/**
+ * Reads the binary checkpoints produced by the {@code convertCheckpoints} build step: a magic, a record count and
+ * fixed-size compact {@link StoredBlock} records sorted by block time. The file is memory-mapped from the APK and
+ * binary-searched, so only the one record that is needed gets decoded.
+ *
+ * @author Andreas, soos
+ */
+public final class MappedCheckpoints {
+    private final NetworkParameters params;
+    private final ByteBuffer records;
+    private final int numRecords;
+
+    private static final int MAGIC = 0x43484b31; // "CHK1"
+    private static final int HEADER_SIZE = 4 + 4;
+    private static final int RECORD_SIZE = StoredBlock.COMPACT_SERIALIZED_SIZE;
+    private static final int TIME_OFFSET = 12 + 4 + 68; // chain work, height, then time within the block header
+
+    /** Mirrors {@link org.bitcoinj.core.CheckpointManager#checkpoint}. */
+    private static final long CHECKPOINT_MARGIN_SECS = 60 * 60 * 24 * 7;
+
+    private MappedCheckpoints(final NetworkParameters params, final ByteBuffer buffer) throws IOException {
+        this.params = params;
+        if (buffer.remaining() < HEADER_SIZE || buffer.getInt(0) != MAGIC)
+            throw new IOException("not a binary checkpoints file");
+        this.numRecords = buffer.getInt(4);
+        if (numRecords <= 0 || buffer.remaining() != HEADER_SIZE + (long) numRecords * RECORD_SIZE)
+            throw new IOException("bad binary checkpoints size: " + buffer.remaining());
+        buffer.position(HEADER_SIZE);
+        this.records = buffer.slice().order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    /**
+     * Maps the given asset. It must be stored uncompressed in the APK.
+     */
+    public static MappedCheckpoints open(final NetworkParameters params, final AssetManager assets,
+            final String filename) throws IOException {
+        final AssetFileDescriptor fd = assets.openFd(filename);
+        try {
+            final FileInputStream is = fd.createInputStream();
+            try {
+                final MappedByteBuffer buffer = is.getChannel().map(FileChannel.MapMode.READ_ONLY,
+                        fd.getStartOffset(), fd.getLength());
+                return new MappedCheckpoints(params, buffer);
+            } finally {
+                is.close();
+            }
+        } finally {
+            fd.close();
+        }
+    }
+
+    /**
+     * Reads binary checkpoints from the given buffer, for example a file mapped from outside of an APK.
+     */
+    public static MappedCheckpoints wrap(final NetworkParameters params, final ByteBuffer buffer) throws IOException {
+        return new MappedCheckpoints(params, buffer.duplicate());
+    }
+
+    /**
+     * Returns the last checkpoint with a block time at or before the given time, or the genesis block.
+     */
+    public StoredBlock getCheckpointBefore(final long timeSecs) {
+        int lo = 0, hi = numRecords - 1, found = -1;
+        while (lo <= hi) {
+            final int mid = (lo + hi) >>> 1;
+            if (timeAt(mid) <= timeSecs) {
+                found = mid;
+                lo = mid + 1;
+            } else {
+                hi = mid - 1;
+            }
+        }
+
+        if (found == -1) {
+            final Block genesis = params.getGenesisBlock().cloneAsHeader();
+            return new StoredBlock(genesis, genesis.getWork(), 0);
+        }
+
+        final ByteBuffer record = records.duplicate();
+        record.position(found * RECORD_SIZE);
+        record.limit(record.position() + RECORD_SIZE);
+        return StoredBlock.deserializeCompact(params, record.slice().order(ByteOrder.BIG_ENDIAN));
+    }
+
+    /**
+     * Initializes an empty block store with the checkpoint a week before the given time, like
+     * {@link org.bitcoinj.core.CheckpointManager#checkpoint} does.
+     */
+    public void checkpoint(final BlockStore store, final long timeSecs) throws BlockStoreException {
+        final StoredBlock checkpoint = getCheckpointBefore(timeSecs - CHECKPOINT_MARGIN_SECS);
+        store.put(checkpoint);
+        store.setChainHead(checkpoint);
+    }
+
+    private long timeAt(final int index) {
+        return records.getInt(index * RECORD_SIZE + TIME_OFFSET) & 0xffffffffL;
+    }
+}
@@ -85,7 +85,7 @@ public class Qr {
 
             final StringBuilder str = new StringBuilder();
             str.append(useCompressioon ? 'Z' : '-');
-            str.append(Base43.encode(useCompressioon ? gzippedBytes : bytes));
+            Base43.encode(useCompressioon ? gzippedBytes : bytes, str);
 
             return str.toString();
         } catch (final IOException x) {
@@ -99,7 +99,7 @@ public class Qr {
 
     public static byte[] decodeDecompressBinary(final String content) throws IOException {
         final boolean useCompression = content.charAt(0) == 'Z';
-        final byte[] bytes = Base43.decode(content.substring(1));
+        final byte[] bytes = Base43.decode(content, 1);
 
         InputStream is = new ByteArrayInputStream(bytes);
         if (useCompression)
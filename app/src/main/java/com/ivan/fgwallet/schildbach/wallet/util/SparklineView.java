@@ -0,0 +1,118 @@
+/*
+ * Copyright 2011-2015 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.ivan.fgwallet.schildbach.wallet.util;
+
+import android.content.Context;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.graphics.Paint.Style;
+import android.graphics.Path;
+import android.util.AttributeSet;
+import android.view.View;
+
+/**
+ * Tiny line chart of the most recent values of a metric, with a label and the latest value in the corner.
+ *
+ * @author Andreas, soos
+ */
+public class SparklineView extends View {
+    private float[] values = new float[0];
+    private int capacity = 1;
+    private String label = "";
+    private String latest = "";
+    private final Path path = new Path();
+    private final Paint linePaint = new Paint();
+    private final Paint textPaint = new Paint();
+
+    public SparklineView(final Context context, final AttributeSet attrs) {
+        super(context, attrs);
+
+        final float density = getResources().getDisplayMetrics().density;
+
+        linePaint.setStyle(Style.STROKE);
+        linePaint.setColor(Color.parseColor("#009688"));
+        linePaint.setStrokeWidth(1.5f * density);
+        linePaint.setAntiAlias(true);
+
+        textPaint.setColor(Color.DKGRAY);
+        textPaint.setTextSize(10 * density);
+        textPaint.setAntiAlias(true);
+    }
+
+    /**
+     * @param values
+     *            oldest first
+     * @param capacity
+     *            number of values that fill the whole width
+     */
+    public void setValues(final float[] values, final int capacity, final String label, final String latest) {
+        this.values = values;
+        this.capacity = Math.max(capacity, 2);
+        this.label = label;
+        this.latest = latest;
+
+        updatePath(getWidth(), getHeight());
+        invalidate();
+    }
+
+    @Override
+    protected void onSizeChanged(final int w, final int h, final int oldw, final int oldh) {
+        super.onSizeChanged(w, h, oldw, oldh);
+
+        updatePath(w, h);
+    }
+
+    @Override
+    protected void onDraw(final Canvas canvas) {
+        super.onDraw(canvas);
+
+        canvas.drawPath(path, linePaint);
+        final float baseline = -textPaint.ascent();
+        canvas.drawText(label, getPaddingLeft(), getPaddingTop() + baseline, textPaint);
+        canvas.drawText(latest, getWidth() - getPaddingRight() - textPaint.measureText(latest),
+                getPaddingTop() + baseline, textPaint);
+    }
+
+    private void updatePath(final int width, final int height) {
+        path.reset();
+        if (values.length == 0 || width == 0 || height == 0)
+            return;
+
+        float max = 0;
+        for (final float value : values)
+            max = Math.max(max, value);
+        if (max <= 0)
+            max = 1;
+
+        final float top = getPaddingTop() - textPaint.ascent() + textPaint.descent();
+        final float bottom = height - getPaddingBottom() - linePaint.getStrokeWidth();
+        final float left = getPaddingLeft();
+        final float step = (float) (width - getPaddingLeft() - getPaddingRight()) / (capacity - 1);
+        final float start = left + (capacity - values.length) * step;
+
+        for (int i = 0; i < values.length; i++) {
+            final float x = start + i * step;
+            final float y = bottom - (bottom - top) * values[i] / max;
+            if (i == 0)
+                path.moveTo(x, y);
+            else
+                path.lineTo(x, y);
+        }
+    }
+}
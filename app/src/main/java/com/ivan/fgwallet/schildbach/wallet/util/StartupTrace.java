@@ -0,0 +1,73 @@
+/*
+ * Copyright 2011-2015 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.ivan.fgwallet.schildbach.wallet.util;
+
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Joiner;
+import com.google.common.base.Stopwatch;
+
+/**
+ * Records the phases of application startup. Each phase is logged with its duration and its offset from the start
+ * of the trace, and {@link #summarize()} logs all of them on one line. Phases may run on different threads.
+ *
+ * @author Andreas, soos
+ */
+public final class StartupTrace {
+    private final Stopwatch sinceStart = Stopwatch.createStarted();
+    private final List<String> entries = new LinkedList<String>();
+
+    private static final Logger log = LoggerFactory.getLogger(StartupTrace.class);
+
+    public Phase begin(final String name) {
+        return new Phase(name);
+    }
+
+    public void summarize() {
+        final String summary;
+        synchronized (entries) {
+            summary = Joiner.on(", ").join(entries);
+        }
+        log.info("startup trace: {}", summary);
+    }
+
+    public final class Phase {
+        private final String name;
+        private final long startedAtMs;
+        private final Stopwatch watch = Stopwatch.createStarted();
+
+        private Phase(final String name) {
+            this.name = name;
+            this.startedAtMs = sinceStart.elapsed(TimeUnit.MILLISECONDS);
+        }
+
+        public void end() {
+            watch.stop();
+            log.info("startup phase '{}' on {}: started at {} ms, took {}", name, Thread.currentThread().getName(),
+                    startedAtMs, watch);
+            synchronized (entries) {
+                entries.add(name + " @" + startedAtMs + "ms +" + watch.elapsed(TimeUnit.MILLISECONDS) + "ms");
+            }
+        }
+    }
+}
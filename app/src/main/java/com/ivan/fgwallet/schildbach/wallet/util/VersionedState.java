@@ -0,0 +1,133 @@
+/*
+ * Copyright 2011-2015 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.ivan.fgwallet.schildbach.wallet.util;
+
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import javax.annotation.Nullable;
+
+import android.os.Handler;
+import android.os.Looper;
+
+/**
+ * Holds the latest value of some in-process state, for example published by a service, together with a version that
+ * increases with every update. Publishing never blocks. Subscribers are called on their own handler and always see
+ * the latest snapshot; if they fall behind, intermediate snapshots are skipped rather than queued.
+ *
+ * @author Andreas, soos
+ */
+public final class VersionedState<T> {
+    private final AtomicReference<Snapshot<T>> current = new AtomicReference<Snapshot<T>>(new Snapshot<T>(0, null));
+    private final CopyOnWriteArrayList<Subscription<T>> subscriptions = new CopyOnWriteArrayList<Subscription<T>>();
+
+    public static final class Snapshot<T> {
+        public final long version;
+        @Nullable
+        public final T value;
+
+        private Snapshot(final long version, @Nullable final T value) {
+            this.version = version;
+            this.value = value;
+        }
+
+        @Override
+        public String toString() {
+            return "v" + version + ":" + value;
+        }
+    }
+
+    public interface Listener<T> {
+        void onStateChanged(Snapshot<T> snapshot);
+    }
+
+    private static final class Subscription<T> implements Runnable {
+        private final VersionedState<T> state;
+        private final Listener<T> listener;
+        private final Handler handler;
+        private final AtomicBoolean scheduled = new AtomicBoolean(false);
+        private volatile boolean active = true;
+        private long deliveredVersion = 0; // only touched on the handler thread
+
+        private Subscription(final VersionedState<T> state, final Listener<T> listener, final Handler handler) {
+            this.state = state;
+            this.listener = listener;
+            this.handler = handler;
+        }
+
+        private void signal() {
+            if (active && scheduled.compareAndSet(false, true))
+                handler.post(this);
+        }
+
+        @Override
+        public void run() {
+            scheduled.set(false);
+            if (!active)
+                return;
+
+            final Snapshot<T> snapshot = state.current.get();
+            if (snapshot.version > deliveredVersion) {
+                deliveredVersion = snapshot.version;
+                listener.onStateChanged(snapshot);
+            }
+        }
+    }
+
+    /**
+     * Returns the latest snapshot. Its version is 0 and its value {@code null} if nothing was published yet.
+     */
+    public Snapshot<T> get() {
+        return current.get();
+    }
+
+    public void publish(final T value) {
+        Snapshot<T> previous;
+        do {
+            previous = current.get();
+        } while (!current.compareAndSet(previous, new Snapshot<T>(previous.version + 1, value)));
+
+        for (final Subscription<T> subscription : subscriptions)
+            subscription.signal();
+    }
+
+    /**
+     * Subscribes on the main thread. The latest snapshot, if any, is delivered right away.
+     */
+    public void subscribe(final Listener<T> listener) {
+        subscribe(listener, new Handler(Looper.getMainLooper()));
+    }
+
+    public void subscribe(final Listener<T> listener, final Handler handler) {
+        final Subscription<T> subscription = new Subscription<T>(this, listener, handler);
+        subscriptions.add(subscription);
+        if (current.get().version > 0)
+            subscription.signal();
+    }
+
+    public void unsubscribe(final Listener<T> listener) {
+        for (final Subscription<T> subscription : subscriptions) {
+            if (subscription.listener == listener) {
+                subscription.active = false;
+                subscription.handler.removeCallbacks(subscription);
+                subscriptions.remove(subscription);
+            }
+        }
+    }
+}
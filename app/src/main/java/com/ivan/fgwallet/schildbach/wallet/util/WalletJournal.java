@@ -0,0 +1,691 @@
+/*
+ * Copyright 2011-2015 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.ivan.fgwallet.schildbach.wallet.util;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.zip.CRC32;
+
+import javax.annotation.Nullable;
+
+import org.bitcoinj.core.ECKey;
+import org.bitcoinj.core.NetworkParameters;
+import org.bitcoinj.core.Sha256Hash;
+import org.bitcoinj.utils.Threading;
+import org.bitcoinj.wallet.Protos;
+import org.bitcoinj.wallet.UnreadableWalletException;
+import org.bitcoinj.wallet.Wallet;
+import org.bitcoinj.wallet.WalletExtension;
+import org.bitcoinj.wallet.WalletProtobufSerializer;
+import org.bitcoinj.wallet.listeners.KeyChainEventListener;
+import org.bitcoinj.wallet.listeners.WalletChangeEventListener;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Stopwatch;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hashing;
+import com.google.protobuf.ByteString;
+
+import com.ivan.fgwallet.schildbach.wallet.Constants;
+
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.Process;
+
+/**
+ * Persists a wallet as a full protobuf snapshot plus an append-only journal of changes, instead of rewriting the
+ * whole snapshot after every change like {@link Wallet#autosaveToFile} does.
+ *
+ * <p>
+ * Each journal record carries the current state of one transaction, a transaction removal or the last seen block.
+ * Records are tagged with the generation of the snapshot they apply to, which is stored in the snapshot as a wallet
+ * extension. Compaction writes a new snapshot with the next generation, which makes all existing records obsolete
+ * in one atomic rename, and only then truncates the journal. A torn record at the end of the journal (e.g. after a
+ * crash) is detected by its checksum and cut off on load.
+ * </p>
+ *
+ * <p>
+ * Changes are found by serializing the wallet under its lock with {@link WalletProtobufSerializer} and comparing
+ * each transaction to what has been persisted. This still costs CPU in proportion to the wallet size, but no disk
+ * writes. Depth changes of building transactions are not journaled, they are derived from the last seen block on
+ * load. Changes to the keychain, like key issuance or encryption, cannot be expressed as records and trigger a
+ * compaction. The journal is compacted as well once it grows beyond half the size of the snapshot. If writing a
+ * record fails, the journal is closed and the next flush compacts.
+ * </p>
+ *
+ * @author Andreas, soos
+ */
+public final class WalletJournal {
+    private final Wallet wallet;
+    private final File walletFile;
+    private final File journalFile;
+    private final long flushDelayMs;
+    private final GenerationExtension generation;
+
+    private final HandlerThread thread;
+    private final Handler handler;
+    private final AtomicBoolean flushPending = new AtomicBoolean();
+    @Nullable
+    private volatile SaveListener saveListener;
+
+    // only accessed on the journal thread
+    private final Map<Sha256Hash, HashCode> txFingerprints = new HashMap<Sha256Hash, HashCode>();
+    @Nullable
+    private Sha256Hash lastSeenBlockHash;
+    @Nullable
+    private HashCode walletFingerprint;
+    @Nullable
+    private DataOutputStream journalOut;
+    private FileOutputStream journalFileOut;
+    private long journalLength;
+
+    private static final byte RECORD_TRANSACTION = 1;
+    private static final byte RECORD_REMOVE_TRANSACTION = 2;
+    private static final byte RECORD_LAST_SEEN_BLOCK = 3;
+
+    private static final long COMPACT_MIN_BYTES = 256 * 1024;
+
+    private static final String EXTENSION_ID = WalletJournal.class.getName();
+
+    private static final Logger log = LoggerFactory.getLogger(WalletJournal.class);
+
+    public interface SaveListener {
+        /**
+         * Called on the journal thread after records were written, or after a full snapshot if {@code compaction}.
+         */
+        void onWalletSaved(boolean compaction, long durationMs);
+    }
+
+    /**
+     * Reads the snapshot and replays all journal records that belong to it. Use this to load wallets that will be
+     * attached to a journal, otherwise attaching will start with a compaction.
+     */
+    public static Wallet loadWallet(final File walletFile, final File journalFile)
+            throws IOException, UnreadableWalletException {
+        final Stopwatch watch = Stopwatch.createStarted();
+
+        final Protos.Wallet snapshot;
+        final InputStream is = new FileInputStream(walletFile);
+        try {
+            snapshot = WalletProtobufSerializer.parseToProto(is);
+        } finally {
+            is.close();
+        }
+
+        final NetworkParameters params = NetworkParameters.fromID(snapshot.getNetworkIdentifier());
+        if (params == null)
+            throw new UnreadableWalletException("unknown network parameters ID " + snapshot.getNetworkIdentifier());
+
+        final long snapshotGeneration = generationOf(snapshot);
+        final Protos.Wallet.Builder builder = snapshot.toBuilder();
+        final int numReplayed = replay(journalFile, snapshotGeneration, builder);
+        updateDepths(builder);
+
+        final GenerationExtension extension = new GenerationExtension(snapshotGeneration);
+        final Wallet wallet = new WalletProtobufSerializer().readWallet(params,
+                new WalletExtension[] { extension }, builder.build());
+
+        watch.stop();
+        log.info("loaded snapshot generation {} plus {} journal records, took {}", snapshotGeneration, numReplayed,
+                watch);
+        return wallet;
+    }
+
+    /**
+     * Starts journaling changes of the given wallet. If the wallet was not loaded by
+     * {@link #loadWallet(File, File)}, a snapshot is written right away.
+     */
+    public WalletJournal(final Wallet wallet, final File walletFile, final File journalFile, final long flushDelayMs) {
+        this.wallet = wallet;
+        this.walletFile = walletFile;
+        this.journalFile = journalFile;
+        this.flushDelayMs = flushDelayMs;
+
+        final WalletExtension existing = wallet.getExtensions().get(EXTENSION_ID);
+        final boolean loadedFromSnapshot = existing instanceof GenerationExtension;
+        if (loadedFromSnapshot) {
+            this.generation = (GenerationExtension) existing;
+        } else {
+            this.generation = new GenerationExtension(readGeneration(walletFile));
+            wallet.addOrGetExistingExtension(generation);
+        }
+
+        this.thread = new HandlerThread("wallet-journal", Process.THREAD_PRIORITY_BACKGROUND);
+        this.thread.start();
+        this.handler = new Handler(thread.getLooper());
+
+        handler.post(new Runnable() {
+            @Override
+            public void run() {
+                org.bitcoinj.core.Context.propagate(Constants.CONTEXT);
+                try {
+                    if (loadedFromSnapshot) {
+                        updateFingerprints(parse(serialize()));
+                        openJournal(true);
+                    } else {
+                        compact();
+                    }
+                } catch (final IOException x) {
+                    log.error("problem opening wallet journal", x);
+                }
+            }
+        });
+
+        wallet.addChangeEventListener(Threading.SAME_THREAD, walletChangeListener);
+        wallet.addKeyChainEventListener(Threading.SAME_THREAD, keyChainListener);
+    }
+
+    public Wallet getWallet() {
+        return wallet;
+    }
+
+    public void setSaveListener(@Nullable final SaveListener saveListener) {
+        this.saveListener = saveListener;
+    }
+
+    /**
+     * Journals all pending changes and waits for them to hit the disk. Compacts if needed.
+     */
+    public void saveNow() throws IOException {
+        runAndWait(new Callable<Void>() {
+            @Override
+            public Void call() throws IOException {
+                flushPending.set(false);
+                flush();
+                return null;
+            }
+        });
+    }
+
+    /**
+     * Writes a full snapshot and waits for it to hit the disk.
+     */
+    public void compactNow() throws IOException {
+        runAndWait(new Callable<Void>() {
+            @Override
+            public Void call() throws IOException {
+                compact();
+                return null;
+            }
+        });
+    }
+
+    /**
+     * Stops journaling after writing out pending changes. The wallet isn't persisted anymore after this.
+     */
+    public void shutdownAndWait() {
+        wallet.removeChangeEventListener(walletChangeListener);
+        wallet.removeKeyChainEventListener(keyChainListener);
+
+        try {
+            saveNow();
+        } catch (final IOException x) {
+            log.error("problem flushing wallet journal on shutdown", x);
+        }
+
+        handler.post(new Runnable() {
+            @Override
+            public void run() {
+                closeJournal();
+            }
+        });
+        thread.quitSafely();
+        try {
+            thread.join();
+        } catch (final InterruptedException x) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void runAndWait(final Callable<Void> callable) throws IOException {
+        final FutureTask<Void> task = new FutureTask<Void>(callable);
+        if (Looper.myLooper() == thread.getLooper())
+            task.run();
+        else if (!handler.post(task))
+            throw new IOException("wallet journal already shut down");
+
+        try {
+            task.get();
+        } catch (final InterruptedException x) {
+            Thread.currentThread().interrupt();
+            throw new IOException(x);
+        } catch (final ExecutionException x) {
+            final Throwable cause = x.getCause();
+            if (cause instanceof IOException)
+                throw (IOException) cause;
+            if (cause instanceof RuntimeException)
+                throw (RuntimeException) cause;
+            throw new RuntimeException(cause);
+        }
+    }
+
+    private void flushLater() {
+        if (!flushPending.getAndSet(true))
+            handler.postDelayed(flushRunnable, flushDelayMs);
+    }
+
+    private final Runnable flushRunnable = new Runnable() {
+        @Override
+        public void run() {
+            org.bitcoinj.core.Context.propagate(Constants.CONTEXT);
+            flushPending.set(false);
+            try {
+                flush();
+            } catch (final IOException x) {
+                log.error("problem writing wallet journal", x);
+            }
+        }
+    };
+
+    private void flush() throws IOException {
+        if (journalOut == null) {
+            compact();
+            return;
+        }
+
+        final Stopwatch watch = Stopwatch.createStarted();
+        final Protos.Wallet snapshot = parse(serialize());
+        if (!walletFingerprint(snapshot).equals(walletFingerprint)) {
+            // keychain changes and the like can't be expressed as records
+            compact();
+            return;
+        }
+
+        // Fingerprints are only taken over once the records hit the disk, so that nothing is considered persisted
+        // that might not be.
+        final Map<Sha256Hash, HashCode> fingerprints = new HashMap<Sha256Hash, HashCode>(
+                snapshot.getTransactionCount());
+        final Set<Sha256Hash> removed = new HashSet<Sha256Hash>(txFingerprints.keySet());
+        final Sha256Hash blockHash = snapshot.hasLastSeenBlockHash()
+                ? WalletProtobufSerializer.byteStringToHash(snapshot.getLastSeenBlockHash()) : null;
+        int numRecords = 0;
+        try {
+            for (final Protos.Transaction tx : snapshot.getTransactionList()) {
+                final Sha256Hash hash = WalletProtobufSerializer.byteStringToHash(tx.getHash());
+                removed.remove(hash);
+                final HashCode fingerprint = fingerprint(tx);
+                fingerprints.put(hash, fingerprint);
+                if (!fingerprint.equals(txFingerprints.get(hash))) {
+                    writeRecord(RECORD_TRANSACTION, tx.toByteArray());
+                    numRecords++;
+                }
+            }
+            for (final Sha256Hash hash : removed) {
+                writeRecord(RECORD_REMOVE_TRANSACTION, hash.getBytes());
+                numRecords++;
+            }
+            if (blockHash != null && !blockHash.equals(lastSeenBlockHash)) {
+                final ByteBuffer block = ByteBuffer.allocate(32 + 4 + 8);
+                block.put(blockHash.getBytes());
+                block.putInt(snapshot.getLastSeenBlockHeight());
+                block.putLong(snapshot.getLastSeenBlockTimeSecs());
+                writeRecord(RECORD_LAST_SEEN_BLOCK, block.array());
+                numRecords++;
+            }
+
+            if (numRecords == 0)
+                return;
+
+            journalOut.flush();
+            journalFileOut.getFD().sync();
+        } catch (final IOException x) {
+            // A partial record may have been written. Anything appended behind it would be lost on replay, so the
+            // next flush compacts instead.
+            closeJournal();
+            throw x;
+        }
+
+        txFingerprints.clear();
+        txFingerprints.putAll(fingerprints);
+        if (blockHash != null)
+            lastSeenBlockHash = blockHash;
+
+        watch.stop();
+        log.info("journaled {} wallet records, took {}", numRecords, watch);
+        notifySaved(false, watch);
+
+        if (journalLength > Math.max(COMPACT_MIN_BYTES, walletFile.length() / 2))
+            compact();
+    }
+
+    private void compact() throws IOException {
+        final Stopwatch watch = Stopwatch.createStarted();
+
+        closeJournal();
+        generation.value++; // goes into the snapshot
+        final byte[] snapshot = serialize();
+        writeSnapshot(snapshot); // atomic, obsoletes all records of the previous generation
+        updateFingerprints(parse(snapshot));
+        openJournal(false);
+
+        watch.stop();
+        log.info("wallet compacted to '{}' (generation {}), took {}", walletFile, generation.value, watch);
+        notifySaved(true, watch);
+    }
+
+    private void notifySaved(final boolean compaction, final Stopwatch watch) {
+        final SaveListener listener = saveListener;
+        if (listener != null)
+            listener.onWalletSaved(compaction, watch.elapsed(TimeUnit.MILLISECONDS));
+    }
+
+    /**
+     * Serializes the wallet while holding its lock, so that all transactions are captured in a consistent state.
+     */
+    private byte[] serialize() throws IOException {
+        final ByteArrayOutputStream os = new ByteArrayOutputStream((int) walletFile.length() + 4096);
+        wallet.saveToFileStream(os);
+        return os.toByteArray();
+    }
+
+    private static Protos.Wallet parse(final byte[] snapshot) throws IOException {
+        return WalletProtobufSerializer.parseToProto(new ByteArrayInputStream(snapshot));
+    }
+
+    private void writeSnapshot(final byte[] snapshot) throws IOException {
+        final File tempFile = File.createTempFile("wallet", null, walletFile.getParentFile());
+        try {
+            final FileOutputStream os = new FileOutputStream(tempFile);
+            try {
+                os.write(snapshot);
+                os.flush();
+                os.getFD().sync();
+            } finally {
+                os.close();
+            }
+            if (!tempFile.renameTo(walletFile))
+                throw new IOException("cannot rename " + tempFile + " to " + walletFile);
+        } finally {
+            if (tempFile.exists())
+                tempFile.delete();
+        }
+    }
+
+    private void updateFingerprints(final Protos.Wallet snapshot) {
+        txFingerprints.clear();
+        for (final Protos.Transaction tx : snapshot.getTransactionList())
+            txFingerprints.put(WalletProtobufSerializer.byteStringToHash(tx.getHash()), fingerprint(tx));
+        lastSeenBlockHash = snapshot.hasLastSeenBlockHash()
+                ? WalletProtobufSerializer.byteStringToHash(snapshot.getLastSeenBlockHash()) : null;
+        walletFingerprint = walletFingerprint(snapshot);
+    }
+
+    private void openJournal(final boolean append) throws IOException {
+        journalFileOut = new FileOutputStream(journalFile, append);
+        journalOut = new DataOutputStream(new BufferedOutputStream(journalFileOut));
+        journalLength = append ? journalFile.length() : 0;
+    }
+
+    private void closeJournal() {
+        if (journalOut == null)
+            return;
+
+        try {
+            journalOut.close();
+        } catch (final IOException x) {
+            // swallow
+        }
+        journalOut = null;
+    }
+
+    private void writeRecord(final byte type, final byte[] payload) throws IOException {
+        final long recordGeneration = generation.value;
+        journalOut.writeInt(payload.length);
+        journalOut.writeLong(recordGeneration);
+        journalOut.writeByte(type);
+        journalOut.write(payload);
+        journalOut.writeInt(checksum(recordGeneration, type, payload));
+        journalLength += 4 + 8 + 1 + payload.length + 4;
+    }
+
+    private static int checksum(final long recordGeneration, final byte type, final byte[] payload) {
+        final CRC32 crc = new CRC32();
+        crc.update(ByteBuffer.allocate(8 + 1).putLong(recordGeneration).put(type).array());
+        crc.update(payload);
+        return (int) crc.getValue();
+    }
+
+    /**
+     * Applies all intact records of the given generation to the snapshot. Cuts off a torn tail.
+     */
+    private static int replay(final File journalFile, final long snapshotGeneration,
+            final Protos.Wallet.Builder builder) throws IOException {
+        if (!journalFile.exists())
+            return 0;
+
+        final Map<ByteString, Integer> txIndex = new HashMap<ByteString, Integer>();
+        for (int i = 0; i < builder.getTransactionCount(); i++)
+            txIndex.put(builder.getTransaction(i).getHash(), i);
+        final Set<ByteString> removed = new HashSet<ByteString>();
+
+        int numReplayed = 0;
+        long validLength = 0;
+        final DataInputStream is = new DataInputStream(new BufferedInputStream(new FileInputStream(journalFile)));
+        try {
+            while (true) {
+                final int length;
+                try {
+                    length = is.readInt();
+                } catch (final EOFException x) {
+                    break;
+                }
+
+                final byte[] payload;
+                final long recordGeneration;
+                final byte type;
+                try {
+                    if (length < 0 || validLength + length > journalFile.length())
+                        throw new EOFException("bad record length: " + length);
+                    recordGeneration = is.readLong();
+                    type = is.readByte();
+                    payload = new byte[length];
+                    is.readFully(payload);
+                    if (is.readInt() != checksum(recordGeneration, type, payload))
+                        throw new EOFException("checksum mismatch");
+                } catch (final EOFException x) {
+                    log.warn("cutting off torn wallet journal at {} of {} bytes: {}", validLength,
+                            journalFile.length(), x.getMessage());
+                    break;
+                }
+                validLength += 4 + 8 + 1 + length + 4;
+
+                if (recordGeneration != snapshotGeneration)
+                    continue;
+
+                if (type == RECORD_TRANSACTION) {
+                    final Protos.Transaction tx = Protos.Transaction.parseFrom(payload);
+                    final Integer index = txIndex.get(tx.getHash());
+                    if (index != null) {
+                        builder.setTransaction(index, tx);
+                    } else {
+                        txIndex.put(tx.getHash(), builder.getTransactionCount());
+                        builder.addTransaction(tx);
+                    }
+                    removed.remove(tx.getHash());
+                } else if (type == RECORD_REMOVE_TRANSACTION) {
+                    removed.add(ByteString.copyFrom(payload));
+                } else if (type == RECORD_LAST_SEEN_BLOCK) {
+                    final ByteBuffer block = ByteBuffer.wrap(payload);
+                    final byte[] hash = new byte[32];
+                    block.get(hash);
+                    builder.setLastSeenBlockHash(ByteString.copyFrom(hash));
+                    builder.setLastSeenBlockHeight(block.getInt());
+                    builder.setLastSeenBlockTimeSecs(block.getLong());
+                } else {
+                    throw new IOException("unknown wallet journal record type: " + type);
+                }
+                numReplayed++;
+            }
+        } finally {
+            is.close();
+        }
+
+        if (!removed.isEmpty()) {
+            final List<Protos.Transaction> transactions = builder.getTransactionList();
+            builder.clearTransaction();
+            for (final Protos.Transaction tx : transactions)
+                if (!removed.contains(tx.getHash()))
+                    builder.addTransaction(tx);
+        }
+
+        if (validLength < journalFile.length()) {
+            final RandomAccessFile file = new RandomAccessFile(journalFile, "rw");
+            try {
+                file.setLength(validLength);
+            } finally {
+                file.close();
+            }
+        }
+
+        return numReplayed;
+    }
+
+    /**
+     * Derives the depth of building transactions from the last seen block, as depth changes aren't journaled.
+     */
+    private static void updateDepths(final Protos.Wallet.Builder builder) {
+        if (!builder.hasLastSeenBlockHeight())
+            return;
+        final int lastSeenHeight = builder.getLastSeenBlockHeight();
+
+        for (int i = 0; i < builder.getTransactionCount(); i++) {
+            final Protos.Transaction tx = builder.getTransaction(i);
+            if (!tx.hasConfidence())
+                continue;
+            final Protos.TransactionConfidence confidence = tx.getConfidence();
+            if (confidence.getType() == Protos.TransactionConfidence.Type.BUILDING
+                    && confidence.hasAppearedAtHeight() && lastSeenHeight >= confidence.getAppearedAtHeight()) {
+                final int depth = lastSeenHeight - confidence.getAppearedAtHeight() + 1;
+                if (confidence.getDepth() != depth)
+                    builder.setTransaction(i,
+                            tx.toBuilder().setConfidence(confidence.toBuilder().setDepth(depth)).build());
+            }
+        }
+    }
+
+    private static long generationOf(final Protos.Wallet snapshot) {
+        for (final Protos.Extension extension : snapshot.getExtensionList())
+            if (EXTENSION_ID.equals(extension.getId()))
+                return ByteBuffer.wrap(extension.getData().toByteArray()).getLong();
+        return 0;
+    }
+
+    private static long readGeneration(final File walletFile) {
+        if (!walletFile.exists())
+            return 0;
+
+        try {
+            final InputStream is = new FileInputStream(walletFile);
+            try {
+                return generationOf(WalletProtobufSerializer.parseToProto(is));
+            } finally {
+                is.close();
+            }
+        } catch (final IOException x) {
+            return 0;
+        }
+    }
+
+    /**
+     * Changes whenever something about the transaction changes that is persisted, except for its depth.
+     */
+    private static HashCode fingerprint(final Protos.Transaction tx) {
+        final Protos.Transaction withoutDepth = tx.hasConfidence() && tx.getConfidence().hasDepth()
+                ? tx.toBuilder().setConfidence(tx.getConfidence().toBuilder().clearDepth()).build() : tx;
+        return Hashing.murmur3_128().hashBytes(withoutDepth.toByteArray());
+    }
+
+    /**
+     * Changes whenever something besides transactions and the last seen block changes, like the keychain. These
+     * changes need a compaction.
+     */
+    private static HashCode walletFingerprint(final Protos.Wallet snapshot) {
+        final Protos.Wallet rest = snapshot.toBuilder().clearTransaction().clearLastSeenBlockHash()
+                .clearLastSeenBlockHeight().clearLastSeenBlockTimeSecs().build();
+        return Hashing.murmur3_128().hashBytes(rest.toByteArray());
+    }
+
+    private final WalletChangeEventListener walletChangeListener = new WalletChangeEventListener() {
+        @Override
+        public void onWalletChanged(final Wallet wallet) {
+            flushLater();
+        }
+    };
+
+    private final KeyChainEventListener keyChainListener = new KeyChainEventListener() {
+        @Override
+        public void onKeysAdded(final List<ECKey> keys) {
+            flushLater();
+        }
+    };
+
+    /**
+     * Stores the snapshot generation in the wallet file.
+     */
+    private static final class GenerationExtension implements WalletExtension {
+        private volatile long value;
+
+        public GenerationExtension(final long value) {
+            this.value = value;
+        }
+
+        @Override
+        public String getWalletExtensionID() {
+            return EXTENSION_ID;
+        }
+
+        @Override
+        public boolean isWalletExtensionMandatory() {
+            return false;
+        }
+
+        @Override
+        public byte[] serializeWalletExtension() {
+            return ByteBuffer.allocate(8).putLong(value).array();
+        }
+
+        @Override
+        public void deserializeWalletExtension(final Wallet containingWallet, final byte[] data) {
+            value = ByteBuffer.wrap(data).getLong();
+        }
+    }
+}
@@ -0,0 +1,147 @@
+/*
+ * Copyright 2011-2015 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.ivan.fgwallet.schildbach.wallet.util;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.Date;
+import java.util.Map;
+
+import org.bitcoinj.core.ECKey;
+import org.bitcoinj.core.Sha256Hash;
+import org.bitcoinj.crypto.DeterministicKey;
+import org.bitcoinj.crypto.KeyCrypter;
+import org.bitcoinj.crypto.KeyCrypterScrypt;
+import org.bitcoinj.script.Script;
+import org.bitcoinj.signers.LocalTransactionSigner;
+import org.bitcoinj.signers.TransactionSigner;
+import org.bitcoinj.wallet.DeterministicKeyChain;
+import org.bitcoinj.wallet.Protos;
+import org.bitcoinj.wallet.Wallet;
+import org.bitcoinj.wallet.WalletExtension;
+
+import com.google.protobuf.ByteString;
+
+/**
+ * Writes the automatic key backup. Unlike {@link org.bitcoinj.wallet.WalletProtobufSerializer#walletToProto(Wallet)},
+ * transactions are never serialized, only the keychain and the wallet metadata that goes with it.
+ *
+ * @author Andreas, soos
+ */
+public final class WalletKeyBackup {
+    private WalletKeyBackup() {
+    }
+
+    /**
+     * Writes the wallet without transactions, in the same format the serializer uses.
+     */
+    public static void writeTo(final Wallet wallet, final OutputStream os) throws IOException {
+        final Protos.Wallet.Builder builder = Protos.Wallet.newBuilder();
+        builder.setNetworkIdentifier(wallet.getNetworkParameters().getId());
+        if (wallet.getDescription() != null)
+            builder.setDescription(wallet.getDescription());
+        builder.addAllKey(wallet.serializeKeyChainGroupToProtobuf());
+        for (final Script script : wallet.getWatchedScripts())
+            builder.addWatchedScript(Protos.Script.newBuilder().setProgram(ByteString.copyFrom(script.getProgram()))
+                    .setCreationTimestamp(script.getCreationTimeSeconds() * 1000));
+        builder.setLastSeenBlockHeight(-1);
+
+        final KeyCrypter keyCrypter = wallet.getKeyCrypter();
+        if (keyCrypter == null) {
+            builder.setEncryptionType(Protos.Wallet.EncryptionType.UNENCRYPTED);
+        } else if (keyCrypter instanceof KeyCrypterScrypt) {
+            builder.setEncryptionType(keyCrypter.getUnderstoodEncryptionType());
+            builder.setEncryptionParameters(((KeyCrypterScrypt) keyCrypter).getScryptParameters());
+        } else {
+            throw new IOException("cannot back up encryption type " + keyCrypter.getUnderstoodEncryptionType());
+        }
+
+        final Date keyRotationTime = wallet.getKeyRotationTime();
+        if (keyRotationTime != null)
+            builder.setKeyRotationTime(keyRotationTime.getTime() / 1000);
+        for (final WalletExtension extension : wallet.getExtensions().values())
+            builder.addExtension(Protos.Extension.newBuilder().setId(extension.getWalletExtensionID())
+                    .setMandatory(extension.isWalletExtensionMandatory())
+                    .setData(ByteString.copyFrom(extension.serializeWalletExtension())));
+        for (final Map.Entry<String, ByteString> tag : wallet.getTags().entrySet())
+            builder.addTags(Protos.Tag.newBuilder().setTag(tag.getKey()).setData(tag.getValue()));
+        for (final TransactionSigner signer : wallet.getTransactionSigners()) {
+            if (signer instanceof LocalTransactionSigner)
+                continue; // added implicitly
+            builder.addTransactionSigners(Protos.TransactionSigner.newBuilder()
+                    .setClassName(signer.getClass().getName()).setData(ByteString.copyFrom(signer.serialize())));
+        }
+        builder.setVersion(wallet.getVersion());
+
+        builder.build().writeTo(os);
+    }
+
+    /**
+     * Hashes everything about the keychain that ends up in a backup, including the identity of the active key chain,
+     * so that a restored or replaced wallet is always backed up. Cheap compared to serializing the keys, and stable
+     * across restarts so it can be persisted.
+     */
+    public static String fingerprint(final Wallet wallet) {
+        final MessageDigest digest = Sha256Hash.newDigest();
+        final ByteBuffer buf = ByteBuffer.allocate(8);
+
+        digest.update(wallet.getNetworkParameters().getId().getBytes(StandardCharsets.UTF_8));
+        digest.update(longBytes(buf, wallet.getVersion()));
+        digest.update(longBytes(buf, wallet.getKeyChainGroupSize()));
+        digest.update(longBytes(buf, wallet.getEarliestKeyCreationTime()));
+
+        final KeyCrypter keyCrypter = wallet.getKeyCrypter();
+        if (keyCrypter instanceof KeyCrypterScrypt)
+            digest.update(((KeyCrypterScrypt) keyCrypter).getScryptParameters().toByteArray());
+        else
+            digest.update(longBytes(buf, keyCrypter != null ? keyCrypter.getUnderstoodEncryptionType().getNumber() : 0));
+
+        if (!wallet.isDeterministicUpgradeRequired()) {
+            final DeterministicKeyChain keyChain = wallet.getActiveKeyChain();
+            final DeterministicKey watchingKey = keyChain.getWatchingKey();
+            digest.update(watchingKey.getPubKey());
+            digest.update(watchingKey.getChainCode());
+            digest.update(longBytes(buf, keyChain.getEarliestKeyCreationTime()));
+            digest.update(longBytes(buf, keyChain.getIssuedExternalKeys()));
+            digest.update(longBytes(buf, keyChain.getIssuedInternalKeys()));
+            digest.update(longBytes(buf, keyChain.getLookaheadSize()));
+        }
+        for (final ECKey key : wallet.getImportedKeys()) {
+            digest.update(key.getPubKey());
+            digest.update(longBytes(buf, key.getCreationTimeSeconds()));
+            digest.update(longBytes(buf, key.isEncrypted() ? 1 : 0));
+        }
+        for (final Script script : wallet.getWatchedScripts())
+            digest.update(script.getProgram());
+
+        final Date keyRotationTime = wallet.getKeyRotationTime();
+        digest.update(longBytes(buf, keyRotationTime != null ? keyRotationTime.getTime() : 0));
+        if (wallet.getDescription() != null)
+            digest.update(wallet.getDescription().getBytes(StandardCharsets.UTF_8));
+
+        return Sha256Hash.wrap(digest.digest()).toString();
+    }
+
+    private static byte[] longBytes(final ByteBuffer buf, final long value) {
+        buf.clear();
+        return buf.putLong(value).array();
+    }
+}
@@ -0,0 +1,228 @@
+package com.ivan.fgwallet.service;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+import com.google.common.base.Supplier;
+import com.ivan.fgwallet.WalletApplication;
+import com.ivan.fgwallet.helper.PrefManager;
+import com.ivan.fgwallet.networking.HttpGateway;
+import com.ivan.fgwallet.schildbach.wallet.util.VersionedState;
+
+import org.bitcoinj.core.Coin;
+import org.bitcoinj.utils.ContextPropagatingThreadFactory;
+import org.bitcoinj.utils.Threading;
+import org.bitcoinj.wallet.Wallet;
+import org.bitcoinj.wallet.listeners.WalletChangeEventListener;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * The balance shown by the wallet and send screens, in satoshis.
+ * <p>
+ * The local bitcoinj wallet is the source of truth. Its balance is published from memory whenever the wallet changes,
+ * and the last value is kept in the preferences so there is something to show before the wallet has loaded. The
+ * backend's view of the balance is fetched in the background and only attached to the published {@link Balance}, so
+ * screens can point out a discrepancy without ever waiting for the network.
+ */
+public class BalanceService {
+
+    private static final Logger log = LoggerFactory.getLogger(BalanceService.class);
+
+    private static final String BALANCE_URL = "http://128.199.129.208/api/wallet/balance";
+    private static final long MIN_RECONCILE_INTERVAL_MS = TimeUnit.SECONDS.toMillis(30);
+    private static final Map<String, String> NO_HEADERS = Collections.emptyMap();
+
+    public static final class Balance {
+        /**
+         * Estimated balance of the local wallet, or -1 if it has never been loaded.
+         */
+        public final long satoshis;
+        /**
+         * Available plus pending balance as last reported by the backend, or -1 if it hasn't answered yet.
+         */
+        public final long backendSatoshis;
+
+        Balance(long satoshis, long backendSatoshis) {
+            this.satoshis = satoshis;
+            this.backendSatoshis = backendSatoshis;
+        }
+
+        public boolean hasDiscrepancy() {
+            return satoshis >= 0 && backendSatoshis >= 0 && backendSatoshis != satoshis;
+        }
+    }
+
+    private final SharedPreferences prefs;
+    private final Supplier<HttpGateway> httpGateway;
+    private final String balanceUrl;
+    private final VersionedState<Balance> state = new VersionedState<Balance>();
+    private final ExecutorService executor = Executors
+            .newSingleThreadExecutor(new ContextPropagatingThreadFactory("balance", Thread.MIN_PRIORITY));
+    private final AtomicBoolean updateScheduled = new AtomicBoolean();
+
+    private volatile Wallet wallet;
+    // guarded by this
+    private long satoshis = -1;
+    private long backendSatoshis = -1;
+    // main thread only
+    private boolean reconciling = false;
+    private long reconciledAt = 0;
+
+    public BalanceService(final WalletApplication application) {
+        this(application.getSharedPreferences(PrefManager.PREFS_NAME, Context.MODE_PRIVATE),
+                new Supplier<HttpGateway>() {
+                    @Override
+                    public HttpGateway get() {
+                        // created on first use, not during app startup
+                        return application.getHttpGateway();
+                    }
+                }, BALANCE_URL);
+    }
+
+    BalanceService(SharedPreferences prefs, Supplier<HttpGateway> httpGateway, String balanceUrl) {
+        this.prefs = prefs;
+        this.httpGateway = httpGateway;
+        this.balanceUrl = balanceUrl;
+
+        final long lastSatoshis = prefs.getLong(PrefManager.KEY_BALANCE_SATOSHIS, -1);
+        if (lastSatoshis >= 0)
+            publish(lastSatoshis, -1);
+    }
+
+    /**
+     * Latest balance. Its value is {@code null} only until the wallet has been loaded once on this device.
+     */
+    public VersionedState<Balance> getBalance() {
+        return state;
+    }
+
+    /**
+     * Follows the given wallet from now on, also when it replaces a previous one.
+     */
+    public void setWallet(Wallet wallet) {
+        final Wallet previous = this.wallet;
+        if (previous != null)
+            previous.removeChangeEventListener(walletChangeListener);
+        this.wallet = wallet;
+        wallet.addChangeEventListener(Threading.SAME_THREAD, walletChangeListener);
+        scheduleUpdate();
+    }
+
+    /**
+     * Asks the backend for its view of the balance, unless a request is already underway or the last answer is
+     * recent. Call on the main thread.
+     *
+     * @param force ignore the last answer, for example right after sending coins
+     */
+    public void reconcile(boolean force) {
+        if (reconciling)
+            return;
+        if (!force && System.currentTimeMillis() - reconciledAt < MIN_RECONCILE_INTERVAL_MS)
+            return;
+        final String apiToken = prefs.getString(PrefManager.KEY_API_TOKEN, "");
+        if (apiToken.equals(""))
+            return;
+
+        final JSONObject params = new JSONObject();
+        try {
+            params.put("api_token", apiToken);
+        } catch (JSONException e) {
+            throw new RuntimeException(e);
+        }
+
+        reconciling = true;
+        httpGateway.get().postJson(balanceUrl, NO_HEADERS, params.toString(),
+                new HttpGateway.Callback<String>() {
+                    @Override
+                    public void onResult(String body) {
+                        reconciling = false;
+                        reconciledAt = System.currentTimeMillis();
+                        try {
+                            final long backend = parseBackendBalance(body);
+                            synchronized (BalanceService.this) {
+                                publish(satoshis, backend);
+                            }
+                        } catch (Exception x) {
+                            log.warn("unusable backend balance", x);
+                        }
+                    }
+
+                    @Override
+                    public void onError(Exception x) {
+                        reconciling = false;
+                        log.info("problem fetching backend balance: {}", x.getMessage());
+                    }
+                });
+    }
+
+    public static String formatBtc(long satoshis) {
+        return BigDecimal.valueOf(satoshis, Coin.SMALLEST_UNIT_EXPONENT).toPlainString();
+    }
+
+    /**
+     * @param rate price of one bitcoin in yen, as quoted by the ticker
+     */
+    public static String formatJpy(long satoshis, double rate) {
+        return BigDecimal.valueOf(satoshis, Coin.SMALLEST_UNIT_EXPONENT).multiply(BigDecimal.valueOf(rate))
+                .setScale(0, RoundingMode.HALF_UP).toPlainString();
+    }
+
+    /**
+     * Parses the backend's balance from decimal strings, so no bitcoin amount ever goes through a double.
+     */
+    static long parseBackendBalance(String body) throws JSONException {
+        final JSONObject response = new JSONObject(body);
+        if (!response.optString("status").equals("SUCCESS"))
+            throw new JSONException("status " + response.optString("status"));
+        final JSONObject address = response.getJSONObject("data").getJSONObject("address");
+        return Coin.parseCoin(address.getString("available_balance"))
+                .add(Coin.parseCoin(address.getString("pending_received_balance"))).value;
+    }
+
+    // coalesces the bursts of change events during a sync into at most one pending balance computation
+    private void scheduleUpdate() {
+        if (!updateScheduled.compareAndSet(false, true))
+            return;
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                updateScheduled.set(false);
+                final Wallet wallet = BalanceService.this.wallet;
+                final long balance = wallet.getBalance(Wallet.BalanceType.ESTIMATED).value;
+                final boolean changed;
+                synchronized (BalanceService.this) {
+                    changed = balance != satoshis;
+                    if (changed)
+                        publish(balance, backendSatoshis);
+                }
+                if (changed)
+                    prefs.edit().putLong(PrefManager.KEY_BALANCE_SATOSHIS, balance).apply();
+            }
+        });
+    }
+
+    private synchronized void publish(long satoshis, long backendSatoshis) {
+        this.satoshis = satoshis;
+        this.backendSatoshis = backendSatoshis;
+        state.publish(new Balance(satoshis, backendSatoshis));
+    }
+
+    private final WalletChangeEventListener walletChangeListener = new WalletChangeEventListener() {
+        @Override
+        public void onWalletChanged(Wallet wallet) {
+            scheduleUpdate();
+        }
+    };
+}
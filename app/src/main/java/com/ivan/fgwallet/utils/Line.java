@@ -9,19 +9,46 @@ import java.util.List;
 
 public class Line {
 
-  //线条数据源集合
-  private List<DateValue> mLineData;
+  //线条数据源，按时间排序
+  private final float[] mValues;
+  private final long[] mDates;
   //线条颜色
   private int mLineColor = 0xFF688FDB;
   //线条宽度
   private float mLineWidth = 3f;
 
   public Line(List<DateValue> lineData) {
-    mLineData = lineData;
+    final int size = lineData.size();
+    mValues = new float[size];
+    mDates = new long[size];
+    for (int i = 0; i < size; i++) {
+      final DateValue dateValue = lineData.get(i);
+      mValues[i] = (float) dateValue.getValue();
+      mDates[i] = dateValue.getDate();
+    }
   }
 
-  public List<DateValue> getLineData() {
-    return mLineData;
+  /**
+   * Takes ownership of the arrays, which must be of the same length.
+   */
+  public Line(float[] values, long[] dates) {
+    if (values.length != dates.length) {
+      throw new IllegalArgumentException("values and dates differ in length");
+    }
+    mValues = values;
+    mDates = dates;
+  }
+
+  public int size() {
+    return mValues.length;
+  }
+
+  public float[] getValues() {
+    return mValues;
+  }
+
+  public long[] getDates() {
+    return mDates;
   }
 
   public int getLineColor() {
@@ -0,0 +1,75 @@
+package com.ivan.fgwallet.utils;
+
+/**
+ * Largest-triangle-three-buckets downsampling of an evenly spaced series: keeps the first and last point, and from
+ * each bucket in between the point that forms the largest triangle with the previously kept point and the average of
+ * the next bucket. Preserves the visual shape (peaks and dips) far better than averaging, and allocates nothing.
+ */
+public final class LttbDownsampler {
+
+  private LttbDownsampler() {
+  }
+
+  /**
+   * Picks at most {@code threshold} points of {@code values[from, from + count)}, using the index as x coordinate.
+   *
+   * @param out receives the indices of the picked points in ascending order, must hold
+   * {@code min(count, threshold)} elements
+   * @return number of indices written to {@code out}
+   */
+  public static int downsample(float[] values, int from, int count, int threshold, int[] out) {
+    if (count <= 0) {
+      return 0;
+    }
+    if (count <= threshold || count <= 2) {
+      for (int i = 0; i < count; i++) {
+        out[i] = from + i;
+      }
+      return count;
+    }
+    if (threshold < 3) {
+      out[0] = from;
+      out[1] = from + count - 1;
+      return 2;
+    }
+
+    final int end = from + count;
+    final double bucketSize = (double) (count - 2) / (threshold - 2);
+    int n = 0;
+    int a = from;
+    out[n++] = a;
+
+    for (int bucket = 0; bucket < threshold - 2; bucket++) {
+      // average of the next bucket
+      final int avgStart = from + (int) ((bucket + 1) * bucketSize) + 1;
+      final int avgEnd = Math.min(from + (int) ((bucket + 2) * bucketSize) + 1, end);
+      double avgY = 0;
+      for (int i = avgStart; i < avgEnd; i++) {
+        avgY += values[i];
+      }
+      avgY /= avgEnd - avgStart;
+      final double avgX = (avgStart + avgEnd - 1) / 2.0;
+
+      // point of the current bucket with the largest triangle
+      final int rangeStart = from + (int) (bucket * bucketSize) + 1;
+      final int rangeEnd = from + (int) ((bucket + 1) * bucketSize) + 1;
+      final double ax = a;
+      final double ay = values[a];
+      double maxArea = -1;
+      int next = rangeStart;
+      for (int i = rangeStart; i < rangeEnd; i++) {
+        final double area = Math.abs((ax - avgX) * (values[i] - ay) - (ax - i) * (avgY - ay));
+        if (area > maxArea) {
+          maxArea = area;
+          next = i;
+        }
+      }
+
+      out[n++] = next;
+      a = next;
+    }
+
+    out[n++] = end - 1;
+    return n;
+  }
+}
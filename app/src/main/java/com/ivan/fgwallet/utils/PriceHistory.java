@@ -0,0 +1,194 @@
+package com.ivan.fgwallet.utils;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Daily price series kept in two parallel primitive arrays, sorted by time, and persisted to a compact binary file
+ * (16 bytes per day). Lookups are binary searches, so range queries and downsampling never scan the whole history.
+ */
+public class PriceHistory {
+
+    public static final long DAY_MS = 24 * 60 * 60 * 1000L;
+
+    private static final int FILE_VERSION = 1;
+    private static final int INITIAL_CAPACITY = 64;
+
+    private final File file;
+    private long[] times = new long[INITIAL_CAPACITY];
+    private double[] values = new double[INITIAL_CAPACITY];
+    private int size = 0;
+    private boolean dirty = false;
+
+    public PriceHistory(File file) {
+        this.file = file;
+    }
+
+    /**
+     * Loads the series from disk, starting over if the file is missing or unreadable.
+     */
+    public synchronized void load() {
+        size = 0;
+        DataInputStream is = null;
+        try {
+            is = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            if (is.readInt() != FILE_VERSION)
+                throw new IOException("unknown version");
+            final int count = is.readInt();
+            if (count < 0 || count > (file.length() - 8) / 16)
+                throw new IOException("bad count " + count);
+            ensureCapacity(count);
+            for (int i = 0; i < count; i++) {
+                times[i] = is.readLong();
+                values[i] = is.readDouble();
+            }
+            size = count;
+        } catch (FileNotFoundException x) {
+            // first run
+        } catch (IOException x) {
+            size = 0;
+        } finally {
+            closeQuietly(is);
+        }
+        dirty = false;
+    }
+
+    public synchronized void saveIfDirty() throws IOException {
+        if (!dirty)
+            return;
+
+        final File tmpFile = new File(file.getPath() + ".tmp");
+        DataOutputStream os = null;
+        try {
+            os = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmpFile)));
+            os.writeInt(FILE_VERSION);
+            os.writeInt(size);
+            for (int i = 0; i < size; i++) {
+                os.writeLong(times[i]);
+                os.writeDouble(values[i]);
+            }
+            os.close();
+            os = null;
+
+            if (!tmpFile.renameTo(file))
+                throw new IOException("cannot rename " + tmpFile + " to " + file);
+            dirty = false;
+        } finally {
+            closeQuietly(os);
+        }
+    }
+
+    /**
+     * Adds a value, replacing an existing value at the same time.
+     */
+    public synchronized void put(long time, double value) {
+        final int index = Arrays.binarySearch(times, 0, size, time);
+        if (index >= 0) {
+            if (values[index] != value) {
+                values[index] = value;
+                dirty = true;
+            }
+            return;
+        }
+
+        final int insertAt = -index - 1;
+        ensureCapacity(size + 1);
+        System.arraycopy(times, insertAt, times, insertAt + 1, size - insertAt);
+        System.arraycopy(values, insertAt, values, insertAt + 1, size - insertAt);
+        times[insertAt] = time;
+        values[insertAt] = value;
+        size++;
+        dirty = true;
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    /**
+     * @return time of the latest value, or -1 if the series is empty
+     */
+    public synchronized long getLastTime() {
+        return size > 0 ? times[size - 1] : -1;
+    }
+
+    /**
+     * @return number of values with {@code from <= time < to}
+     */
+    public synchronized int count(long from, long to) {
+        return lowerBound(to) - lowerBound(from);
+    }
+
+    /**
+     * Copies the values with {@code from <= time < to} into the given arrays, reducing them to at most
+     * {@code maxPoints} points by averaging equally sized buckets of consecutive values.
+     *
+     * @return number of points written
+     */
+    public synchronized int query(long from, long to, int maxPoints, long[] outTimes, double[] outValues) {
+        final int start = lowerBound(from);
+        final int end = lowerBound(to);
+        final int count = end - start;
+        if (count <= 0 || maxPoints <= 0)
+            return 0;
+
+        if (count <= maxPoints) {
+            System.arraycopy(times, start, outTimes, 0, count);
+            System.arraycopy(values, start, outValues, 0, count);
+            return count;
+        }
+
+        for (int bucket = 0; bucket < maxPoints; bucket++) {
+            final int bucketStart = start + (int) ((long) bucket * count / maxPoints);
+            final int bucketEnd = start + (int) ((long) (bucket + 1) * count / maxPoints);
+            double sum = 0;
+            for (int i = bucketStart; i < bucketEnd; i++)
+                sum += values[i];
+            outTimes[bucket] = times[bucketEnd - 1];
+            outValues[bucket] = sum / (bucketEnd - bucketStart);
+        }
+        return maxPoints;
+    }
+
+    /**
+     * @return index of the first value with a time not before the given one
+     */
+    private int lowerBound(long time) {
+        int low = 0, high = size;
+        while (low < high) {
+            final int mid = (low + high) >>> 1;
+            if (times[mid] < time)
+                low = mid + 1;
+            else
+                high = mid;
+        }
+        return low;
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity <= times.length)
+            return;
+        final int newCapacity = Math.max(capacity, times.length * 2);
+        times = Arrays.copyOf(times, newCapacity);
+        values = Arrays.copyOf(values, newCapacity);
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } catch (IOException x) {
+                // swallow
+            }
+        }
+    }
+}
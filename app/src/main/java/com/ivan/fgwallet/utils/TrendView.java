@@ -30,7 +30,15 @@ public class TrendView extends ChartView {
   //手指当前坐标
   private float mCurrentX = -1;
 
-  private Path mPath;
+  // downsampled points of the displayed range, and the paths built from them; rebuilt only when dirty
+  private int[] mSampleIndex = new int[0];
+  private float[] mSampleX = new float[0];
+  private float[] mSampleY = new float[0];
+  private int mSampleCount;
+  private boolean mDirty = true;
+
+  private Path mTrendPath;
+  private Path mAreaPath;
   private Paint mTrendLinePaint;
   private Paint mAreaPaint;
   private Paint mVerticalPaint;
@@ -50,7 +58,8 @@ public class TrendView extends ChartView {
 
   @Override protected void setupPaint() {
     super.setupPaint();
-    mPath = new Path();
+    mTrendPath = new Path();
+    mAreaPath = new Path();
     mTrendLinePaint = new Paint();
     mTrendLinePaint.setAntiAlias(true);
     mTrendLinePaint.setStyle(Paint.Style.STROKE);
@@ -66,6 +75,7 @@ public class TrendView extends ChartView {
     Shader shader = new LinearGradient(0, 0, 0, h, new int[] { 0xA0688FDB, 0x20688FDB }, null,
         Shader.TileMode.REPEAT);
     mAreaPaint.setShader(shader);
+    mDirty = true;
   }
 
   @Override public boolean onTouchEvent(MotionEvent event) {
@@ -86,49 +96,66 @@ public class TrendView extends ChartView {
 
   @Override protected void onDraw(Canvas canvas) {
     super.onDraw(canvas);
-    calcMaxNMin();
+    rebuildIfDirty();
     //绘制分时折线
-    drawTrend(canvas);
-    drawArea(canvas);
+    canvas.drawPath(mTrendPath, mTrendLinePaint);
+    //绘制从上往下的阴影
+    canvas.drawPath(mAreaPath, mAreaPaint);
 
-    if (mCurrentX > 0) {
+    if (mCurrentX > 0 && mSampleCount > 0) {
       drawVerticalLine(canvas);
       drawVerticalCircle(canvas);
     }
   }
 
   /**
-   * 绘制折线
+   * Downsamples the displayed range to about one point per pixel and builds the line and area paths from it. Runs
+   * only after the data, the displayed range or the size changed, so crosshair updates just redraw cached paths.
    */
-  private void drawTrend(Canvas canvas) {
-    mPath.reset();
-    for (int i = mDisplayFrom + 1; i < mDisplayFrom + mDisplayNumber; i++) {
-      if (i == mDisplayFrom + 1) {
-        mPath.moveTo(getValueX(i - 1), getValueY(i - 1));
-      }
-      mPath.lineTo(getValueX(i), getValueY(i));
+  private void rebuildIfDirty() {
+    if (!mDirty) {
+      return;
     }
-    canvas.drawPath(mPath, mTrendLinePaint);
-  }
+    mTrendPath.rewind();
+    mAreaPath.rewind();
+    mSampleCount = 0;
+    final float width = mQuadrant.getQuadrantPaddingWidth();
+    if (mLine == null || mDisplayNumber < 2 || width <= 0) {
+      return;
+    }
+    mDirty = false;
 
-  /**
-   * 绘制从上往下的阴影
-   */
-  private void drawArea(Canvas canvas) {
-    mPath.reset();
-    for (int i = mDisplayFrom; i < mDisplayFrom + mDisplayNumber; i++) {
-      if (i == mDisplayFrom) {
-        mPath.moveTo(getValueX(i), mQuadrant.getQuadrantPaddingEndY());
-        mPath.lineTo(getValueX(i), getValueY(i));
-      } else if (i == mDisplayFrom + mDisplayNumber - 1) {
-        mPath.lineTo(getValueX(i), getValueY(i));
-        mPath.lineTo(getValueX(i), mQuadrant.getQuadrantPaddingEndY());
-        mPath.lineTo(getValueX(mDisplayFrom), mQuadrant.getQuadrantPaddingEndY());
+    calcMaxNMin();
+    final int threshold = Math.max((int) width, 3);
+    ensureSampleCapacity(Math.min(threshold, mDisplayNumber));
+    mSampleCount = LttbDownsampler.downsample(mLine.getValues(), mDisplayFrom, mDisplayNumber, threshold,
+        mSampleIndex);
+
+    final float bottom = mQuadrant.getQuadrantPaddingEndY();
+    for (int i = 0; i < mSampleCount; i++) {
+      final int index = mSampleIndex[i];
+      final float x = getValueX(index);
+      final float y = getValueY(index);
+      mSampleX[i] = x;
+      mSampleY[i] = y;
+      if (i == 0) {
+        mTrendPath.moveTo(x, y);
+        mAreaPath.moveTo(x, bottom);
       } else {
-        mPath.lineTo(getValueX(i), getValueY(i));
+        mTrendPath.lineTo(x, y);
       }
+      mAreaPath.lineTo(x, y);
+    }
+    mAreaPath.lineTo(mSampleX[mSampleCount - 1], bottom);
+    mAreaPath.close();
+  }
+
+  private void ensureSampleCapacity(int capacity) {
+    if (mSampleIndex.length < capacity) {
+      mSampleIndex = new int[capacity];
+      mSampleX = new float[capacity];
+      mSampleY = new float[capacity];
     }
-    canvas.drawPath(mPath, mAreaPaint);
   }
 
   /**
@@ -143,17 +170,18 @@ public class TrendView extends ChartView {
    * 绘制小圆圈
    */
   private void drawVerticalCircle(Canvas canvas) {
-    canvas.drawCircle(mCurrentX, getValueY(getIndex()), dp2px(4), mVerticalPaint);
+    canvas.drawCircle(mCurrentX, mSampleY[getSample()], dp2px(4), mVerticalPaint);
   }
 
   /**
    * 计算当前canvas中的最大值和最小值
    */
   private void calcMaxNMin() {
-    double maxValue = Double.MIN_VALUE;
+    final float[] values = mLine.getValues();
+    double maxValue = -Double.MAX_VALUE;
     double minValue = Double.MAX_VALUE;
     for (int i = mDisplayFrom; i < mDisplayFrom + mDisplayNumber; i++) {
-      double value = getValue(i);
+      double value = values[i];
       if (value < minValue) {
         minValue = value;
       }
@@ -190,7 +218,7 @@ public class TrendView extends ChartView {
    * 第index个数据点所对应的价格
    */
   private double getValue(int index) {
-    return mLine.getLineData().get(index).getValue();
+    return mLine.getValues()[index];
   }
 
   /**
@@ -206,39 +234,58 @@ public class TrendView extends ChartView {
   }
 
   /**
-   * 获得mCurrentX所对应的index
+   * 获得mCurrentX所对应的采样点：在按x排序的采样点中二分查找最近的一个
    */
-  private int getIndex() {
-    //ratio = (x - startX) / width
-    float ratio =
-        (mCurrentX - mQuadrant.getQuadrantPaddingStartX()) / mQuadrant.getQuadrantPaddingWidth();
-    //index = ratio * number + from
-    int index = (int) (ratio * mDisplayNumber) + mDisplayFrom;
-    if (index < mDisplayFrom) {
-      index = mDisplayFrom;
-    } else if (index > mDisplayFrom + mDisplayNumber - 1) {
-      index = mDisplayFrom + mDisplayNumber - 1;
+  private int getSample() {
+    int low = 0;
+    int high = mSampleCount - 1;
+    while (low < high) {
+      final int mid = (low + high) >>> 1;
+      if (mSampleX[mid] < mCurrentX) {
+        low = mid + 1;
+      } else {
+        high = mid;
+      }
+    }
+    if (low > 0 && mCurrentX - mSampleX[low - 1] < mSampleX[low] - mCurrentX) {
+      low--;
     }
-    return index;
+    return low;
+  }
+
+  /**
+   * 获得mCurrentX所对应的数据点index，未显示时返回-1
+   */
+  public int getTouchedIndex() {
+    rebuildIfDirty();
+    return mCurrentX > 0 && mSampleCount > 0 ? mSampleIndex[getSample()] : -1;
   }
 
   public TrendView withDisplayFrom(int from) {
-    mDisplayFrom = from;
+    if (from != mDisplayFrom) {
+      mDisplayFrom = from;
+      mDirty = true;
+    }
     return this;
   }
 
   public TrendView withDisplayNumber(int number) {
-    mDisplayNumber = number;
+    if (number != mDisplayNumber) {
+      mDisplayNumber = number;
+      mDirty = true;
+    }
     return this;
   }
 
   public TrendView withPrevClose(double prevClose) {
     mPrvClose = prevClose;
+    mDirty = true;
     return this;
   }
 
   public TrendView withLine(Line line) {
     mLine = line;
+    mDirty = true;
     mTrendLinePaint.setColor(line.getLineColor());
     mTrendLinePaint.setStrokeWidth(line.getLineWidth());
     return this;
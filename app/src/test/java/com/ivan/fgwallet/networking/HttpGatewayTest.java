@@ -0,0 +1,211 @@
+package com.ivan.fgwallet.networking;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import com.squareup.okhttp.Cache;
+import com.squareup.okhttp.OkHttpClient;
+import com.squareup.okhttp.mockwebserver.MockResponse;
+import com.squareup.okhttp.mockwebserver.MockWebServer;
+import com.squareup.okhttp.mockwebserver.RecordedRequest;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Runs the gateway against a local mock web server.
+ */
+public class HttpGatewayTest {
+
+    private static final Map<String, String> NO_HEADERS = Collections.emptyMap();
+    private static final long TTL_MS = TimeUnit.MINUTES.toMillis(10);
+
+    private static final Executor DIRECT = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private MockWebServer server;
+    private OkHttpClient client;
+    private HttpGateway gateway;
+
+    @Before
+    public void setUp() throws IOException {
+        server = new MockWebServer();
+        server.start();
+        client = new OkHttpClient();
+        client.setCache(new Cache(folder.newFolder("http-cache"), 1024 * 1024));
+        gateway = new HttpGateway(client, DIRECT);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        server.shutdown();
+    }
+
+    @Test
+    public void concurrentRequestsShareOneCall() throws Exception {
+        server.enqueue(new MockResponse().setBody("42").setBodyDelay(200, TimeUnit.MILLISECONDS));
+        final HttpGateway.Endpoint<Integer> endpoint = intEndpoint("/number", TTL_MS);
+
+        final Result<Integer> first = new Result<Integer>();
+        final Result<Integer> second = new Result<Integer>();
+        gateway.get(endpoint, first);
+        gateway.get(endpoint, second);
+
+        assertEquals(Integer.valueOf(42), first.await());
+        assertEquals(Integer.valueOf(42), second.await());
+        assertEquals(1, server.getRequestCount());
+    }
+
+    @Test
+    public void freshResultIsServedFromMemory() throws Exception {
+        server.enqueue(new MockResponse().setBody("42"));
+        final HttpGateway.Endpoint<Integer> endpoint = intEndpoint("/number", TTL_MS);
+
+        final Result<Integer> first = new Result<Integer>();
+        gateway.get(endpoint, first);
+        assertEquals(Integer.valueOf(42), first.await());
+
+        final Result<Integer> second = new Result<Integer>();
+        gateway.get(endpoint, second);
+        assertEquals(Integer.valueOf(42), second.await());
+        assertEquals(1, server.getRequestCount());
+        assertNull(server.takeRequest().getHeader("X-Gateway-Ttl"));
+    }
+
+    @Test
+    public void resultSurvivesRestartInDiskCache() throws Exception {
+        server.enqueue(new MockResponse().setBody("42"));
+        final HttpGateway.Endpoint<Integer> endpoint = intEndpoint("/number", TTL_MS);
+        final Result<Integer> first = new Result<Integer>();
+        gateway.get(endpoint, first);
+        assertEquals(Integer.valueOf(42), first.await());
+
+        // a new gateway has nothing in memory, like after a process restart
+        final Result<Integer> second = new Result<Integer>();
+        new HttpGateway(client, DIRECT).get(endpoint, second);
+        assertEquals(Integer.valueOf(42), second.await());
+        assertEquals(1, server.getRequestCount());
+    }
+
+    @Test
+    public void staleResultIsServedIfTheServerFails() throws Exception {
+        server.enqueue(new MockResponse().setBody("42"));
+        server.enqueue(new MockResponse().setResponseCode(503));
+        final HttpGateway.Endpoint<Integer> endpoint = intEndpoint("/number", TimeUnit.SECONDS.toMillis(1));
+        final Result<Integer> first = new Result<Integer>();
+        gateway.get(endpoint, first);
+        assertEquals(Integer.valueOf(42), first.await());
+
+        Thread.sleep(1100);
+        final Result<Integer> second = new Result<Integer>();
+        gateway.get(endpoint, second);
+        assertEquals(Integer.valueOf(42), second.await());
+        assertEquals(2, server.getRequestCount());
+    }
+
+    @Test
+    public void endpointsWithDifferentParsersDontShareResults() throws Exception {
+        server.enqueue(new MockResponse().setBody("42").setBodyDelay(200, TimeUnit.MILLISECONDS));
+        server.enqueue(new MockResponse().setBody("42").setBodyDelay(200, TimeUnit.MILLISECONDS));
+        final String url = server.url("/number").toString();
+
+        final Result<Integer> typed = new Result<Integer>();
+        final Result<String> raw = new Result<String>();
+        gateway.get(intEndpoint("/number", TTL_MS), typed);
+        gateway.get(Endpoints.string(url, NO_HEADERS), raw);
+
+        assertEquals(Integer.valueOf(42), typed.await());
+        assertEquals("42", raw.await());
+        assertEquals(2, server.getRequestCount());
+    }
+
+    @Test
+    public void postSendsJson() throws Exception {
+        server.enqueue(new MockResponse().setBody("{\"status\":\"SUCCESS\"}"));
+
+        final Result<String> result = new Result<String>();
+        gateway.postJson(server.url("/post").toString(), NO_HEADERS, "{\"a\":1}", result);
+
+        assertEquals("{\"status\":\"SUCCESS\"}", result.await());
+        final RecordedRequest request = server.takeRequest();
+        assertEquals("POST", request.getMethod());
+        assertEquals("{\"a\":1}", request.getBody().readUtf8());
+        assertTrue(request.getHeader("Content-Type").startsWith("application/json"));
+    }
+
+    @Test
+    public void httpErrorIsReported() throws Exception {
+        server.enqueue(new MockResponse().setResponseCode(500));
+
+        final Result<String> result = new Result<String>();
+        gateway.post(server.url("/post").toString(), NO_HEADERS, result);
+
+        assertTrue(result.awaitError() instanceof IOException);
+    }
+
+    private HttpGateway.Endpoint<Integer> intEndpoint(String path, long ttlMs) {
+        return new HttpGateway.Endpoint<Integer>(server.url(path).toString(), NO_HEADERS, ttlMs,
+                new HttpGateway.Parser<Integer>() {
+                    @Override
+                    public Integer parse(Reader body) throws IOException {
+                        final char[] buffer = new char[16];
+                        final int read = body.read(buffer);
+                        try {
+                            return Integer.valueOf(new String(buffer, 0, Math.max(read, 0)).trim());
+                        } catch (NumberFormatException x) {
+                            throw new IOException(x);
+                        }
+                    }
+                });
+    }
+
+    private static final class Result<T> implements HttpGateway.Callback<T> {
+        private final CountDownLatch done = new CountDownLatch(1);
+        private final AtomicReference<T> result = new AtomicReference<T>();
+        private final AtomicReference<Exception> error = new AtomicReference<Exception>();
+
+        @Override
+        public void onResult(T result) {
+            this.result.set(result);
+            done.countDown();
+        }
+
+        @Override
+        public void onError(Exception x) {
+            this.error.set(x);
+            done.countDown();
+        }
+
+        T await() throws Exception {
+            assertTrue(done.await(10, TimeUnit.SECONDS));
+            if (error.get() != null)
+                throw error.get();
+            return result.get();
+        }
+
+        Exception awaitError() throws InterruptedException {
+            assertTrue(done.await(10, TimeUnit.SECONDS));
+            return error.get();
+        }
+    }
+}
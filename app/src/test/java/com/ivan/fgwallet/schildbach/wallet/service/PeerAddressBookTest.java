@@ -0,0 +1,228 @@
+/*
+ * Copyright 2011-2015 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.ivan.fgwallet.schildbach.wallet.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.bitcoinj.core.Context;
+import org.bitcoinj.core.NetworkParameters;
+import org.bitcoinj.core.Peer;
+import org.bitcoinj.core.PeerAddress;
+import org.bitcoinj.core.VersionMessage;
+import org.bitcoinj.net.discovery.PeerDiscovery;
+import org.bitcoinj.net.discovery.PeerDiscoveryException;
+import org.bitcoinj.params.UnitTestParams;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Drives the address book with local fake peers that never touch the network.
+ */
+public class PeerAddressBookTest {
+    private static final NetworkParameters PARAMS = UnitTestParams.get();
+    private static final Set<InetSocketAddress> NONE = Collections.emptySet();
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private File file;
+    private PeerAddressBook book;
+
+    @Before
+    public void setUp() throws Exception {
+        Context.propagate(new Context(PARAMS));
+        file = new File(folder.getRoot(), "peers");
+        book = new PeerAddressBook(file);
+        book.load();
+    }
+
+    @Test
+    public void ranksByPingAndReliability() throws Exception {
+        final FakePeer slow = connect(1, 100);
+        final FakePeer fast = connect(2, 20);
+        final FakePeer flaky = connect(3, 20);
+        book.recordPings(Arrays.<Peer> asList(slow, fast, flaky));
+        disconnect(flaky);
+        for (int i = 0; i < 4; i++)
+            failToConnect(flaky);
+
+        assertEquals(Arrays.asList(fast.socketAddress, slow.socketAddress, flaky.socketAddress), book.best(3, NONE));
+        assertEquals(Arrays.asList(fast.socketAddress), book.best(1, NONE));
+        assertEquals(Arrays.asList(slow.socketAddress, flaky.socketAddress),
+                book.best(3, Collections.singleton(fast.socketAddress)));
+    }
+
+    @Test
+    public void unreachablePeersAreNotRecommended() throws Exception {
+        final FakePeer good = connect(1, 50);
+        final FakePeer gone = connect(2, 10);
+        disconnect(good);
+        disconnect(gone);
+        for (int i = 0; i < 5; i++)
+            failToConnect(gone);
+
+        // never connected at all
+        failToConnect(new FakePeer(3, -1));
+
+        assertEquals(Arrays.asList(good.socketAddress), book.best(3, NONE));
+    }
+
+    @Test
+    public void survivesRestart() throws Exception {
+        final FakePeer slow = connect(1, 300);
+        final FakePeer fast = connect(2, 30);
+        book.recordPings(Arrays.<Peer> asList(slow, fast));
+        book.saveIfDirty();
+
+        final PeerAddressBook restarted = new PeerAddressBook(file);
+        restarted.load();
+        assertEquals(Arrays.asList(fast.socketAddress, slow.socketAddress), restarted.best(2, NONE));
+    }
+
+    @Test
+    public void corruptFileStartsOver() throws Exception {
+        connect(1, 30);
+        book.saveIfDirty();
+        final RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            raf.setLength(raf.length() - 5);
+        } finally {
+            raf.close();
+        }
+
+        final PeerAddressBook restarted = new PeerAddressBook(file);
+        restarted.load();
+        assertEquals(0, restarted.best(3, NONE).size());
+    }
+
+    @Test
+    public void discoveryPrefersKnownPeers() throws Exception {
+        final FakePeer a = connect(1, 10);
+        final FakePeer b = connect(2, 20);
+        book.recordPings(Arrays.<Peer> asList(a, b));
+        final CountingDiscovery seeds = new CountingDiscovery(new FakePeer(9, -1).socketAddress);
+
+        // enough known peers, the seeds aren't asked
+        final PeerDiscovery discovery = book.discovery(seeds, 2);
+        final List<InetSocketAddress> first = Arrays.asList(discovery.getPeers(0, 1, TimeUnit.SECONDS));
+        assertEquals(Arrays.asList(a.socketAddress, b.socketAddress), first);
+        assertEquals(0, seeds.calls);
+
+        // known peers are only handed out once, now the seeds fill up
+        final List<InetSocketAddress> second = Arrays.asList(discovery.getPeers(0, 1, TimeUnit.SECONDS));
+        assertEquals(Arrays.asList(seeds.address), second);
+        assertEquals(1, seeds.calls);
+    }
+
+    @Test
+    public void discoveryFallsBackToKnownPeersIfSeedsFail() throws Exception {
+        final FakePeer a = connect(1, 10);
+        final PeerDiscovery discovery = book.discovery(new CountingDiscovery(null), 2);
+        assertEquals(Arrays.asList(a.socketAddress), Arrays.asList(discovery.getPeers(0, 1, TimeUnit.SECONDS)));
+    }
+
+    @Test
+    public void blocksServedBreakTies() throws Exception {
+        final FakePeer idle = connect(1, 50);
+        final FakePeer serving = connect(2, 50);
+        book.recordPings(Arrays.<Peer> asList(idle, serving));
+        for (int i = 0; i < 100; i++)
+            book.onBlocksDownloaded(serving, null, null, 0);
+
+        assertEquals(serving.socketAddress, book.best(1, NONE).get(0));
+        assertTrue(book.toString().startsWith("[" + serving.socketAddress));
+    }
+
+    private FakePeer connect(final int host, final long pingMs) throws Exception {
+        final FakePeer peer = new FakePeer(host, pingMs);
+        book.offered(peer.socketAddress);
+        book.onPeerConnected(peer, 1);
+        return peer;
+    }
+
+    private void disconnect(final FakePeer peer) {
+        book.onPeerDisconnected(peer, 0);
+    }
+
+    private void failToConnect(final FakePeer peer) {
+        book.offered(peer.socketAddress);
+        book.onPeerDisconnected(peer, 0);
+    }
+
+    /**
+     * A peer on the loopback network that is never connected. Its ping time is fixed.
+     */
+    private static final class FakePeer extends Peer {
+        final InetSocketAddress socketAddress;
+        private final long pingMs;
+
+        FakePeer(final int host, final long pingMs) throws Exception {
+            this(new InetSocketAddress(InetAddress.getByAddress(new byte[] { 127, 0, 0, (byte) host }), 18444),
+                    pingMs);
+        }
+
+        private FakePeer(final InetSocketAddress socketAddress, final long pingMs) {
+            super(PARAMS, new VersionMessage(PARAMS, 0), new PeerAddress(PARAMS, socketAddress), null);
+            this.socketAddress = socketAddress;
+            this.pingMs = pingMs;
+        }
+
+        @Override
+        public long getPingTime() {
+            return pingMs >= 0 ? pingMs : Long.MAX_VALUE;
+        }
+    }
+
+    private static final class CountingDiscovery implements PeerDiscovery {
+        final InetSocketAddress address;
+        int calls = 0;
+
+        /**
+         * @param address the one peer to discover, or {@code null} to fail
+         */
+        CountingDiscovery(final InetSocketAddress address) {
+            this.address = address;
+        }
+
+        @Override
+        public InetSocketAddress[] getPeers(final long services, final long timeoutValue, final TimeUnit timeoutUnit)
+                throws PeerDiscoveryException {
+            calls++;
+            if (address == null)
+                throw new PeerDiscoveryException("no seeds");
+            return new InetSocketAddress[] { address };
+        }
+
+        @Override
+        public void shutdown() {
+        }
+    }
+}
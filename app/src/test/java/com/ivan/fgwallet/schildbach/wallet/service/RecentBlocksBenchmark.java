@@ -0,0 +1,121 @@
+/*
+ * Copyright 2011-2015 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.ivan.fgwallet.schildbach.wallet.service;
+
+import static org.junit.Assume.assumeTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.bitcoinj.core.Address;
+import org.bitcoinj.core.ECKey;
+import org.bitcoinj.core.NetworkParameters;
+import org.bitcoinj.core.StoredBlock;
+import org.bitcoinj.params.UnitTestParams;
+import org.bitcoinj.store.BlockStoreException;
+import org.bitcoinj.store.SPVBlockStore;
+import org.junit.Test;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Compares serving the block list from {@link RecentBlocks} with walking back from the chain head through an
+ * {@link SPVBlockStore}, like {@code getRecentBlocks()} used to on every call. Run with
+ * {@code ./gradlew testDebugUnitTest -Pbenchmark --tests '*RecentBlocksBenchmark'}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class RecentBlocksBenchmark {
+    private static final NetworkParameters PARAMS = UnitTestParams.get();
+    private static final int CHAIN_LENGTH = 1100;
+    private static final int CAPACITY = 1024; // as in BlockchainServiceImpl
+
+    @Param({ "64", "1000" })
+    public int maxBlocks;
+
+    private File storeFile;
+    private SPVBlockStore blockStore;
+    private StoredBlock chainHead;
+    private RecentBlocks recentBlocks;
+
+    @Setup
+    public void setup() throws Exception {
+        storeFile = File.createTempFile("recent-blocks", ".spvchain");
+        storeFile.delete();
+        blockStore = new SPVBlockStore(PARAMS, storeFile);
+
+        final Address address = new ECKey().toAddress(PARAMS);
+        recentBlocks = new RecentBlocks(CAPACITY);
+        chainHead = blockStore.getChainHead();
+        for (int i = 0; i < CHAIN_LENGTH; i++) {
+            chainHead = chainHead.build(chainHead.getHeader().createNextBlock(address).cloneAsHeader());
+            blockStore.put(chainHead);
+            recentBlocks.notifyNewBestBlock(chainHead);
+        }
+        blockStore.setChainHead(chainHead);
+
+        if (!recentBlocks().equals(walkStore()))
+            throw new IllegalStateException("recent blocks differ from the block store");
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        blockStore.close();
+        storeFile.delete();
+    }
+
+    @Benchmark
+    public List<StoredBlock> recentBlocks() {
+        return recentBlocks.get(maxBlocks, chainHead, blockStore);
+    }
+
+    @Benchmark
+    public List<StoredBlock> walkStore() throws BlockStoreException {
+        final List<StoredBlock> blocks = new ArrayList<StoredBlock>(maxBlocks);
+        StoredBlock block = chainHead;
+        while (block != null && blocks.size() < maxBlocks) {
+            blocks.add(block);
+            block = block.getPrev(blockStore);
+        }
+        return blocks;
+    }
+
+    @Test
+    public void run() throws Exception {
+        assumeTrue(Boolean.getBoolean("benchmark"));
+        // not forked, the forked JVM wouldn't see the test classpath of the Gradle worker
+        new Runner(new OptionsBuilder().include(RecentBlocksBenchmark.class.getName() + "\\.").forks(0).build())
+                .run();
+    }
+}
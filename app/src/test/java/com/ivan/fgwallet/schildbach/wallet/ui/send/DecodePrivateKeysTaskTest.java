@@ -0,0 +1,130 @@
+/*
+ * Copyright 2011-2015 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.ivan.fgwallet.schildbach.wallet.ui.send;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.bitcoinj.core.DumpedPrivateKey;
+import org.bitcoinj.core.ECKey;
+import org.bitcoinj.core.NetworkParameters;
+import org.bitcoinj.crypto.BIP38PrivateKey;
+import org.bitcoinj.params.MainNetParams;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Decrypts the BIP38 test vectors on a local pool, with a single thread standing in for the main thread.
+ */
+public class DecodePrivateKeysTaskTest {
+    private static final NetworkParameters PARAMS = MainNetParams.get();
+
+    // test vectors from BIP38, no compression, no EC multiply
+    private static final BIP38PrivateKey KEY_1 = BIP38PrivateKey.fromBase58(PARAMS,
+            "6PRVWUbkzzsbcVac2qwfssoUJAN1Xhrg6bNk8J7Nzm5H7kxEbn2Nh2ZoGg");
+    private static final String PASSPHRASE_1 = "TestingOneTwoThree";
+    private static final ECKey DECRYPTED_1 = DumpedPrivateKey
+            .fromBase58(PARAMS, "5KN7MzqK5wt2TP1fQCYyHBtDrXdJuXbUzm4A9rKAteGu3Qi5CVR").getKey();
+    private static final BIP38PrivateKey KEY_2 = BIP38PrivateKey.fromBase58(PARAMS,
+            "6PRNFFkZc2NZ6dJqFfhRoFNMR9Lnyj7dYGrzdgXXVMXcxoKTePPX1dWByq");
+    private static final String PASSPHRASE_2 = "Satoshi";
+    private static final ECKey DECRYPTED_2 = DumpedPrivateKey
+            .fromBase58(PARAMS, "5HtasZ6ofTHP6HCwTqTkLDuLQisYPah7aUnSKfC7h4hMUVw2gi5").getKey();
+
+    private ExecutorService pool;
+    private ExecutorService mainThread;
+
+    @Before
+    public void setUp() {
+        pool = Executors.newFixedThreadPool(2);
+        mainThread = Executors.newSingleThreadExecutor();
+    }
+
+    @After
+    public void tearDown() {
+        pool.shutdownNow();
+        mainThread.shutdownNow();
+    }
+
+    @Test
+    public void allKeysDecrypted() throws Exception {
+        final Result result = decode(Arrays.asList(KEY_1, KEY_1), PASSPHRASE_1);
+
+        assertEquals(Arrays.asList(DECRYPTED_1, DECRYPTED_1), result.decryptedKeys);
+        assertTrue(result.badPassphraseKeys.isEmpty());
+        assertEquals(2, result.numProgress);
+    }
+
+    @Test
+    public void badPassphraseKeepsOnlyThatKeyPending() throws Exception {
+        final Result first = decode(Arrays.asList(KEY_1, KEY_2), PASSPHRASE_1);
+        assertEquals(Collections.singletonList(DECRYPTED_1), first.decryptedKeys);
+        assertEquals(Collections.singletonList(KEY_2), first.badPassphraseKeys);
+
+        // the fragment asks again for what is left
+        final Result second = decode(first.badPassphraseKeys, PASSPHRASE_2);
+        assertEquals(Collections.singletonList(DECRYPTED_2), second.decryptedKeys);
+        assertTrue(second.badPassphraseKeys.isEmpty());
+    }
+
+    private Result decode(final List<BIP38PrivateKey> keys, final String passphrase) throws InterruptedException {
+        final Result result = new Result();
+        new DecodePrivateKeysTask(new DecodePrivateKeysTask.Jobs() {
+            @Override
+            public void execute(final String name, final Runnable job) {
+                pool.execute(job);
+            }
+
+            @Override
+            public void post(final Runnable callback) {
+                mainThread.execute(callback);
+            }
+        }) {
+            @Override
+            protected void onProgress(final int numDone, final int numTotal) {
+                result.numProgress++;
+            }
+
+            @Override
+            protected void onResult(final List<ECKey> decryptedKeys, final List<BIP38PrivateKey> badPassphraseKeys) {
+                result.decryptedKeys = decryptedKeys;
+                result.badPassphraseKeys = badPassphraseKeys;
+                result.done.countDown();
+            }
+        }.decodePrivateKeys(keys, passphrase);
+        assertTrue(result.done.await(60, TimeUnit.SECONDS));
+        return result;
+    }
+
+    private static final class Result {
+        final CountDownLatch done = new CountDownLatch(1);
+        // written and read on the main thread, published through the latch
+        int numProgress = 0;
+        List<ECKey> decryptedKeys;
+        List<BIP38PrivateKey> badPassphraseKeys;
+    }
+}
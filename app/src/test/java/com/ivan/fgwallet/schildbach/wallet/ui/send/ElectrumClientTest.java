@@ -0,0 +1,272 @@
+/*
+ * Copyright 2011-2015 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.ivan.fgwallet.schildbach.wallet.ui.send;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.bitcoinj.core.Address;
+import org.bitcoinj.core.ECKey;
+import org.bitcoinj.core.UTXO;
+import org.bitcoinj.params.MainNetParams;
+import org.junit.After;
+import org.junit.Test;
+
+import com.google.common.base.Charsets;
+
+import com.ivan.fgwallet.schildbach.wallet.ui.send.ElectrumClient.ElectrumServer;
+
+public class ElectrumClientTest {
+    private static final Pattern REQUEST = Pattern.compile("\"id\":(\\d+).*\"params\":\\[\"(\\w+)\"\\]");
+
+    private final List<StandInServer> servers = new ArrayList<StandInServer>();
+    private ElectrumClient client;
+
+    @After
+    public void tearDown() throws IOException {
+        if (client != null)
+            client.close();
+        for (final StandInServer server : servers)
+            server.close();
+    }
+
+    @Test
+    public void pipelinedResponsesAreMatchedById() throws Exception {
+        final StandInServer server = start(new Behaviour() {
+            @Override
+            public void serve(final List<String[]> requests, final Writer out) throws IOException {
+                // answer in reverse order, with a notification and garbage in between
+                out.write("{\"method\":\"blockchain.headers.subscribe\",\"params\":[]}\n");
+                out.write("this is not json\n");
+                out.write("{\"id\":\n");
+                for (int i = requests.size() - 1; i >= 0; i--)
+                    out.write(utxoResponse(requests.get(i)));
+            }
+        }, 3);
+        client = new ElectrumClient(Collections.singletonList(server.electrumServer()));
+
+        final List<Address> addresses = addresses(3);
+        final Map<Address, Set<UTXO>> result = client.listUnspent(addresses);
+
+        assertEquals(addresses, new ArrayList<Address>(result.keySet()));
+        for (final Address address : addresses) {
+            final UTXO utxo = result.get(address).iterator().next();
+            assertEquals(valueFor(address.toBase58()), utxo.getValue().value);
+        }
+        assertEquals(1, server.accepted);
+    }
+
+    @Test
+    public void connectionIsReused() throws Exception {
+        final StandInServer server = start(ANSWER, 1);
+        client = new ElectrumClient(Collections.singletonList(server.electrumServer()));
+
+        for (final Address address : addresses(3))
+            assertEquals(1, client.listUnspent(address).size());
+        assertEquals(1, server.accepted);
+    }
+
+    @Test
+    public void unreachableServerFallsBackToNext() throws Exception {
+        final StandInServer server = start(ANSWER, 1);
+        final ServerSocket closed = new ServerSocket(0);
+        final int deadPort = closed.getLocalPort();
+        closed.close();
+        client = new ElectrumClient(Arrays.asList(
+                new ElectrumServer("tcp", "127.0.0.1", Integer.toString(deadPort), null), server.electrumServer()));
+
+        for (int i = 0; i < 5; i++)
+            assertEquals(1, client.listUnspent(addresses(1).get(0)).size());
+    }
+
+    @Test
+    public void errorAnswerIsAnIOException() throws Exception {
+        final StandInServer failing = start(ERROR, 1);
+        client = new ElectrumClient(Collections.singletonList(failing.electrumServer()));
+
+        try {
+            client.listUnspent(addresses(1).get(0));
+            fail();
+        } catch (final IOException x) {
+            // expected
+        }
+    }
+
+    @Test
+    public void errorAnswerFallsBackToNext() throws Exception {
+        final StandInServer failing = start(ERROR, 1);
+        final StandInServer server = start(ANSWER, 1);
+        client = new ElectrumClient(Arrays.asList(failing.electrumServer(), server.electrumServer()));
+
+        for (int i = 0; i < 5; i++)
+            assertEquals(1, client.listUnspent(addresses(1).get(0)).size());
+        assertTrue("failing server must be backed off", failing.accepted <= 1);
+    }
+
+    @Test
+    public void droppedConnectionFailsPendingRequests() throws Exception {
+        final StandInServer server = start(new Behaviour() {
+            @Override
+            public void serve(final List<String[]> requests, final Writer out) throws IOException {
+                throw new IOException("hang up");
+            }
+        }, 1);
+        client = new ElectrumClient(Collections.singletonList(server.electrumServer()));
+
+        final long start = System.currentTimeMillis();
+        try {
+            client.listUnspent(addresses(1).get(0));
+            fail();
+        } catch (final IOException x) {
+            // expected
+        }
+        assertTrue("pending requests must fail on close, not time out", System.currentTimeMillis() - start < 5000);
+    }
+
+    private StandInServer start(final Behaviour behaviour, final int batchSize) throws IOException {
+        final StandInServer server = new StandInServer(behaviour, batchSize);
+        servers.add(server);
+        return server;
+    }
+
+    private static List<Address> addresses(final int count) {
+        final List<Address> addresses = new ArrayList<Address>(count);
+        for (int i = 0; i < count; i++)
+            addresses.add(new ECKey().toAddress(MainNetParams.get()));
+        return addresses;
+    }
+
+    private static long valueFor(final String address) {
+        return 1000 + (address.hashCode() & 0xffff);
+    }
+
+    private static String utxoResponse(final String[] request) {
+        final String txHash = String.format("%064x", Math.abs((long) request[1].hashCode()));
+        return "{\"id\":" + request[0] + ",\"result\":[{\"tx_hash\":\"" + txHash + "\",\"tx_pos\":0,\"value\":"
+                + valueFor(request[1]) + ",\"height\":100}]}\n";
+    }
+
+    private static final Behaviour ANSWER = new Behaviour() {
+        @Override
+        public void serve(final List<String[]> requests, final Writer out) throws IOException {
+            for (final String[] request : requests)
+                out.write(utxoResponse(request));
+        }
+    };
+
+    private static final Behaviour ERROR = new Behaviour() {
+        @Override
+        public void serve(final List<String[]> requests, final Writer out) throws IOException {
+            for (final String[] request : requests)
+                out.write("{\"id\":" + request[0]
+                        + ",\"result\":null,\"error\":{\"code\":-32603,\"message\":\"internal error\"}}\n");
+        }
+    };
+
+    private interface Behaviour {
+        /** @param requests pairs of request id and address */
+        void serve(List<String[]> requests, Writer out) throws IOException;
+    }
+
+    /**
+     * Minimal line-based Electrum server on localhost. Collects requests in batches of a given size, so pipelining
+     * can be observed.
+     */
+    private static final class StandInServer extends Thread {
+        private final ServerSocket serverSocket;
+        private final Behaviour behaviour;
+        private final int batchSize;
+        private volatile int accepted = 0;
+
+        private StandInServer(final Behaviour behaviour, final int batchSize) throws IOException {
+            super("stand-in electrum server");
+            this.serverSocket = new ServerSocket(0);
+            this.behaviour = behaviour;
+            this.batchSize = batchSize;
+            setDaemon(true);
+            start();
+        }
+
+        private ElectrumServer electrumServer() {
+            return new ElectrumServer("tcp", "127.0.0.1", Integer.toString(serverSocket.getLocalPort()), null);
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (true) {
+                    final Socket socket = serverSocket.accept();
+                    accepted++;
+                    serve(socket);
+                }
+            } catch (final IOException x) {
+                // server closed
+            }
+        }
+
+        private void serve(final Socket socket) {
+            try {
+                final BufferedReader in = new BufferedReader(
+                        new InputStreamReader(socket.getInputStream(), Charsets.UTF_8));
+                final Writer out = new OutputStreamWriter(socket.getOutputStream(), Charsets.UTF_8);
+                final List<String[]> batch = new ArrayList<String[]>();
+                String line;
+                while ((line = in.readLine()) != null) {
+                    final Matcher m = REQUEST.matcher(line);
+                    if (!m.find())
+                        throw new IOException("unexpected request: " + line);
+                    batch.add(new String[] { m.group(1), m.group(2) });
+                    if (batch.size() == batchSize) {
+                        behaviour.serve(batch, out);
+                        out.flush();
+                        batch.clear();
+                    }
+                }
+            } catch (final IOException x) {
+                // client gone, or behaviour hung up
+            } finally {
+                try {
+                    socket.close();
+                } catch (final IOException x) {
+                    // swallow
+                }
+            }
+        }
+
+        private void close() throws IOException {
+            serverSocket.close();
+        }
+    }
+}
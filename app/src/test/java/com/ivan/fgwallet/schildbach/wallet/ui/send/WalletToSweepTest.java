@@ -0,0 +1,164 @@
+/*
+ * Copyright 2011-2015 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.ivan.fgwallet.schildbach.wallet.ui.send;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.bitcoinj.core.Address;
+import org.bitcoinj.core.Coin;
+import org.bitcoinj.core.Context;
+import org.bitcoinj.core.ECKey;
+import org.bitcoinj.core.NetworkParameters;
+import org.bitcoinj.core.Sha256Hash;
+import org.bitcoinj.core.Transaction;
+import org.bitcoinj.core.TransactionInput;
+import org.bitcoinj.core.TransactionOutPoint;
+import org.bitcoinj.core.TransactionOutput;
+import org.bitcoinj.core.UTXO;
+import org.bitcoinj.params.UnitTestParams;
+import org.bitcoinj.script.ScriptBuilder;
+import org.bitcoinj.wallet.KeyChainGroup;
+import org.bitcoinj.wallet.Wallet;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Sweeps a wallet funded with fake transactions like {@link SweepWalletFragment} does, but without the network.
+ */
+public class WalletToSweepTest {
+    private static final NetworkParameters PARAMS = UnitTestParams.get();
+    private static final Coin VALUE = Coin.valueOf(100000);
+    private static final Coin FEE_PER_KB = Coin.valueOf(1000);
+    private static final Set<Transaction> NO_TRANSACTIONS = Collections.emptySet();
+
+    private List<ECKey> keys;
+    private Wallet walletToSweep;
+
+    @Before
+    public void setUp() {
+        Context.propagate(new Context(PARAMS));
+        keys = new ArrayList<ECKey>();
+        for (int i = 0; i < 3; i++)
+            keys.add(new ECKey());
+        final KeyChainGroup group = new KeyChainGroup(PARAMS);
+        group.importKeys(keys);
+        walletToSweep = new Wallet(PARAMS, group);
+    }
+
+    @Test
+    public void largeSweepIsSplitIntoBoundedTransactions() throws Exception {
+        final List<UTXO> utxos = utxos(2 * WalletToSweep.MAX_INPUTS_PER_TRANSACTION + 50);
+        WalletToSweep.fund(walletToSweep, utxos, NO_TRANSACTIONS);
+
+        final List<List<TransactionOutput>> chunks = WalletToSweep.chunks(walletToSweep);
+        assertEquals(3, chunks.size());
+
+        final Address to = new ECKey().toAddress(PARAMS);
+        final Set<TransactionOutPoint> spent = new HashSet<TransactionOutPoint>();
+        for (int i = 0; i < chunks.size(); i++) {
+            final Transaction tx = walletToSweep.sendCoinsOffline(WalletToSweep.sendRequest(to, FEE_PER_KB, chunks, i));
+
+            assertTrue(tx.getInputs().size() <= WalletToSweep.MAX_INPUTS_PER_TRANSACTION);
+            final Set<TransactionOutPoint> chunk = new HashSet<TransactionOutPoint>();
+            for (final TransactionOutput output : chunks.get(i))
+                chunk.add(output.getOutPointFor());
+            final Set<TransactionOutPoint> inputs = new HashSet<TransactionOutPoint>();
+            for (final TransactionInput input : tx.getInputs())
+                inputs.add(input.getOutpoint());
+            assertEquals("transaction " + i + " spends exactly its chunk", chunk, inputs);
+            assertEquals(1, tx.getOutputs().size());
+            assertEquals(to, tx.getOutput(0).getScriptPubKey().getToAddress(PARAMS));
+            spent.addAll(inputs);
+        }
+
+        assertEquals(outpoints(utxos), spent);
+        assertEquals(Coin.ZERO, walletToSweep.getBalance(Wallet.BalanceType.ESTIMATED));
+    }
+
+    @Test
+    public void smallSweepIsOneTransaction() throws Exception {
+        final List<UTXO> utxos = utxos(10);
+        WalletToSweep.fund(walletToSweep, utxos, NO_TRANSACTIONS);
+
+        final List<List<TransactionOutput>> chunks = WalletToSweep.chunks(walletToSweep);
+        assertEquals(1, chunks.size());
+        final Transaction tx = walletToSweep
+                .sendCoinsOffline(WalletToSweep.sendRequest(new ECKey().toAddress(PARAMS), FEE_PER_KB, chunks, 0));
+        assertEquals(10, tx.getInputs().size());
+    }
+
+    @Test
+    public void alreadySpentOutputsAreExcluded() throws Exception {
+        final List<UTXO> utxos = utxos(5);
+        final UTXO alreadySpent = utxos.get(2);
+        final Transaction ownTx = new Transaction(PARAMS);
+        ownTx.addInput(new TransactionInput(PARAMS, ownTx, new byte[0],
+                new TransactionOutPoint(PARAMS, alreadySpent.getIndex(), alreadySpent.getHash())));
+
+        WalletToSweep.fund(walletToSweep, utxos, Collections.singleton(ownTx));
+
+        final Set<TransactionOutPoint> candidates = new HashSet<TransactionOutPoint>();
+        for (final TransactionOutput output : walletToSweep.calculateAllSpendCandidates(false, true))
+            candidates.add(output.getOutPointFor());
+        final Set<TransactionOutPoint> expected = outpoints(utxos);
+        expected.remove(new TransactionOutPoint(PARAMS, alreadySpent.getIndex(), alreadySpent.getHash()));
+        assertEquals(expected, candidates);
+        assertEquals(VALUE.multiply(4), walletToSweep.getBalance(Wallet.BalanceType.ESTIMATED));
+    }
+
+    @Test
+    public void refundingReplacesPreviousOutputs() throws Exception {
+        WalletToSweep.fund(walletToSweep, utxos(5), NO_TRANSACTIONS);
+        final List<UTXO> utxos = utxos(3);
+        WalletToSweep.fund(walletToSweep, utxos, NO_TRANSACTIONS);
+
+        assertEquals(VALUE.multiply(3), walletToSweep.getBalance(Wallet.BalanceType.ESTIMATED));
+        assertFalse(WalletToSweep.chunks(walletToSweep).isEmpty());
+    }
+
+    /**
+     * Outputs to the keys to sweep. Some transactions pay several of them, at varying output indexes.
+     */
+    private List<UTXO> utxos(final int count) {
+        final List<UTXO> utxos = new ArrayList<UTXO>(count);
+        Sha256Hash hash = null;
+        for (int i = 0; i < count; i++) {
+            if (i % 3 == 0)
+                hash = Sha256Hash.of(Integer.toString(i).getBytes());
+            final ECKey key = keys.get(i % keys.size());
+            utxos.add(new UTXO(hash, 2 * (i % 3), VALUE, 100, false,
+                    ScriptBuilder.createOutputScript(key.toAddress(PARAMS))));
+        }
+        return utxos;
+    }
+
+    private static Set<TransactionOutPoint> outpoints(final List<UTXO> utxos) {
+        final Set<TransactionOutPoint> outpoints = new HashSet<TransactionOutPoint>();
+        for (final UTXO utxo : utxos)
+            outpoints.add(new TransactionOutPoint(PARAMS, utxo.getIndex(), utxo.getHash()));
+        return outpoints;
+    }
+}
@@ -0,0 +1,88 @@
+/*
+ * Copyright 2011-2015 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.ivan.fgwallet.schildbach.wallet.util;
+
+import static org.junit.Assume.assumeTrue;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Compares {@link Base43} with the digit-at-a-time {@link LegacyBase43} on payloads from 100 bytes to 64 KB. Run with
+ * {@code ./gradlew testDebugUnitTest -Pbenchmark --tests '*Base43Benchmark'}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class Base43Benchmark {
+    @Param({ "100", "1024", "8192", "65536" })
+    public int size;
+
+    private byte[] payload;
+    private String encoded;
+
+    @Setup
+    public void setup() {
+        payload = new byte[size];
+        new Random(42).nextBytes(payload);
+        encoded = Base43.encode(payload);
+    }
+
+    @Benchmark
+    public String encode() {
+        return Base43.encode(payload);
+    }
+
+    @Benchmark
+    public String encodeLegacy() {
+        return LegacyBase43.encode(payload);
+    }
+
+    @Benchmark
+    public byte[] decode() {
+        return Base43.decode(encoded);
+    }
+
+    @Benchmark
+    public byte[] decodeLegacy() {
+        return LegacyBase43.decode(encoded);
+    }
+
+    @Test
+    public void run() throws Exception {
+        assumeTrue(Boolean.getBoolean("benchmark"));
+        // not forked, the forked JVM wouldn't see the test classpath of the Gradle worker
+        new Runner(new OptionsBuilder().include(Base43Benchmark.class.getName() + "\\.").forks(0).build()).run();
+    }
+}
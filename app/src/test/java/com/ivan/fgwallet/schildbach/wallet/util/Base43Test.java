@@ -0,0 +1,95 @@
+/*
+ * Copyright 2011-2015 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.ivan.fgwallet.schildbach.wallet.util;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+public class Base43Test {
+    private final Random random = new Random(42);
+
+    @Test
+    public void empty() {
+        assertEquals("", Base43.encode(new byte[0]));
+        assertArrayEquals(new byte[0], Base43.decode(""));
+    }
+
+    @Test
+    public void leadingZeros() {
+        for (int zeros = 0; zeros < 10; zeros++) {
+            for (int length = zeros; length < zeros + 10; length++) {
+                final byte[] input = randomBytes(length);
+                for (int i = 0; i < zeros; i++)
+                    input[i] = 0;
+                assertSameAsLegacy(input);
+            }
+        }
+    }
+
+    @Test
+    public void allSizesUpToSomeLimbs() {
+        for (int length = 1; length < 200; length++)
+            assertSameAsLegacy(randomBytes(length));
+    }
+
+    @Test
+    public void extremeValues() {
+        for (int length = 1; length < 40; length++) {
+            final byte[] ones = new byte[length];
+            java.util.Arrays.fill(ones, (byte) 0xff);
+            assertSameAsLegacy(ones);
+            final byte[] one = new byte[length];
+            one[length - 1] = 1;
+            assertSameAsLegacy(one);
+        }
+    }
+
+    @Test
+    public void largePayloads() {
+        for (final int length : new int[] { 1000, 4096, 10000 })
+            assertSameAsLegacy(randomBytes(length));
+    }
+
+    @Test
+    public void decodeWithOffset() {
+        final byte[] input = randomBytes(100);
+        assertArrayEquals(input, Base43.decode("BITCOIN:-" + Base43.encode(input), 9));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void illegalCharacter() {
+        Base43.decode("ABC#");
+    }
+
+    private void assertSameAsLegacy(final byte[] input) {
+        final String encoded = Base43.encode(input);
+        assertEquals(LegacyBase43.encode(input), encoded);
+        assertArrayEquals(input, Base43.decode(encoded));
+        assertArrayEquals(LegacyBase43.decode(encoded), Base43.decode(encoded));
+    }
+
+    private byte[] randomBytes(final int length) {
+        final byte[] bytes = new byte[length];
+        random.nextBytes(bytes);
+        return bytes;
+    }
+}
@@ -0,0 +1,98 @@
+/*
+ * Copyright 2011-2015 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.ivan.fgwallet.schildbach.wallet.util;
+
+import static org.junit.Assume.assumeTrue;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.TimeUnit;
+
+import org.bitcoinj.core.CheckpointManager;
+import org.bitcoinj.core.NetworkParameters;
+import org.bitcoinj.core.StoredBlock;
+import org.bitcoinj.params.MainNetParams;
+import org.junit.Test;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Compares looking up the checkpoint for a wallet creation time in the memory-mapped {@link MappedCheckpoints} with
+ * parsing the text checkpoints using {@link CheckpointManager}, both including opening the file. Reads the checkpoints
+ * of the debug assets and their conversion by the build. Run with
+ * {@code ./gradlew testDebugUnitTest -Pbenchmark --tests '*MappedCheckpointsBenchmark'}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class MappedCheckpointsBenchmark {
+    private static final NetworkParameters PARAMS = MainNetParams.get();
+    private static final File TEXT_FILE = new File("src/debug/assets/checkpoints.txt");
+    private static final File BINARY_FILE = new File("build/generated/assets/checkpoints/debug/checkpoints.bin");
+    private static final long TIME_SECS = 1500000000; // July 2017
+
+    @Setup
+    public void setup() throws IOException {
+        if (!mapped().equals(text()))
+            throw new IllegalStateException("binary and text checkpoints differ");
+    }
+
+    @Benchmark
+    public StoredBlock mapped() throws IOException {
+        final FileInputStream is = new FileInputStream(BINARY_FILE);
+        try {
+            final FileChannel channel = is.getChannel();
+            return MappedCheckpoints.wrap(PARAMS, channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()))
+                    .getCheckpointBefore(TIME_SECS);
+        } finally {
+            is.close();
+        }
+    }
+
+    @Benchmark
+    public StoredBlock text() throws IOException {
+        final InputStream is = new FileInputStream(TEXT_FILE);
+        try {
+            return new CheckpointManager(PARAMS, is).getCheckpointBefore(TIME_SECS);
+        } finally {
+            is.close();
+        }
+    }
+
+    @Test
+    public void run() throws Exception {
+        assumeTrue(Boolean.getBoolean("benchmark"));
+        // not forked, the forked JVM wouldn't see the test classpath of the Gradle worker
+        new Runner(new OptionsBuilder().include(MappedCheckpointsBenchmark.class.getName() + "\\.").forks(0).build())
+                .run();
+    }
+}
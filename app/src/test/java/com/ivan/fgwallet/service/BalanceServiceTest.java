@@ -0,0 +1,336 @@
+package com.ivan.fgwallet.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import android.content.SharedPreferences;
+
+import com.google.common.base.Supplier;
+import com.google.common.base.Suppliers;
+import com.ivan.fgwallet.helper.PrefManager;
+import com.ivan.fgwallet.networking.HttpGateway;
+import com.ivan.fgwallet.schildbach.wallet.util.VersionedState;
+import com.squareup.okhttp.OkHttpClient;
+import com.squareup.okhttp.mockwebserver.MockResponse;
+import com.squareup.okhttp.mockwebserver.MockWebServer;
+import com.squareup.okhttp.mockwebserver.RecordedRequest;
+
+import org.bitcoinj.core.Context;
+import org.bitcoinj.params.UnitTestParams;
+import org.bitcoinj.wallet.Wallet;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Runs the balance service against in-memory preferences and a local mock web server standing in for the backend.
+ * A single thread plays the main thread.
+ */
+public class BalanceServiceTest {
+
+    private MockWebServer server;
+    private ExecutorService mainThread;
+    private FakePreferences prefs;
+    private Supplier<HttpGateway> httpGateway;
+
+    @Before
+    public void setUp() throws IOException {
+        Context.propagate(new Context(UnitTestParams.get()));
+        server = new MockWebServer();
+        server.start();
+        mainThread = Executors.newSingleThreadExecutor();
+        prefs = new FakePreferences();
+        httpGateway = Suppliers.ofInstance(new HttpGateway(new OkHttpClient(), mainThread));
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        mainThread.shutdownNow();
+        server.shutdown();
+    }
+
+    @Test
+    public void parsesAvailablePlusPending() throws JSONException {
+        assertEquals(150000, BalanceService.parseBackendBalance(body("SUCCESS", "0.001", "0.0005")));
+        assertEquals(0, BalanceService.parseBackendBalance(body("SUCCESS", "0", "0")));
+        assertEquals(2100000000000000L, BalanceService.parseBackendBalance(body("SUCCESS", "21000000", "0")));
+    }
+
+    @Test(expected = JSONException.class)
+    public void rejectsUnsuccessfulStatus() throws JSONException {
+        BalanceService.parseBackendBalance(body("ERROR", "0.001", "0"));
+    }
+
+    @Test(expected = JSONException.class)
+    public void rejectsMissingFields() throws JSONException {
+        BalanceService.parseBackendBalance("{\"status\":\"SUCCESS\",\"data\":{\"address\":{}}}");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsFractionalSatoshis() throws JSONException {
+        BalanceService.parseBackendBalance(body("SUCCESS", "0.000000001", "0"));
+    }
+
+    @Test
+    public void publishesLastKnownBalanceBeforeTheWalletLoads() {
+        assertNull(newService().getBalance().get().value);
+
+        prefs.edit().putLong(PrefManager.KEY_BALANCE_SATOSHIS, 1234).apply();
+        final BalanceService.Balance balance = newService().getBalance().get().value;
+        assertEquals(1234, balance.satoshis);
+        assertEquals(-1, balance.backendSatoshis);
+        assertFalse(balance.hasDiscrepancy());
+    }
+
+    @Test
+    public void publishesAndPersistsTheWalletBalance() throws Exception {
+        prefs.edit().putLong(PrefManager.KEY_BALANCE_SATOSHIS, 1234).apply();
+        final BalanceService service = newService();
+
+        service.setWallet(new Wallet(UnitTestParams.get()));
+
+        assertEquals(0, awaitVersion(service.getBalance(), 2).value.satoshis);
+        assertEquals(0, prefs.getLong(PrefManager.KEY_BALANCE_SATOSHIS, -1));
+    }
+
+    @Test
+    public void reconcileNeedsAToken() throws Exception {
+        final BalanceService service = newService();
+        reconcile(service, true);
+        assertEquals(0, server.getRequestCount());
+    }
+
+    @Test
+    public void reconcileAttachesTheBackendBalance() throws Exception {
+        prefs.edit().putString(PrefManager.KEY_API_TOKEN, "token").putLong(PrefManager.KEY_BALANCE_SATOSHIS, 100000)
+                .apply();
+        server.enqueue(new MockResponse().setBody(body("SUCCESS", "0.001", "0.0005")));
+        final BalanceService service = newService();
+
+        reconcile(service, false);
+
+        final BalanceService.Balance balance = awaitVersion(service.getBalance(), 2).value;
+        assertEquals(100000, balance.satoshis);
+        assertEquals(150000, balance.backendSatoshis);
+        assertTrue(balance.hasDiscrepancy());
+        final RecordedRequest request = server.takeRequest();
+        assertEquals("POST", request.getMethod());
+        assertEquals("token", new JSONObject(request.getBody().readUtf8()).getString("api_token"));
+
+        // a recent answer is good enough, unless forced
+        reconcile(service, false);
+        assertEquals(1, server.getRequestCount());
+        server.enqueue(new MockResponse().setBody(body("SUCCESS", "0.001", "0")));
+        reconcile(service, true);
+        assertEquals(100000, awaitVersion(service.getBalance(), 3).value.backendSatoshis);
+        assertFalse(service.getBalance().get().value.hasDiscrepancy());
+    }
+
+    @Test
+    public void unusableAnswerLeavesTheBalanceAlone() throws Exception {
+        prefs.edit().putString(PrefManager.KEY_API_TOKEN, "token").putLong(PrefManager.KEY_BALANCE_SATOSHIS, 100000)
+                .apply();
+        server.enqueue(new MockResponse().setBody(body("ERROR", "0.001", "0")));
+        server.enqueue(new MockResponse().setResponseCode(500));
+        server.enqueue(new MockResponse().setBody(body("SUCCESS", "0.001", "0")));
+        final BalanceService service = newService();
+
+        reconcile(service, true);
+        awaitRequests(1);
+        reconcile(service, true);
+        awaitRequests(2);
+        assertEquals(1, service.getBalance().get().version);
+
+        // not stuck in reconciling
+        reconcile(service, true);
+        assertEquals(100000, awaitVersion(service.getBalance(), 2).value.backendSatoshis);
+    }
+
+    private BalanceService newService() {
+        return new BalanceService(prefs, httpGateway, server.url("/api/wallet/balance").toString());
+    }
+
+    private void reconcile(final BalanceService service, final boolean force) throws Exception {
+        mainThread.submit(new Runnable() {
+            @Override
+            public void run() {
+                service.reconcile(force);
+            }
+        }).get();
+    }
+
+    /**
+     * Waits until the request was answered and its callback has run on the main thread.
+     */
+    private void awaitRequests(int count) throws Exception {
+        final long deadline = System.currentTimeMillis() + 10000;
+        while (server.getRequestCount() < count) {
+            assertTrue(System.currentTimeMillis() < deadline);
+            Thread.sleep(10);
+        }
+        Thread.sleep(100);
+        mainThread.submit(new Runnable() {
+            @Override
+            public void run() {
+            }
+        }).get();
+    }
+
+    private static <T> VersionedState.Snapshot<T> awaitVersion(VersionedState<T> state, long version)
+            throws InterruptedException {
+        final long deadline = System.currentTimeMillis() + 10000;
+        while (state.get().version < version) {
+            if (System.currentTimeMillis() > deadline)
+                fail("still at " + state.get());
+            Thread.sleep(10);
+        }
+        return state.get();
+    }
+
+    private static String body(String status, String available, String pending) {
+        return "{\"status\":\"" + status + "\",\"data\":{\"address\":{\"available_balance\":\"" + available
+                + "\",\"pending_received_balance\":\"" + pending + "\"}}}";
+    }
+
+    private static final class FakePreferences implements SharedPreferences {
+        private final Map<String, Object> values = new HashMap<String, Object>();
+
+        @Override
+        public synchronized Map<String, ?> getAll() {
+            return new HashMap<String, Object>(values);
+        }
+
+        @Override
+        public synchronized String getString(String key, String defValue) {
+            return values.containsKey(key) ? (String) values.get(key) : defValue;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public synchronized Set<String> getStringSet(String key, Set<String> defValues) {
+            return values.containsKey(key) ? (Set<String>) values.get(key) : defValues;
+        }
+
+        @Override
+        public synchronized int getInt(String key, int defValue) {
+            return values.containsKey(key) ? (Integer) values.get(key) : defValue;
+        }
+
+        @Override
+        public synchronized long getLong(String key, long defValue) {
+            return values.containsKey(key) ? (Long) values.get(key) : defValue;
+        }
+
+        @Override
+        public synchronized float getFloat(String key, float defValue) {
+            return values.containsKey(key) ? (Float) values.get(key) : defValue;
+        }
+
+        @Override
+        public synchronized boolean getBoolean(String key, boolean defValue) {
+            return values.containsKey(key) ? (Boolean) values.get(key) : defValue;
+        }
+
+        @Override
+        public synchronized boolean contains(String key) {
+            return values.containsKey(key);
+        }
+
+        @Override
+        public Editor edit() {
+            return new Editor() {
+                private final Map<String, Object> changes = new HashMap<String, Object>();
+
+                @Override
+                public Editor putString(String key, String value) {
+                    changes.put(key, value);
+                    return this;
+                }
+
+                @Override
+                public Editor putStringSet(String key, Set<String> values) {
+                    changes.put(key, values);
+                    return this;
+                }
+
+                @Override
+                public Editor putInt(String key, int value) {
+                    changes.put(key, value);
+                    return this;
+                }
+
+                @Override
+                public Editor putLong(String key, long value) {
+                    changes.put(key, value);
+                    return this;
+                }
+
+                @Override
+                public Editor putFloat(String key, float value) {
+                    changes.put(key, value);
+                    return this;
+                }
+
+                @Override
+                public Editor putBoolean(String key, boolean value) {
+                    changes.put(key, value);
+                    return this;
+                }
+
+                @Override
+                public Editor remove(String key) {
+                    changes.put(key, null);
+                    return this;
+                }
+
+                @Override
+                public Editor clear() {
+                    synchronized (FakePreferences.this) {
+                        values.clear();
+                    }
+                    return this;
+                }
+
+                @Override
+                public boolean commit() {
+                    apply();
+                    return true;
+                }
+
+                @Override
+                public void apply() {
+                    synchronized (FakePreferences.this) {
+                        for (final Map.Entry<String, Object> change : changes.entrySet()) {
+                            if (change.getValue() != null)
+                                values.put(change.getKey(), change.getValue());
+                            else
+                                values.remove(change.getKey());
+                        }
+                    }
+                }
+            };
+        }
+
+        @Override
+        public void registerOnSharedPreferenceChangeListener(OnSharedPreferenceChangeListener listener) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void unregisterOnSharedPreferenceChangeListener(OnSharedPreferenceChangeListener listener) {
+            throw new UnsupportedOperationException();
+        }
+    }
+}
@@ -0,0 +1,186 @@
+package com.ivan.fgwallet.utils;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+
+public class PriceHistoryTest {
+
+    private static final long DAY = PriceHistory.DAY_MS;
+    private static final double DELTA = 1e-9;
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private File file;
+    private PriceHistory history;
+
+    @Before
+    public void setUp() {
+        file = new File(folder.getRoot(), "price-history");
+        history = new PriceHistory(file);
+        history.load();
+    }
+
+    @Test
+    public void putKeepsTimeOrderAndReplacesExistingTime() {
+        history.put(3 * DAY, 3);
+        history.put(1 * DAY, 1);
+        history.put(2 * DAY, 2);
+        history.put(2 * DAY, 20);
+
+        assertEquals(3, history.size());
+        assertEquals(3 * DAY, history.getLastTime());
+        final long[] times = new long[3];
+        final double[] values = new double[3];
+        assertEquals(3, history.query(0, 4 * DAY, 10, times, values));
+        assertArrayEquals(new long[] { DAY, 2 * DAY, 3 * DAY }, times);
+        assertArrayEquals(new double[] { 1, 20, 3 }, values, DELTA);
+    }
+
+    @Test
+    public void growsBeyondInitialCapacity() {
+        for (int day = 999; day >= 0; day--)
+            history.put(day * DAY, day);
+
+        assertEquals(1000, history.size());
+        final long[] times = new long[1000];
+        final double[] values = new double[1000];
+        assertEquals(1000, history.query(0, 1000 * DAY, 1000, times, values));
+        for (int day = 0; day < 1000; day++) {
+            assertEquals(day * DAY, times[day]);
+            assertEquals(day, values[day], DELTA);
+        }
+    }
+
+    @Test
+    public void queryIncludesFromAndExcludesTo() {
+        for (int day = 0; day < 10; day++)
+            history.put(day * DAY, day);
+
+        final long[] times = new long[10];
+        final double[] values = new double[10];
+        assertEquals(3, history.query(2 * DAY, 5 * DAY, 10, times, values));
+        assertArrayEquals(new double[] { 2, 3, 4 }, Arrays.copyOf(values, 3), DELTA);
+
+        // bounds between values
+        assertEquals(3, history.query(2 * DAY - 1, 5 * DAY - 1, 10, times, values));
+        assertArrayEquals(new double[] { 2, 3, 4 }, Arrays.copyOf(values, 3), DELTA);
+
+        assertEquals(3, history.count(2 * DAY, 5 * DAY));
+        assertEquals(10, history.count(Long.MIN_VALUE, Long.MAX_VALUE));
+        assertEquals(0, history.query(5 * DAY, 5 * DAY, 10, times, values));
+        assertEquals(0, history.query(20 * DAY, 30 * DAY, 10, times, values));
+        assertEquals(0, history.query(0, 10 * DAY, 0, times, values));
+    }
+
+    @Test
+    public void downsamplesIntoEquallySizedBuckets() {
+        for (int day = 0; day < 10; day++)
+            history.put(day * DAY, day);
+
+        // 10 values into 3 buckets: [0, 3), [3, 6), [6, 10)
+        final long[] times = new long[3];
+        final double[] values = new double[3];
+        assertEquals(3, history.query(0, 10 * DAY, 3, times, values));
+        assertArrayEquals(new long[] { 2 * DAY, 5 * DAY, 9 * DAY }, times);
+        assertArrayEquals(new double[] { 1, 4, 7.5 }, values, DELTA);
+
+        // a bucket per value at the edge of downsampling
+        final long[] allTimes = new long[10];
+        final double[] allValues = new double[10];
+        assertEquals(10, history.query(0, 10 * DAY, 10, allTimes, allValues));
+        // one fewer bucket than values, only the last bucket holds two
+        assertEquals(9, history.query(0, 10 * DAY, 9, allTimes, allValues));
+        assertEquals(0, allValues[0], DELTA);
+        assertEquals(7, allValues[7], DELTA);
+        assertEquals(8.5, allValues[8], DELTA);
+        assertEquals(9 * DAY, allTimes[8]);
+
+        // buckets only cover the queried range
+        assertEquals(2, history.query(4 * DAY, 8 * DAY, 2, times, values));
+        assertArrayEquals(new double[] { 4.5, 6.5 }, Arrays.copyOf(values, 2), DELTA);
+        assertEquals(7 * DAY, times[1]);
+    }
+
+    @Test
+    public void roundTripsThroughFile() throws IOException {
+        history.saveIfDirty();
+        assertFalse("nothing to save", file.exists());
+
+        for (int day = 0; day < 100; day++)
+            history.put(day * DAY, day * 1.5);
+        history.saveIfDirty();
+        assertEquals(8 + 100 * 16, file.length());
+
+        final PriceHistory restarted = new PriceHistory(file);
+        restarted.load();
+        assertEquals(100, restarted.size());
+        assertEquals(99 * DAY, restarted.getLastTime());
+        final long[] times = new long[100];
+        final double[] values = new double[100];
+        assertEquals(100, restarted.query(0, 100 * DAY, 100, times, values));
+        for (int day = 0; day < 100; day++) {
+            assertEquals(day * DAY, times[day]);
+            assertEquals(day * 1.5, values[day], DELTA);
+        }
+
+        // loading isn't a change
+        final long modified = file.lastModified();
+        assertTrue(file.setLastModified(modified - 10000));
+        restarted.saveIfDirty();
+        assertEquals(modified - 10000, file.lastModified());
+    }
+
+    @Test
+    public void truncatedFileStartsOver() throws IOException {
+        for (int day = 0; day < 10; day++)
+            history.put(day * DAY, day);
+        history.saveIfDirty();
+        final RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            raf.setLength(raf.length() - 5);
+        } finally {
+            raf.close();
+        }
+
+        final PriceHistory restarted = new PriceHistory(file);
+        restarted.load();
+        assertEquals(0, restarted.size());
+        assertEquals(-1, restarted.getLastTime());
+
+        // and can be filled and saved again
+        restarted.put(DAY, 1);
+        restarted.saveIfDirty();
+        final PriceHistory again = new PriceHistory(file);
+        again.load();
+        assertEquals(1, again.size());
+    }
+
+    @Test
+    public void corruptCountStartsOver() throws IOException {
+        final DataOutputStream os = new DataOutputStream(new FileOutputStream(file));
+        try {
+            os.writeInt(1);
+            os.writeInt(Integer.MAX_VALUE);
+        } finally {
+            os.close();
+        }
+
+        history.load();
+        assertEquals(0, history.size());
+    }
+}